@@ -1,6 +1,6 @@
 /* Copyright (C) 2002-2009 by Peter Eastman
    Changes Copyright (C) 2016-2019 by Petri Ihalainen
-   Changes copyright (C) 2017 by Maksim Khramov
+   Changes copyright (C) 2017-2026 by Maksim Khramov
 
    This program is free software; you can redistribute it and/or modify it under the
    terms of the GNU General Public License as published by the Free Software
@@ -12,9 +12,11 @@
 
 package artofillusion;
 
+import artofillusion.image.*;
 import artofillusion.math.*;
 import artofillusion.object.*;
 import artofillusion.ui.*;
+import artofillusion.util.*;
 import java.io.*;
 import java.util.*;
 import java.util.List;
@@ -24,7 +26,7 @@ import java.util.List;
 public class ApplicationPreferences
 {
   private Properties properties;
-  private int defaultDisplayMode, undoLevels;
+  private int defaultDisplayMode, undoLevels, workerThreads, mipmapCacheSize;
   private double interactiveTol, maxAnimationDuration, animationFrameRate;
   private boolean keepBackupFiles, useOpenGL, useCompoundMeshTool, reverseZooming, useViewAnimations;
   private boolean drawActiveFrustum, drawCameraFrustum, showTravelCuesOnIdle, showTravelCuesScrolling, showTiltDial;
@@ -139,6 +141,8 @@ public class ApplicationPreferences
     defaultDisplayMode = ViewerCanvas.RENDER_SMOOTH;
     interactiveTol = 0.05;
     undoLevels = 6;
+    workerThreads = 0;
+    mipmapCacheSize = 0;
     useOpenGL = true;
     keepBackupFiles = false;
     useCompoundMeshTool = false;
@@ -164,6 +168,10 @@ public class ApplicationPreferences
     defaultDisplayMode = parseIntProperty("defaultDisplayMode", defaultDisplayMode);
     interactiveTol = parseDoubleProperty("interactiveSurfaceError", interactiveTol);
     undoLevels = parseIntProperty("undoLevels", undoLevels);
+    workerThreads = parseIntProperty("workerThreads", workerThreads);
+    ThreadManager.setParallelism(workerThreads);
+    mipmapCacheSize = parseIntProperty("mipmapCacheSize", mipmapCacheSize);
+    configureMipMapCache(mipmapCacheSize);
     useOpenGL = parseBooleanProperty("useOpenGL", useOpenGL);
     keepBackupFiles = parseBooleanProperty("keepBackupFiles", keepBackupFiles);
     useCompoundMeshTool = parseBooleanProperty("useCompoundMeshTool", useCompoundMeshTool);
@@ -399,6 +407,53 @@ public class ApplicationPreferences
     properties.put("undoLevels", Integer.toString(levels));
   }
 
+  /** Get the number of worker threads to use for rendering and other multi-threaded operations.
+      0 means to use one thread for each processor. */
+
+  public final int getWorkerThreads()
+  {
+    return workerThreads;
+  }
+
+  /** Set the number of worker threads to use for rendering and other multi-threaded operations.
+      0 means to use one thread for each processor. */
+
+  public final void setWorkerThreads(int threads)
+  {
+    workerThreads = threads;
+    ThreadManager.setParallelism(threads);
+    properties.put("workerThreads", Integer.toString(threads));
+  }
+
+  /** Get the maximum size of the on disk cache of image mipmaps, in megabytes.  0 means the cache is disabled. */
+
+  public final int getMipMapCacheSize()
+  {
+    return mipmapCacheSize;
+  }
+
+  /** Set the maximum size of the on disk cache of image mipmaps, in megabytes.  0 disables the cache. */
+
+  public final void setMipMapCacheSize(int size)
+  {
+    mipmapCacheSize = size;
+    configureMipMapCache(size);
+    properties.put("mipmapCacheSize", Integer.toString(size));
+  }
+
+  /** Enable or disable the {@link MipMapCache} based on the size set for it. */
+
+  private static void configureMipMapCache(int size)
+  {
+    if (size > 0)
+    {
+      MipMapCache.setMaximumSize(size*(1L<<20));
+      MipMapCache.setDirectory(MipMapCache.getDefaultDirectory());
+    }
+    else
+      MipMapCache.setDirectory(null);
+  }
+
   /** Get whether to use OpenGL for interactive rendering. */
 
   public final boolean getUseOpenGL()
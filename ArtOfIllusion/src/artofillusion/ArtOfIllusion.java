@@ -25,6 +25,7 @@ import artofillusion.view.*;
 import buoy.widget.*;
 import buoy.xml.*;
 
+import java.awt.Insets;
 import java.io.*;
 import java.net.*;
 import java.util.*;
@@ -53,6 +54,9 @@ public class ArtOfIllusion
   private static final HashMap<String, String> classTranslations = new HashMap<String, String>();
   private static int numNewWindows = 0;
 
+  /** Files at least this large are read while a dialog shows the progress. */
+  private static final long PROGRESS_FILE_SIZE = 1<<20;
+
   static
   {
     // A clever trick for getting the location of the jar file, which David Smiley
@@ -490,7 +494,7 @@ public class ArtOfIllusion
 
     try
     {
-      Scene scene = new Scene(file, true);
+      Scene scene = readScene(file, frame);
       List<String> errors = scene.getErrors();
       if (!errors.isEmpty())
       {
@@ -511,6 +515,77 @@ public class ArtOfIllusion
     }
   }
 
+  /** Read a scene from a file.  If the file is large and this is called on the event dispatch thread, the
+      file is read on another thread while a dialog shows the progress. */
+
+  private static Scene readScene(final File file, BFrame frame) throws IOException
+  {
+    if (file.length() < PROGRESS_FILE_SIZE || !SwingUtilities.isEventDispatchThread())
+      return new Scene(file, true);
+    final BDialog dlg = new BDialog(frame, file.getName(), true);
+    final BLabel status = new BLabel(Translate.text("readingScene"));
+    final BProgressBar progress = new BProgressBar(0, 100);
+    ColumnContainer content = new ColumnContainer();
+    content.setDefaultLayout(new LayoutInfo(LayoutInfo.WEST, LayoutInfo.HORIZONTAL, new Insets(2, 0, 2, 0), null));
+    content.add(status);
+    content.add(progress);
+    dlg.setContent(BOutline.createEmptyBorder(content, UIUtilities.getStandardDialogInsets()));
+    dlg.getComponent().setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+    dlg.pack();
+    UIUtilities.centerDialog(dlg, frame);
+    final Scene result[] = new Scene [1];
+    final Throwable error[] = new Throwable [1];
+    Thread reader = new Thread(() -> {
+      try
+      {
+        result[0] = new Scene(file, true, new SceneLoadListener() {
+          @Override
+          public void statusChanged(String text)
+          {
+            SwingUtilities.invokeLater(() -> status.setText(text));
+          }
+
+          @Override
+          public void progressChanged(double fraction)
+          {
+            SwingUtilities.invokeLater(() -> progress.setValue((int) Math.round(100*fraction)));
+          }
+        });
+      }
+      catch (Throwable ex)
+      {
+        error[0] = ex;
+      }
+      finally
+      {
+        SwingUtilities.invokeLater(() -> dlg.dispose());
+      }
+    }, "Scene reader");
+    reader.start();
+    dlg.setVisible(true);
+    boolean interrupted = false;
+    while (reader.isAlive())
+    {
+      try
+      {
+        reader.join();
+      }
+      catch (InterruptedException ex)
+      {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+    if (error[0] instanceof IOException)
+      throw (IOException) error[0];
+    if (error[0] instanceof RuntimeException)
+      throw (RuntimeException) error[0];
+    if (error[0] instanceof Error)
+      throw (Error) error[0];
+    return result[0];
+  }
+
   /** Copy a list of objects to the clipboard, so they can be pasted into either the same scene or a
       different one. */
 
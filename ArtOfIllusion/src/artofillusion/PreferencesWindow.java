@@ -26,7 +26,7 @@ import java.awt.*;
 public class PreferencesWindow
 {
   private BComboBox defaultRendChoice, objectRendChoice, texRendChoice, localeChoice, themeChoice, colorChoice, toolChoice;
-  private ValueField interactiveTolField, undoField, animationDurationField, animationFrameRateField;
+  private ValueField interactiveTolField, undoField, animationDurationField, animationFrameRateField, mipmapCacheField;
   private BCheckBox drawActiveFrustumBox, drawCameraFrustumBox, showTravelCuesOnIdleBox, showTravelCuesScrollingBox;
   private BCheckBox showTiltDialBox;
   private BCheckBox glBox, backupBox, reverseZoomBox, useViewAnimationsBox;
@@ -70,6 +70,7 @@ public class PreferencesWindow
     }
     prefs.setInteractiveSurfaceError(interactiveTolField.getValue());
     prefs.setUndoLevels((int) undoField.getValue());
+    prefs.setMipMapCacheSize((int) mipmapCacheField.getValue());
     if (!prefs.getLocale().equals(languages[localeChoice.getSelectedIndex()]))
       new BStandardDialog("", UIUtilities.breakString(Translate.text("languageChangedWarning")), BStandardDialog.INFORMATION).showMessageDialog(parent);
     if (prefs.getUseOpenGL() != glBox.getState())
@@ -123,6 +124,7 @@ public class PreferencesWindow
     texRendChoice = getRendererChoice(prefs.getTexturePreviewRenderer());
     interactiveTolField = new ValueField(prefs.getInteractiveSurfaceError(), ValueField.POSITIVE);
     undoField = new ValueField(prefs.getUndoLevels(), ValueField.POSITIVE+ValueField.INTEGER);
+    mipmapCacheField = new ValueField(prefs.getMipMapCacheSize(), ValueField.NONNEGATIVE+ValueField.INTEGER);
     glBox = new BCheckBox(Translate.text("useOpenGL"), prefs.getUseOpenGL());
     glBox.setEnabled(ViewerCanvas.isOpenGLAvailable());
     backupBox = new BCheckBox(Translate.text("keepBackupFiles"), prefs.getKeepBackupFiles());
@@ -249,7 +251,7 @@ public class PreferencesWindow
 
     // Layout the panel.
 
-    FormContainer panel = new FormContainer(3, 20);
+    FormContainer panel = new FormContainer(3, 21);
     LayoutInfo labelLayout = new LayoutInfo(LayoutInfo.EAST, LayoutInfo.NONE, new Insets(2, 5, 2, 5), null);
     LayoutInfo widgetLayout = new LayoutInfo(LayoutInfo.WEST, LayoutInfo.BOTH, new Insets(2, 0, 2, 0), null);
     LayoutInfo centerLayout = new LayoutInfo(LayoutInfo.CENTER, LayoutInfo.NONE, new Insets(2, 0, 2, 0), null);
@@ -296,6 +298,9 @@ public class PreferencesWindow
     panel.add(showTravelCuesScrollingBox, 1, 18, 2, 1, widgetLayout);
     panel.add(showTiltDialBox, 1, 19, 2, 1, widgetLayout);
 
+    panel.add(Translate.label("mipmapCacheSize"), 0, 20, labelLayout);
+    panel.add(mipmapCacheField, 1, 20, widgetLayout);
+
     return panel;
   }
 
@@ -13,6 +13,7 @@ package artofillusion;
 
 import artofillusion.image.ComplexImage;
 import java.awt.Image;
+import java.util.Map;
 
 /** A RenderListener is an object which asks a Render to generate an image, and is notified when it is completed. */
 
@@ -24,6 +25,14 @@ public interface RenderListener
   default void imageUpdated(Image image)
   {     
   }
+
+  /** The renderer may call this method when it has finished rendering a rectangular region of the image.  It
+      may be called from worker threads.  The default implementation calls imageUpdated(). */
+
+  default void regionUpdated(Image image, int x, int y, int width, int height)
+  {
+    imageUpdated(image);
+  }
   
   /** The renderer may call this method periodically during rendering, to give the listener text descriptions
       of the current status of rendering. */
@@ -32,6 +41,14 @@ public interface RenderListener
   {
   }
   
+  /** A renderer which collects statistics about the work it has done may call this method just before
+      imageComplete().  The keys identify the quantities that were measured, and are returned in a
+      meaningful order.  They may be passed to Translate.text() to get a description to show the user. */
+
+  default void statisticsAvailable(Map<String, Number> statistics)
+  {
+  }
+
   /** This method will be called when rendering is complete. */
   
   public void imageComplete(ComplexImage image);
@@ -18,6 +18,8 @@ import buoy.event.*;
 import buoy.widget.*;
 import java.awt.*;
 import java.io.*;
+import java.text.*;
+import java.util.Map;
 
 /** This class implements the dialog box in which the user can watch a scene being rendered. */
 
@@ -34,12 +36,13 @@ public class RenderingDialog extends BDialog implements RenderListener
   private double start, end, originalTime;
   private ImageSaver imgsaver;
   private ImageAverager imgaverager;
-  private BButton closeButton, saveButton, filterButton;
+  private BButton closeButton, saveButton, filterButton, statisticsButton;
   private BLabel label1, label2;
   private BFrame parent;
   private int w, h, fps, subimages, currentFrame, currentSubimage, totalFrames;
   private long startTime;
   private boolean done, hasModifiedFilters;
+  private Map<String, Number> statistics;
 
   /** Render a single frame. */
 
@@ -95,22 +98,24 @@ public class RenderingDialog extends BDialog implements RenderListener
     w = dim.width;
     h = dim.height;
     setFont(parent.getFont());
-    FormContainer content = new FormContainer(new double [] {1, 0, 0}, new double [] {0, 0, 1});
+    FormContainer content = new FormContainer(new double [] {1, 0, 0, 0}, new double [] {0, 0, 1});
     setContent(content);
     content.setDefaultLayout(new LayoutInfo(LayoutInfo.WEST, LayoutInfo.HORIZONTAL, new Insets(2, 2, 2, 2), null));
     content.add(label1 = new BLabel(Translate.text("Rendering", "...")), 0, 0);
     content.add(label2 = new BLabel(Translate.text("elapsedTime", "0:00")), 0, 1);
-    content.add(closeButton = Translate.button("cancel", this, "doCancel"), 2, 0);
-    content.add(saveButton = Translate.button("save", this, "doSave"), 2, 1);
-    content.add(filterButton = Translate.button("filter", this, "doFilter"), 1, 1);
+    content.add(closeButton = Translate.button("cancel", this, "doCancel"), 3, 0);
+    content.add(saveButton = Translate.button("save", this, "doSave"), 3, 1);
+    content.add(filterButton = Translate.button("filter", this, "doFilter"), 2, 1);
+    content.add(statisticsButton = Translate.button("renderStatistics", this, "doShowStatistics"), 1, 1);
     closeButton.setFocusable(false);
     saveButton.setVisible(false);
     filterButton.setVisible(false);
+    statisticsButton.setVisible(false);
     canvas = new CustomWidget();
     canvas.setPreferredSize(new Dimension(w, h));
     canvas.addEventLink(RepaintEvent.class, this, "paintCanvas");
     BScrollPane sp = new BScrollPane(canvas);
-    content.add(sp, 0, 2, 3, 1, new LayoutInfo(LayoutInfo.CENTER, LayoutInfo.BOTH, null, null));
+    content.add(sp, 0, 2, 4, 1, new LayoutInfo(LayoutInfo.CENTER, LayoutInfo.BOTH, null, null));
     pack();
     UIUtilities.centerDialog(this, parent);
     UIUtilities.fitWindowToScreen(this);
@@ -301,6 +306,29 @@ public class RenderingDialog extends BDialog implements RenderListener
   }
 
 
+  /** Called when the renderer has collected statistics about the image it is about to deliver. */
+
+  @Override
+  public void statisticsAvailable(Map<String, Number> statistics)
+  {
+    this.statistics = statistics;
+  }
+
+  /** Show the statistics collected by the renderer. */
+
+  private void doShowStatistics()
+  {
+    if (statistics == null)
+      return;
+    NumberFormat format = NumberFormat.getInstance();
+    format.setMaximumFractionDigits(2);
+    String lines[] = new String [statistics.size()];
+    int i = 0;
+    for (Map.Entry<String, Number> entry : statistics.entrySet())
+      lines[i++] = Translate.text("renderStatistic."+entry.getKey())+": "+format.format(entry.getValue());
+    new BStandardDialog("", lines, BStandardDialog.INFORMATION).showMessageDialog(this);
+  }
+
   /** Called when rendering is finished. */
 
   @Override
@@ -330,6 +358,7 @@ public class RenderingDialog extends BDialog implements RenderListener
               closeButton.setText(Translate.text("button.close"));
               saveButton.setVisible(imgsaver == null);
               filterButton.setVisible(imgsaver == null);
+              statisticsButton.setVisible(imgsaver == null && statistics != null);
               ((WidgetContainer) getContent()).layoutChildren();
             }
             updateTimeLabel();
@@ -24,6 +24,7 @@ import java.io.*;
 import java.lang.reflect.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
 import java.util.zip.*;
 import java.beans.*;
 import java.util.stream.Collectors;
@@ -51,6 +52,7 @@ public class Scene
   private String name, directory;
 
   private ParameterValue environParamValue[];
+  private SceneLoadListener loadListener;
 
   private final List<String> errors = new ArrayList<>();
 
@@ -66,6 +68,24 @@ public class Scene
 
   private static final byte FILE_PREFIX[] = {'A', 'o', 'I', 'S', 'c', 'e', 'n', 'e'};
 
+  /** When a file is read, objects of these classes are built on worker threads, since they can be slow to
+      construct.  Their constructors only look up textures and materials, which have already been read. */
+
+  private static final Set<String> DEFERRED_CLASSES = new HashSet<String>(Arrays.asList(TriangleMesh.class.getName(),
+      SplineMesh.class.getName(), Curve.class.getName(), Tube.class.getName(), Actor.class.getName()));
+
+  /** Tracks of these classes do not use their object while being read, so they can be read before it
+      has been built. */
+
+  private static final Set<Class<?>> INDEPENDENT_TRACKS = new HashSet<Class<?>>(Arrays.asList(PositionTrack.class,
+      RotationTrack.class, VisibilityTrack.class));
+
+  private static final ExecutorService objectLoader = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+    Thread thread = new Thread(r, "Scene object loader");
+    thread.setDaemon(true);
+    return thread;
+  });
+
   public Scene()
   {
     UniformTexture defTex = new UniformTexture();
@@ -1143,10 +1163,21 @@ public class Scene
       Textures and Materials are read. */
 
   public Scene(File f, boolean fullScene) throws IOException, InvalidObjectException
+  {
+    this(f, fullScene, null);
+  }
+
+  /** Read a Scene from a file, notifying a listener of the progress.  If fullScene is false, only the
+      Textures and Materials are read.  The listener may be null. */
+
+  public Scene(File f, boolean fullScene, SceneLoadListener listener) throws IOException, InvalidObjectException
   {
     setName(f.getName());
     setDirectory(f.getParent());
-    BufferedInputStream buf = new BufferedInputStream(new FileInputStream(f));
+    loadListener = listener;
+    if (listener != null)
+      listener.statusChanged(Translate.text("readingScene"));
+    BufferedInputStream buf = new BufferedInputStream(new ProgressInputStream(f));
     buf.mark(FILE_PREFIX.length);
 
     // See if the file begins with the expected prefix.
@@ -1167,11 +1198,18 @@ public class Scene
     catch (IOException ex)
     {
       buf.close();
-      buf = new BufferedInputStream(new FileInputStream(f));
+      buf = new BufferedInputStream(new ProgressInputStream(f));
       in = new DataInputStream(buf);
     }
-    initFromStream(in, fullScene);
-    in.close();
+    try
+    {
+      initFromStream(in, fullScene);
+    }
+    finally
+    {
+      in.close();
+      loadListener = null;
+    }
   }
 
   /** The following constructor is used for reading from arbitrary input streams.  If fullScene
@@ -1223,8 +1261,13 @@ public class Scene
             cls = ArtOfIllusion.getClass(classname);
             if (cls == null)
                 throw new IOException("Unknown class: "+classname);
-            con = cls.getConstructor(DataInputStream.class);
-            images.addElement((ImageMap) con.newInstance(in));
+            if (cls == MIPMappedImage.class)
+                images.addElement(MIPMappedImage.readImage(in));
+            else
+            {
+                con = cls.getConstructor(DataInputStream.class);
+                images.addElement((ImageMap) con.newInstance(in));
+            }
         }
         catch (Exception ex)
         {
@@ -1315,23 +1358,63 @@ public class Scene
     count = in.readInt();
     objects = new Vector<ObjectInfo>(count);
     table = new Hashtable<Integer, Object3D>(count);
-    for (int i = 0; i < count; i++)
-      objects.addElement(readObjectFromFile(in, table, version));
-    objectIndexMap = null;
-    selection = new Vector<Integer>();
+    Map<Integer, PendingObject> pending = new LinkedHashMap<Integer, PendingObject>();
+    try
+    {
+      for (int i = 0; i < count; i++)
+        objects.addElement(readObjectFromFile(in, table, pending, version));
+      objectIndexMap = null;
+      selection = new Vector<Integer>();
 
-    // Read the list of children for each object.
+      // Read the list of children for each object.
 
-    for (int i = 0; i < objects.size(); i++)
+      for (int i = 0; i < objects.size(); i++)
+        {
+          ObjectInfo info = objects.elementAt(i);
+          int num = in.readInt();
+          for (int j = 0; j < num; j++)
+            {
+              ObjectInfo child = objects.elementAt(in.readInt());
+              info.addChild(child, j);
+            }
+        }
+      if (loadListener != null)
+        loadListener.hierarchyLoaded(Collections.unmodifiableList(objects));
+      readEnvironmentAndMetadata(in, version);
+
+      // Wait for any objects which are still being built.
+
+      if (loadListener != null && !pending.isEmpty())
       {
-        ObjectInfo info = objects.elementAt(i);
-        int num = in.readInt();
-        for (int j = 0; j < num; j++)
-          {
-            ObjectInfo child = objects.elementAt(in.readInt());
-            info.addChild(child, j);
-          }
+        loadListener.statusChanged(Translate.text("buildingObjects"));
+        loadListener.progressChanged(0.0);
+      }
+      int total = pending.size();
+      while (!pending.isEmpty())
+      {
+        finishObject(pending.values().iterator().next(), table, pending);
+        if (loadListener != null)
+          loadListener.progressChanged((total-pending.size())/(double) total);
       }
+    }
+    finally
+    {
+      // If reading failed, there is no point in finishing the objects.
+
+      for (PendingObject p : pending.values())
+        p.future.cancel(false);
+    }
+    textureListeners = new Vector<ListChangeListener>();
+    materialListeners = new Vector<ListChangeListener>();
+    setTime(0.0);
+  }
+
+  /** Read the environment mapping information and the metadata.  This is the last part of a scene file. */
+
+  private void readEnvironmentAndMetadata(DataInputStream in, short version) throws IOException, InvalidObjectException
+  {
+    Constructor con;
+    int count;
 
     // Read in the environment mapping information.
 
@@ -1405,17 +1488,15 @@ public class Scene
         }
       }
     }
-    textureListeners = new Vector<ListChangeListener>();
-    materialListeners = new Vector<ListChangeListener>();
-    setTime(0.0);
   }
 
-  private ObjectInfo readObjectFromFile(DataInputStream in, Hashtable<Integer, Object3D> table, int version) throws IOException, InvalidObjectException
+  private ObjectInfo readObjectFromFile(DataInputStream in, Hashtable<Integer, Object3D> table, Map<Integer, PendingObject> pending, int version) throws IOException, InvalidObjectException
   {
     ObjectInfo info = new ObjectInfo(null, new CoordinateSystem(in), in.readUTF());
     Class cls;
     Constructor con;
     Object3D obj;
+    PendingObject pendingObj;
 
     info.setId(in.readInt());
     if (info.getId() >= nextID)
@@ -1425,35 +1506,34 @@ public class Scene
     info.setLocked(version < 5 ? false : in.readBoolean());
     Integer key = in.readInt();
     obj = table.get(key);
-    if (obj == null)
+    pendingObj = pending.get(key);
+    if (obj == null && pendingObj == null)
       {
         try
           {
-            String classname = in.readUTF();
+            final String classname = in.readUTF();
             int len = in.readInt();
-            byte bytes[] = new byte [len];
+            final byte bytes[] = new byte [len];
             in.readFully(bytes);
-            try
+            if (version > 1 && DEFERRED_CLASSES.contains(classname))
               {
-                cls = ArtOfIllusion.getClass(classname);
-                con = cls.getConstructor(DataInputStream.class, Scene.class);
-                obj = (Object3D) con.newInstance(new DataInputStream(new ByteArrayInputStream(bytes)), this);
+                // Build the object on a worker thread while the rest of the file is read.
+
+                pendingObj = new PendingObject(key, classname, info, objectLoader.submit(() -> createObject(classname, bytes)));
+                pending.put(key, pendingObj);
               }
-            catch (Exception ex)
+            else
               {
-                if (ex instanceof InvocationTargetException)
-                  ((InvocationTargetException) ex).getTargetException().printStackTrace();
-                else
-                  ex.printStackTrace();
-                if (ex instanceof ClassNotFoundException)
-                  errors.add(info.getName() + ": " + Translate.text("errorFindingClass", classname));
-                else
-                  errors.add(info.getName() + ": " + Translate.text("errorInstantiatingClass", classname));
-                obj = new NullObject();
-                info.setName("<unreadable> "+ info.getName());
-
+                try
+                  {
+                    obj = createObject(classname, bytes);
+                  }
+                catch (Exception ex)
+                  {
+                    obj = createUnreadableObject(info, classname, ex);
+                  }
+                table.put(key, obj);
               }
-            table.put(key, obj);
           }
         catch (Exception ex)
           {
@@ -1461,7 +1541,10 @@ public class Scene
             throw new IOException();
           }
       }
-    info.setObject(obj);
+    if (pendingObj != null)
+      pendingObj.instances.add(info);
+    else
+      info.setObject(obj);
 
     if (version < 2 && obj.getTexture() != null)
       {
@@ -1494,6 +1577,13 @@ public class Scene
         for (int i = 0; i < tracks; i++)
           {
             cls = ArtOfIllusion.getClass(in.readUTF());
+            if (pendingObj != null && !INDEPENDENT_TRACKS.contains(cls))
+              {
+                // This track may need the object while it is being read, so wait for it.
+
+                finishObject(pendingObj, table, pending);
+                pendingObj = null;
+              }
             con = cls.getConstructor(ObjectInfo.class);
             Track tr = (Track) con.newInstance(info);
             tr.initFromStream(in, this);
@@ -1510,6 +1600,128 @@ public class Scene
     return info;
   }
 
+  /** Construct an object from the bytes it was saved as.  This may be called on worker threads. */
+
+  private Object3D createObject(String classname, byte bytes[]) throws Exception
+  {
+    Class<?> cls = ArtOfIllusion.getClass(classname);
+    Constructor<?> con = cls.getConstructor(DataInputStream.class, Scene.class);
+    return (Object3D) con.newInstance(new DataInputStream(new ByteArrayInputStream(bytes)), this);
+  }
+
+  /** Record an error for an object which could not be constructed, and return a NullObject to use in its place. */
+
+  private Object3D createUnreadableObject(ObjectInfo info, String classname, Exception ex)
+  {
+    if (ex instanceof InvocationTargetException)
+      ((InvocationTargetException) ex).getTargetException().printStackTrace();
+    else
+      ex.printStackTrace();
+    if (ex instanceof ClassNotFoundException)
+      errors.add(info.getName() + ": " + Translate.text("errorFindingClass", classname));
+    else
+      errors.add(info.getName() + ": " + Translate.text("errorInstantiatingClass", classname));
+    info.setName("<unreadable> "+ info.getName());
+    return new NullObject();
+  }
+
+  /** Wait for an object which is being built on a worker thread, and give it to every ObjectInfo that
+      references it. */
+
+  private void finishObject(PendingObject pendingObj, Hashtable<Integer, Object3D> table, Map<Integer, PendingObject> pending) throws IOException
+  {
+    Object3D obj;
+    try
+      {
+        obj = pendingObj.future.get();
+      }
+    catch (InterruptedException ex)
+      {
+        throw new InterruptedIOException();
+      }
+    catch (ExecutionException ex)
+      {
+        Throwable cause = ex.getCause();
+        if (cause instanceof Error)
+          throw (Error) cause;
+        obj = createUnreadableObject(pendingObj.info, pendingObj.classname, (Exception) cause);
+      }
+    pending.remove(pendingObj.key);
+    table.put(pendingObj.key, obj);
+    for (ObjectInfo info : pendingObj.instances)
+      info.setObject(obj);
+  }
+
+  /** An object which is being built on a worker thread while a file is read. */
+
+  private static class PendingObject
+  {
+    final Integer key;
+    final String classname;
+    final ObjectInfo info;
+    final Future<Object3D> future;
+    final List<ObjectInfo> instances;
+
+    PendingObject(Integer key, String classname, ObjectInfo info, Future<Object3D> future)
+    {
+      this.key = key;
+      this.classname = classname;
+      this.info = info;
+      this.future = future;
+      instances = new ArrayList<ObjectInfo>();
+    }
+  }
+
+  /** This reads a file, and reports to the load listener what fraction of it has been read. */
+
+  private class ProgressInputStream extends FilterInputStream
+  {
+    private final long length;
+    private long position;
+    private int lastPercent;
+
+    ProgressInputStream(File f) throws IOException
+    {
+      super(new FileInputStream(f));
+      length = f.length();
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+      int b = super.read();
+      if (b != -1)
+        advance(1);
+      return b;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException
+    {
+      int n = super.read(b, off, len);
+      if (n > 0)
+        advance(n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+      long skipped = super.skip(n);
+      advance(skipped);
+      return skipped;
+    }
+
+    private void advance(long n)
+    {
+      position += n;
+      int percent = (length == 0 ? 100 : (int) Math.min(100*position/length, 100));
+      if (percent != lastPercent && loadListener != null)
+        loadListener.progressChanged(percent/100.0);
+      lastPercent = percent;
+    }
+  }
+
   /** Save the Scene to a file. */
 
   public void writeToFile(File f) throws IOException
@@ -1548,7 +1760,7 @@ public class Scene
     out.writeInt(images.size());
     for(ImageMap image: images)
     {
-      out.writeUTF(image.getClass().getName());
+      out.writeUTF(image.getSerializedClassName());
       image.writeToStream(out, this);
     }
 
@@ -0,0 +1,45 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion;
+
+import artofillusion.object.*;
+import java.util.*;
+
+/** A SceneLoadListener is notified of the progress of reading a Scene from a file.  All methods are
+    called on the thread which is reading the file. */
+
+public interface SceneLoadListener
+{
+  /** This is called when a new stage of loading begins, with a text description of it to show the user. */
+
+  default void statusChanged(String status)
+  {
+  }
+
+  /** This is called periodically with the fraction (between 0 and 1) of the current stage which
+      is complete. */
+
+  default void progressChanged(double fraction)
+  {
+  }
+
+  /** This is called once the record for every object and the list of children for each one have been read,
+      before the rest of the file.  Objects which are slow to construct (meshes, curves, actors) are built on
+      worker threads while the file is read, so at this point some ObjectInfos may not have their objects
+      yet, and getObject() returns null for them.  Every object has been set by the time the Scene
+      constructor returns.
+      @param objects    the objects in the scene, in the order they will appear in it
+  */
+
+  default void hierarchyLoaded(List<ObjectInfo> objects)
+  {
+  }
+}
@@ -388,6 +388,14 @@ public class ExternalImage extends ImageMap
     writeToStream(out, null);
   }
   
+  /** The contents of an external image are those of the image most recently loaded from the file. */
+
+  @Override
+  public byte[] getContentHash() throws IOException
+  {
+    return imageMap.getContentHash();
+  }
+
   /** Write to data stream. Scene is used to determine the relative path to the external file. */
   @Override
   public void writeToStream(DataOutputStream out, Scene scene) throws IOException
@@ -82,14 +82,9 @@ public class HDRImage extends ImageMap
     maps = new byte [num][][];
     width = new int [num];
     height = new int [num];
-    scale = new double [num];
-    xscale = new double [num];
-    yscale = new double [num];
-    scaleMult = new double [num-1];
     maps[0] = map0;
     width[0] = w;
     height[0] = h;
-    scale[0] = 1.0/Math.min(w, h);
 
     // Construct the first reduced map.
 
@@ -97,7 +92,6 @@ public class HDRImage extends ImageMap
     {
       width[1] = w1;
       height[1] = h1;
-      scale[1] = 1.0/Math.min(w1, h1);
       maps[1] = new byte [4][w1*h1];
       float widthScale = w/(float) w1;
       float heightScale = h/(float) h1;
@@ -126,7 +120,6 @@ public class HDRImage extends ImageMap
     {
       w = width[i] = width[i-1]/2;
       h = height[i] = height[i-1]/2;
-      scale[i] = 2.0*scale[i-1];
       maps[i] = new byte [4][w*h];
       for (k = 0; k < w; k++)
         for (m = 0; m < h; m++)
@@ -151,21 +144,66 @@ public class HDRImage extends ImageMap
           maps[i][3][k+w*m] = (byte) ((ergb>>24)&0xFF);
         }
     }
+    findScales();
+  }
+
+  /** Once the maps and their sizes have been set, this method computes the scales used for
+      doing the mipmapping. */
+
+  private void findScales()
+  {
+    int num = maps.length;
+    scale = new double [num];
+    xscale = new double [num];
+    yscale = new double [num];
+    scaleMult = new double [num-1];
+    scale[0] = 1.0/Math.min(width[0], height[0]);
+    if (num > 1)
+      scale[1] = 1.0/Math.min(width[1], height[1]);
+    for (int i = 2; i < num; i++)
+      scale[i] = 2.0*scale[i-1];
 
     // Precompute multipliers used for doing the mipmapping.
 
-    for (i = 0; i < num-1; i++)
+    for (int i = 0; i < num-1; i++)
       scaleMult[i] = 1.0/(scale[i+1]-scale[i]);
 
     // Finally, record the scales for all of the maps.
 
-    for (i = 0; i < num; i++)
+    for (int i = 0; i < num; i++)
       {
         xscale[i] = (double) width[i];
         yscale[i] = (double) height[i];
       }
   }
 
+  /** This is used when reading an image from a stream.  It reads the mipmaps from the {@link MipMapCache}
+      if they are there, and otherwise builds them and adds them to the cache.  If the cache is disabled,
+      it just builds them without hashing the image data. */
+
+  private void loadMipMaps(byte map[][], int w, int h)
+  {
+    if (MipMapCache.getDirectory() == null)
+    {
+      buildMipMaps(map[0], map[1], map[2], map[3], w, h);
+      return;
+    }
+    byte size[] = new byte [] {(byte) (w>>24), (byte) (w>>16), (byte) (w>>8), (byte) w};
+    String key = MipMapCache.getKey("HDRImage", size, map[0], map[1], map[2], map[3]);
+    MipMapCache.Pyramid cached = MipMapCache.load(key);
+    if (cached != null && cached.components == 4 && cached.width[0] == w && cached.height[0] == h)
+    {
+      maps = cached.maps;
+      width = cached.width;
+      height = cached.height;
+      aspectRatio = (float) w/(float) h;
+      findScales();
+      return;
+    }
+    buildMipMaps(map[0], map[1], map[2], map[3], w, h);
+    MipMapCache.store(key, new MipMapCache.Pyramid(4, width, height, maps));
+  }
+
   /** This method calculates the average value for each component over the entire image. */
 
   private void findAverage()
@@ -613,7 +651,7 @@ public class HDRImage extends ImageMap
         map[i] = new byte [w*h];
         in.readFully(map[i]);
       }
-      buildMipMaps(map[0], map[1], map[2], map[3], w, h);
+      loadMipMaps(map, w, h);
       findAverage();
     }
     else // 1 for newer than AoI 3.0.3
@@ -638,12 +676,23 @@ public class HDRImage extends ImageMap
       if (milliE > Long.MIN_VALUE)
         dateEdited  = new Date(milliE);      
       
-      buildMipMaps(map[0], map[1], map[2], map[3], w, h);
+      loadMipMaps(map, w, h);
       findAverage();
       preview = new SoftReference(null);
     }
   }
 
+  /** Write the full resolution image, for computing the content hash. */
+
+  @Override
+  protected void writeContent(DataOutputStream out) throws IOException
+  {
+    out.writeInt(width[0]);
+    out.writeInt(height[0]);
+    for (int i = 0; i < 4; i++)
+      out.write(maps[0][i]);
+  }
+
   /** Serialize an image to an output stream. */
 
   @Override
@@ -282,6 +282,13 @@ public class ImageDetailsDialog extends BDialog
                 out.close();
                 return;
             }
+            else if(im instanceof TiledImage)
+            {
+                BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(imageFile));
+                ImageIO.write(((TiledImage)im).getImage(), "png", out);
+                out.close();
+                return;
+            }
             else // MIPMappedImage
             {
                 BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(imageFile));
@@ -16,6 +16,7 @@ import artofillusion.Scene;
 import artofillusion.math.*;
 import java.awt.*;
 import java.io.*;
+import java.security.*;
 import java.util.Date;
 
 /** ImageMap represents an image which can be used for texturing an object.  The number of
@@ -50,6 +51,7 @@ public abstract class ImageMap
   public static final String IMAGE_TYPE_HDR  = "HDR";
   
   private int id;
+  private byte contentHash[];
   private static int nextID;
 
   public ImageMap()
@@ -77,6 +79,8 @@ public abstract class ImageMap
     }
     if (name.endsWith(".svg"))
       return new SVGImage(file);
+    if (TiledImage.isLargeImage(file))
+      return new TiledImage(file);
     return new MIPMappedImage(file);
   }
  
@@ -248,6 +252,61 @@ public abstract class ImageMap
     setDataEdited();
   }
 
+  /** Get a hash of the contents of this image.  Two images with the same hash may be assumed to look identical,
+      so this can be used to recognize an image without comparing its pixels.  The pixels of an image never
+      change, so the hash is only computed the first time this is called. */
+
+  public synchronized byte[] getContentHash() throws IOException
+  {
+    if (contentHash == null)
+    {
+      try
+      {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream()
+        {
+          @Override
+          public void write(int b)
+          {
+          }
+
+          @Override
+          public void write(byte b[], int off, int len)
+          {
+          }
+        }, digest));
+        out.writeUTF(getClass().getName());
+        writeContent(out);
+        out.close();
+        contentHash = digest.digest();
+      }
+      catch (NoSuchAlgorithmException ex)
+      {
+        throw new IOException(ex);
+      }
+    }
+    return contentHash.clone();
+  }
+
+  /** Write the data which determines the pixels of this image to a stream.  This is used by getContentHash().
+      The default implementation writes the image with writeToStream(), but subclasses may override it with
+      something faster. */
+
+  protected void writeContent(DataOutputStream out) throws IOException
+  {
+    writeToStream(out, null);
+  }
+
+  /** Get the name of the class whose constructor should read this image back from a stream.  This is
+      written before the output of writeToStream() when a scene is saved.  By default it is the class of
+      the image itself, but a subclass which writes another class's format may return that class instead,
+      so the image can be read by versions of the program that do not include the subclass. */
+
+  public String getSerializedClassName()
+  {
+    return getClass().getName();
+  }
+
   /** Write out the object's representation to an output stream.  Every ImageMap subclass must also
       define a constructor of the form
       
@@ -18,13 +18,21 @@ import java.awt.*;
 import java.awt.image.*;
 import java.io.*;
 import java.util.Date;
+import java.util.concurrent.*;
 import javax.imageio.*;
 import javax.swing.*;
 import static java.lang.Math.*;
 import java.lang.ref.SoftReference;
 
 /** MIPMappedImage is an ImageMap subclass.  It stores 8 bits per color component, 
-    and uses MIP mapping to eliminate aliasing. */
+    and uses MIP mapping to eliminate aliasing.
+    <p>
+    When an image is read from a scene file, only the encoded image data is read from the stream.
+    Decoding it and building the mipmaps is done in the background, so that loading a scene with many
+    large images does not have to wait for them, and several images can be decoded in parallel.  If an
+    image is used before that is finished, the thread which uses it waits for it (or decodes it itself,
+    if the background threads have not gotten to it yet).  The mipmaps for large images are saved in the
+    {@link MipMapCache}, so the next time the same image is loaded they can be read directly. */
 
 public class MIPMappedImage extends ImageMap
 {
@@ -34,7 +42,18 @@ public class MIPMappedImage extends ImageMap
   private double xscale[], yscale[], scale[], scaleMult[], gradXScale[], gradYScale[];
   private SoftReference<Image> preview;
   private SoftReference<BufferedImage> mapImage;
+  private volatile FutureTask<Void> pendingLoad;
   private static final float SCALE = 1.0f/255.0f;
+  private static final ExecutorService loader = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread thread = new Thread(r, "MIPMappedImage loader");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    }
+  });
 
   /** Construct a MIPMappedImage from an Image object. */
 
@@ -47,7 +66,17 @@ public class MIPMappedImage extends ImageMap
 
   public MIPMappedImage(File file) throws InterruptedException
   {
-    Image im = new ImageIcon(file.getAbsolutePath()).getImage();
+    Image im = null;
+    try
+    {
+      im = ImageIO.read(file);
+    }
+    catch (IOException ex)
+    {
+      // Fall back to the AWT loader below.
+    }
+    if (im == null)
+      im = new ImageIcon(file.getAbsolutePath()).getImage();
     init(im);
     setDataCreated(file);
   }
@@ -71,9 +100,7 @@ public class MIPMappedImage extends ImageMap
     aspectRatio = (float)w/(float)h;
     int w1, h1, num, i, j, k, m;
     float wratio, hratio;
-    Image im1;
 
-    
     // Determine the size for the first reduced map.  Its width and height must both be
     // powers of 2.
 
@@ -103,16 +130,9 @@ public class MIPMappedImage extends ImageMap
     maps = new byte [num][][];
     width = new int [num];
     height = new int [num];
-    scale = new double [num];
-    xscale = new double [num];
-    yscale = new double [num];
-    gradXScale = new double [num];
-    gradYScale = new double [num];
-    scaleMult = new double [num-1];
     maps[0] = map0;
     width[0] = w;
     height[0] = h;
-    scale[0] = 1.0/Math.min(w, h);
 
     // Construct the first reduced map.
 
@@ -120,9 +140,7 @@ public class MIPMappedImage extends ImageMap
       {
         width[1] = w1;
         height[1] = h1;
-        scale[1] = 1.0/Math.min(w1, h1);
-        im1 = im.getScaledInstance(w1, h1, Image.SCALE_DEFAULT);
-        maps[1] = findComponentMaps(im1);
+        maps[1] = MipMapFilter.reduce(map0, w, h, w1, h1);
       }
 
     // Now construct the remaining mipmaps.
@@ -131,7 +149,6 @@ public class MIPMappedImage extends ImageMap
       {
         w = width[i] = width[i-1]/2;
         h = height[i] = height[i-1]/2;
-        scale[i] = 2.0*scale[i-1];
         maps[i] = new byte [components][w*h];
         for (j = 0; j < components; j++)
           for (k = 0; k < w; k++)
@@ -139,15 +156,35 @@ public class MIPMappedImage extends ImageMap
               maps[i][j][k+w*m] = (byte) ((((int) maps[i-1][j][2*k+4*w*m]&0xFF) + ((int) maps[i-1][j][2*k+1+4*w*m]&0xFF) +
                                   ((int) maps[i-1][j][2*k+2*w*(2*m+1)]&0xFF) + ((int) maps[i-1][j][2*k+1+2*w*(2*m+1)]&0xFF)) >> 2);
       }
+    findScales();
+  }
+
+  /** Once the maps and their sizes have been set, this method computes the scales used for
+      doing the mipmapping. */
+
+  private void findScales()
+  {
+    int num = maps.length;
+    scale = new double [num];
+    xscale = new double [num];
+    yscale = new double [num];
+    gradXScale = new double [num];
+    gradYScale = new double [num];
+    scaleMult = new double [num-1];
+    scale[0] = 1.0/Math.min(width[0], height[0]);
+    if (num > 1)
+      scale[1] = 1.0/Math.min(width[1], height[1]);
+    for (int i = 2; i < num; i++)
+      scale[i] = 2.0*scale[i-1];
 
     // Precompute multipliers used for doing the mipmapping.
 
-    for (i = 0; i < num-1; i++)
+    for (int i = 0; i < num-1; i++)
       scaleMult[i] = 1.0/(scale[i+1]-scale[i]);
 
     // Finally, record the scales for all of the maps.
 
-    for (i = 0; i < num; i++)
+    for (int i = 0; i < num; i++)
       {
         xscale[i] = (double) width[i];
         yscale[i] = (double) height[i];
@@ -161,6 +198,8 @@ public class MIPMappedImage extends ImageMap
 
   private byte[][] findComponentMaps(Image im) throws InterruptedException
   {
+    if (im instanceof BufferedImage)
+      return findComponentMaps((BufferedImage) im);
     PixelGrabber pg = new PixelGrabber(im, 0, 0, -1, -1, true);
     int i, data[];
     byte map[][];
@@ -183,12 +222,80 @@ public class MIPMappedImage extends ImageMap
     return map;
   }
 
+  /** This is the same as findComponentMaps(Image), but reads the pixels of a BufferedImage directly,
+      one row at a time. */
+
+  private byte[][] findComponentMaps(BufferedImage im)
+  {
+    int w = im.getWidth(), h = im.getHeight(), data[] = new int [w];
+    if (components == 0)
+      for (int y = 0; y < h && components < 4; y++)
+        {
+          getPixelRow(im, y, data);
+          countComponents(data);
+        }
+    byte map[][] = new byte [components][w*h];
+    for (int y = 0; y < h; y++)
+      {
+        getPixelRow(im, y, data);
+        for (int x = 0, i = y*w; x < w; x++, i++)
+          {
+            map[0][i] = (byte) ((data[x]>>16) & 0xFF);
+            if (components > 1)
+              map[1][i] = (byte) ((data[x]>>8) & 0xFF);
+            if (components > 2)
+              map[2][i] = (byte) (data[x] & 0xFF);
+            if (components > 3)
+              map[3][i] = (byte) (255-((data[x]>>24) & 0xFF));
+          }
+      }
+    return map;
+  }
+
+  /** Get one row of pixels from a BufferedImage in the default RGB color model.  This gives the same
+      result as BufferedImage.getRGB(), but reads the image data directly for the types ImageIO
+      usually creates, which is much faster. */
+
+  static void getPixelRow(BufferedImage im, int y, int data[])
+  {
+    int w = im.getWidth(), type = im.getType();
+    WritableRaster raster = im.getRaster();
+    if (raster.getParent() == null && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0)
+      {
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+          {
+            int pixels[] = ((DataBufferInt) raster.getDataBuffer()).getData();
+            int alpha = (type == BufferedImage.TYPE_INT_RGB ? 0xFF000000 : 0);
+            for (int x = 0, i = y*w; x < w; x++, i++)
+              data[x] = pixels[i] | alpha;
+            return;
+          }
+        if (type == BufferedImage.TYPE_3BYTE_BGR)
+          {
+            byte pixels[] = ((DataBufferByte) raster.getDataBuffer()).getData();
+            for (int x = 0, i = 3*y*w; x < w; x++, i += 3)
+              data[x] = 0xFF000000 | ((pixels[i+2]&0xFF)<<16) | ((pixels[i+1]&0xFF)<<8) | (pixels[i]&0xFF);
+            return;
+          }
+        if (type == BufferedImage.TYPE_4BYTE_ABGR)
+          {
+            byte pixels[] = ((DataBufferByte) raster.getDataBuffer()).getData();
+            for (int x = 0, i = 4*y*w; x < w; x++, i += 4)
+              data[x] = ((pixels[i]&0xFF)<<24) | ((pixels[i+3]&0xFF)<<16) | ((pixels[i+2]&0xFF)<<8) | (pixels[i+1]&0xFF);
+            return;
+          }
+      }
+    im.getRGB(0, y, w, 1, data, 0, w);
+  }
+
   /** This method determines the number of independent color components in the image.
-      This will be either 1 (monochrome), 3 (RGB), or 4 (ARGB). */
+      This will be either 1 (monochrome), 3 (RGB), or 4 (ARGB).  If components has
+      already been set, it is only ever increased, so the image can be examined in pieces. */
 
   private void countComponents(int data[])
   {
-    components = 1;
+    if (components == 0)
+      components = 1;
     for (int i = 0; i < data.length; i++)
       {
         int j = data[i];
@@ -200,7 +307,7 @@ public class MIPMappedImage extends ImageMap
         int k = j & 0xFF;
         if ((((j>>8)&0xFF) != k) || (((j>>16)&0xFF) != k))
           {
-            components = 3;
+            components = Math.max(components, 3);
           }
       }
   }
@@ -226,6 +333,7 @@ public class MIPMappedImage extends ImageMap
   @Override
   public int getWidth()
   {
+    finishLoading();
     return width[0];
   }
 
@@ -234,12 +342,14 @@ public class MIPMappedImage extends ImageMap
   @Override
   public int getHeight()
   {
+    finishLoading();
     return height[0];
   }
 
   @Override
   public String getType()
   {
+    finishLoading();
     if (components == 1)
       return "GRAY";
     if (components == 3)
@@ -252,6 +362,7 @@ public class MIPMappedImage extends ImageMap
   @Override
   public float getAspectRatio()
   {
+    finishLoading();
     return aspectRatio;
   }
   
@@ -260,6 +371,7 @@ public class MIPMappedImage extends ImageMap
   @Override
   public int getComponentCount()
   {
+    finishLoading();
     return components;
   }
 
@@ -283,6 +395,8 @@ public class MIPMappedImage extends ImageMap
     float frac;
     double size;
 
+    finishLoading();
+
     if (xsize*xscale[0] > ysize*yscale[0])
       size = xsize;
     else
@@ -360,6 +474,7 @@ public class MIPMappedImage extends ImageMap
   @Override
   public float getAverageComponent(int component)
   {
+    finishLoading();
     if (components == 1 && component < 3) // Grayscale images need three components or the avrage appears red
       return average[0]; 
     if (component >= components)
@@ -379,6 +494,8 @@ public class MIPMappedImage extends ImageMap
     float frac;
     double size;
 
+    finishLoading();
+
     if (xsize*xscale[0] > ysize*yscale[0])
       size = xsize;
     else
@@ -485,6 +602,8 @@ public class MIPMappedImage extends ImageMap
     double frac;
     double size;
 
+    finishLoading();
+
     if (xsize*xscale[0] > ysize*yscale[0])
       size = xsize;
     else
@@ -585,6 +704,7 @@ public class MIPMappedImage extends ImageMap
   @Override
   public Image getPreview(int size)
   {
+    finishLoading();
     Image image = preview.get();
     if (size == lastPreviewSize && image != null)
       return image;
@@ -630,6 +750,7 @@ public class MIPMappedImage extends ImageMap
   
   public BufferedImage getImage()
   {
+    finishLoading();
     return getImage(0);
   }
 
@@ -686,6 +807,32 @@ public class MIPMappedImage extends ImageMap
     this(in, in.readShort());
   }
 
+  /** Read an image which was written by writeToStream().  This is like the MIPMappedImage(DataInputStream)
+      constructor, except that if the image has at least {@link TiledImage#MIN_PIXELS} pixels, it returns
+      a {@link TiledImage} instead, so its mipmaps are not stored on the Java heap. */
+
+  public static ImageMap readImage(DataInputStream in) throws IOException, InvalidObjectException
+  {
+    short version = in.readShort();
+    if (version != 2)
+      return new MIPMappedImage(in, version);
+    byte imageData[] = new byte [in.readInt()];
+    in.readFully(imageData);
+    if (TiledImage.isLargeImage(imageData))
+      return new TiledImage(imageData, in);
+    return new MIPMappedImage(imageData, in);
+  }
+
+  /** Reconstruct an image whose encoded image data has already been read from a stream.  The rest of
+      its representation (in version 2 format) is read from the stream. */
+
+  private MIPMappedImage(byte imageData[], DataInputStream in) throws IOException
+  {
+    preview = new SoftReference<Image>(null);
+    mapImage = new SoftReference<BufferedImage>(null);
+    startLoading(imageData, in, (short) 2);
+  }
+
   /** Reconstruct an image from its serialized representation.  This constructor is provided only for
       compatibility with versions of AoI prior to 1.4, which did not write image version information
       to the stream. */
@@ -694,12 +841,12 @@ public class MIPMappedImage extends ImageMap
   {
     if (version < 0 || version > 2)
       throw new InvalidObjectException("Illegal version for MIPMappedImage");
-    int w, h;
-    Image im;
+    preview = new SoftReference(null);
+    mapImage = new SoftReference(null);
     if (version == 0)
     {
-        w = in.readInt();
-        h = in.readInt();
+        int w = in.readInt();
+        int h = in.readInt();
         components = in.readInt();
         byte map[][] = new byte [components][];
         for (int i = 0; i < components; i++)
@@ -721,18 +868,30 @@ public class MIPMappedImage extends ImageMap
           for (int i = 0; i < data.length; i++)
             data[i] = ((map[3][i]<<24)&0xFF000000) + ((map[0][i]<<16)&0xFF0000) + ((map[1][i]<<8)&0xFF00) + (map[2][i]&0xFF);
         MemoryImageSource src = new MemoryImageSource(w, h, data, 0, w);
-        im = Toolkit.getDefaultToolkit().createImage(src);
-    }
-    else if (version == 1) // Up to AoI 3.0.3
-    {
-      byte imageData[] = new byte [in.readInt()];
-      in.readFully(imageData);
-      im = ImageIO.read(new ByteArrayInputStream(imageData));
+        Image im = Toolkit.getDefaultToolkit().createImage(src);
+        try
+        {
+          buildMipMaps(im);
+        }
+        catch (InterruptedException ex)
+        {
+          throw(new IOException());
+        }
+        findAverage();
+        return;
     }
-    else
+    byte imageData[] = new byte [in.readInt()];
+    in.readFully(imageData);
+    startLoading(imageData, in, version);
+  }
+
+  /** Read the metadata which follows the encoded image data in a stream, then start decoding the image
+      in the background. */
+
+  private void startLoading(final byte imageData[], DataInputStream in, short version) throws IOException
+  {
+    if (version == 2)
     {
-      byte imageData[] = new byte [in.readInt()];
-      in.readFully(imageData);
       imageName   = in.readUTF();
       userCreated = in.readUTF();
       long milliC = in.readLong();
@@ -743,28 +902,119 @@ public class MIPMappedImage extends ImageMap
       if (milliC > Long.MIN_VALUE)
         dateCreated = new Date(milliC);
       if (milliE > Long.MIN_VALUE)
-        dateEdited  = new Date(milliE);      
-      
-      im = ImageIO.read(new ByteArrayInputStream(imageData));
+        dateEdited  = new Date(milliE);
     }
-    w = im.getWidth(null);
-    h = im.getHeight(null);
-    preview = new SoftReference(null);
-    mapImage = new SoftReference(null);
 
-    // Construct the mipmaps, preview image, etc.
+    // Decode the image and construct the mipmaps in the background.  If they were built the last
+    // time this image was loaded, they can be read from the cache instead.  Hashing the image data
+    // to find them is skipped when the cache is disabled.
 
-    try
-    {
-      Frame fr = new Frame();
-      buildMipMaps(im);
-      fr.dispose();
-    }
-    catch (InterruptedException ex)
+    pendingLoad = new FutureTask<Void>(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception
+      {
+        String key = (MipMapCache.getDirectory() == null ? null : MipMapCache.getKey("MIPMappedImage", imageData));
+        MipMapCache.Pyramid cached = (key == null ? null : MipMapCache.load(key));
+        if (cached != null)
+        {
+          components = cached.components;
+          maps = cached.maps;
+          width = cached.width;
+          height = cached.height;
+          aspectRatio = (float) width[0]/(float) height[0];
+          findScales();
+          findAverage();
+          return null;
+        }
+        BufferedImage im = ImageIO.read(new ByteArrayInputStream(imageData));
+        if (im == null)
+          throw new IOException("Unrecognized image format");
+        buildMipMaps(im);
+        findAverage();
+        if (key != null)
+          MipMapCache.store(key, new MipMapCache.Pyramid(components, width, height, maps));
+        return null;
+      }
+    });
+    loader.execute(pendingLoad);
+  }
+
+  /** Determine whether this image has finished loading.  This is false if it was read from a stream, and the
+      image data is still being decoded in the background. */
+
+  public boolean isLoaded()
+  {
+    FutureTask<Void> task = pendingLoad;
+    return (task == null || task.isDone());
+  }
+
+  /** If the image data is still being decoded, wait until it is finished.  If decoding has not started yet,
+      it is done on the calling thread.  If the data could not be decoded, the image is replaced with a single
+      black pixel. */
+
+  private void finishLoading()
+  {
+    FutureTask<Void> task = pendingLoad;
+    if (task == null)
+      return;
+    task.run();
+    boolean interrupted = false;
+    while (true)
     {
-      throw(new IOException());
+      try
+      {
+        task.get();
+        break;
+      }
+      catch (InterruptedException ex)
+      {
+        interrupted = true;
+      }
+      catch (ExecutionException ex)
+      {
+        loadFailed(task, ex.getCause());
+        break;
+      }
     }
+    pendingLoad = null;
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  /** This is called when the image data could not be decoded.  It replaces the image with a single black pixel. */
+
+  private synchronized void loadFailed(FutureTask<Void> task, Throwable ex)
+  {
+    if (pendingLoad != task)
+      return;
+    ex.printStackTrace();
+    int data[] = new int [] {0xFF000000};
+    components = 0;
+    countComponents(data);
+    maps = new byte [][][] {{{0}}};
+    width = new int [] {1};
+    height = new int [] {1};
+    scale = new double [] {1.0};
+    xscale = yscale = new double [] {1.0};
+    gradXScale = gradYScale = new double [] {SCALE};
+    scaleMult = new double [0];
+    aspectRatio = 1.0f;
     findAverage();
+    pendingLoad = null;
+  }
+
+
+  /** Write the components of the full resolution image, for computing the content hash. */
+
+  @Override
+  protected void writeContent(DataOutputStream out) throws IOException
+  {
+    finishLoading();
+    out.writeInt(width[0]);
+    out.writeInt(height[0]);
+    out.writeInt(components);
+    for (int i = 0; i < components; i++)
+      out.write(maps[0][i]);
   }
 
   /** Serialize an image to an output stream. */
@@ -772,6 +1022,7 @@ public class MIPMappedImage extends ImageMap
   @Override
   public void writeToStream(DataOutputStream out, Scene scene) throws IOException
   {
+    finishLoading();
     BufferedImage bi = getImage(0);
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     ImageIO.write(bi, "png", baos);
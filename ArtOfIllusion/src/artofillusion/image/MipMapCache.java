@@ -0,0 +1,264 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.image;
+
+import artofillusion.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+/** MipMapCache stores the mipmaps that have been built for images on disk, so that the next time
+    the same image is loaded (usually when a scene is opened again, or rendered from a batch job), they
+    can be read back directly instead of being decoded and rebuilt.
+    <p>
+    Each set of mipmaps is stored in its own file, whose name is a hash of the image data it was built
+    from, so an image which has been edited simply gets a new entry.  The file contains a short header
+    giving the size of each level, followed by the raw bytes for every component of every level, so it
+    can be mapped into memory and copied out in large blocks.  When the total size of the cache grows
+    beyond a limit, the least recently used files are deleted.
+    <p>
+    Only images with at least {@link #MIN_PIXELS} pixels are cached, since smaller ones are cheap to
+    rebuild.  Errors reading or writing the cache are ignored, and simply cause the mipmaps to be
+    built as usual.
+    <p>
+    The cache is disabled until a directory is set with {@link #setDirectory setDirectory()}.  The
+    application does this based on the "mipmapCacheSize" preference, which is 0 (disabled) by default. */
+
+public class MipMapCache
+{
+  private static File directory;
+  private static long maxSize = 256L<<20;
+
+  /** The minimum number of pixels an image must have to be cached. */
+  public static final int MIN_PIXELS = 256*256;
+
+  private static final int MAGIC = 0x414F494D; // "AOIM"
+  private static final int VERSION = 2;
+  private static final int MAX_LEVELS = 64;
+
+  /** The mipmaps for an image. */
+
+  static class Pyramid
+  {
+    final int components;
+    final int width[], height[];
+    final byte maps[][][];
+
+    Pyramid(int components, int width[], int height[], byte maps[][][])
+    {
+      this.components = components;
+      this.width = width;
+      this.height = height;
+      this.maps = maps;
+    }
+  }
+
+  private MipMapCache()
+  {
+  }
+
+  /** Get the directory in which mipmaps are cached, or null if caching is disabled.  By default, caching
+      is disabled. */
+
+  public static synchronized File getDirectory()
+  {
+    return directory;
+  }
+
+  /** Set the directory in which mipmaps are cached.  Pass null to disable caching. */
+
+  public static synchronized void setDirectory(File dir)
+  {
+    directory = dir;
+  }
+
+  /** Get the directory the application uses for the cache when it is enabled.  This is a subdirectory
+      of the preferences directory. */
+
+  public static File getDefaultDirectory()
+  {
+    return new File(ApplicationPreferences.getPreferencesDirectory(), "mipmaps");
+  }
+
+  /** Get the maximum total size of the cache, in bytes. */
+
+  public static synchronized long getMaximumSize()
+  {
+    return maxSize;
+  }
+
+  /** Set the maximum total size of the cache, in bytes. */
+
+  public static synchronized void setMaximumSize(long size)
+  {
+    maxSize = size;
+  }
+
+  /** Compute the key under which the mipmaps for an image are stored.
+      @param type      a string identifying the type of image and how its mipmaps are built
+      @param data      the data the image is constructed from
+  */
+
+  static String getKey(String type, byte[]... data)
+  {
+    try
+    {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(type.getBytes("UTF-8"));
+      digest.update((byte) VERSION);
+      for (byte d[] : data)
+      {
+        digest.update(ByteBuffer.allocate(4).putInt(d.length).array());
+        digest.update(d);
+      }
+      StringBuilder key = new StringBuilder();
+      for (byte b : digest.digest())
+        key.append(String.format("%02x", b));
+      return key.toString();
+    }
+    catch (NoSuchAlgorithmException | UnsupportedEncodingException ex)
+    {
+      return null;
+    }
+  }
+
+  /** Load the mipmaps stored under a key.  If they are not in the cache or cannot be read, this returns null. */
+
+  static Pyramid load(String key)
+  {
+    File file = getFile(key);
+    if (file == null || !file.isFile())
+      return null;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+    {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE)
+        throw new IOException();
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+        throw new IOException();
+      int components = buffer.getInt(), levels = buffer.getInt();
+      if (components < 1 || components > 4 || levels < 1 || levels > MAX_LEVELS)
+        throw new IOException();
+      int width[] = new int [levels], height[] = new int [levels];
+      long expectedSize = 16+8L*levels;
+      for (int i = 0; i < levels; i++)
+      {
+        width[i] = buffer.getInt();
+        height[i] = buffer.getInt();
+        if (width[i] < 1 || height[i] < 1)
+          throw new IOException();
+        expectedSize += (long) width[i]*height[i]*components;
+      }
+      if (expectedSize != size)
+        throw new IOException();
+      byte maps[][][] = new byte [levels][components][];
+      for (int i = 0; i < levels; i++)
+        for (int j = 0; j < components; j++)
+        {
+          maps[i][j] = new byte [width[i]*height[i]];
+          buffer.get(maps[i][j]);
+        }
+      file.setLastModified(System.currentTimeMillis());
+      return new Pyramid(components, width, height, maps);
+    }
+    catch (IOException | RuntimeException ex)
+    {
+      // The file is damaged, or was written by an incompatible version.
+
+      file.delete();
+      return null;
+    }
+  }
+
+  /** Store a set of mipmaps under a key.  If the image is too small to be worth caching, or caching is
+      disabled, this does nothing. */
+
+  static void store(String key, Pyramid pyramid)
+  {
+    File file = getFile(key);
+    if (file == null || (long) pyramid.width[0]*pyramid.height[0] < MIN_PIXELS)
+      return;
+    File dir = file.getParentFile();
+    File temp = null;
+    try
+    {
+      if (!dir.isDirectory() && !dir.mkdirs())
+        return;
+      temp = File.createTempFile(key, ".tmp", dir);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+      {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(pyramid.components);
+        out.writeInt(pyramid.maps.length);
+        for (int i = 0; i < pyramid.maps.length; i++)
+        {
+          out.writeInt(pyramid.width[i]);
+          out.writeInt(pyramid.height[i]);
+        }
+        for (int i = 0; i < pyramid.maps.length; i++)
+          for (int j = 0; j < pyramid.components; j++)
+            out.write(pyramid.maps[i][j], 0, pyramid.width[i]*pyramid.height[i]);
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      temp = null;
+      prune(dir);
+    }
+    catch (IOException | RuntimeException ex)
+    {
+      // Caching is only an optimization, so just skip it.
+    }
+    finally
+    {
+      if (temp != null)
+        temp.delete();
+    }
+  }
+
+  /** Get the file in which the mipmaps for a key are stored, or null if caching is disabled. */
+
+  private static File getFile(String key)
+  {
+    File dir = getDirectory();
+    if (dir == null || key == null)
+      return null;
+    return new File(dir, key+".mip");
+  }
+
+  /** If the cache has grown too large, delete the least recently used files until it is back
+      down to three quarters of the maximum size. */
+
+  private static synchronized void prune(File dir)
+  {
+    File files[] = dir.listFiles((File f) -> f.getName().endsWith(".mip"));
+    if (files == null)
+      return;
+    long total = 0;
+    for (File f : files)
+      total += f.length();
+    if (total <= maxSize)
+      return;
+    final Map<File, Long> modified = new HashMap<>();
+    for (File f : files)
+      modified.put(f, f.lastModified());
+    Arrays.sort(files, (File a, File b) -> Long.compare(modified.get(a), modified.get(b)));
+    for (int i = 0; i < files.length && total > maxSize*3/4; i++)
+    {
+      long length = files[i].length();
+      if (files[i].delete())
+        total -= length;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.image;
+
+import artofillusion.util.*;
+
+/** MipMapFilter is used to build the first reduced mipmap of an image, whose size is usually not an
+    exact fraction of the original size.  It is a box filter: each destination pixel is the average of
+    the source pixels it covers, weighted by how much of each one it covers.  The filter is separable,
+    so one MipMapFilter describes the weights along a single dimension, and reducing an image
+    uses one for the rows and one for the columns. */
+
+class MipMapFilter
+{
+  /** The index of the first source pixel for each destination pixel. */
+  final int start[];
+  /** The weights of the source pixels for each destination pixel, beginning with start[i]. */
+  final float weight[][];
+
+  /** Create a filter for reducing a dimension from srcSize pixels to dstSize pixels. */
+
+  MipMapFilter(int srcSize, int dstSize)
+  {
+    double ratio = srcSize/(double) dstSize;
+    start = new int [dstSize];
+    weight = new float [dstSize][];
+    for (int i = 0; i < dstSize; i++)
+    {
+      double from = i*ratio, to = (i+1)*ratio;
+      int first = (int) from, last = Math.min((int) Math.ceil(to), srcSize);
+      start[i] = first;
+      weight[i] = new float [last-first];
+      for (int j = first; j < last; j++)
+        weight[i][j-first] = (float) ((Math.min(to, j+1)-Math.max(from, j))/ratio);
+    }
+  }
+
+  /** Provides access to the rows of the images being reduced by {@link #reduce(Rows, int, int, int, int, int) reduce()}.
+      Its methods may be called from several threads at once, but never for the same row. */
+
+  interface Rows
+  {
+    /** Copy one row of a component of the source image into row. */
+
+    void getRow(int component, int y, byte row[]);
+
+    /** Store one row of a component of the destination image. */
+
+    void setRow(int component, int y, byte row[]);
+  }
+
+  /** Reduce an image stored as one array for each component.
+      @param src    the source image, with one array for each component
+      @param w      the width of the source image
+      @param h      the height of the source image
+      @param w1     the width of the destination image
+      @param h1     the height of the destination image
+      @return the destination image, with one array for each component
+  */
+
+  static byte[][] reduce(final byte src[][], final int w, int h, final int w1, int h1)
+  {
+    final byte dst[][] = new byte [src.length][w1*h1];
+    reduce(new Rows() {
+      @Override
+      public void getRow(int component, int y, byte row[])
+      {
+        System.arraycopy(src[component], y*w, row, 0, w);
+      }
+
+      @Override
+      public void setRow(int component, int y, byte row[])
+      {
+        System.arraycopy(row, 0, dst[component], y*w1, w1);
+      }
+    }, src.length, w, h, w1, h1);
+    return dst;
+  }
+
+  /** Reduce an image.  The rows of the destination image are divided between multiple threads.
+      @param rows         provides the rows of the source image, and receives the rows of the destination image
+      @param components   the number of components in the image
+      @param w            the width of the source image
+      @param h            the height of the source image
+      @param w1           the width of the destination image
+      @param h1           the height of the destination image
+  */
+
+  static void reduce(final Rows rows, final int components, final int w, int h, final int w1, int h1)
+  {
+    final MipMapFilter xfilter = new MipMapFilter(w, w1), yfilter = new MipMapFilter(h, h1);
+    final ThreadLocal<RowBuffer> rowBuffer = new ThreadLocal<RowBuffer>() {
+      @Override
+      protected RowBuffer initialValue()
+      {
+        return new RowBuffer(w, w1);
+      }
+    };
+    ThreadManager threads = new ThreadManager(h1, new ThreadManager.Task()
+    {
+      @Override
+      public void execute(int y)
+      {
+        RowBuffer buffer = rowBuffer.get();
+        float row[] = buffer.sum;
+        byte in[] = buffer.in, out[] = buffer.out;
+        int ystart = yfilter.start[y];
+        float yweight[] = yfilter.weight[y];
+        for (int c = 0; c < components; c++)
+        {
+          // Filter along the column to find one row of partially reduced values, then filter
+          // that row to find the final values.
+
+          for (int k = 0; k < yweight.length; k++)
+          {
+            float wk = yweight[k];
+            rows.getRow(c, ystart+k, in);
+            if (k == 0)
+              for (int x = 0; x < w; x++)
+                row[x] = (in[x]&0xFF)*wk;
+            else
+              for (int x = 0; x < w; x++)
+                row[x] += (in[x]&0xFF)*wk;
+          }
+          for (int x = 0; x < w1; x++)
+          {
+            int xstart = xfilter.start[x];
+            float xweight[] = xfilter.weight[x];
+            float sum = 0.0f;
+            for (int k = 0; k < xweight.length; k++)
+              sum += row[xstart+k]*xweight[k];
+            out[x] = (byte) Math.min((int) (sum+0.5f), 255);
+          }
+          rows.setRow(c, y, out);
+        }
+      }
+
+      @Override
+      public void cleanup()
+      {
+        rowBuffer.remove();
+      }
+    });
+    threads.run();
+    threads.finish();
+  }
+
+  /** The working arrays used by one thread while reducing an image. */
+
+  private static class RowBuffer
+  {
+    final float sum[];
+    final byte in[], out[];
+
+    RowBuffer(int w, int w1)
+    {
+      sum = new float [w];
+      in = new byte [w];
+      out = new byte [w1];
+    }
+  }
+}
@@ -0,0 +1,849 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.image;
+
+import artofillusion.Scene;
+import artofillusion.math.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.lang.ref.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+import static java.lang.Math.*;
+
+/** TiledImage is an ImageMap subclass for very large images.  Like MIPMappedImage, it stores 8 bits
+    per color component and uses MIP mapping to eliminate aliasing, but the mipmaps are kept in a
+    temporary file which is mapped into memory, rather than on the Java heap.  Only the parts of the
+    image which are actually sampled are read from disk, and the operating system can discard them
+    again when the memory is needed for something else.
+    <p>
+    Each mipmap is divided into square tiles of TILE_SIZE by TILE_SIZE pixels.  All the data for one
+    component of a tile is stored contiguously, so a small region of the image occupies only a few
+    pages of memory, instead of being spread across a separate part of the file for every row.
+    <p>
+    The original encoded image (PNG, JPEG, etc.) is kept in memory, and is what gets written when the
+    scene is saved.  It is written in the same format as a MIPMappedImage, and under that class's name,
+    so the scene can be opened by versions of the program which do not have TiledImage.
+    {@link ImageMap#loadImage(File) ImageMap.loadImage()} and {@link MIPMappedImage#readImage
+    MIPMappedImage.readImage()} create a TiledImage for any image with at least {@link #MIN_PIXELS} pixels.
+    <p>
+    Where the platform allows it, the tile file is deleted as soon as it has been mapped.  Otherwise (on
+    Windows, for example) it is deleted once the image has been garbage collected and the file is no
+    longer mapped. */
+
+public class TiledImage extends ImageMap
+{
+  private int width[], height[], tilesX[], components, lastPreviewSize = -1;
+  private ByteBuffer tileRows[][];
+  private float average[], aspectRatio;
+  private double scale[], scaleMult[];
+  private byte encoded[];
+  private SoftReference<Image> preview;
+
+  /** The width and height of each tile, in pixels. */
+  public static final int TILE_SIZE = 64;
+
+  /** The minimum number of pixels for which ImageMap.loadImage() creates a TiledImage. */
+  public static final int MIN_PIXELS = 4096*4096;
+
+  private static final int TILE_SHIFT = 6, TILE_MASK = TILE_SIZE-1, TILE_AREA = TILE_SIZE*TILE_SIZE;
+  private static final float SCALE = 1.0f/255.0f;
+
+  /** Construct a TiledImage from a GIF, JPEG, or PNG image file. */
+
+  public TiledImage(File file) throws IOException
+  {
+    encoded = Files.readAllBytes(file.toPath());
+    init(decodeImage());
+    setDataCreated(file);
+  }
+
+  /** Construct a TiledImage from a BufferedImage. */
+
+  public TiledImage(BufferedImage im) throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (!ImageIO.write(im, "png", out))
+      throw new IOException("Unable to encode image");
+    encoded = out.toByteArray();
+    init(im);
+  }
+
+  /** Construct a TiledImage from encoded image data which has been read from a stream written by
+      MIPMappedImage.writeToStream().  The rest of the image's representation is read from the stream. */
+
+  TiledImage(byte imageData[], DataInputStream in) throws IOException
+  {
+    encoded = imageData;
+    readMetadata(in);
+    init(decodeImage());
+  }
+
+  /** Determine whether an image file is large enough that it should be loaded as a TiledImage.
+      This only reads the header of the file, not the whole image. */
+
+  public static boolean isLargeImage(File file)
+  {
+    try (ImageInputStream in = ImageIO.createImageInputStream(file))
+    {
+      return isLargeImage(in);
+    }
+    catch (IOException ex)
+    {
+      return false;
+    }
+  }
+
+  /** Determine whether encoded image data (PNG, JPEG, etc.) is large enough that it should be loaded
+      as a TiledImage.  This only decodes the header, not the whole image. */
+
+  public static boolean isLargeImage(byte imageData[])
+  {
+    try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData)))
+    {
+      return isLargeImage(in);
+    }
+    catch (IOException ex)
+    {
+      return false;
+    }
+  }
+
+  /** Determine whether the image in a stream has at least MIN_PIXELS pixels. */
+
+  private static boolean isLargeImage(ImageInputStream in) throws IOException
+  {
+    if (in == null)
+      return false;
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+    if (!readers.hasNext())
+      return false;
+    ImageReader reader = readers.next();
+    try
+    {
+      reader.setInput(in);
+      return ((long) reader.getWidth(0)*reader.getHeight(0) >= MIN_PIXELS);
+    }
+    finally
+    {
+      reader.dispose();
+    }
+  }
+
+  /** Decode the encoded image data. */
+
+  private BufferedImage decodeImage() throws IOException
+  {
+    BufferedImage im = ImageIO.read(new ByteArrayInputStream(encoded));
+    if (im == null)
+      throw new IOException("Unrecognized image format");
+    return im;
+  }
+
+  /** Initialize a newly created TiledImage.  This creates the tile file, copies the image into it,
+      and builds the reduced mipmaps. */
+
+  private void init(BufferedImage im) throws IOException
+  {
+    int w = im.getWidth(), h = im.getHeight(), w1, h1, num;
+    aspectRatio = (float) w/(float) h;
+    components = countComponents(im);
+
+    // Determine the sizes of the mipmaps, the same way MIPMappedImage does.  The first reduced map's
+    // width and height must both be powers of 2.
+
+    for (w1 = 2; w1 < w; w1 *= 2);
+    for (h1 = 2; h1 < h; h1 *= 2);
+    w1 /= 2;
+    h1 /= 2;
+    if (w > 1 && w1/(float) w > 0.75)
+      w1 /= 2;
+    if (h > 1 && h1/(float) h > 0.75)
+      h1 /= 2;
+    for (num = 0; (1<<num) < w1 && (1<<num) < h1; num++);
+    num += 2;
+    if (w == 1 || h == 1)
+      num = 1;
+    width = new int [num];
+    height = new int [num];
+    width[0] = w;
+    height[0] = h;
+    if (num > 1)
+    {
+      width[1] = w1;
+      height[1] = h1;
+    }
+    for (int i = 2; i < num; i++)
+    {
+      width[i] = width[i-1]/2;
+      height[i] = height[i-1]/2;
+    }
+
+    // Create the file and map every row of tiles into memory.  Once it is mapped, the file
+    // itself is no longer needed.
+
+    File tileFile = File.createTempFile("aoi", ".tiles");
+    tilesX = new int [num];
+    tileRows = new ByteBuffer [num][];
+    try (RandomAccessFile raf = new RandomAccessFile(tileFile, "rw"))
+    {
+      long total = 0;
+      for (int i = 0; i < num; i++)
+      {
+        tilesX[i] = (width[i]+TILE_MASK)>>TILE_SHIFT;
+        tileRows[i] = new ByteBuffer [(height[i]+TILE_MASK)>>TILE_SHIFT];
+        total += (long) tileRows[i].length*tilesX[i]*components*TILE_AREA;
+      }
+      raf.setLength(total);
+      FileChannel channel = raf.getChannel();
+      long pos = 0;
+      for (int i = 0; i < num; i++)
+      {
+        int rowBytes = tilesX[i]*components*TILE_AREA;
+        for (int j = 0; j < tileRows[i].length; j++)
+        {
+          tileRows[i][j] = channel.map(FileChannel.MapMode.READ_WRITE, pos, rowBytes);
+          pos += rowBytes;
+        }
+      }
+    }
+    catch (IOException | RuntimeException ex)
+    {
+      tileRows = null;
+      if (!tileFile.delete())
+        tileFile.deleteOnExit();
+      throw ex;
+    }
+    if (!tileFile.delete())
+      TileFileReference.deleteLater(tileFile, this);
+
+    // Copy the image into the first map, then build the others from it.
+
+    int data[] = new int [w];
+    for (int y = 0; y < h; y++)
+    {
+      MIPMappedImage.getPixelRow(im, y, data);
+      for (int x = 0; x < w; x++)
+      {
+        int pixel = data[x];
+        setTexel(0, 0, x, y, (pixel>>16) & 0xFF);
+        if (components > 1)
+        {
+          setTexel(0, 1, x, y, (pixel>>8) & 0xFF);
+          setTexel(0, 2, x, y, pixel & 0xFF);
+        }
+        if (components > 3)
+          setTexel(0, 3, x, y, 255-((pixel>>24) & 0xFF));
+      }
+    }
+    if (num > 1)
+      buildFirstReducedMap();
+    for (int i = 2; i < num; i++)
+      buildReducedMap(i);
+    findScales();
+    findAverage();
+    preview = new SoftReference<Image>(null);
+  }
+
+  /** Determine the number of independent color components in an image.  This will be either
+      1 (monochrome), 3 (RGB), or 4 (ARGB). */
+
+  private static int countComponents(BufferedImage im)
+  {
+    int w = im.getWidth(), h = im.getHeight(), data[] = new int [w], count = 1;
+    for (int y = 0; y < h; y++)
+    {
+      MIPMappedImage.getPixelRow(im, y, data);
+      for (int j : data)
+      {
+        if ((j & 0xFF000000) != 0xFF000000)
+          return 4;
+        int k = j & 0xFF;
+        if ((((j>>8)&0xFF) != k) || (((j>>16)&0xFF) != k))
+          count = 3;
+      }
+    }
+    return count;
+  }
+
+  /** Build the first reduced map from the full size one with a {@link MipMapFilter}, the same
+      way MIPMappedImage does. */
+
+  private void buildFirstReducedMap()
+  {
+    MipMapFilter.reduce(new MipMapFilter.Rows() {
+      @Override
+      public void getRow(int component, int y, byte row[])
+      {
+        for (int x = 0; x < row.length; x++)
+          row[x] = (byte) getTexel(0, component, x, y);
+      }
+
+      @Override
+      public void setRow(int component, int y, byte row[])
+      {
+        for (int x = 0; x < row.length; x++)
+          setTexel(1, component, x, y, row[x]);
+      }
+    }, components, width[0], height[0], width[1], height[1]);
+  }
+
+  /** Build a map by averaging 2x2 blocks of the previous one. */
+
+  private void buildReducedMap(int which)
+  {
+    int w = width[which], h = height[which], prev = which-1;
+    for (int y = 0; y < h; y++)
+      for (int c = 0; c < components; c++)
+        for (int x = 0; x < w; x++)
+          setTexel(which, c, x, y, (getTexel(prev, c, 2*x, 2*y)+getTexel(prev, c, 2*x+1, 2*y)+
+              getTexel(prev, c, 2*x, 2*y+1)+getTexel(prev, c, 2*x+1, 2*y+1)) >> 2);
+  }
+
+  /** Once the sizes of the maps have been set, this method computes the scales used for
+      doing the mipmapping. */
+
+  private void findScales()
+  {
+    int num = width.length;
+    scale = new double [num];
+    scaleMult = new double [num-1];
+    scale[0] = 1.0/Math.min(width[0], height[0]);
+    if (num > 1)
+      scale[1] = 1.0/Math.min(width[1], height[1]);
+    for (int i = 2; i < num; i++)
+      scale[i] = 2.0*scale[i-1];
+    for (int i = 0; i < num-1; i++)
+      scaleMult[i] = 1.0/(scale[i+1]-scale[i]);
+  }
+
+  /** This method calculates the average value for each component over the entire image. */
+
+  private void findAverage()
+  {
+    int which = width.length-1, w = width[which], h = height[which];
+    long av[] = new long [components];
+    for (int y = 0; y < h; y++)
+      for (int x = 0; x < w; x++)
+        for (int c = 0; c < components; c++)
+          av[c] += getTexel(which, c, x, y);
+    average = new float [components];
+    for (int c = 0; c < components; c++)
+      average[c] = (av[c]/(w*h))*SCALE;
+  }
+
+  /** Get the value of one component of a pixel in one of the maps, as an int between 0 and 255. */
+
+  private int getTexel(int which, int component, int x, int y)
+  {
+    return tileRows[which][y>>TILE_SHIFT].get(getTexelIndex(component, x, y)) & 0xFF;
+  }
+
+  /** Set the value of one component of a pixel in one of the maps. */
+
+  private void setTexel(int which, int component, int x, int y, int value)
+  {
+    tileRows[which][y>>TILE_SHIFT].put(getTexelIndex(component, x, y), (byte) value);
+  }
+
+  /** Get the position of one component of a pixel within its row of tiles. */
+
+  private int getTexelIndex(int component, int x, int y)
+  {
+    return ((x>>TILE_SHIFT)*components+component)*TILE_AREA + (y&TILE_MASK)*TILE_SIZE + (x&TILE_MASK);
+  }
+
+  /** Get the width of the image. */
+
+  @Override
+  public int getWidth()
+  {
+    return width[0];
+  }
+
+  /** Get the height of the image. */
+
+  @Override
+  public int getHeight()
+  {
+    return height[0];
+  }
+
+  @Override
+  public String getType()
+  {
+    if (components == 1)
+      return IMAGE_TYPE_GRAY;
+    if (components == 3)
+      return IMAGE_TYPE_RGB;
+    return IMAGE_TYPE_RGBA;
+  }
+
+  @Override
+  public float getAspectRatio()
+  {
+    return aspectRatio;
+  }
+
+  /** Get the number of components in the image. */
+
+  @Override
+  public int getComponentCount()
+  {
+    return components;
+  }
+
+  /** Find which map to use for a region of width (xsize, ysize).  If it lies between two maps,
+      this returns the smaller one and sets frac[0] to the weight for the larger one.  Otherwise
+      frac[0] is 0. */
+
+  private int findMap(double xsize, double ysize, float frac[])
+  {
+    double size = (xsize*width[0] > ysize*height[0] ? xsize : ysize);
+    int last = width.length-1;
+    frac[0] = 0.0f;
+    if (size <= scale[0])
+      return 0;
+    if (size >= scale[last])
+      return last;
+    int which;
+    for (which = 0; size > scale[which+1]; which++);
+    frac[0] = (float) ((size-scale[which]) * scaleMult[which]);
+    return which;
+  }
+
+  /** Get the value of a single component at a particular location in the image.  The value
+      is represented as a float between 0.0 and 1.0.  See {@link MIPMappedImage#getComponent
+      MIPMappedImage.getComponent()} for details. */
+
+  @Override
+  public float getComponent(int component, boolean wrapx, boolean wrapy, double x, double y, double xsize, double ysize)
+  {
+    float frac[] = new float [1];
+    int which = findMap(xsize, ysize, frac);
+    y = 1.0-y;
+    if (frac[0] == 0.0f)
+      return getMapComponent(component, which, wrapx, wrapy, x, y);
+    return (1.0f-frac[0])*getMapComponent(component, which, wrapx, wrapy, x, y) + frac[0]*getMapComponent(component, which+1, wrapx, wrapy, x, y);
+  }
+
+  /** This method is called by getComponent.  It determines the value at the point (x, y)
+      of the particular mipmap. */
+
+  private float getMapComponent(int component, int which, boolean wrapx, boolean wrapy, double x, double y)
+  {
+    int i1, i2, j1, j2;
+    int w = width[which], h = height[which];
+    float frac1, frac2;
+
+    // Determine which elements to interpolate between.
+
+    frac1 = (float) (x*w);
+    i1 = (int) frac1;
+    frac1 -= (float) i1;
+    if (i1 >= w-1)
+    {
+      i1 = w-1;
+      i2 = wrapx ? 0 : i1;
+    }
+    else
+      i2 = i1+1;
+    frac2 = (float) (y*h);
+    j1 = (int) frac2;
+    frac2 -= (float) j1;
+    if (j1 >= h-1)
+    {
+      j1 = h-1;
+      j2 = wrapy ? 0 : j1;
+    }
+    else
+      j2 = j1+1;
+
+    // Calculate the final value.
+
+    return (getTexel(which, component, i1, j1)*(1.0f-frac1)*(1.0f-frac2) + getTexel(which, component, i1, j2)*(1.0f-frac1)*frac2 +
+            getTexel(which, component, i2, j1)*frac1*(1.0f-frac2) + getTexel(which, component, i2, j2)*frac1*frac2)*SCALE;
+  }
+
+  /** Get the average value for a particular component, over the entire image. */
+
+  @Override
+  public float getAverageComponent(int component)
+  {
+    if (components == 1 && component < 3)
+      return average[0];
+    if (component >= components)
+      return 0.0f;
+    return average[component];
+  }
+
+  /** Get the color at a particular location.  See {@link MIPMappedImage#getColor MIPMappedImage.getColor()}
+      for details. */
+
+  @Override
+  public void getColor(RGBColor theColor, boolean wrapx, boolean wrapy, double x, double y, double xsize, double ysize)
+  {
+    float frac[] = new float [1];
+    int which = findMap(xsize, ysize, frac);
+    y = 1.0-y;
+    getMapColor(theColor, which, wrapx, wrapy, x, y);
+    if (frac[0] == 0.0f)
+      return;
+    RGBColor tempColor = new RGBColor();
+    getMapColor(tempColor, which+1, wrapx, wrapy, x, y);
+    theColor.scale(1.0f-frac[0]);
+    tempColor.scale(frac[0]);
+    theColor.add(tempColor);
+  }
+
+  /** This method is called by getColor.  It determines the color at the point (x, y)
+      of the particular mipmap. */
+
+  private void getMapColor(RGBColor theColor, int which, boolean wrapx, boolean wrapy, double x, double y)
+  {
+    int i1, i2, j1, j2;
+    int w = width[which], h = height[which];
+    float frac1, frac2, w1, w2, w3, w4, red, green, blue;
+
+    // Determine which elements to interpolate between.
+
+    frac1 = (float) (x*w);
+    i1 = (int) frac1;
+    frac1 -= (float) i1;
+    if (i1 >= w-1)
+    {
+      i1 = w-1;
+      i2 = wrapx ? 0 : i1;
+    }
+    else
+      i2 = i1+1;
+    frac2 = (float) (y*h);
+    j1 = (int) frac2;
+    frac2 -= (float) j1;
+    if (j1 >= h-1)
+    {
+      j1 = h-1;
+      j2 = wrapy ? 0 : j1;
+    }
+    else
+      j2 = j1+1;
+
+    // Find the positions of the first component of each element.  The other components
+    // of the same element follow at intervals of TILE_AREA.
+
+    ByteBuffer row1 = tileRows[which][j1>>TILE_SHIFT], row2 = tileRows[which][j2>>TILE_SHIFT];
+    int ind1 = getTexelIndex(0, i1, j1), ind2 = getTexelIndex(0, i1, j2);
+    int ind3 = getTexelIndex(0, i2, j1), ind4 = getTexelIndex(0, i2, j2);
+
+    // Find the interpolation coefficients.
+
+    w1 = (1.0f-frac1)*(1.0f-frac2);
+    w2 = (1.0f-frac1)*frac2;
+    w3 = frac1*(1.0f-frac2);
+    w4 = frac1*frac2;
+
+    // Calculate the final value for each component.
+
+    red = ((row1.get(ind1)&0xFF)*w1 + (row2.get(ind2)&0xFF)*w2 + (row1.get(ind3)&0xFF)*w3 + (row2.get(ind4)&0xFF)*w4)*SCALE;
+    if (components == 1)
+      green = blue = red;
+    else
+    {
+      ind1 += TILE_AREA;
+      ind2 += TILE_AREA;
+      ind3 += TILE_AREA;
+      ind4 += TILE_AREA;
+      green = ((row1.get(ind1)&0xFF)*w1 + (row2.get(ind2)&0xFF)*w2 + (row1.get(ind3)&0xFF)*w3 + (row2.get(ind4)&0xFF)*w4)*SCALE;
+      ind1 += TILE_AREA;
+      ind2 += TILE_AREA;
+      ind3 += TILE_AREA;
+      ind4 += TILE_AREA;
+      blue = ((row1.get(ind1)&0xFF)*w1 + (row2.get(ind2)&0xFF)*w2 + (row1.get(ind3)&0xFF)*w3 + (row2.get(ind4)&0xFF)*w4)*SCALE;
+    }
+    theColor.setRGB(red, green, blue);
+  }
+
+  /** Get the gradient of a single component at a particular location in the image.  See
+      {@link MIPMappedImage#getGradient MIPMappedImage.getGradient()} for details. */
+
+  @Override
+  public void getGradient(Vec2 grad, int component, boolean wrapx, boolean wrapy, double x, double y, double xsize, double ysize)
+  {
+    double size = (xsize*width[0] > ysize*height[0] ? xsize : ysize);
+    if (size > scale[0] && size >= scale[width.length-1])
+    {
+      grad.set(0.0, 0.0);
+      return;
+    }
+    float frac[] = new float [1];
+    int which = findMap(xsize, ysize, frac);
+    y = 1.0-y;
+    getMapGradient(grad, component, which, wrapx, wrapy, x, y);
+    if (frac[0] != 0.0f)
+    {
+      Vec2 tempVec = new Vec2();
+      getMapGradient(tempVec, component, which+1, wrapx, wrapy, x, y);
+      grad.scale(1.0-frac[0]);
+      tempVec.scale(frac[0]);
+      grad.add(tempVec);
+    }
+    grad.y = -grad.y;
+  }
+
+  /** This method is called by getGradient.  It determines the gradient at the point (x, y)
+      of the particular mipmap. */
+
+  private void getMapGradient(Vec2 grad, int component, int which, boolean wrapx, boolean wrapy, double x, double y)
+  {
+    int i1, i2, j1, j2;
+    int w = width[which], h = height[which];
+    double frac1, frac2, v1, v2, v3, v4;
+
+    // Determine which elements to interpolate between.
+
+    frac1 = x*w;
+    i1 = (int) frac1;
+    frac1 -= (double) i1;
+    if (i1 >= w-1)
+    {
+      i1 = w-1;
+      i2 = wrapx ? 0 : i1;
+    }
+    else
+      i2 = i1+1;
+    frac2 = y*h;
+    j1 = (int) frac2;
+    frac2 -= (double) j1;
+    if (j1 >= h-1)
+    {
+      j1 = h-1;
+      j2 = wrapy ? 0 : j1;
+    }
+    else
+      j2 = j1+1;
+
+    // Find the values at the four points.
+
+    v1 = getTexel(which, component, i1, j1);
+    v2 = getTexel(which, component, i1, j2);
+    v3 = getTexel(which, component, i2, j1);
+    v4 = getTexel(which, component, i2, j2);
+
+    // Calculate the final value.
+
+    grad.x = ((v3-v1)*(1.0-frac2) + (v4-v2)*frac2) * SCALE*w;
+    grad.y = ((v2-v1)*(1.0-frac1) + (v4-v3)*frac1) * SCALE*h;
+  }
+
+  /** Get a scaled down copy of the image, to use for previews. The dimensions of the
+      Image will be no larger but may be smaller than PREVIEW_SIZE_DEFAULT. */
+
+  @Override
+  public Image getPreview()
+  {
+    return getPreview(PREVIEW_SIZE_DEFAULT);
+  }
+
+  /** Get a scaled down copy of the image, to use for previews. The dimensions of the
+      Image will be no larger but may be smaller than size. */
+
+  @Override
+  public synchronized Image getPreview(int size)
+  {
+    Image image = preview.get();
+    if (size == lastPreviewSize && image != null)
+      return image;
+    int pw = max(min(size, round(size*aspectRatio)), 1);
+    int ph = max(min(size, round(size/aspectRatio)), 1);
+    int n;
+    for (n = 0; n+1 < width.length && width[n+1] >= pw && height[n+1] >= ph; n++);
+    image = getImage(n);
+    if (width[n] > size || height[n] > size)
+      image = image.getScaledInstance(pw, ph, Image.SCALE_SMOOTH);
+    lastPreviewSize = size;
+    preview = new SoftReference<Image>(image);
+    return image;
+  }
+
+  /** Get the image in its original size. */
+
+  public BufferedImage getImage()
+  {
+    return getImage(0);
+  }
+
+  /** Create a BufferedImage containing one of the mipmaps. */
+
+  private BufferedImage getImage(int n)
+  {
+    int w = width[n], h = height[n];
+    BufferedImage bi = new BufferedImage(w, h, components == 4 ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    int data[] = new int [w];
+    for (int y = 0; y < h; y++)
+    {
+      for (int x = 0; x < w; x++)
+      {
+        int red = getTexel(n, 0, x, y);
+        if (components == 1)
+          data[x] = 0xFF000000+red*0x010101;
+        else
+        {
+          int alpha = (components == 4 ? 255-getTexel(n, 3, x, y) : 255);
+          data[x] = (alpha<<24)+(red<<16)+(getTexel(n, 1, x, y)<<8)+getTexel(n, 2, x, y);
+        }
+      }
+      bi.setRGB(0, y, w, 1, data, 0, w);
+    }
+    return bi;
+  }
+
+  /** Reconstruct an image from its serialized representation.  Scenes store a TiledImage in the
+      MIPMappedImage format, and read it with {@link MIPMappedImage#readImage MIPMappedImage.readImage()},
+      so this is only needed for files which were saved with the earlier TiledImage format (version 0). */
+
+  public TiledImage(DataInputStream in) throws IOException, InvalidObjectException
+  {
+    short version = in.readShort();
+    long length;
+    if (version == 0)
+      length = in.readLong();
+    else if (version == 2)
+      length = in.readInt();
+    else
+      throw new InvalidObjectException("Illegal version for TiledImage");
+    if (length < 0 || length > Integer.MAX_VALUE)
+      throw new InvalidObjectException("Illegal image size");
+    encoded = new byte [(int) length];
+    in.readFully(encoded);
+    readMetadata(in);
+    init(decodeImage());
+  }
+
+  /** Read the name, author, and dates which follow the encoded image data. */
+
+  private void readMetadata(DataInputStream in) throws IOException
+  {
+    imageName   = in.readUTF();
+    userCreated = in.readUTF();
+    long milliC = in.readLong();
+    zoneCreated = in.readUTF();
+    userEdited  = in.readUTF();
+    long milliE = in.readLong();
+    zoneEdited  = in.readUTF();
+    if (milliC > Long.MIN_VALUE)
+      dateCreated = new Date(milliC);
+    if (milliE > Long.MIN_VALUE)
+      dateEdited  = new Date(milliE);
+  }
+
+  /** A TiledImage is saved in the MIPMappedImage format, so it can be read by versions which do not
+      have this class. */
+
+  @Override
+  public String getSerializedClassName()
+  {
+    return MIPMappedImage.class.getName();
+  }
+
+  /** Serialize an image to an output stream.  This uses the same format as MIPMappedImage. */
+
+  @Override
+  public void writeToStream(DataOutputStream out, Scene scene) throws IOException
+  {
+    out.writeShort(2); // MIPMappedImage version number
+    out.writeInt(encoded.length);
+    out.write(encoded);
+    out.writeUTF(imageName);
+    out.writeUTF(userCreated);
+    if (dateCreated == null)
+      out.writeLong(Long.MIN_VALUE);
+    else
+      out.writeLong(dateCreated.getTime());
+    out.writeUTF(zoneCreated);
+    out.writeUTF(userEdited);
+    if (dateEdited == null)
+      out.writeLong(Long.MIN_VALUE);
+    else
+      out.writeLong(dateEdited.getTime());
+    out.writeUTF(zoneEdited);
+  }
+
+  /** Tracks a tile file which could not be deleted while it was mapped, as happens on Windows.  Once the
+      TiledImage using it has been garbage collected, its buffers are released and the file is deleted
+      on a background thread.  The deletion is retried until it succeeds, since the buffers may be
+      unmapped slightly after the image is collected. */
+
+  private static class TileFileReference extends PhantomReference<TiledImage>
+  {
+    private static final ReferenceQueue<TiledImage> queue = new ReferenceQueue<TiledImage>();
+    private static final Set<TileFileReference> pending = new HashSet<TileFileReference>();
+    private static final List<File> undeleted = new ArrayList<File>();
+    private static Thread thread;
+    private final File file;
+
+    private TileFileReference(TiledImage image, File file)
+    {
+      super(image, queue);
+      this.file = file;
+    }
+
+    /** Delete a file once an image has been garbage collected. */
+
+    static synchronized void deleteLater(File file, TiledImage image)
+    {
+      file.deleteOnExit();
+      pending.add(new TileFileReference(image, file));
+      if (thread == null)
+      {
+        thread = new Thread(TileFileReference::deleteFiles, "TiledImage file cleanup");
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+
+    private static void deleteFiles()
+    {
+      while (true)
+      {
+        try
+        {
+          // Only this thread adds to undeleted, so it can be checked without waiting for a new reference.
+
+          boolean retry;
+          synchronized (TileFileReference.class)
+          {
+            retry = !undeleted.isEmpty();
+          }
+          Reference<? extends TiledImage> ref = queue.remove(retry ? 1000 : 0);
+          synchronized (TileFileReference.class)
+          {
+            if (ref != null)
+            {
+              pending.remove(ref);
+              undeleted.add(((TileFileReference) ref).file);
+            }
+            undeleted.removeIf(f -> f.delete() || !f.exists());
+          }
+        }
+        catch (InterruptedException ex)
+        {
+          return;
+        }
+      }
+    }
+  }
+}
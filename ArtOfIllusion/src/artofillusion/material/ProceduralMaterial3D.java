@@ -57,7 +57,9 @@ public class ProceduralMaterial3D extends Material3D implements ProcedureOwner
   }
 
   /**
-   * Reinitialize the ThreadLocal that holds copies of the Procedure during rendering.
+   * Reinitialize the ThreadLocal that holds compiled copies of the Procedure during rendering.  The
+   * outputs are compiled in the order getMaterialSpec() uses them, so the ones it skips when the
+   * density is zero are not calculated.
    */
 
   private void initThreadLocal()
@@ -68,7 +70,9 @@ public class ProceduralMaterial3D extends Material3D implements ProcedureOwner
       {
         Procedure localProc = createProcedure();
         localProc.copy(proc);
-        return localProc;
+        localProc.optimize();
+        int V = CompiledProcedure.VALUE, C = CompiledProcedure.COLOR;
+        return localProc.compile(new int [] {5, 6, 0, 4, 1, 3, 2}, new int [] {V, V, C, V, C, V, C});
       }
     };
   }
@@ -92,8 +96,7 @@ public class ProceduralMaterial3D extends Material3D implements ProcedureOwner
   @Override
   public void getMaterialSpec(MaterialSpec spec, double x, double y, double z, double xsize, double ysize, double zsize, double t)
   {
-    Procedure pr = (Procedure) renderingProc.get();
-    OutputModule output[] = pr.getOutputModules();
+    CompiledProcedure pr = (CompiledProcedure) renderingProc.get();
     PointInfo info = new PointInfo();
     info.x = x;
     info.y = y;
@@ -104,8 +107,8 @@ public class ProceduralMaterial3D extends Material3D implements ProcedureOwner
     info.t = t;
     info.param = null;
     pr.initForPoint(info);
-    double density = output[5].getAverageValue(0, 0.0);
-    double eccentricity = output[6].getAverageValue(0, 0.0);
+    double density = pr.getOutputValue(5);
+    double eccentricity = pr.getOutputValue(6);
     if (density < 0.0)
       density = 0.0;
     if (density > 1.0)
@@ -115,20 +118,20 @@ public class ProceduralMaterial3D extends Material3D implements ProcedureOwner
     if (eccentricity > 1.0)
       eccentricity = 1.0;
     spec.eccentricity = eccentricity;
-    output[0].getColor(0, spec.color, 0.0);
+    pr.getOutputColor(0, spec.color);
     if (density == 0.0)
       {
         spec.transparency.setRGB(1.0f, 1.0f, 1.0f);
         spec.scattering.setRGB(0.0f, 0.0f, 0.0f);
         return;
       }
-    double scattering = output[4].getAverageValue(0, 0.0);
+    double scattering = pr.getOutputValue(4);
     if (scattering < 0.0)
       scattering = 0.0;
     if (scattering > 1.0)
       scattering = 1.0;
-    output[1].getColor(0, spec.transparency, 0.0);
-    spec.transparency.scale(output[3].getAverageValue(0, 0.0));
+    pr.getOutputColor(1, spec.transparency);
+    spec.transparency.scale(pr.getOutputValue(3));
     double tr = spec.transparency.getRed(), tg = spec.transparency.getGreen(), tb = spec.transparency.getBlue();
     if (tr < 0.0)
       tr = 0.0;
@@ -137,7 +140,7 @@ public class ProceduralMaterial3D extends Material3D implements ProcedureOwner
     if (tb < 0.0)
       tb = 0.0;
     spec.transparency.setRGB((float) Math.pow(tr, density), (float) Math.pow(tg, density), (float) Math.pow(tb, density));
-    output[2].getColor(0, spec.scattering, 0.0);
+    pr.getOutputColor(2, spec.scattering);
     spec.scattering.scale(density*scattering);
   }
 
@@ -169,6 +172,13 @@ public class ProceduralMaterial3D extends Material3D implements ProcedureOwner
     return shadows;
   }
 
+  /** Get the procedure used by this material. */
+
+  public Procedure getProcedure()
+  {
+    return proc;
+  }
+
   @Override
   public Material duplicate()
   {
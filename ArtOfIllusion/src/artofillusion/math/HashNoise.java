@@ -0,0 +1,282 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.math;
+
+/**
+ * This class implements a seeded gradient noise function which does not use any lookup tables.
+ * It uses the interpolation function from Ken Perlin's "Improving Noise" (SIGGRAPH 2002), but the
+ * gradient at each lattice point is chosen by hashing its coordinates together with the seed, rather
+ * than by looking it up in a permutation table.  This means that different seeds give
+ * independent noise functions, the function does not repeat every 256 units, and all of the work is
+ * simple integer and floating point arithmetic.
+ * <p>
+ * Like {@link PerlinNoise} and {@link SimplexNoise}, this is a function which varies smoothly between
+ * -1.0 and 1.0, with all of the variation happening on a length scale of about 1.  Methods
+ * are provided for adding several octaves together in a single call, and for evaluating many points
+ * at once.  It also implements {@link Noise.NoiseGenerator}, so it can be used as the noise function
+ * for the whole application.
+ * <p>
+ * Procedural textures and materials use it through the Seeded Noise and Seeded Turbulence modules.
+ * The ordinary Noise and Turbulence modules keep using {@link Noise}, so existing scenes render
+ * exactly as before.
+ */
+
+public class HashNoise implements Noise.NoiseGenerator
+{
+  private final int seed;
+
+  /**
+   * Create a noise function.
+   *
+   * @param seed    the seed which determines the random gradients
+   */
+
+  public HashNoise(int seed)
+  {
+    this.seed = seed;
+  }
+
+  /** Get the seed for this noise function. */
+
+  public int getSeed()
+  {
+    return seed;
+  }
+
+  /** Given a point in 3D space, return the value of the noise function at that point. */
+
+  public double value(double x, double y, double z)
+  {
+    double xf = FastMath.floor(x), yf = FastMath.floor(y), zf = FastMath.floor(z);
+    int i = (int) xf, j = (int) yf, k = (int) zf;
+    double dx = x-xf, dy = y-yf, dz = z-zf;
+    double u = fade(dx), v = fade(dy), w = fade(dz);
+    int hx0 = i*PRIME_X, hx1 = hx0+PRIME_X, hy0 = j*PRIME_Y, hy1 = hy0+PRIME_Y, hz0 = k*PRIME_Z, hz1 = hz0+PRIME_Z;
+    double n000 = grad(hash(hx0, hy0, hz0), dx, dy, dz);
+    double n100 = grad(hash(hx1, hy0, hz0), dx-1.0, dy, dz);
+    double n010 = grad(hash(hx0, hy1, hz0), dx, dy-1.0, dz);
+    double n110 = grad(hash(hx1, hy1, hz0), dx-1.0, dy-1.0, dz);
+    double n001 = grad(hash(hx0, hy0, hz1), dx, dy, dz-1.0);
+    double n101 = grad(hash(hx1, hy0, hz1), dx-1.0, dy, dz-1.0);
+    double n011 = grad(hash(hx0, hy1, hz1), dx, dy-1.0, dz-1.0);
+    double n111 = grad(hash(hx1, hy1, hz1), dx-1.0, dy-1.0, dz-1.0);
+    double nx00 = n000+u*(n100-n000), nx10 = n010+u*(n110-n010);
+    double nx01 = n001+u*(n101-n001), nx11 = n011+u*(n111-n011);
+    double nxy0 = nx00+v*(nx10-nx00), nxy1 = nx01+v*(nx11-nx01);
+    return GRADIENT_SCALE*(nxy0+w*(nxy1-nxy0));
+  }
+
+  /**
+   * Given a point in 3D space, calculate the gradient of the noise function at that point,
+   * and return its value.
+   */
+
+  public double gradient(Vec3 gradient, double x, double y, double z)
+  {
+    double xf = FastMath.floor(x), yf = FastMath.floor(y), zf = FastMath.floor(z);
+    int i = (int) xf, j = (int) yf, k = (int) zf;
+    double dx = x-xf, dy = y-yf, dz = z-zf;
+    double u = fade(dx), v = fade(dy), w = fade(dz);
+    double du = fadeDerivative(dx), dv = fadeDerivative(dy), dw = fadeDerivative(dz);
+    int hx0 = i*PRIME_X, hx1 = hx0+PRIME_X, hy0 = j*PRIME_Y, hy1 = hy0+PRIME_Y, hz0 = k*PRIME_Z, hz1 = hz0+PRIME_Z;
+    int h000 = hash(hx0, hy0, hz0), h100 = hash(hx1, hy0, hz0), h010 = hash(hx0, hy1, hz0), h110 = hash(hx1, hy1, hz0);
+    int h001 = hash(hx0, hy0, hz1), h101 = hash(hx1, hy0, hz1), h011 = hash(hx0, hy1, hz1), h111 = hash(hx1, hy1, hz1);
+    double n000 = grad(h000, dx, dy, dz);
+    double n100 = grad(h100, dx-1.0, dy, dz);
+    double n010 = grad(h010, dx, dy-1.0, dz);
+    double n110 = grad(h110, dx-1.0, dy-1.0, dz);
+    double n001 = grad(h001, dx, dy, dz-1.0);
+    double n101 = grad(h101, dx-1.0, dy, dz-1.0);
+    double n011 = grad(h011, dx, dy-1.0, dz-1.0);
+    double n111 = grad(h111, dx-1.0, dy-1.0, dz-1.0);
+
+    // Write the interpolated value as a polynomial in u, v, and w.
+
+    double k1 = n100-n000, k2 = n010-n000, k3 = n001-n000;
+    double k4 = n000-n100-n010+n110, k5 = n000-n010-n001+n011, k6 = n000-n100-n001+n101;
+    double k7 = -n000+n100+n010-n110+n001-n101-n011+n111;
+
+    // The gradient has two parts: the interpolated gradient vectors, and the derivative of the
+    // interpolation weights.
+
+    double w000 = (1.0-u)*(1.0-v)*(1.0-w), w100 = u*(1.0-v)*(1.0-w), w010 = (1.0-u)*v*(1.0-w), w110 = u*v*(1.0-w);
+    double w001 = (1.0-u)*(1.0-v)*w, w101 = u*(1.0-v)*w, w011 = (1.0-u)*v*w, w111 = u*v*w;
+    gradient.x = w000*gradX(h000)+w100*gradX(h100)+w010*gradX(h010)+w110*gradX(h110)+
+        w001*gradX(h001)+w101*gradX(h101)+w011*gradX(h011)+w111*gradX(h111)+
+        du*(k1+k4*v+k6*w+k7*v*w);
+    gradient.y = w000*gradY(h000)+w100*gradY(h100)+w010*gradY(h010)+w110*gradY(h110)+
+        w001*gradY(h001)+w101*gradY(h101)+w011*gradY(h011)+w111*gradY(h111)+
+        dv*(k2+k4*u+k5*w+k7*u*w);
+    gradient.z = w000*gradZ(h000)+w100*gradZ(h100)+w010*gradZ(h010)+w110*gradZ(h110)+
+        w001*gradZ(h001)+w101*gradZ(h101)+w011*gradZ(h011)+w111*gradZ(h111)+
+        dw*(k3+k5*v+k6*u+k7*u*v);
+    gradient.scale(GRADIENT_SCALE);
+    return GRADIENT_SCALE*(n000+k1*u+k2*v+k3*w+k4*u*v+k5*v*w+k6*u*w+k7*u*v*w);
+  }
+
+  /**
+   * Add together several octaves of the noise function.  Octave n is evaluated at (2^n)*(x, y, z)
+   * and multiplied by persistence^n.
+   *
+   * @param x            the x coordinate of the point
+   * @param y            the y coordinate of the point
+   * @param z            the z coordinate of the point
+   * @param octaves      the number of octaves to add
+   * @param persistence  the factor by which the amplitude changes from one octave to the next
+   */
+
+  public double fractal(double x, double y, double z, int octaves, double persistence)
+  {
+    double sum = 0.0, amp = 1.0, scale = 1.0;
+    for (int i = 0; i < octaves; i++)
+    {
+      sum += amp*value(x*scale, y*scale, z*scale);
+      amp *= persistence;
+      scale *= 2.0;
+    }
+    return sum;
+  }
+
+  /**
+   * Evaluate the noise function at many points.  The results are identical to calling
+   * {@link #value value()} for each point.
+   *
+   * @param x        the x coordinates of the points
+   * @param y        the y coordinates of the points
+   * @param z        the z coordinates of the points
+   * @param result   on exit, element i contains the value at point i
+   * @param count    the number of points to evaluate
+   */
+
+  public void values(double x[], double y[], double z[], double result[], int count)
+  {
+    for (int i = 0; i < count; i++)
+      result[i] = value(x[i], y[i], z[i]);
+  }
+
+  /**
+   * Evaluate several octaves of the noise function at many points.  The results are identical
+   * to calling {@link #fractal fractal()} for each point.
+   *
+   * @param x            the x coordinates of the points
+   * @param y            the y coordinates of the points
+   * @param z            the z coordinates of the points
+   * @param result       on exit, element i contains the value at point i
+   * @param count        the number of points to evaluate
+   * @param octaves      the number of octaves to add
+   * @param persistence  the factor by which the amplitude changes from one octave to the next
+   */
+
+  public void fractalValues(double x[], double y[], double z[], double result[], int count, int octaves, double persistence)
+  {
+    // Loop over octaves on the outside, so the inner loop does the same work for every point.
+
+    for (int i = 0; i < count; i++)
+      result[i] = 0.0;
+    double amp = 1.0, scale = 1.0;
+    for (int octave = 0; octave < octaves; octave++)
+    {
+      for (int i = 0; i < count; i++)
+        result[i] += amp*value(x[i]*scale, y[i]*scale, z[i]*scale);
+      amp *= persistence;
+      scale *= 2.0;
+    }
+  }
+
+  @Override
+  public double getValue(double x, double y, double z)
+  {
+    return value(x, y, z);
+  }
+
+  @Override
+  public void getGradient(Vec3 gradient, double x, double y, double z)
+  {
+    gradient(gradient, x, y, z);
+  }
+
+  /** The vector noise function uses the scalar function at three widely separated offsets. */
+
+  @Override
+  public void getVector(Vec3 v, double x, double y, double z)
+  {
+    v.set(value(x, y, z), value(x+VECTOR_OFFSET, y, z), value(x, y+VECTOR_OFFSET, z));
+  }
+
+  private static final int PRIME_X = 0x5bd1e995;
+  private static final int PRIME_Y = 0x27d4eb2d;
+  private static final int PRIME_Z = 0x165667b1;
+  private static final double VECTOR_OFFSET = 1013.6421;
+
+  /**
+   * The gradients have length sqrt(3), so without scaling the function could reach 1.5 at the centre
+   * of a cell whose gradients all point away from it.  This scales that worst case to exactly 1.
+   */
+
+  static final double GRADIENT_SCALE = 2.0/3.0;
+
+  /**
+   * Hash the coordinates of a lattice point, which have already been multiplied by their primes.
+   * Only the top three bits are used, since they are the most thoroughly mixed.
+   */
+
+  private int hash(int hx, int hy, int hz)
+  {
+    return ((hx^hy^hz^seed)*0x27d4eb2d)>>>29;
+  }
+
+  /** The interpolation function 6t^5 - 15t^4 + 10t^3. */
+
+  static double fade(double t)
+  {
+    return t*t*t*(t*(t*6.0-15.0)+10.0);
+  }
+
+  /** The derivative of the interpolation function. */
+
+  private static double fadeDerivative(double t)
+  {
+    double s = t*(t-1.0);
+    return 30.0*s*s;
+  }
+
+  /**
+   * Get the dot product of the gradient vector selected by a hash value with (x, y, z).  The gradients
+   * point to the eight corners of a cube, so each component is +1 or -1 depending on one bit of the
+   * hash, and no branches or tables are needed.
+   */
+
+  private static double grad(int hash, double x, double y, double z)
+  {
+    return gradX(hash)*x + gradY(hash)*y + gradZ(hash)*z;
+  }
+
+  /** Get the x component of the gradient vector selected by a hash value. */
+
+  private static double gradX(int hash)
+  {
+    return 1-((hash&1)<<1);
+  }
+
+  /** Get the y component of the gradient vector selected by a hash value. */
+
+  private static double gradY(int hash)
+  {
+    return 1-(hash&2);
+  }
+
+  /** Get the z component of the gradient vector selected by a hash value. */
+
+  private static double gradZ(int hash)
+  {
+    return 1-((hash&4)>>1);
+  }
+}
@@ -0,0 +1,642 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.procedural;
+
+import artofillusion.math.*;
+import java.util.*;
+
+/**
+ * A CompiledProcedure evaluates the outputs of a {@link Procedure} with a flat list of instructions,
+ * rather than by recursively calling methods on its modules.  The modules are sorted so that each one
+ * comes after all the modules it depends on, and each is translated into a single instruction that
+ * reads and writes slots in an array of registers.  Only the values that are actually needed (value,
+ * gradient, or color) are calculated for each module.
+ * <p>
+ * Simple modules such as arithmetic and color operations are translated directly.  Any other module
+ * is evaluated by an instruction which calls its own methods, so it gets exactly the same result as
+ * it would in the Procedure.  Those modules (and everything they depend on) are initialized for each
+ * point as usual.
+ * <p>
+ * The instructions for each output are placed in a separate segment, and are only executed the first
+ * time that output (or one compiled after it) is requested for a point.  A CompiledProcedure must be
+ * created again if the Procedure is modified.  Like the modules themselves, it can only be used by
+ * one thread at a time.
+ */
+
+public class CompiledProcedure
+{
+  /** Compile the value of an output. */
+  public static final int VALUE = 1;
+  /** Compile the gradient of an output. */
+  public static final int GRADIENT = 2;
+  /** Compile the color of an output. */
+  public static final int COLOR = 4;
+
+  // Each output port is assigned a block of registers, laid out as follows.
+
+  private static final int V = 0;
+  private static final int GX = 1;
+  private static final int GY = 2;
+  private static final int GZ = 3;
+  private static final int R = 4;
+  private static final int G = 5;
+  private static final int B = 6;
+  private static final int BLOCK_SIZE = 7;
+
+  // The instruction set.  Every instruction is stored as six ints: the opcode, the channels to calculate,
+  // the destination block, and three operands.
+
+  private static final int CALL = 0;
+  private static final int COORDINATE = 1;
+  private static final int SUM = 2;
+  private static final int DIFFERENCE = 3;
+  private static final int PRODUCT = 4;
+  private static final int RATIO = 5;
+  private static final int SCALE_SHIFT = 6;
+  private static final int ABS = 7;
+  private static final int MIN = 8;
+  private static final int MAX = 9;
+  private static final int RGB = 10;
+  private static final int COLOR_SCALE = 11;
+  private static final int COLOR_SUM = 12;
+  private static final int COLOR_PRODUCT = 13;
+  private static final int INSTRUCTION_SIZE = 6;
+
+  // Ways of calculating the gradient for RATIO instructions.
+
+  private static final int RATIO_GRADIENT = 0;
+  private static final int ZERO_GRADIENT = 1;
+  private static final int INFINITE_GRADIENT = 2;
+
+  private final int code[];
+  private final double register[];
+  private final Module fallback[], initModule[];
+  private final int outputBlock[], outputEnd[];
+  private final Vec3 tempVec;
+  private final RGBColor tempColor;
+  private PointInfo point;
+  private int position;
+
+  /**
+   * Compile a Procedure.
+   *
+   * @param proc      the Procedure to compile
+   * @param outputs   the indices of the output modules to compile, in the order they will usually be requested
+   * @param channels  for each element of outputs, the values which are needed for it (a combination of
+   *                  VALUE, GRADIENT, and COLOR)
+   */
+
+  public CompiledProcedure(Procedure proc, int outputs[], int channels[])
+  {
+    Compiler compiler = new Compiler(proc, outputs, channels);
+    code = Arrays.copyOf(compiler.code, compiler.codeLength);
+    register = compiler.registers.clone();
+    fallback = compiler.fallback.toArray(new Module [compiler.fallback.size()]);
+    initModule = compiler.initModule.toArray(new Module [compiler.initModule.size()]);
+    outputBlock = compiler.outputBlock;
+    outputEnd = compiler.outputEnd;
+    tempVec = new Vec3();
+    tempColor = new RGBColor();
+  }
+
+  /** Get the number of modules which could not be compiled, and are evaluated by calling their own methods. */
+
+  public int getFallbackModuleCount()
+  {
+    return fallback.length;
+  }
+
+  /**
+   * This routine is called before the procedure is evaluated.  The PointInfo object describes
+   * the point for which it is to be evaluated.
+   */
+
+  public void initForPoint(PointInfo p)
+  {
+    point = p;
+    position = 0;
+    for (Module module : initModule)
+      module.init(p);
+  }
+
+  /**
+   * Get the value of the specified output module.  The output must have been compiled with the
+   * VALUE channel.
+   */
+
+  public double getOutputValue(int which)
+  {
+    return register[evaluate(which)+V];
+  }
+
+  /**
+   * Get the gradient of the specified output module.  The output must have been compiled with the
+   * GRADIENT channel.
+   */
+
+  public void getOutputGradient(int which, Vec3 grad)
+  {
+    int block = evaluate(which);
+    grad.set(register[block+GX], register[block+GY], register[block+GZ]);
+  }
+
+  /**
+   * Get the color of the specified output module.  The output must have been compiled with the
+   * COLOR channel.
+   */
+
+  public void getOutputColor(int which, RGBColor color)
+  {
+    int block = evaluate(which);
+    color.setRGB((float) register[block+R], (float) register[block+G], (float) register[block+B]);
+  }
+
+  /** Make sure the instructions for an output have been executed, and return its register block. */
+
+  private int evaluate(int which)
+  {
+    if (which >= outputEnd.length || outputEnd[which] < 0)
+      throw new IllegalArgumentException("Output "+which+" was not compiled");
+    if (position < outputEnd[which])
+    {
+      execute(position, outputEnd[which]);
+      position = outputEnd[which];
+    }
+    return outputBlock[which];
+  }
+
+  /** Execute a range of instructions. */
+
+  private void execute(int start, int end)
+  {
+    int c[] = code;
+    double r[] = register;
+    for (int pc = start; pc < end; pc += INSTRUCTION_SIZE)
+    {
+      int channels = c[pc+1], dest = c[pc+2], a = c[pc+3], b = c[pc+4];
+      boolean gradient = ((channels & GRADIENT) != 0);
+      switch (c[pc])
+      {
+        case CALL:
+          {
+            Module module = fallback[a];
+            if ((channels & VALUE) != 0)
+              r[dest+V] = module.getAverageValue(b, 0.0);
+            if (gradient)
+            {
+              module.getValueGradient(b, tempVec, 0.0);
+              r[dest+GX] = tempVec.x;
+              r[dest+GY] = tempVec.y;
+              r[dest+GZ] = tempVec.z;
+            }
+            if ((channels & COLOR) != 0)
+            {
+              module.getColor(b, tempColor, 0.0);
+              r[dest+R] = tempColor.getRed();
+              r[dest+G] = tempColor.getGreen();
+              r[dest+B] = tempColor.getBlue();
+            }
+            break;
+          }
+        case COORDINATE:
+          r[dest+V] = (a == CoordinateModule.X ? point.x : a == CoordinateModule.Y ? point.y : a == CoordinateModule.Z ? point.z : point.t);
+          r[dest+GX] = (a == CoordinateModule.X ? 1.0 : 0.0);
+          r[dest+GY] = (a == CoordinateModule.Y ? 1.0 : 0.0);
+          r[dest+GZ] = (a == CoordinateModule.Z ? 1.0 : 0.0);
+          break;
+        case SUM:
+          r[dest+V] = r[a+V]+r[b+V];
+          if (gradient)
+          {
+            r[dest+GX] = r[a+GX]+r[b+GX];
+            r[dest+GY] = r[a+GY]+r[b+GY];
+            r[dest+GZ] = r[a+GZ]+r[b+GZ];
+          }
+          break;
+        case DIFFERENCE:
+          r[dest+V] = r[a+V]-r[b+V];
+          if (gradient)
+          {
+            r[dest+GX] = r[a+GX]-r[b+GX];
+            r[dest+GY] = r[a+GY]-r[b+GY];
+            r[dest+GZ] = r[a+GZ]-r[b+GZ];
+          }
+          break;
+        case PRODUCT:
+          {
+            double value1 = r[a+V], value2 = r[b+V];
+            r[dest+V] = value1*value2;
+            if (gradient)
+            {
+              r[dest+GX] = r[a+GX]*value2 + r[b+GX]*value1;
+              r[dest+GY] = r[a+GY]*value2 + r[b+GY]*value1;
+              r[dest+GZ] = r[a+GZ]*value2 + r[b+GZ]*value1;
+            }
+            break;
+          }
+        case RATIO:
+          {
+            double value1 = r[a+V], value2 = r[b+V];
+            if (value2 == 0.0)
+              r[dest+V] = (value1 < 0.0 ? -Double.MAX_VALUE : Double.MAX_VALUE);
+            else
+              r[dest+V] = value1/value2;
+            if (gradient)
+            {
+              int mode = c[pc+5];
+              if (mode == ZERO_GRADIENT)
+                r[dest+GX] = r[dest+GY] = r[dest+GZ] = 0.0;
+              else if (mode == INFINITE_GRADIENT)
+                r[dest+GX] = r[dest+GY] = r[dest+GZ] = Double.MAX_VALUE;
+              else
+              {
+                double d1 = 1.0/value2, d2 = value1/(value2*value2);
+                r[dest+GX] = r[a+GX]*d1 - r[b+GX]*d2;
+                r[dest+GY] = r[a+GY]*d1 - r[b+GY]*d2;
+                r[dest+GZ] = r[a+GZ]*d1 - r[b+GZ]*d2;
+              }
+            }
+            break;
+          }
+        case SCALE_SHIFT:
+          {
+            // The gradient is shifted as well as scaled, exactly as ScaleShiftModule does.
+
+            double scale = r[b+V], shift = r[c[pc+5]+V];
+            r[dest+V] = r[a+V]*scale + shift;
+            if (gradient)
+            {
+              r[dest+GX] = r[a+GX]*scale+shift;
+              r[dest+GY] = r[a+GY]*scale+shift;
+              r[dest+GZ] = r[a+GZ]*scale+shift;
+            }
+            break;
+          }
+        case ABS:
+          {
+            double value = r[a+V];
+            boolean positive = (value > 0.0);
+            r[dest+V] = (positive ? value : -value);
+            if (gradient)
+            {
+              r[dest+GX] = (positive ? r[a+GX] : r[a+GX]*-1.0);
+              r[dest+GY] = (positive ? r[a+GY] : r[a+GY]*-1.0);
+              r[dest+GZ] = (positive ? r[a+GZ] : r[a+GZ]*-1.0);
+            }
+            break;
+          }
+        case MIN:
+        case MAX:
+          {
+            // MinModule and MaxModule always take the gradient from their first input, so this does too.
+
+            double value1 = r[a+V], value2 = r[b+V];
+            r[dest+V] = ((c[pc] == MIN ? value1 < value2 : value1 > value2) ? value1 : value2);
+            if (gradient)
+            {
+              r[dest+GX] = r[a+GX];
+              r[dest+GY] = r[a+GY];
+              r[dest+GZ] = r[a+GZ];
+            }
+            break;
+          }
+        case RGB:
+          r[dest+R] = (float) r[a+V];
+          r[dest+G] = (float) r[b+V];
+          r[dest+B] = (float) r[c[pc+5]+V];
+          break;
+        case COLOR_SCALE:
+          {
+            float scale = (float) r[b+V];
+            r[dest+R] = (float) (r[a+R]*scale);
+            r[dest+G] = (float) (r[a+G]*scale);
+            r[dest+B] = (float) (r[a+B]*scale);
+            break;
+          }
+        case COLOR_SUM:
+          r[dest+R] = (float) (r[a+R]+r[b+R]);
+          r[dest+G] = (float) (r[a+G]+r[b+G]);
+          r[dest+B] = (float) (r[a+B]+r[b+B]);
+          break;
+        case COLOR_PRODUCT:
+          r[dest+R] = (float) (r[a+R]*r[b+R]);
+          r[dest+G] = (float) (r[a+G]*r[b+G]);
+          r[dest+B] = (float) (r[a+B]*r[b+B]);
+          break;
+      }
+    }
+  }
+
+  /**
+   * This class translates a Procedure into instructions.
+   */
+
+  private static class Compiler
+  {
+    final Map<Module, Node> nodes = new IdentityHashMap<Module, Node>();
+    final List<Node> sorted = new ArrayList<Node>();
+    final List<Module> fallback = new ArrayList<Module>(), initModule = new ArrayList<Module>();
+    final int outputBlock[], outputEnd[];
+    int code[] = new int [16*INSTRUCTION_SIZE], codeLength;
+    double registers[] = new double [16*BLOCK_SIZE];
+    int numBlocks;
+
+    Compiler(Procedure proc, int outputs[], int channels[])
+    {
+      OutputModule output[] = proc.getOutputModules();
+      outputBlock = new int [output.length];
+      outputEnd = new int [output.length];
+      Arrays.fill(outputEnd, -1);
+
+      // Sort the modules, and work out which values are needed from each one.
+
+      for (int i = 0; i < outputs.length; i++)
+      {
+        OutputModule out = output[outputs[i]];
+        if (out.linkFrom[0] != null)
+          sort(out.linkFrom[0]);
+      }
+      for (int i = 0; i < outputs.length; i++)
+      {
+        OutputModule out = output[outputs[i]];
+        if (out.linkFrom[0] != null)
+          nodes.get(out.linkFrom[0]).channels[out.linkFromIndex[0]] |= channels[i];
+      }
+      for (int i = sorted.size()-1; i >= 0; i--)
+        sorted.get(i).propagateChannels();
+      for (Node node : sorted)
+        if (node.needsInit)
+          initModule.add(node.module);
+
+      // Generate the instructions for each output in turn.
+
+      for (int i = 0; i < outputs.length; i++)
+      {
+        OutputModule out = output[outputs[i]];
+        if (out.linkFrom[0] == null)
+          outputBlock[outputs[i]] = constant(out.defaultValue, out.defaultColor);
+        else
+          outputBlock[outputs[i]] = emit(out.linkFrom[0]).block[out.linkFromIndex[0]];
+        outputEnd[outputs[i]] = codeLength;
+      }
+    }
+
+    /** Add a module, and everything it depends on, to the sorted list. */
+
+    private void sort(Module module)
+    {
+      if (nodes.containsKey(module))
+        return;
+      Node node = new Node(module);
+      nodes.put(module, node);
+      for (int i = 0; i < module.linkFrom.length; i++)
+        if (module.linkFrom[i] != null)
+          sort(module.linkFrom[i]);
+      sorted.add(node);
+    }
+
+    /** Get the node for an input of a module, or null if it is not connected. */
+
+    private Node input(Module module, int which)
+    {
+      return (module.linkFrom[which] == null ? null : nodes.get(module.linkFrom[which]));
+    }
+
+    /** Get the register block for an input of a module, or a constant block if it is not connected. */
+
+    private int inputBlock(Module module, int which, double defaultValue, float defaultColor)
+    {
+      Node node = input(module, which);
+      if (node == null)
+        return constant(defaultValue, new RGBColor(defaultColor, defaultColor, defaultColor));
+      return node.block[module.linkFromIndex[which]];
+    }
+
+    /** Generate the instructions for a module and everything it depends on, if that has not already been done. */
+
+    private Node emit(Module module)
+    {
+      Node node = nodes.get(module);
+      if (node.emitted)
+        return node;
+      node.emitted = true;
+      if (node.compiled)
+      {
+        for (int i = 0; i < module.linkFrom.length; i++)
+          if (module.linkFrom[i] != null)
+            emit(module.linkFrom[i]);
+        node.compile();
+      }
+      else
+      {
+        // This module will calculate its own values.
+
+        int index = fallback.size();
+        fallback.add(module);
+        for (int i = 0; i < node.block.length; i++)
+          if (node.channels[i] != 0)
+          {
+            node.block[i] = allocateBlock();
+            instruction(CALL, node.channels[i], node.block[i], index, i, 0);
+          }
+      }
+      return node;
+    }
+
+    /** Allocate a new block of registers. */
+
+    private int allocateBlock()
+    {
+      int block = (numBlocks++)*BLOCK_SIZE;
+      if (block+BLOCK_SIZE > registers.length)
+        registers = Arrays.copyOf(registers, 2*registers.length);
+      return block;
+    }
+
+    /** Get a block of registers holding constant values.  The color may be null, in which case it is black. */
+
+    private int constant(double value, RGBColor color)
+    {
+      int block = allocateBlock();
+      registers[block+V] = value;
+      if (color == null)
+        return block;
+      registers[block+R] = color.getRed();
+      registers[block+G] = color.getGreen();
+      registers[block+B] = color.getBlue();
+      return block;
+    }
+
+    /** Add an instruction. */
+
+    private void instruction(int op, int channels, int dest, int a, int b, int c)
+    {
+      if (codeLength+INSTRUCTION_SIZE > code.length)
+        code = Arrays.copyOf(code, 2*code.length);
+      code[codeLength++] = op;
+      code[codeLength++] = channels;
+      code[codeLength++] = dest;
+      code[codeLength++] = a;
+      code[codeLength++] = b;
+      code[codeLength++] = c;
+    }
+
+    /**
+     * This holds information about a single module while it is being compiled.
+     */
+
+    private class Node
+    {
+      final Module module;
+      final int channels[], block[];
+      final boolean compiled;
+      boolean needsInit, emitted;
+
+      Node(Module module)
+      {
+        this.module = module;
+        channels = new int [module.getOutputPorts().length];
+        block = new int [channels.length];
+        Class<?> cls = module.getClass();
+        compiled = (cls == NumberModule.class || cls == ColorModule.class || cls == CoordinateModule.class ||
+            cls == SumModule.class || cls == DifferenceModule.class || cls == ProductModule.class ||
+            cls == RatioModule.class || cls == ScaleShiftModule.class || cls == AbsModule.class ||
+            cls == MinModule.class || cls == MaxModule.class || cls == RGBModule.class ||
+            cls == ColorScaleModule.class || cls == ColorSumModule.class || cls == ColorProductModule.class);
+      }
+
+      /**
+       * Work out which values are needed from the inputs to this module.  This is called after it has
+       * been called for every module that depends on this one.
+       */
+
+      void propagateChannels()
+      {
+        if (!compiled)
+        {
+          // The module will evaluate its inputs itself, so they all need to be initialized.
+
+          markNeedsInit();
+          return;
+        }
+        int needed = channels[0];
+        if (needed == 0)
+          return;
+        Class<?> cls = module.getClass();
+        int numberInputs = needed;
+        if ((needed & GRADIENT) != 0 && (cls == ProductModule.class || cls == RatioModule.class ||
+            cls == AbsModule.class || cls == MinModule.class || cls == MaxModule.class))
+          numberInputs |= VALUE;
+        for (int i = 0; i < module.linkFrom.length; i++)
+        {
+          Node node = input(module, i);
+          if (node == null)
+            continue;
+          int inputChannels;
+          if (cls == RGBModule.class || (cls == ColorScaleModule.class && i == 1) ||
+              ((cls == MinModule.class || cls == MaxModule.class) && i == 1))
+            inputChannels = VALUE;
+          else
+            inputChannels = numberInputs;
+          node.channels[module.linkFromIndex[i]] |= inputChannels;
+        }
+      }
+
+      /** Mark that this module and everything it depends on need to be initialized for each point. */
+
+      void markNeedsInit()
+      {
+        if (needsInit)
+          return;
+        needsInit = true;
+        for (int i = 0; i < module.linkFrom.length; i++)
+        {
+          Node node = input(module, i);
+          if (node != null)
+            node.markNeedsInit();
+        }
+      }
+
+      /** Generate the instruction for this module. */
+
+      void compile()
+      {
+        int needed = channels[0];
+        if (module instanceof NumberModule)
+        {
+          block[0] = constant(((NumberModule) module).getValue(), new RGBColor());
+          return;
+        }
+        if (module instanceof ColorModule)
+        {
+          block[0] = constant(0.0, ((ColorModule) module).getColor());
+          return;
+        }
+        if (needed == 0)
+          return;
+        if (module instanceof CoordinateModule)
+        {
+          block[0] = allocateBlock();
+          instruction(COORDINATE, needed, block[0], ((CoordinateModule) module).coordinate, 0, 0);
+          return;
+        }
+        boolean connected0 = (module.linkFrom[0] != null), connected1 = (module.linkFrom.length > 1 && module.linkFrom[1] != null);
+        if (module instanceof ProductModule && !(connected0 && connected1))
+        {
+          block[0] = constant(0.0, new RGBColor());
+          return;
+        }
+        if (module instanceof ScaleShiftModule && !connected0)
+        {
+          block[0] = constant(((ScaleShiftModule) module).getShift(), new RGBColor());
+          return;
+        }
+        if (module instanceof ColorScaleModule && !connected1)
+        {
+          block[0] = inputBlock(module, 0, 0.0, 1.0f);
+          return;
+        }
+        block[0] = allocateBlock();
+        if (module instanceof SumModule)
+          instruction(SUM, needed, block[0], inputBlock(module, 0, 0.0, 0.0f), inputBlock(module, 1, 0.0, 0.0f), 0);
+        else if (module instanceof DifferenceModule)
+          instruction(DIFFERENCE, needed, block[0], inputBlock(module, 0, 0.0, 0.0f), inputBlock(module, 1, 0.0, 0.0f), 0);
+        else if (module instanceof ProductModule)
+          instruction(PRODUCT, needed, block[0], inputBlock(module, 0, 0.0, 0.0f), inputBlock(module, 1, 0.0, 0.0f), 0);
+        else if (module instanceof RatioModule)
+        {
+          int mode = (!connected0 ? ZERO_GRADIENT : !connected1 ? INFINITE_GRADIENT : RATIO_GRADIENT);
+          instruction(RATIO, needed, block[0], inputBlock(module, 0, 0.0, 0.0f), inputBlock(module, 1, 0.0, 0.0f), mode);
+        }
+        else if (module instanceof ScaleShiftModule)
+        {
+          ScaleShiftModule scaleShift = (ScaleShiftModule) module;
+          int scale = constant(scaleShift.getScale(), new RGBColor()), shift = constant(scaleShift.getShift(), new RGBColor());
+          instruction(SCALE_SHIFT, needed, block[0], inputBlock(module, 0, 0.0, 0.0f), scale, shift);
+        }
+        else if (module instanceof AbsModule)
+          instruction(ABS, needed, block[0], inputBlock(module, 0, 0.0, 0.0f), 0, 0);
+        else if (module instanceof MinModule)
+          instruction(MIN, needed, block[0], inputBlock(module, 0, 0.0, 0.0f), inputBlock(module, 1, 0.0, 0.0f), 0);
+        else if (module instanceof MaxModule)
+          instruction(MAX, needed, block[0], inputBlock(module, 0, 0.0, 0.0f), inputBlock(module, 1, 0.0, 0.0f), 0);
+        else if (module instanceof RGBModule)
+          instruction(RGB, needed, block[0], inputBlock(module, 0, 0.0, 0.0f), inputBlock(module, 1, 0.0, 0.0f), inputBlock(module, 2, 0.0, 0.0f));
+        else if (module instanceof ColorScaleModule)
+          instruction(COLOR_SCALE, needed, block[0], inputBlock(module, 0, 0.0, 1.0f), inputBlock(module, 1, 0.0, 0.0f), 0);
+        else if (module instanceof ColorSumModule)
+          instruction(COLOR_SUM, needed, block[0], inputBlock(module, 0, 0.0, 0.0f), inputBlock(module, 1, 0.0, 0.0f), 0);
+        else if (module instanceof ColorProductModule)
+          instruction(COLOR_PRODUCT, needed, block[0], inputBlock(module, 0, 0.0, 1.0f), inputBlock(module, 1, 0.0, 1.0f), 0);
+      }
+    }
+  }
+}
@@ -18,6 +18,7 @@ import buoy.event.*;
 import buoy.widget.*;
 import java.awt.*;
 import java.io.*;
+import java.util.Arrays;
 
 /** This is a Module which generates a marble pattern. */
 
@@ -110,6 +111,16 @@ public class MarbleModule extends ProceduralModule
     double xsize = (linkFrom[0] == null) ? 0.5*point.xsize+blur : linkFrom[0].getValueError(linkFromIndex[0], blur);
     double ysize = (linkFrom[1] == null) ? 0.5*point.ysize+blur : linkFrom[1].getValueError(linkFromIndex[1], blur);
     double zsize = (linkFrom[2] == null) ? 0.5*point.zsize+blur : linkFrom[2].getValueError(linkFromIndex[2], blur);
+    value = calcValue(x, y, z, persistence, xsize, ysize, zsize, blur);
+    valueOk = true;
+    lastBlur = blur;
+    return value;
+  }
+
+  /* Calculate the value, error, and gradient for a single point, and return the value. */
+
+  private double calcValue(double x, double y, double z, double persistence, double xsize, double ysize, double zsize, double blur)
+  {
     double amp = 0.5*amplitude, scale = 1.0, d;
     double cutoff = 0.5/Math.max(Math.max(xsize, ysize), zsize);
 
@@ -154,11 +165,31 @@ public class MarbleModule extends ProceduralModule
     error = Math.abs(xsize*gradient.x) + Math.abs(ysize*gradient.y) + Math.abs(zsize*gradient.z);
     if (error > 0.5)
       error = 0.5;
-    valueOk = true;
-    lastBlur = blur;
     return value;
   }
 
+  /* Evaluate a batch of points.  If the position comes directly from the points, the marble function
+     is calculated for each one without initializing anything. */
+
+  @Override
+  public void getAverageValues(int which, PointBatch points, double blur, double values[])
+  {
+    if (linkFrom[0] != null || linkFrom[1] != null || linkFrom[2] != null)
+      {
+        super.getAverageValues(which, points, blur, values);
+        return;
+      }
+    int n = points.getSize();
+    if (linkFrom[3] == null)
+      Arrays.fill(values, 0, n, 0.5);
+    else
+      linkFrom[3].getAverageValues(linkFromIndex[3], points, blur, values);
+    for (int i = 0; i < n; i++)
+      values[i] = calcValue(points.x[i], points.y[i], points.z[i], values[i], 0.5*points.xsize[i]+blur,
+          0.5*points.ysize[i]+blur, 0.5*points.zsize[i]+blur, blur);
+    valueOk = gradOk = false;
+  }
+
   /* The error is calculated at the same time as the value. */
 
   @Override
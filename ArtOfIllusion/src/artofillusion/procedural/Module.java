@@ -17,6 +17,10 @@ import buoy.widget.*;
 import java.awt.*;
 import java.io.*;
 import java.lang.reflect.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 /** This represents a module in a procedure.  This is an abstract class, whose subclasses
     represent specific kinds of modules.
@@ -338,6 +342,68 @@ public class Module
   {
   }
   
+  /** Get the average values of the specified output port at every point in a batch.  This is
+      equivalent to calling {@link #init init()} on this module and everything it depends on, then
+      calling {@link #getAverageValue getAverageValue()}, for each point in turn, which is what the
+      default implementation does.  Subclasses which can evaluate many points more efficiently
+      may override this method.
+      @param which    the output port
+      @param points   the points at which to evaluate it
+      @param blur     the amount of smoothing to use
+      @param values   on exit, element i contains the value at point i
+  */
+
+  public void getAverageValues(int which, PointBatch points, double blur, double values[])
+  {
+    Module modules[] = getInputModules();
+    PointInfo p = new PointInfo();
+    for (int i = 0; i < points.getSize(); i++)
+    {
+      points.getPoint(i, p);
+      for (Module module : modules)
+        module.init(p);
+      values[i] = getAverageValue(which, blur);
+    }
+  }
+
+  /** Get the colors of the specified output port at every point in a batch.  This is equivalent
+      to calling {@link #init init()} on this module and everything it depends on, then calling
+      {@link #getColor getColor()}, for each point in turn, which is what the default implementation
+      does.  Subclasses which can evaluate many points more efficiently may override this method.
+      @param which    the output port
+      @param points   the points at which to evaluate it
+      @param blur     the amount of smoothing to use
+      @param colors   on exit, element i contains the color at point i
+  */
+
+  public void getColors(int which, PointBatch points, double blur, RGBColor colors[])
+  {
+    Module modules[] = getInputModules();
+    PointInfo p = new PointInfo();
+    for (int i = 0; i < points.getSize(); i++)
+    {
+      points.getPoint(i, p);
+      for (Module module : modules)
+        module.init(p);
+      getColor(which, colors[i], blur);
+    }
+  }
+
+  /** Get this module and every module it depends on, directly or indirectly. */
+
+  Module[] getInputModules()
+  {
+    Set<Module> found = Collections.newSetFromMap(new IdentityHashMap<Module, Boolean>());
+    ArrayList<Module> modules = new ArrayList<Module>();
+    found.add(this);
+    modules.add(this);
+    for (int i = 0; i < modules.size(); i++)
+      for (Module input : modules.get(i).linkFrom)
+        if (input != null && found.add(input))
+          modules.add(input);
+    return modules.toArray(new Module [modules.size()]);
+  }
+
   /**
    * Create a duplicate of this module. Subclasses with adjustable parameters
    * should override this.
@@ -109,6 +109,8 @@ public class ModuleMenu extends CustomWidget
     categories.add(category = new Category(Translate.text("menu.patterns")));
     category.add(new Entry(Translate.text("menu.noiseModule"), NoiseModule.class));
     category.add(new Entry(Translate.text("menu.turbulenceModule"), TurbulenceModule.class));
+    category.add(new Entry(Translate.text("menu.seededNoiseModule"), SeededNoiseModule.class));
+    category.add(new Entry(Translate.text("menu.seededTurbulenceModule"), SeededTurbulenceModule.class));
     category.add(new Entry(Translate.text("menu.gridModule"), GridModule.class));
     category.add(new Entry(Translate.text("menu.cellsModule"), CellsModule.class));
     category.add(new Entry(Translate.text("menu.marbleModule"), MarbleModule.class));
@@ -18,6 +18,7 @@ import buoy.event.*;
 import buoy.widget.*;
 import java.awt.*;
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * This is a Module which generates fractal noise based on Perlin's noise
@@ -34,7 +35,15 @@ public class NoiseModule extends ProceduralModule
 
   public NoiseModule(Point position)
   {
-    super(Translate.text("menu.noiseModule"), new IOPort[] {new IOPort(IOPort.NUMBER, IOPort.INPUT, IOPort.LEFT, "X", "(X)"),
+    this(Translate.text("menu.noiseModule"), position);
+  }
+
+  /** Create a module with a different name.  This is used by subclasses which change the underlying
+      noise function. */
+
+  protected NoiseModule(String name, Point position)
+  {
+    super(name, new IOPort[] {new IOPort(IOPort.NUMBER, IOPort.INPUT, IOPort.LEFT, "X", "(X)"),
       new IOPort(IOPort.NUMBER, IOPort.INPUT, IOPort.LEFT, "Y", "(Y)"),
       new IOPort(IOPort.NUMBER, IOPort.INPUT, IOPort.LEFT, "Z", "(Z)"),
       new IOPort(IOPort.NUMBER, IOPort.INPUT, IOPort.LEFT, "Noise", "(0.5)")},
@@ -97,22 +106,65 @@ public class NoiseModule extends ProceduralModule
     double xsize = (linkFrom[0] == null) ? 0.5*point.xsize+blur : linkFrom[0].getValueError(linkFromIndex[0], blur);
     double ysize = (linkFrom[1] == null) ? 0.5*point.ysize+blur : linkFrom[1].getValueError(linkFromIndex[1], blur);
     double zsize = (linkFrom[2] == null) ? 0.5*point.zsize+blur : linkFrom[2].getValueError(linkFromIndex[2], blur);
+    value = calcValue(x, y, z, persistence, xsize, ysize, zsize);
+    valueOk = true;
+    lastBlur = blur;
+    return value;
+  }
+
+  /* Calculate the noise function for a single point. */
+
+  private double calcValue(double x, double y, double z, double persistence, double xsize, double ysize, double zsize)
+  {
     double amp = 0.5*amplitude, scale = 1.0;
     double cutoff = 0.5/Math.max(Math.max(xsize, ysize), zsize);
 
-    value = 0.0;
+    double value = 0.0;
     for (int i = 0; i < octaves && cutoff > scale; i++)
       {
         if (scale > 0.5*cutoff)
           amp *= 2.0*(1.0-scale/cutoff);
-        value += amp*Noise.value(x*scale+123.456, y*scale+123.456, z*scale+123.456);
+        value += amp*noiseValue(x*scale+123.456, y*scale+123.456, z*scale+123.456);
         amp *= persistence;
         scale *= 2.0;
       }
-    value = 0.5*value + 0.5;
-    valueOk = true;
-    lastBlur = blur;
-    return value;
+    return 0.5*value + 0.5;
+  }
+
+  /* Evaluate a batch of points.  If the position comes directly from the points, the noise function
+     is calculated for each one without initializing anything. */
+
+  @Override
+  public void getAverageValues(int which, PointBatch points, double blur, double values[])
+  {
+    if (linkFrom[0] != null || linkFrom[1] != null || linkFrom[2] != null)
+      {
+        super.getAverageValues(which, points, blur, values);
+        return;
+      }
+    int n = points.getSize();
+    if (linkFrom[3] == null)
+      Arrays.fill(values, 0, n, 0.5);
+    else
+      linkFrom[3].getAverageValues(linkFromIndex[3], points, blur, values);
+    for (int i = 0; i < n; i++)
+      values[i] = calcValue(points.x[i], points.y[i], points.z[i], values[i], 0.5*points.xsize[i]+blur,
+          0.5*points.ysize[i]+blur, 0.5*points.zsize[i]+blur);
+    valueOk = errorOk = gradOk = false;
+  }
+
+  /** Calculate the noise function which the octaves are built from.  By default this is {@link Noise}. */
+
+  protected double noiseValue(double x, double y, double z)
+  {
+    return Noise.value(x, y, z);
+  }
+
+  /** Calculate the gradient of the noise function which the octaves are built from. */
+
+  protected void noiseGradient(Vec3 gradient, double x, double y, double z)
+  {
+    Noise.calcGradient(gradient, x, y, z);
   }
 
   /* Estimate the error from the derivative of the function. */
@@ -139,7 +191,7 @@ public class NoiseModule extends ProceduralModule
     gradient.set(0.0, 0.0, 0.0);
     for (i = 0; i < octaves && cutoff > scale; i++)
       {
-        Noise.calcGradient(tempVec, x*scale+123.456, y*scale+123.456, z*scale+123.456);
+        noiseGradient(tempVec, x*scale+123.456, y*scale+123.456, z*scale+123.456);
         tempVec.scale(amp*scale);
         error += Math.abs(xsize*tempVec.x) + Math.abs(ysize*tempVec.y) + Math.abs(zsize*tempVec.z);
         if (scale > 0.5*cutoff)
@@ -13,6 +13,7 @@ package artofillusion.procedural;
 
 import artofillusion.math.*;
 import java.awt.*;
+import java.util.Arrays;
 
 /* This is a Module which represents one of the output values of a procedure. */
 
@@ -76,4 +77,29 @@ public class OutputModule extends ProceduralModule
     else
       linkFrom[0].getColor(linkFromIndex[0], color, blur);
   }
+
+  /* Get the output values for a batch of points. */
+
+  @Override
+  public void getAverageValues(int which, PointBatch points, double blur, double values[])
+  {
+    if (linkFrom[0] == null)
+      Arrays.fill(values, 0, points.getSize(), defaultValue);
+    else
+      linkFrom[0].getAverageValues(linkFromIndex[0], points, blur, values);
+  }
+
+  /* Get the output colors for a batch of points. */
+
+  @Override
+  public void getColors(int which, PointBatch points, double blur, RGBColor colors[])
+  {
+    if (linkFrom[0] == null)
+    {
+      for (int i = 0; i < points.getSize(); i++)
+        colors[i].copy(defaultColor);
+    }
+    else
+      linkFrom[0].getColors(linkFromIndex[0], points, blur, colors);
+  }
 }
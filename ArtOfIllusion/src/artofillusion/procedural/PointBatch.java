@@ -0,0 +1,96 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.procedural;
+
+/**
+ * A PointBatch describes a set of points at which a Procedure or Module is to be evaluated.
+ * It holds the same information as {@link PointInfo}, but stored in arrays, so that many points
+ * (such as a row of pixels) can be evaluated with a single call.  The texture parameters are
+ * shared by all points in the batch.
+ */
+
+public class PointBatch
+{
+  public final double x[], y[], z[], xsize[], ysize[], zsize[], viewangle[], t[];
+  public double param[];
+  private int size;
+
+  /**
+   * Create a PointBatch.
+   *
+   * @param capacity   the maximum number of points it can hold
+   */
+
+  public PointBatch(int capacity)
+  {
+    x = new double [capacity];
+    y = new double [capacity];
+    z = new double [capacity];
+    xsize = new double [capacity];
+    ysize = new double [capacity];
+    zsize = new double [capacity];
+    viewangle = new double [capacity];
+    t = new double [capacity];
+    size = capacity;
+  }
+
+  /** Get the maximum number of points the batch can hold. */
+
+  public int getCapacity()
+  {
+    return x.length;
+  }
+
+  /** Get the number of points in the batch. */
+
+  public int getSize()
+  {
+    return size;
+  }
+
+  /** Set the number of points in the batch.  This may not be larger than the capacity. */
+
+  public void setSize(int size)
+  {
+    if (size < 0 || size > x.length)
+      throw new IllegalArgumentException("Illegal batch size: "+size);
+    this.size = size;
+  }
+
+  /** Set one point in the batch from a PointInfo. */
+
+  public void setPoint(int index, PointInfo p)
+  {
+    x[index] = p.x;
+    y[index] = p.y;
+    z[index] = p.z;
+    xsize[index] = p.xsize;
+    ysize[index] = p.ysize;
+    zsize[index] = p.zsize;
+    viewangle[index] = p.viewangle;
+    t[index] = p.t;
+  }
+
+  /** Copy one point in the batch into a PointInfo. */
+
+  public void getPoint(int index, PointInfo p)
+  {
+    p.x = x[index];
+    p.y = y[index];
+    p.z = z[index];
+    p.xsize = xsize[index];
+    p.ysize = ysize[index];
+    p.zsize = zsize[index];
+    p.viewangle = viewangle[index];
+    p.t = t[index];
+    p.param = param;
+  }
+}
@@ -176,6 +176,97 @@ public class Procedure
     output[which].getColor(0, color, 0.0);
   }
   
+  /** Simplify this procedure without changing the values it calculates.  Modules which do not
+      contribute to any output are removed, modules which depend only on constants are replaced
+      by constants, and duplicate modules are merged.  This is meant for copies of a procedure that
+      are made for rendering, since it may change which modules and links the procedure contains. */
+
+  public void optimize()
+  {
+    new ProcedureOptimizer(this).optimize();
+  }
+
+  /** Create a {@link CompiledProcedure} which evaluates some of the outputs of this procedure.
+      @param outputs    the indices of the output modules to compile, in the order they will usually be requested
+      @param channels   for each element of outputs, the values which are needed for it (a combination of
+                        CompiledProcedure.VALUE, GRADIENT, and COLOR)
+  */
+
+  public CompiledProcedure compile(int outputs[], int channels[])
+  {
+    return new CompiledProcedure(this, outputs, channels);
+  }
+
+  /** Get the values of the specified output module at every point in a batch.  This gives the
+      same results as calling initForPoint() and getOutputValue() for each point, but modules
+      which support batch evaluation can calculate them more efficiently.  If that output does
+      not have value type NUMBER, the results are undefined.
+      @param which    the index of the output module
+      @param points   the points at which to evaluate it
+      @param values   on exit, element i contains the value at point i
+  */
+
+  public void getOutputValues(int which, PointBatch points, double values[])
+  {
+    output[which].getAverageValues(0, points, 0.0, values);
+  }
+
+  /** Get the colors of the specified output module at every point in a batch.  This gives the
+      same results as calling initForPoint() and getOutputColor() for each point, but modules
+      which support batch evaluation can calculate them more efficiently.  If that output does
+      not have value type COLOR, the results are undefined.
+      @param which    the index of the output module
+      @param points   the points at which to evaluate it
+      @param colors   on exit, element i contains the color at point i
+  */
+
+  public void getOutputColors(int which, PointBatch points, RGBColor colors[])
+  {
+    output[which].getColors(0, points, 0.0, colors);
+  }
+
+  /** Determine whether the outputs of this procedure depend only on the position of the point
+      being evaluated (and the size of the region around it), and not on the time, the view angle,
+      or any texture parameters.  This is true if it contains no view angle or parameter modules,
+      and {@link #dependsOnTime()} returns false. */
+
+  public boolean dependsOnlyOnPosition()
+  {
+    for (Module mod : module)
+      if (mod instanceof ViewAngleModule || mod instanceof ParameterModule)
+        return false;
+    return !dependsOnTime();
+  }
+
+  /** Determine whether the outputs of this procedure may depend on the time.  This is true if it
+      contains a time module, a random module which uses the time as its input, or an expression
+      module whose expression uses t. */
+
+  public boolean dependsOnTime()
+  {
+    for (Module mod : module)
+      if (dependsOnTime(mod))
+        return true;
+    return false;
+  }
+
+  private static boolean dependsOnTime(Module mod)
+  {
+    if (mod instanceof CoordinateModule && ((CoordinateModule) mod).coordinate == CoordinateModule.T)
+      return true;
+    if (mod instanceof RandomModule && mod.linkFrom[0] == null)
+      return true;
+    if (mod instanceof ExprModule)
+    {
+      // An expression module builds its own internal modules for the variables it uses.
+
+      for (Module internal : ((ExprModule) mod).myModules)
+        if (dependsOnTime(internal))
+          return true;
+    }
+    return false;
+  }
+
   /** Make this procedure identical to another one.  The output modules must already
       be set up before calling this method. */
   
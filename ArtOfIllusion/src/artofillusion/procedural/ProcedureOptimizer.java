@@ -0,0 +1,213 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.procedural;
+
+import artofillusion.math.*;
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * This class simplifies a Procedure without changing the values it calculates.  It is used on the
+ * copies of a Procedure that are made for rendering, and performs three optimizations:
+ * <ul>
+ * <li>Modules which do not contribute to any output are removed.</li>
+ * <li>Modules which depend only on constants are replaced by a NumberModule or ColorModule holding
+ * their value.</li>
+ * <li>Where two modules are of the same class, have the same parameters, and have the same inputs,
+ * one of them is removed and everything it was linked to is linked to the other one instead.</li>
+ * </ul>
+ */
+
+class ProcedureOptimizer
+{
+  /** Modules whose outputs depend only on their inputs, not on the point being evaluated. */
+  private static final Set<Class<?>> PURE_MODULES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+      SumModule.class, DifferenceModule.class, ProductModule.class, RatioModule.class, ScaleShiftModule.class,
+      AbsModule.class, MinModule.class, MaxModule.class, SineModule.class, CosineModule.class, ExpModule.class,
+      LogModule.class, SqrtModule.class, PowerModule.class, ModModule.class, BiasModule.class, GainModule.class,
+      ClipModule.class, CompareModule.class, InterpModule.class, BlendModule.class, RGBModule.class, HLSModule.class,
+      HSVModule.class, ColorScaleModule.class, ColorSumModule.class, ColorProductModule.class,
+      ColorDarkenModule.class, ColorLightenModule.class, ColorDifferenceModule.class));
+
+  private final Procedure proc;
+  private final List<Module> sorted;
+  private final Map<Module, Module> replacement;
+  private final Map<Module, Integer> id;
+  private final Map<String, Module> unique;
+
+  ProcedureOptimizer(Procedure proc)
+  {
+    this.proc = proc;
+    sorted = new ArrayList<Module>();
+    replacement = new IdentityHashMap<Module, Module>();
+    id = new IdentityHashMap<Module, Integer>();
+    unique = new HashMap<String, Module>();
+  }
+
+  /** Optimize the procedure. */
+
+  void optimize()
+  {
+    // Find the modules that contribute to the outputs, sorted so each comes after its inputs.
+
+    Set<Module> visited = Collections.newSetFromMap(new IdentityHashMap<Module, Boolean>());
+    for (OutputModule out : proc.output)
+      for (Module input : out.linkFrom)
+        if (input != null)
+          sort(input, visited);
+
+    // Simplify them in order, so the inputs of each module have already been simplified.
+
+    List<Module> kept = new ArrayList<Module>();
+    for (Module module : sorted)
+    {
+      updateInputs(module);
+      Module simplified = fold(module);
+      String key = getKey(simplified);
+      Module existing = (key == null ? null : unique.get(key));
+      if (existing != null)
+        replacement.put(module, existing);
+      else
+      {
+        if (simplified != module)
+          replacement.put(module, simplified);
+        if (key != null)
+          unique.put(key, simplified);
+        id.put(simplified, kept.size());
+        kept.add(simplified);
+      }
+    }
+    for (OutputModule out : proc.output)
+      updateInputs(out);
+
+    // Folding may have left some modules unused, so find the ones that are still needed, then
+    // rebuild the lists of modules and links.
+
+    visited.clear();
+    sorted.clear();
+    for (OutputModule out : proc.output)
+      for (Module input : out.linkFrom)
+        if (input != null)
+          sort(input, visited);
+    List<Link> links = new ArrayList<Link>();
+    for (Module module : sorted)
+      addLinks(module, links);
+    for (OutputModule out : proc.output)
+      addLinks(out, links);
+    proc.module = sorted.toArray(new Module [sorted.size()]);
+    proc.link = links.toArray(new Link [links.size()]);
+  }
+
+  /** Add a module, and everything it depends on, to the sorted list. */
+
+  private void sort(Module module, Set<Module> visited)
+  {
+    if (!visited.add(module))
+      return;
+    for (Module input : module.linkFrom)
+      if (input != null)
+        sort(input, visited);
+    sorted.add(module);
+  }
+
+  /** Link a module to the replacements for its inputs. */
+
+  private void updateInputs(Module module)
+  {
+    for (int i = 0; i < module.linkFrom.length; i++)
+    {
+      Module input = replacement.get(module.linkFrom[i]);
+      if (input != null)
+        module.linkFrom[i] = input;
+    }
+  }
+
+  /** Create links for all the inputs of a module. */
+
+  private void addLinks(Module module, List<Link> links)
+  {
+    for (int i = 0; i < module.linkFrom.length; i++)
+      if (module.linkFrom[i] != null)
+        links.add(new Link(module.linkFrom[i].getOutputPorts()[module.linkFromIndex[i]], module.getInputPorts()[i]));
+  }
+
+  /**
+   * If a module depends only on constants, return a constant module with the same value.  Otherwise
+   * return the module itself.
+   */
+
+  private Module fold(Module module)
+  {
+    if (!PURE_MODULES.contains(module.getClass()) || module.getOutputPorts().length != 1)
+      return module;
+    for (Module input : module.linkFrom)
+      if (input != null && input.getClass() != NumberModule.class && input.getClass() != ColorModule.class)
+        return module;
+    PointInfo info = new PointInfo();
+    module.init(info);
+    for (Module input : module.linkFrom)
+      if (input != null)
+        input.init(info);
+    Point position = new Point(module.getBounds().x, module.getBounds().y);
+    if (module.getOutputPorts()[0].getValueType() == IOPort.COLOR)
+    {
+      RGBColor color = new RGBColor();
+      module.getColor(0, color, 0.0);
+      return new ColorModule(position, color);
+    }
+
+    // Only fold it if a constant would also have the same error and gradient.
+
+    double value = module.getAverageValue(0, 0.0);
+    Vec3 grad = new Vec3();
+    module.getValueGradient(0, grad, 0.0);
+    if (module.getValueError(0, 0.0) != 0.0 || grad.x != 0.0 || grad.y != 0.0 || grad.z != 0.0)
+      return module;
+    return new NumberModule(position, value);
+  }
+
+  /**
+   * Get a string which identifies a module by its class, its parameters, and its inputs.  Two modules
+   * with the same key always produce the same outputs.  This returns null for modules which cannot
+   * be merged with others.
+   */
+
+  private String getKey(Module module)
+  {
+    if (module instanceof ParameterModule)
+      return null;
+    StringBuilder key = new StringBuilder(module.getClass().getName());
+    for (int i = 0; i < module.linkFrom.length; i++)
+    {
+      if (module.linkFrom[i] == null)
+        key.append(" -");
+      else
+        key.append(' ').append(id.get(module.linkFrom[i])).append(':').append(module.linkFromIndex[i]);
+    }
+    key.append(' ');
+    try
+    {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      module.writeToStream(new DataOutputStream(bytes), null);
+      for (byte b : bytes.toByteArray())
+        key.append(Character.forDigit((b>>4)&15, 16)).append(Character.forDigit(b&15, 16));
+    }
+    catch (Exception ex)
+    {
+      // Some modules (such as images) cannot be written without a scene.
+
+      return null;
+    }
+    return key.toString();
+  }
+}
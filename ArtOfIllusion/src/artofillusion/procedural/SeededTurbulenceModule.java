@@ -0,0 +1,124 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+
+package artofillusion.procedural;
+
+import artofillusion.*;
+import artofillusion.math.*;
+import artofillusion.ui.*;
+import buoy.event.*;
+import buoy.widget.*;
+import java.awt.*;
+import java.io.*;
+
+/**
+ * This is a TurbulenceModule which uses {@link HashNoise} instead of the application's noise function.
+ * The seed selects one of many independent noise functions, so several of these modules can
+ * be combined without their patterns lining up.
+ */
+
+public class SeededTurbulenceModule extends TurbulenceModule
+{
+  private HashNoise noise;
+
+  public SeededTurbulenceModule(Point position)
+  {
+    super(Translate.text("menu.seededTurbulenceModule"), position);
+    noise = new HashNoise(0);
+  }
+
+  /** Get the seed which selects the noise function. */
+
+  public int getSeed()
+  {
+    return noise.getSeed();
+  }
+
+  /** Set the seed which selects the noise function. */
+
+  public void setSeed(int seed)
+  {
+    noise = new HashNoise(seed);
+  }
+
+  @Override
+  protected double noiseValue(double x, double y, double z)
+  {
+    return noise.value(x, y, z);
+  }
+
+  @Override
+  protected void noiseGradient(Vec3 gradient, double x, double y, double z)
+  {
+    noise.gradient(gradient, x, y, z);
+  }
+
+  /* Allow the user to set the parameters. */
+
+  @Override
+  public boolean edit(final ProcedureEditor editor, Scene theScene)
+  {
+    final ValueField octavesField = new ValueField((double) octaves, ValueField.POSITIVE+ValueField.INTEGER);
+    final ValueField ampField = new ValueField(amplitude, ValueField.NONE);
+    final ValueField seedField = new ValueField((double) getSeed(), ValueField.INTEGER);
+    Object listener = new Object() {
+      void processEvent()
+      {
+        setOctaves((int) octavesField.getValue());
+        amplitude = ampField.getValue();
+        setSeed((int) seedField.getValue());
+        editor.updatePreview();
+      }
+    };
+    octavesField.addEventLink(ValueChangedEvent.class, listener);
+    ampField.addEventLink(ValueChangedEvent.class, listener);
+    seedField.addEventLink(ValueChangedEvent.class, listener);
+    ComponentsDialog dlg = new ComponentsDialog(editor.getParentFrame(), Translate.text("selectTurbulenceProperties"),
+      new Widget [] {ampField, octavesField, seedField}, new String [] {Translate.text("Amplitude"), Translate.text("Octaves"), Translate.text("Seed")});
+    if (!dlg.clickedOk())
+      return false;
+    setOctaves((int) octavesField.getValue());
+    amplitude = ampField.getValue();
+    setSeed((int) seedField.getValue());
+    return true;
+  }
+
+  /* Create a duplicate of this module. */
+
+  @Override
+  public SeededTurbulenceModule duplicate()
+  {
+    SeededTurbulenceModule mod = new SeededTurbulenceModule(new Point(bounds.x, bounds.y));
+
+    mod.setOctaves(octaves);
+    mod.amplitude = amplitude;
+    mod.noise = noise;
+    return mod;
+  }
+
+  /* Write out the parameters. */
+
+  @Override
+  public void writeToStream(DataOutputStream out, Scene theScene) throws IOException
+  {
+    super.writeToStream(out, theScene);
+    out.writeInt(getSeed());
+  }
+
+  /* Read in the parameters. */
+
+  @Override
+  public void readFromStream(DataInputStream in, Scene theScene) throws IOException
+  {
+    super.readFromStream(in, theScene);
+    setSeed(in.readInt());
+  }
+}
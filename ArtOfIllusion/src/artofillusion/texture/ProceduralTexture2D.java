@@ -16,10 +16,12 @@ import artofillusion.image.*;
 import artofillusion.math.*;
 import artofillusion.procedural.*;
 import artofillusion.ui.*;
+import artofillusion.util.*;
 import buoy.widget.*;
 import buoy.event.*;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.io.*;
 
 /** This is a Texture2D which uses a Procedure to calculate its properties. */
@@ -29,11 +31,17 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
   private Procedure proc;
   private double antialiasing;
   private ThreadLocal renderingProc;
+  private volatile BakedTexture baked;
+  private boolean bakeEnabled, bakeOnUse;
+  private int bakeWidth, bakeHeight;
+  private double bakeMinU, bakeMaxU, bakeMinV, bakeMaxV;
 
   public ProceduralTexture2D()
   {
     proc = createProcedure();
     antialiasing = 1.0;
+    bakeWidth = bakeHeight = 1024;
+    bakeMaxU = bakeMaxV = 1.0;
     initThreadLocal();
   }
 
@@ -58,18 +66,28 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
   }
 
   /**
-   * Reinitialize the ThreadLocal that holds copies of the Procedure during rendering.
+   * Reinitialize the ThreadLocal that holds compiled copies of the Procedure during rendering.  Each
+   * thread gets separate CompiledProcedures for the texture spec, the transparency, and the displacement,
+   * so that each one only calculates the outputs it needs.
    */
 
   private void initThreadLocal()
   {
+    baked = null;
+    bakeOnUse = (bakeEnabled && canBake());
     renderingProc = new ThreadLocal() {
       @Override
       protected Object initialValue()
       {
         Procedure localProc = createProcedure();
         localProc.copy(proc);
-        return localProc;
+        localProc.optimize();
+        int V = CompiledProcedure.VALUE, C = CompiledProcedure.COLOR;
+        return new CompiledProcedure[] {
+          localProc.compile(new int [] {4, 5, 6, 0, 1, 2, 3, 7, 8, 9}, new int [] {V, V, V, C, C, C, C, V, V, CompiledProcedure.GRADIENT}),
+          localProc.compile(new int [] {4, 2}, new int [] {V, C}),
+          localProc.compile(new int [] {10}, new int [] {V})
+        };
       }
     };
   }
@@ -88,8 +106,15 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
   @Override
   public void getTextureSpec(TextureSpec spec, double x, double y, double xsize, double ysize, double angle, double t, double param[])
   {
-    Procedure pr = (Procedure) renderingProc.get();
-    OutputModule output[] = pr.getOutputModules();
+    BakedTexture b = getBaked();
+    if (b != null && b.contains(x, y))
+    {
+      b.texture.getTextureSpec(spec, (x-b.minu)*b.uscale, (y-b.minv)*b.vscale, xsize*antialiasing*b.uscale, ysize*antialiasing*b.vscale, angle, t, param);
+      spec.bumpGrad.x *= b.uscale;
+      spec.bumpGrad.y *= b.vscale;
+      return;
+    }
+    CompiledProcedure pr = ((CompiledProcedure[]) renderingProc.get())[0];
     PointInfo info = new PointInfo();
     info.x = x;
     info.y = y;
@@ -101,9 +126,9 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
     info.t = t;
     info.param = param;
     pr.initForPoint(info);
-    double transparency = output[4].getAverageValue(0, 0.0);
-    double specularity = output[5].getAverageValue(0, 0.0);
-    double shininess = output[6].getAverageValue(0, 0.0);
+    double transparency = pr.getOutputValue(4);
+    double specularity = pr.getOutputValue(5);
+    double shininess = pr.getOutputValue(6);
     if (transparency < 0.0)
       transparency = 0.0;
     if (transparency > 1.0)
@@ -116,17 +141,17 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
       shininess = 0.0;
     if (shininess > 1.0)
       shininess = 1.0;
-    output[0].getColor(0, spec.diffuse, 0.0);
-    output[1].getColor(0, spec.specular, 0.0);
-    output[2].getColor(0, spec.transparent, 0.0);
-    output[3].getColor(0, spec.emissive, 0.0);
+    pr.getOutputColor(0, spec.diffuse);
+    pr.getOutputColor(1, spec.specular);
+    pr.getOutputColor(2, spec.transparent);
+    pr.getOutputColor(3, spec.emissive);
     spec.hilight.copy(spec.specular);
     spec.diffuse.scale((1.0f-transparency)*(1.0f-specularity));
     spec.specular.scale((1.0f-transparency)*specularity);
     spec.hilight.scale((1.0f-transparency)*shininess);
     spec.transparent.scale(transparency);
-    spec.roughness = output[7].getAverageValue(0, 0.0);
-    spec.cloudiness = output[8].getAverageValue(0, 0.0);
+    spec.roughness = pr.getOutputValue(7);
+    spec.cloudiness = pr.getOutputValue(8);
     if (spec.roughness < 0.0)
       spec.roughness = 0.0;
     if (spec.roughness > 1.0)
@@ -135,15 +160,20 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
       spec.cloudiness = 0.0;
     if (spec.cloudiness > 1.0)
       spec.cloudiness = 1.0;
-    output[9].getValueGradient(0, spec.bumpGrad, 0.0);
+    pr.getOutputGradient(9, spec.bumpGrad);
     spec.bumpGrad.scale(0.04);
   }
 
   @Override
   public void getTransparency(RGBColor trans, double x, double y, double xsize, double ysize, double angle, double t, double param[])
   {
-    Procedure pr = (Procedure) renderingProc.get();
-    OutputModule output[] = pr.getOutputModules();
+    BakedTexture b = getBaked();
+    if (b != null && b.contains(x, y))
+    {
+      b.texture.getTransparency(trans, (x-b.minu)*b.uscale, (y-b.minv)*b.vscale, xsize*antialiasing*b.uscale, ysize*antialiasing*b.vscale, angle, t, param);
+      return;
+    }
+    CompiledProcedure pr = ((CompiledProcedure[]) renderingProc.get())[1];
     PointInfo info = new PointInfo();
     info.x = x;
     info.y = y;
@@ -155,12 +185,12 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
     info.t = t;
     info.param = param;
     pr.initForPoint(info);
-    double transparency = output[4].getAverageValue(0, 0.0);
+    double transparency = pr.getOutputValue(4);
     if (transparency < 0.0)
       transparency = 0.0;
     if (transparency > 1.0)
       transparency = 1.0;
-    output[2].getColor(0, trans, 0.0);
+    pr.getOutputColor(2, trans);
     trans.scale(transparency);
   }
 
@@ -171,6 +201,324 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
     return proc;
   }
 
+  /**
+   * Determine whether this texture can be baked.  That is only possible if the procedure depends only on
+   * the position in the texture, not on the time, view angle, or texture parameters, since otherwise a
+   * single image could not represent it.
+   */
+
+  public boolean canBake()
+  {
+    return proc.dependsOnlyOnPosition();
+  }
+
+  /**
+   * Bake this texture into images.  The procedure is evaluated over a rectangular region of the texture,
+   * and the results are stored in an ImageMapTexture.  From then on, whenever the texture is evaluated at
+   * a point inside that region, the values are looked up in the images instead of calculating the procedure.
+   * This is much faster, and it gives the same results except for the limited resolution of the images.
+   * The baked images are discarded whenever the procedure is edited.  They are not saved with the scene.
+   * To have the texture baked automatically when it is first used, call {@link #setBakeSettings
+   * setBakeSettings()} instead.
+   * <p>
+   * Colors are stored in 8 bit images if all of their components lie between 0 and 1, and in HDR images
+   * otherwise.  Components which are constant over the whole region are stored as single values instead
+   * of images.  Displacement is never baked, since it is only evaluated when meshes are built.
+   *
+   * @param minu      the minimum x coordinate of the region to bake
+   * @param maxu      the maximum x coordinate of the region to bake
+   * @param minv      the minimum y coordinate of the region to bake
+   * @param maxv      the maximum y coordinate of the region to bake
+   * @param width     the width of the images to create
+   * @param height    the height of the images to create
+   * @return the ImageMapTexture containing the baked images.  Its coordinates run from 0 to 1 over the
+   * baked region, and it does not tile.
+   * @throws IllegalStateException if {@link #canBake()} returns false
+   */
+
+  public ImageMapTexture bake(final double minu, double maxu, double minv, final double maxv, final int width, final int height) throws InterruptedException
+  {
+    if (!canBake())
+      throw new IllegalStateException("The texture depends on the time, view angle, or texture parameters");
+    final int pixels = width*height;
+    final int color[][] = new int [4][pixels];
+    final byte value[][] = new byte [5][pixels];
+    final float bump[] = new float [pixels];
+    final double uscale = (maxu-minu)/width;
+    final double vscale = (maxv-minv)/height;
+    final ThreadLocal<CompiledProcedure> bakingProc = new ThreadLocal<CompiledProcedure>() {
+      @Override
+      protected CompiledProcedure initialValue()
+      {
+        Procedure localProc = createProcedure();
+        localProc.copy(proc);
+        localProc.optimize();
+        int V = CompiledProcedure.VALUE, C = CompiledProcedure.COLOR;
+        return localProc.compile(new int [] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, new int [] {C, C, C, C, V, V, V, V, V, V});
+      }
+    };
+    ThreadManager threads = new ThreadManager(height, new ThreadManager.Task()
+    {
+      @Override
+      public void execute(int j)
+      {
+        CompiledProcedure pr = bakingProc.get();
+        PointInfo info = new PointInfo();
+        RGBColor c = new RGBColor();
+        info.xsize = uscale*antialiasing;
+        info.ysize = vscale*antialiasing;
+        info.y = maxv-j*vscale;
+        for (int i = 0; i < width; i++)
+        {
+          int index = i+j*width;
+          info.x = minu+i*uscale;
+          pr.initForPoint(info);
+          for (int k = 0; k < 4; k++)
+          {
+            pr.getOutputColor(k, c);
+            c.setRGB(Math.max(c.getRed(), 0.0f), Math.max(c.getGreen(), 0.0f), Math.max(c.getBlue(), 0.0f));
+            color[k][index] = c.getERGB();
+          }
+          for (int k = 0; k < 5; k++)
+            value[k][index] = (byte) Math.round(255.0*Math.max(0.0, Math.min(1.0, pr.getOutputValue(k+4))));
+          bump[index] = (float) pr.getOutputValue(9);
+        }
+      }
+      @Override
+      public void cleanup()
+      {
+        bakingProc.remove();
+      }
+    });
+    threads.run();
+    threads.finish();
+
+    // Create the texture.
+
+    ImageMapTexture tex = new ImageMapTexture();
+    tex.setName(getName());
+    tex.tileX = tex.tileY = false;
+    tex.diffuseColor = createBakedColor(color[0], width, height);
+    tex.specularColor = createBakedColor(color[1], width, height);
+    tex.transparentColor = createBakedColor(color[2], width, height);
+    tex.emissiveColor = createBakedColor(color[3], width, height);
+    tex.transparency = createBakedValue(value[0], width, height);
+    tex.specularity = createBakedValue(value[1], width, height);
+    tex.shininess = createBakedValue(value[2], width, height);
+    tex.roughness = createBakedValue(value[3], width, height);
+    tex.cloudiness = createBakedValue(value[4], width, height);
+    float minBump = Float.MAX_VALUE, maxBump = -Float.MAX_VALUE;
+    for (int i = 0; i < pixels; i++)
+    {
+      minBump = Math.min(minBump, bump[i]);
+      maxBump = Math.max(maxBump, bump[i]);
+    }
+    if (maxBump > minBump)
+    {
+      // Only the gradient of the bump height matters, so it can be shifted to start at 0.
+
+      byte bumpValue[] = new byte [pixels];
+      double bumpScale = 255.0/(maxBump-minBump);
+      for (int i = 0; i < pixels; i++)
+        bumpValue[i] = (byte) Math.round((bump[i]-minBump)*bumpScale);
+      tex.bump = new ImageOrValue(maxBump-minBump, createGrayImage(bumpValue, width, height), 0);
+    }
+    else
+      tex.bump = new ImageOrValue(0.0f);
+    baked = new BakedTexture(tex, minu, maxu, minv, maxv);
+    return tex;
+  }
+
+  /** Discard the images created by {@link #bake bake()}, so the procedure will be evaluated directly again. */
+
+  public void clearBake()
+  {
+    baked = null;
+  }
+
+  /** Get the ImageMapTexture created by the most recent call to {@link #bake bake()}, or null if the texture
+      is not currently baked. */
+
+  public ImageMapTexture getBakedTexture()
+  {
+    BakedTexture b = baked;
+    return (b == null ? null : b.texture);
+  }
+
+  /**
+   * Get the baked images to use for evaluating the texture.  If automatic baking is enabled and the
+   * texture has not been baked since it was last edited, this bakes it first.
+   */
+
+  private BakedTexture getBaked()
+  {
+    BakedTexture b = baked;
+    if (b == null && bakeOnUse)
+      b = bakeIfNeeded();
+    return b;
+  }
+
+  private synchronized BakedTexture bakeIfNeeded()
+  {
+    if (baked == null && bakeOnUse)
+    {
+      try
+      {
+        bake(bakeMinU, bakeMaxU, bakeMinV, bakeMaxV, bakeWidth, bakeHeight);
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+      }
+      if (baked == null)
+        bakeOnUse = false; // Do not try again until the texture is edited.
+    }
+    return baked;
+  }
+
+  /** Get whether this texture is baked automatically when it is first used.  See {@link #setBakeSettings setBakeSettings()}. */
+
+  public boolean isBakeEnabled()
+  {
+    return bakeEnabled;
+  }
+
+  /** Get the width of the images created when this texture is baked automatically. */
+
+  public int getBakeWidth()
+  {
+    return bakeWidth;
+  }
+
+  /** Get the height of the images created when this texture is baked automatically. */
+
+  public int getBakeHeight()
+  {
+    return bakeHeight;
+  }
+
+  /** Get the region of the texture which is baked automatically, as {minu, maxu, minv, maxv}. */
+
+  public double[] getBakeRegion()
+  {
+    return new double [] {bakeMinU, bakeMaxU, bakeMinV, bakeMaxV};
+  }
+
+  /**
+   * Set whether this texture should be baked automatically, and the parameters to use for it.  When
+   * this is enabled, the texture is baked the first time it is evaluated after being loaded or edited,
+   * as if {@link #bake bake()} had been called with these parameters.  The settings are saved with the
+   * scene, but the images are not.  Baking is skipped if {@link #canBake()} returns false.
+   */
+
+  public void setBakeSettings(boolean enabled, double minu, double maxu, double minv, double maxv, int width, int height)
+  {
+    bakeEnabled = enabled;
+    bakeMinU = minu;
+    bakeMaxU = maxu;
+    bakeMinV = minv;
+    bakeMaxV = maxv;
+    bakeWidth = width;
+    bakeHeight = height;
+    initThreadLocal();
+  }
+
+  /** Create the color for one component of a baked texture from an array of colors in ERGB format. */
+
+  private static ImageOrColor createBakedColor(int ergb[], int width, int height) throws InterruptedException
+  {
+    RGBColor c = new RGBColor();
+    boolean constant = true, lowRange = true;
+    for (int i = 0; i < ergb.length; i++)
+    {
+      if (ergb[i] != ergb[0])
+        constant = false;
+      c.setERGB(ergb[i]);
+      if (c.getMaxComponent() > 1.0f)
+        lowRange = false;
+    }
+    if (constant)
+    {
+      c.setERGB(ergb[0]);
+      return new ImageOrColor(c);
+    }
+    ImageMap image;
+    if (lowRange)
+    {
+      int argb[] = new int [ergb.length];
+      for (int i = 0; i < ergb.length; i++)
+      {
+        c.setERGB(ergb[i]);
+        argb[i] = 0xFF000000+(Math.round(c.getRed()*255.0f)<<16)+(Math.round(c.getGreen()*255.0f)<<8)+Math.round(c.getBlue()*255.0f);
+      }
+      BufferedImage im = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      im.setRGB(0, 0, width, height, argb, 0, width);
+      image = new MIPMappedImage(im);
+    }
+    else
+    {
+      byte r[] = new byte [ergb.length], g[] = new byte [ergb.length], b[] = new byte [ergb.length], e[] = new byte [ergb.length];
+      for (int i = 0; i < ergb.length; i++)
+      {
+        r[i] = (byte) (ergb[i]>>16);
+        g[i] = (byte) (ergb[i]>>8);
+        b[i] = (byte) ergb[i];
+        e[i] = (byte) (ergb[i]>>24);
+      }
+      image = new HDRImage(r, g, b, e, width, height);
+    }
+    return new ImageOrColor(new RGBColor(1.0f, 1.0f, 1.0f), image);
+  }
+
+  /** Create the value for one component of a baked texture from an array of values between 0 and 255. */
+
+  private static ImageOrValue createBakedValue(byte value[], int width, int height) throws InterruptedException
+  {
+    for (int i = 1; i < value.length; i++)
+      if (value[i] != value[0])
+        return new ImageOrValue(1.0f, createGrayImage(value, width, height), 0);
+    return new ImageOrValue((value[0]&0xFF)/255.0f);
+  }
+
+  /** Create a grayscale image from an array of values between 0 and 255. */
+
+  private static ImageMap createGrayImage(byte value[], int width, int height) throws InterruptedException
+  {
+    int argb[] = new int [value.length];
+    for (int i = 0; i < value.length; i++)
+    {
+      int v = value[i]&0xFF;
+      argb[i] = 0xFF000000+(v<<16)+(v<<8)+v;
+    }
+    BufferedImage im = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    im.setRGB(0, 0, width, height, argb, 0, width);
+    return new MIPMappedImage(im);
+  }
+
+  /** This holds the results of baking the texture, and the region of the texture they cover. */
+
+  private static class BakedTexture
+  {
+    final ImageMapTexture texture;
+    final double minu, maxu, minv, maxv, uscale, vscale;
+
+    BakedTexture(ImageMapTexture texture, double minu, double maxu, double minv, double maxv)
+    {
+      this.texture = texture;
+      this.minu = minu;
+      this.maxu = maxu;
+      this.minv = minv;
+      this.maxv = maxv;
+      uscale = 1.0/(maxu-minu);
+      vscale = 1.0/(maxv-minv);
+    }
+
+    boolean contains(double u, double v)
+    {
+      return (u >= minu && u <= maxu && v >= minv && v <= maxv);
+    }
+  }
+
   /** Determine whether this Texture uses the specified image. */
 
   @Override
@@ -187,8 +535,7 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
   @Override
   public double getDisplacement(double x, double y, double xsize, double ysize, double t, double param[])
   {
-    Procedure pr = (Procedure) renderingProc.get();
-    OutputModule output[] = pr.getOutputModules();
+    CompiledProcedure pr = ((CompiledProcedure[]) renderingProc.get())[2];
     PointInfo info = new PointInfo();
     info.x = x;
     info.y = y;
@@ -200,7 +547,7 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
     info.t = t;
     info.param = param;
     pr.initForPoint(info);
-    return output[10].getAverageValue(0, 0.0);
+    return pr.getOutputValue(10);
   }
 
   @Override
@@ -211,6 +558,8 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
     tex.proc.copy(proc);
     tex.setName(getName());
     tex.antialiasing = antialiasing;
+    tex.setBakeSettings(bakeEnabled, bakeMinU, bakeMaxU, bakeMinV, bakeMaxV, bakeWidth, bakeHeight);
+    tex.baked = baked;
     return tex;
   }
 
@@ -274,7 +623,7 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
   {
     short version = in.readShort();
 
-    if (version < 0 || version > 1)
+    if (version < 0 || version > 2)
       throw new InvalidObjectException("");
     setName(in.readUTF());
     antialiasing = in.readDouble();
@@ -309,16 +658,41 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
             proc.addLink(new Link(from, to));
           }
     }
+    bakeWidth = bakeHeight = 1024;
+    bakeMaxU = bakeMaxV = 1.0;
+    if (version > 1)
+    {
+      bakeEnabled = in.readBoolean();
+      bakeWidth = in.readInt();
+      bakeHeight = in.readInt();
+      bakeMinU = in.readDouble();
+      bakeMaxU = in.readDouble();
+      bakeMinV = in.readDouble();
+      bakeMaxV = in.readDouble();
+    }
     initThreadLocal();
   }
 
   @Override
   public void writeToFile(DataOutputStream out, Scene theScene) throws IOException
   {
-    out.writeShort(1);
+    // Version 2 only adds the bake settings, so keep writing version 1 when they are not being used.
+    // That way scenes remain readable by older releases.
+
+    out.writeShort(bakeEnabled ? 2 : 1);
     out.writeUTF(getName());
     out.writeDouble(antialiasing);
     proc.writeToStream(out, theScene);
+    if (bakeEnabled)
+    {
+      out.writeBoolean(bakeEnabled);
+      out.writeInt(bakeWidth);
+      out.writeInt(bakeHeight);
+      out.writeDouble(bakeMinU);
+      out.writeDouble(bakeMaxU);
+      out.writeDouble(bakeMinV);
+      out.writeDouble(bakeMaxV);
+    }
   }
 
   /** Get the title of the procedure's editing window. */
@@ -411,13 +785,54 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
   public void editProperties(ProcedureEditor editor)
   {
     ValueField aliasField = new ValueField(antialiasing, ValueField.POSITIVE);
+    final BCheckBox bakeBox = new BCheckBox(Translate.text("bakeToImages"), bakeEnabled && canBake());
+    bakeBox.setEnabled(canBake());
+    final ValueField widthField = new ValueField(bakeWidth, ValueField.POSITIVE+ValueField.INTEGER, 5);
+    final ValueField heightField = new ValueField(bakeHeight, ValueField.POSITIVE+ValueField.INTEGER, 5);
+    final ValueField minuField = new ValueField(bakeMinU, ValueField.NONE, 5);
+    final ValueField maxuField = new ValueField(bakeMaxU, ValueField.NONE, 5);
+    final ValueField minvField = new ValueField(bakeMinV, ValueField.NONE, 5);
+    final ValueField maxvField = new ValueField(bakeMaxV, ValueField.NONE, 5);
+    final ValueField bakeFields[] = new ValueField [] {widthField, heightField, minuField, maxuField, minvField, maxvField};
+    for (ValueField field : bakeFields)
+      field.setEnabled(bakeBox.getState());
+    bakeBox.addEventLink(ValueChangedEvent.class, new Object() {
+      void processEvent()
+      {
+        for (ValueField field : bakeFields)
+          field.setEnabled(bakeBox.getState());
+      }
+    });
+    RowContainer sizeRow = new RowContainer();
+    sizeRow.add(widthField);
+    sizeRow.add(new BLabel("\u00D7"));
+    sizeRow.add(heightField);
+    RowContainer uRow = new RowContainer();
+    uRow.add(minuField);
+    uRow.add(new BLabel("-"));
+    uRow.add(maxuField);
+    RowContainer vRow = new RowContainer();
+    vRow.add(minvField);
+    vRow.add(new BLabel("-"));
+    vRow.add(maxvField);
     ComponentsDialog dlg = new ComponentsDialog(editor.getParentFrame(), Translate.text("editTextureTitle"),
-      new Widget [] {aliasField,},
-      new String [] {Translate.text("Antialiasing")});
+      new Widget [] {aliasField, bakeBox, sizeRow, uRow, vRow},
+      new String [] {Translate.text("Antialiasing"), null, Translate.text("bakeImageSize"), Translate.text("bakeURange"), Translate.text("bakeVRange")});
     if (!dlg.clickedOk())
       return;
+    if (bakeBox.getState() && (minuField.getValue() >= maxuField.getValue() || minvField.getValue() >= maxvField.getValue()))
+    {
+      new BStandardDialog("", Translate.text("minimumAboveMaxError"), BStandardDialog.ERROR).showMessageDialog(editor.getParentFrame());
+      editProperties(editor);
+      return;
+    }
     editor.saveState(false);
     antialiasing = aliasField.getValue();
+    if (bakeBox.getState())
+      setBakeSettings(true, minuField.getValue(), maxuField.getValue(), minvField.getValue(), maxvField.getValue(),
+          (int) widthField.getValue(), (int) heightField.getValue());
+    else
+      setBakeSettings(false, bakeMinU, bakeMaxU, bakeMinV, bakeMaxV, bakeWidth, bakeHeight);
     editor.updatePreview();
   }
 }
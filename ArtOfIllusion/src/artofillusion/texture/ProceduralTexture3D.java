@@ -59,7 +59,9 @@ public class ProceduralTexture3D extends Texture3D implements ProcedureOwner
   }
 
   /**
-   * Reinitialize the ThreadLocal that holds copies of the Procedure during rendering.
+   * Reinitialize the ThreadLocal that holds compiled copies of the Procedure during rendering.  Each
+   * thread gets separate CompiledProcedures for the texture spec, the transparency, and the displacement,
+   * so that each one only calculates the outputs it needs.
    */
 
   private void initThreadLocal()
@@ -70,7 +72,13 @@ public class ProceduralTexture3D extends Texture3D implements ProcedureOwner
       {
         Procedure localProc = createProcedure();
         localProc.copy(proc);
-        return localProc;
+        localProc.optimize();
+        int V = CompiledProcedure.VALUE, C = CompiledProcedure.COLOR;
+        return new CompiledProcedure[] {
+          localProc.compile(new int [] {4, 5, 6, 0, 1, 2, 3, 7, 8, 9}, new int [] {V, V, V, C, C, C, C, V, V, CompiledProcedure.GRADIENT}),
+          localProc.compile(new int [] {4, 2}, new int [] {V, C}),
+          localProc.compile(new int [] {10}, new int [] {V})
+        };
       }
     };
   }
@@ -89,8 +97,7 @@ public class ProceduralTexture3D extends Texture3D implements ProcedureOwner
   @Override
   public void getTextureSpec(TextureSpec spec, double x, double y, double z, double xsize, double ysize, double zsize, double angle, double t, double param[])
   {
-    Procedure pr = (Procedure) renderingProc.get();
-    OutputModule output[] = pr.getOutputModules();
+    CompiledProcedure pr = ((CompiledProcedure[]) renderingProc.get())[0];
     PointInfo info = new PointInfo();
     info.x = x;
     info.y = y;
@@ -102,9 +109,9 @@ public class ProceduralTexture3D extends Texture3D implements ProcedureOwner
     info.t = t;
     info.param = param;
     pr.initForPoint(info);
-    double transparency = output[4].getAverageValue(0, 0.0);
-    double specularity = output[5].getAverageValue(0, 0.0);
-    double shininess = output[6].getAverageValue(0, 0.0);
+    double transparency = pr.getOutputValue(4);
+    double specularity = pr.getOutputValue(5);
+    double shininess = pr.getOutputValue(6);
     if (transparency < 0.0)
       transparency = 0.0;
     if (transparency > 1.0)
@@ -117,17 +124,17 @@ public class ProceduralTexture3D extends Texture3D implements ProcedureOwner
       shininess = 0.0;
     if (shininess > 1.0)
       shininess = 1.0;
-    output[0].getColor(0, spec.diffuse, 0.0);
-    output[1].getColor(0, spec.specular, 0.0);
-    output[2].getColor(0, spec.transparent, 0.0);
-    output[3].getColor(0, spec.emissive, 0.0);
+    pr.getOutputColor(0, spec.diffuse);
+    pr.getOutputColor(1, spec.specular);
+    pr.getOutputColor(2, spec.transparent);
+    pr.getOutputColor(3, spec.emissive);
     spec.hilight.copy(spec.specular);
     spec.diffuse.scale((1.0f-transparency)*(1.0f-specularity));
     spec.specular.scale((1.0f-transparency)*specularity);
     spec.hilight.scale((1.0f-transparency)*shininess);
     spec.transparent.scale(transparency);
-    spec.roughness = output[7].getAverageValue(0, 0.0);
-    spec.cloudiness = output[8].getAverageValue(0, 0.0);
+    spec.roughness = pr.getOutputValue(7);
+    spec.cloudiness = pr.getOutputValue(8);
     if (spec.roughness < 0.0)
       spec.roughness = 0.0;
     if (spec.roughness > 1.0)
@@ -136,15 +143,14 @@ public class ProceduralTexture3D extends Texture3D implements ProcedureOwner
       spec.cloudiness = 0.0;
     if (spec.cloudiness > 1.0)
       spec.cloudiness = 1.0;
-    output[9].getValueGradient(0, spec.bumpGrad, 0.0);
+    pr.getOutputGradient(9, spec.bumpGrad);
     spec.bumpGrad.scale(0.04);
   }
 
   @Override
   public void getTransparency(RGBColor trans, double x, double y, double z, double xsize, double ysize, double zsize, double angle, double t, double param[])
   {
-    Procedure pr = (Procedure) renderingProc.get();
-    OutputModule output[] = pr.getOutputModules();
+    CompiledProcedure pr = ((CompiledProcedure[]) renderingProc.get())[1];
     PointInfo info = new PointInfo();
     info.x = x;
     info.y = y;
@@ -156,12 +162,12 @@ public class ProceduralTexture3D extends Texture3D implements ProcedureOwner
     info.t = t;
     info.param = param;
     pr.initForPoint(info);
-    double transparency = output[4].getAverageValue(0, 0.0);
+    double transparency = pr.getOutputValue(4);
     if (transparency < 0.0)
       transparency = 0.0;
     if (transparency > 1.0)
       transparency = 1.0;
-    output[2].getColor(0, trans, 0.0);
+    pr.getOutputColor(2, trans);
     trans.scale(transparency);
   }
 
@@ -188,8 +194,7 @@ public class ProceduralTexture3D extends Texture3D implements ProcedureOwner
   @Override
   public double getDisplacement(double x, double y, double z, double xsize, double ysize, double zsize, double t, double param[])
   {
-    Procedure pr = (Procedure) renderingProc.get();
-    OutputModule output[] = pr.getOutputModules();
+    CompiledProcedure pr = ((CompiledProcedure[]) renderingProc.get())[2];
     PointInfo info = new PointInfo();
     info.x = x;
     info.y = y;
@@ -201,7 +206,7 @@ public class ProceduralTexture3D extends Texture3D implements ProcedureOwner
     info.t = t;
     info.param = param;
     pr.initForPoint(info);
-    return output[10].getAverageValue(0, 0.0);
+    return pr.getOutputValue(10);
   }
 
   /** Get the list of parameters for this texture. */
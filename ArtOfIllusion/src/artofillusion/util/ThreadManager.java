@@ -1,4 +1,5 @@
 /* Copyright (C) 2005-2013 by Peter Eastman
+   Changes copyright (C) 2026 by Maksim Khramov
 
    This program is free software; you can redistribute it and/or modify it under the
    terms of the GNU General Public License as published by the Free Software
@@ -10,8 +11,8 @@
 
 package artofillusion.util;
 
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
-import java.util.*;
 
 /**
  * This class coordinates threads for multi-threaded operations.  The execution model
@@ -19,23 +20,32 @@ import java.util.*;
  * which must be executed many times.  The task is parameterized by a single index
  * (e.g. the column containing the pixel).
  * <p>
- * To use this class, pass it an object which implements the Task interface.  It
- * automatically creates an appropriate number of threads based on the number of
- * available processors.  When you call run(), the task is repeatedly executed by
- * the worker threads, with the index running
+ * To use this class, pass it an object which implements the Task interface.  When you
+ * call run(), the task is repeatedly executed by worker threads, with the index running
  * over the desired range.  You may invoke run() any number of times (e.g. once
- * for each row of the image).  Finally, call finish() to clean up the worker threads.
+ * for each row of the image).  Finally, call finish() when you are done with it.
+ * <p>
+ * The worker threads are not owned by the ThreadManager.  They belong to a single
+ * ForkJoinPool which is shared by every ThreadManager in the program, so creating a
+ * ThreadManager is cheap.  The number of threads in the pool can be set with
+ * {@link #setParallelism(int)}.
+ * <p>
+ * If run() is called from a thread which is itself a worker thread of the shared pool (for
+ * example, by a task that is being executed by another ThreadManager), the task is executed
+ * entirely on the calling thread.  Threads of other pools, such as the common pool used by
+ * parallel streams, are treated like any other thread.  Waiting for other workers there could lead the thread to pick up
+ * occurrences of the outer task while it is still in the middle of executing one, and
+ * tasks generally expect to be executed by only one occurrence at a time on each thread.
  */
 
 public class ThreadManager
 {
+  private static ForkJoinPool pool;
+  private static int parallelism;
+
   private int numIndices;
-  private AtomicInteger nextIndex;
-  private Thread thread[];
-  private HashSet<Thread> waitingThreads;
+  private final AtomicInteger nextIndex;
   private Task task;
-  private Object controller;
-  private boolean controllerWaiting;
   private int maxThreads;
 
   /**
@@ -60,54 +70,56 @@ public class ThreadManager
     this.numIndices = numIndices;
     this.task = task;
     nextIndex = new AtomicInteger(numIndices);
-    controller = new Object();
-    controllerWaiting = false;
-    waitingThreads = new HashSet<Thread>();
     maxThreads = -1;
   }
 
   /**
-   * Create and start the worker threads.  This is invoked the first time run() is called.
+   * Set the number of worker threads in the pool shared by all ThreadManagers.  If this
+   * is 0 or less, one thread is used for each available processor.  Runs which are already
+   * in progress are unaffected.
+   */
+
+  public static synchronized void setParallelism(int threads)
+  {
+    if (threads < 0)
+      threads = 0;
+    if (threads == parallelism)
+      return;
+    parallelism = threads;
+    if (pool != null)
+    {
+      pool.shutdown();
+      pool = null;
+    }
+  }
+
+  /**
+   * Get the number of worker threads in the pool shared by all ThreadManagers.
    */
 
-  private void createThreads()
+  public static synchronized int getParallelism()
   {
-    // Create a worker thread for each processor.
+    return getPool().getParallelism();
+  }
 
-    int numThreads = Runtime.getRuntime().availableProcessors();
-    if (maxThreads > 0 && maxThreads < numThreads)
-      numThreads = maxThreads;
-    thread = new Thread [numThreads];
-    for (int i = 0; i < thread.length; i++)
+  /**
+   * Get the pool of worker threads shared by all ThreadManagers, creating it if necessary.  Code
+   * which divides its work into fork/join tasks of its own should run them in this pool, so that
+   * they respect the number of threads set with {@link #setParallelism(int)}.
+   */
+
+  public static synchronized ForkJoinPool getPool()
+  {
+    if (pool == null)
     {
-      thread[i] = new Thread("Worker thread "+(i+1)) {
-        @Override
-        public void run()
-        {
-          // Repeatedly perform the task until we are finished.
-
-          while (true)
-          {
-            try
-            {
-              int index = nextIndex();
-              task.execute(index);
-            }
-            catch (InterruptedException ex)
-            {
-              task.cleanup();
-              return;
-            }
-            catch (Exception ex)
-            {
-              cancel();
-              ex.printStackTrace();
-            }
-          }
-        }
-      };
-      thread[i].start();
+      int threads = (parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+      pool = new ForkJoinPool(threads, p -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+        thread.setName("Worker thread "+(thread.getPoolIndex()+1));
+        return thread;
+      }, null, false);
     }
+    return pool;
   }
 
   /**
@@ -123,8 +135,8 @@ public class ThreadManager
 
   /**
    * Set the Task to be executed by the worker threads.  If another Task has already been set,
-   * that one is discarded immediately and cleanup() will never be invoked on in.  This method
-   * must be invoked from the same thread that instantiated the ThreadManager and that calls run().
+   * that one is discarded.  This method must be invoked from the same thread that instantiated
+   * the ThreadManager and that calls run().
    */
 
   public void setTask(Task task)
@@ -143,37 +155,51 @@ public class ThreadManager
 
   /**
    * Perform the task the specified number of times.  This method blocks until all
-   * occurrences of the task are completed.  If the current thread is interrupted
-   * while this method is in progress, all of the worker threads will be interrupted
-   * and disposed of.
+   * occurrences of the task are completed.
+   * <p>
+   * If the task throws an exception, no more occurrences of it are started, and once the
+   * ones already in progress have finished the exception is rethrown by this method.  Unchecked
+   * exceptions and errors are rethrown unchanged.  If more than one occurrence failed, the
+   * other exceptions are attached to it as suppressed exceptions.
    */
 
   public void run()
   {
-    controllerWaiting = false;
+    if (numIndices <= 0)
+      return;
+    ForkJoinPool workers = getPool();
+    Thread current = Thread.currentThread();
+    if (current instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) current).getPool() == workers)
+    {
+      // This is a nested run, so execute it on this thread (see the class comment).
+
+      Run run = new Run(task, numIndices, 1);
+      nextIndex.set(0);
+      new Worker(run).compute();
+      rethrow(run.failure.get());
+      return;
+    }
+    int numWorkers = Math.min(workers.getParallelism(), numIndices);
+    if (maxThreads > 0 && maxThreads < numWorkers)
+      numWorkers = maxThreads;
+    Run run = new Run(task, numIndices, numWorkers);
     nextIndex.set(0);
-    waitingThreads.clear();
-    if (thread == null)
-      createThreads();
+    workers.invoke(run);
+    rethrow(run.failure.get());
+  }
 
-    // Notify all the worker threads, then wait for them to finish.
+  /**
+   * Rethrow an exception thrown by the task during a run.
+   */
 
-    synchronized (this)
-    {
-      notifyAll();
-    }
-    synchronized (controller)
-    {
-      try
-      {
-        controllerWaiting = true;
-        controller.wait();
-      }
-      catch (InterruptedException ex)
-      {
-        finish();
-      }
-    }
+  private static void rethrow(Throwable failure)
+  {
+    if (failure instanceof RuntimeException)
+      throw (RuntimeException) failure;
+    if (failure instanceof Error)
+      throw (Error) failure;
+    if (failure != null)
+      throw new CompletionException(failure);
   }
 
   /**
@@ -188,49 +214,102 @@ public class ThreadManager
   }
 
   /**
-   * Dispose of all the worker threads.  Once this has been called, do not call run() again.
+   * This should be called when you are done with the ThreadManager.  The worker threads are shared
+   * and stay alive for use by other ThreadManagers, so there is nothing to dispose of, but this
+   * cancels any run which might still be in progress.
    */
 
   public void finish()
   {
-    if (thread != null) {
-      for (Thread t : thread)
-        t.interrupt();
-      try
-      {
-        for (Thread t : thread)
-          t.join();
-      }
-      catch (InterruptedException ex)
-      {
-        // Ignore.
-      }
+    cancel();
+  }
+
+  /**
+   * This holds the state of a single call to run(), and starts the workers for it.
+   */
+
+  private class Run extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final Task runTask;
+    private final int runIndices, numWorkers;
+    final AtomicReference<Throwable> failure;
+
+    Run(Task runTask, int runIndices, int numWorkers)
+    {
+      this.runTask = runTask;
+      this.runIndices = runIndices;
+      this.numWorkers = numWorkers;
+      failure = new AtomicReference<Throwable>();
+    }
+
+    @Override
+    protected void compute()
+    {
+      Worker worker[] = new Worker [numWorkers];
+      for (int i = 0; i < worker.length; i++)
+        worker[i] = new Worker(this);
+      invokeAll(worker);
+    }
+
+    /**
+     * Record an exception thrown by the task, and prevent any more indices from being started.
+     */
+
+    void fail(Throwable t)
+    {
+      ThreadManager.this.cancel();
+      if (!failure.compareAndSet(null, t))
+        failure.get().addSuppressed(t);
     }
   }
 
-  private int nextIndex() throws InterruptedException
+  /**
+   * A Worker repeatedly takes the next index and executes the task for it until there are none
+   * left.  Whichever thread it ran on is then given a chance to clean up.
+   */
+
+  private class Worker extends RecursiveAction
   {
-    int index;
-    while ((index = nextIndex.getAndIncrement()) >= numIndices)
+    private static final long serialVersionUID = 1L;
+
+    private final Run run;
+
+    Worker(Run run)
     {
-      // Wait until run() is called again.
+      this.run = run;
+    }
 
-      synchronized (this)
+    @Override
+    protected void compute()
+    {
+      boolean executed = false;
+      int index;
+      while ((index = nextIndex.getAndIncrement()) < run.runIndices)
       {
-        waitingThreads.add(Thread.currentThread());
-        if (waitingThreads.size() == thread.length)
+        executed = true;
+        try
+        {
+          run.runTask.execute(index);
+        }
+        catch (Throwable t)
+        {
+          run.fail(t);
+        }
+      }
+      if (executed)
+      {
+        try
+        {
+          run.runTask.cleanup();
+        }
+        catch (Throwable t)
         {
-          while (!controllerWaiting)
-            wait(1);
-          synchronized (controller)
-          {
-            controller.notify();
-          }
+          run.fail(t);
         }
-        wait();
       }
     }
-    return index;
   }
 
   /**
@@ -246,8 +325,10 @@ public class ThreadManager
     public void execute(int index);
 
     /**
-     * This is called once from each worker thread when finish() is called.  It gives a chance
-     * to do any necessary cleanup.
+     * This is called at the end of every call to run(), once from each worker thread which
+     * executed the task during it.  It gives a chance to do any necessary cleanup.  Worker threads
+     * are shared and live on after the run is finished, so any per-thread state the task has
+     * created (such as ThreadLocal values) should be released here.
      */
 
     public void cleanup();
@@ -17,8 +17,11 @@ import artofillusion.math.*;
  * A fragment defines a color by which anything behind it should be multiplied, and a color which
  * should be added to anything behind it.  Fragments can be chained together, when several
  * polygons contribute to the final color of a pixel.
+ *
+ * @deprecated Raster no longer creates fragment objects.  It stores fragments in a {@link FragmentBuffer}.
  */
 
+@Deprecated
 public interface Fragment
 {
   /**
@@ -0,0 +1,330 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raster;
+
+import java.util.*;
+
+/**
+ * A FragmentBuffer stores the fragments (pieces of rasterized polygons covering a single pixel) for
+ * every pixel of an image.  A fragment defines a color by which anything behind it should be
+ * multiplied, and a color which should be added to anything behind it.  The fragments for each pixel
+ * form a list sorted by depth, ending either in an opaque fragment or in the background.
+ * <p>
+ * Rather than creating an object for every fragment, they are stored in large blocks of ints, and
+ * identified by their index.  Each thread which adds fragments has its own {@link Allocator}, which
+ * takes a whole block at a time and then hands out fragments from it without any synchronization.
+ * The blocks are kept when the buffer is reset, so rendering several images of the same size does not
+ * need to allocate them again.
+ * <p>
+ * Adding fragments for a pixel must be synchronized by the caller, but any number of threads may add
+ * fragments for different pixels at once.
+ */
+
+public class FragmentBuffer
+{
+  private final int width, height;
+  private final int first[];
+  private final float opaqueDepth[];
+  private volatile int block[][];
+  private int numBlocks;
+  private ObjectMaterialInfo material[];
+  private int numMaterials;
+
+  /** The index which represents the background behind all other fragments. */
+  public static final int BACKGROUND = -1;
+
+  private static final int BLOCK_BITS = 14;
+  private static final int BLOCK_SIZE = 1<<BLOCK_BITS;
+  private static final int BLOCK_MASK = BLOCK_SIZE-1;
+
+  // The layout of each fragment within a block.
+
+  private static final int ADDITIVE = 0;
+  private static final int MULTIPLICATIVE = 1;
+  private static final int DEPTH = 2;
+  private static final int NEXT = 3;
+  private static final int MATERIAL = 4;
+  private static final int STRIDE = 5;
+
+  /**
+   * Create a FragmentBuffer.
+   *
+   * @param width      the width of the image in pixels
+   * @param height     the height of the image in pixels
+   */
+
+  public FragmentBuffer(int width, int height)
+  {
+    this.width = width;
+    this.height = height;
+    first = new int [width*height];
+    opaqueDepth = new float [width*height];
+    block = new int [16][];
+    material = new ObjectMaterialInfo [16];
+    reset();
+  }
+
+  /** Get the width of the image in pixels. */
+
+  public int getWidth()
+  {
+    return width;
+  }
+
+  /** Get the height of the image in pixels. */
+
+  public int getHeight()
+  {
+    return height;
+  }
+
+  /**
+   * Remove all fragments from the buffer, so every pixel shows only the background.  The storage for
+   * fragments is kept so it can be reused, but any Allocators created before this must not be used again.
+   */
+
+  public synchronized void reset()
+  {
+    Arrays.fill(first, BACKGROUND);
+    Arrays.fill(opaqueDepth, Float.MAX_VALUE);
+    numBlocks = 0;
+    releaseMaterials();
+  }
+
+  /**
+   * Discard the materials which have been added.  This should be called once the buffer is no longer
+   * needed, so it does not keep the objects they belong to from being garbage collected.
+   */
+
+  public synchronized void releaseMaterials()
+  {
+    Arrays.fill(material, null);
+    numMaterials = 0;
+  }
+
+  /**
+   * Register the material for an object, so fragments can refer to it.  This sets the index of
+   * the ObjectMaterialInfo.
+   */
+
+  public synchronized void addMaterial(ObjectMaterialInfo info)
+  {
+    if (numMaterials == material.length)
+      material = Arrays.copyOf(material, 2*numMaterials);
+    material[numMaterials++] = info;
+    info.index = numMaterials;
+  }
+
+  /**
+   * Get the code which identifies a material in {@link Allocator#addFragment addFragment()}.
+   *
+   * @param info        the material, which must have been added with {@link #addMaterial addMaterial()}.
+   *                    This may be null.
+   * @param isEntering  true if the material is being entered, false if it is being exited
+   */
+
+  public static int getMaterialCode(ObjectMaterialInfo info, boolean isEntering)
+  {
+    if (info == null)
+      return 0;
+    return (info.index<<1) | (isEntering ? 1 : 0);
+  }
+
+  /** Create an Allocator which a single thread can use to add fragments to the buffer. */
+
+  public Allocator createAllocator()
+  {
+    return new Allocator();
+  }
+
+  /** Get the first (frontmost) fragment for a pixel, or BACKGROUND if there are none. */
+
+  public int getFirstFragment(int pixel)
+  {
+    return first[pixel];
+  }
+
+  /** Get the depth of the frontmost opaque fragment for a pixel.  Anything beyond it has no effect. */
+
+  public float getOpaqueDepth(int pixel)
+  {
+    return opaqueDepth[pixel];
+  }
+
+  /**
+   * Record that an opaque fragment will be added to a pixel later, at the specified depth.  Until then
+   * {@link #getOpaqueDepth getOpaqueDepth()} reports that depth, so fragments behind it can be skipped.
+   * This must be synchronized in the same way as adding fragments.
+   */
+
+  public void reserveOpaqueDepth(int pixel, float depth)
+  {
+    if (depth < opaqueDepth[pixel])
+      opaqueDepth[pixel] = depth;
+  }
+
+  /** Get the next fragment behind a fragment, or BACKGROUND if there are no more. */
+
+  public int getNextFragment(int fragment)
+  {
+    return block[fragment>>>BLOCK_BITS][(fragment&BLOCK_MASK)*STRIDE+NEXT];
+  }
+
+  /** Get the additive color of a fragment, in ERGB format. */
+
+  public int getAdditiveColor(int fragment)
+  {
+    if (fragment == BACKGROUND)
+      return 0;
+    return block[fragment>>>BLOCK_BITS][(fragment&BLOCK_MASK)*STRIDE+ADDITIVE];
+  }
+
+  /** Get the multiplicative color of a fragment, in ERGB format. */
+
+  public int getMultiplicativeColor(int fragment)
+  {
+    if (fragment == BACKGROUND)
+      return 0;
+    return block[fragment>>>BLOCK_BITS][(fragment&BLOCK_MASK)*STRIDE+MULTIPLICATIVE];
+  }
+
+  /** Get whether a fragment is completely opaque, such that anything behind it has no effect. */
+
+  public boolean isOpaque(int fragment)
+  {
+    return (getMultiplicativeColor(fragment) == 0);
+  }
+
+  /** Get the depth of a fragment. */
+
+  public float getDepth(int fragment)
+  {
+    if (fragment == BACKGROUND)
+      return Float.MAX_VALUE;
+    return Float.intBitsToFloat(block[fragment>>>BLOCK_BITS][(fragment&BLOCK_MASK)*STRIDE+DEPTH]);
+  }
+
+  /** Get the material for the object a fragment is part of.  This may return null. */
+
+  public ObjectMaterialInfo getMaterialMapping(int fragment)
+  {
+    if (fragment == BACKGROUND)
+      return null;
+    int code = block[fragment>>>BLOCK_BITS][(fragment&BLOCK_MASK)*STRIDE+MATERIAL];
+    return (code == 0 ? null : material[(code>>>1)-1]);
+  }
+
+  /** Get whether the object is being entered or exited in a fragment. */
+
+  public boolean isEntering(int fragment)
+  {
+    if (fragment == BACKGROUND)
+      return false;
+    return (block[fragment>>>BLOCK_BITS][(fragment&BLOCK_MASK)*STRIDE+MATERIAL]&1) != 0;
+  }
+
+  /** Reserve a new block of fragments, and return the index of the first one. */
+
+  private synchronized int reserveBlock()
+  {
+    int blocks[][] = block;
+    if (numBlocks == blocks.length)
+      blocks = Arrays.copyOf(blocks, 2*numBlocks);
+    if (blocks[numBlocks] == null)
+      blocks[numBlocks] = new int [BLOCK_SIZE*STRIDE];
+    block = blocks;
+    return (numBlocks++)<<BLOCK_BITS;
+  }
+
+  /**
+   * An Allocator adds fragments to the buffer.  Each one should only be used by a single thread.
+   */
+
+  public class Allocator
+  {
+    private int next, end;
+
+    private Allocator()
+    {
+    }
+
+    /** Get the index of an unused fragment. */
+
+    private int allocate()
+    {
+      if (next == end)
+      {
+        next = reserveBlock();
+        end = next+BLOCK_SIZE;
+      }
+      return next++;
+    }
+
+    /**
+     * Add a fragment to a pixel, inserting it into the list at the correct depth.
+     *
+     * @param pixel          the index of the pixel
+     * @param addColor       the additive color, in ERGB format
+     * @param multColor      the multiplicative color, in ERGB format.  If this is 0, the fragment is opaque.
+     * @param depth          the depth of the fragment
+     * @param materialCode   the material being entered or exited, as returned by
+     *                       {@link FragmentBuffer#getMaterialCode getMaterialCode()}
+     */
+
+    public void addFragment(int pixel, int addColor, int multColor, float depth, int materialCode)
+    {
+      // Find where it goes in the list.  It is placed behind any fragments at the same depth, except
+      // that an object must be entered before it is exited.
+
+      int blocks[][] = block;
+      int prev = BACKGROUND, current = first[pixel];
+      while (current != BACKGROUND)
+      {
+        int data[] = blocks[current>>>BLOCK_BITS], base = (current&BLOCK_MASK)*STRIDE;
+        float currentDepth = Float.intBitsToFloat(data[base+DEPTH]);
+        if (depth < currentDepth)
+          break;
+        int currentMaterial = data[base+MATERIAL];
+        if (depth == currentDepth && currentMaterial != 0 && (currentMaterial^materialCode) == 1 && (materialCode&1) == 1)
+          break;
+        if (data[base+MULTIPLICATIVE] == 0)
+          return; // It is hidden by an opaque fragment.
+        prev = current;
+        current = data[base+NEXT];
+      }
+      if (depth >= Float.MAX_VALUE)
+        return;
+
+      // An opaque fragment hides everything behind it, so it can reuse the storage of the next one.
+
+      int index;
+      if (multColor == 0)
+      {
+        index = (current == BACKGROUND ? allocate() : current);
+        opaqueDepth[pixel] = depth;
+        materialCode = 0;
+      }
+      else
+        index = allocate();
+      blocks = block;
+      int data[] = blocks[index>>>BLOCK_BITS], base = (index&BLOCK_MASK)*STRIDE;
+      data[base+ADDITIVE] = addColor;
+      data[base+MULTIPLICATIVE] = multColor;
+      data[base+DEPTH] = Float.floatToRawIntBits(depth);
+      data[base+NEXT] = (multColor == 0 ? BACKGROUND : current);
+      data[base+MATERIAL] = materialCode;
+      if (prev == BACKGROUND)
+        first[pixel] = index;
+      else
+        blocks[prev>>>BLOCK_BITS][(prev&BLOCK_MASK)*STRIDE+NEXT] = index;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raster;
+
+import java.util.*;
+
+/**
+ * A GBuffer records the frontmost opaque surface at every pixel of an image, so that it can be shaded
+ * after visibility has been resolved.  For each pixel it stores the triangle, the depth, the
+ * barycentric coordinates within the triangle, the interpolated normal, and (for hybrid shading)
+ * the interpolated diffuse lighting.
+ * <p>
+ * Setting the sample for a pixel must be synchronized by the caller, in the same way as adding
+ * fragments to a {@link FragmentBuffer}.
+ */
+
+public class GBuffer
+{
+  private final int width, height;
+  private final Raster.DeferredTriangle triangle[];
+  private final float depth[], u[], v[], normal[], diffuse[];
+
+  /**
+   * Create a GBuffer.
+   *
+   * @param width      the width of the image in pixels
+   * @param height     the height of the image in pixels
+   * @param hasDiffuse if true, interpolated diffuse lighting will be stored for each pixel
+   */
+
+  public GBuffer(int width, int height, boolean hasDiffuse)
+  {
+    this.width = width;
+    this.height = height;
+    triangle = new Raster.DeferredTriangle [width*height];
+    depth = new float [width*height];
+    u = new float [width*height];
+    v = new float [width*height];
+    normal = new float [3*width*height];
+    diffuse = (hasDiffuse ? new float [3*width*height] : null);
+  }
+
+  /** Get the width of the image in pixels. */
+
+  public int getWidth()
+  {
+    return width;
+  }
+
+  /** Get the height of the image in pixels. */
+
+  public int getHeight()
+  {
+    return height;
+  }
+
+  /** Get whether diffuse lighting is stored for each pixel. */
+
+  public boolean hasDiffuse()
+  {
+    return (diffuse != null);
+  }
+
+  /**
+   * Remove all samples from the buffer.  This should also be called once the samples have been shaded,
+   * so the buffer does not keep the triangles from being garbage collected.
+   */
+
+  public void reset()
+  {
+    Arrays.fill(triangle, null);
+  }
+
+  /**
+   * Get the triangle visible at a pixel, or null if no deferred triangle covers it.
+   */
+
+  Raster.DeferredTriangle getTriangle(int pixel)
+  {
+    return triangle[pixel];
+  }
+
+  /** Get the depth of the sample at a pixel. */
+
+  public float getDepth(int pixel)
+  {
+    return depth[pixel];
+  }
+
+  /** Get the first barycentric coordinate of the sample at a pixel. */
+
+  public float getU(int pixel)
+  {
+    return u[pixel];
+  }
+
+  /** Get the second barycentric coordinate of the sample at a pixel. */
+
+  public float getV(int pixel)
+  {
+    return v[pixel];
+  }
+
+  /**
+   * Get the array which holds the (unnormalized) normal vectors.  The normal for pixel i is stored
+   * in elements 3*i through 3*i+2.
+   */
+
+  public float[] getNormals()
+  {
+    return normal;
+  }
+
+  /**
+   * Get the array which holds the interpolated diffuse lighting.  The color for pixel i is stored
+   * in elements 3*i through 3*i+2.  This returns null if the buffer does not store diffuse lighting.
+   */
+
+  public float[] getDiffuse()
+  {
+    return diffuse;
+  }
+
+  /**
+   * Record the sample for a pixel, replacing whatever was there before.
+   *
+   * @param pixel     the index of the pixel
+   * @param tri       the triangle which is visible at the pixel
+   * @param z         the depth of the sample
+   * @param sampleU   the first barycentric coordinate within the triangle
+   * @param sampleV   the second barycentric coordinate within the triangle
+   * @param norm      an array containing the normal vector
+   * @param dif       an array containing the diffuse lighting.  This is ignored if the buffer does not
+   *                  store diffuse lighting.
+   * @param offset    the index within norm and dif at which the values for this sample begin
+   */
+
+  void setSample(int pixel, Raster.DeferredTriangle tri, float z, float sampleU, float sampleV, float norm[], float dif[], int offset)
+  {
+    triangle[pixel] = tri;
+    depth[pixel] = z;
+    u[pixel] = sampleU;
+    v[pixel] = sampleV;
+    System.arraycopy(norm, offset, normal, 3*pixel, 3);
+    if (diffuse != null)
+      System.arraycopy(dif, offset, diffuse, 3*pixel, 3);
+  }
+}
@@ -9,7 +9,13 @@
    PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
 
 package artofillusion.raster;
+/**
+ * This class represents a transparent fragment where an object with a material is entered or exited.
+ *
+ * @deprecated Raster no longer creates fragment objects.  It stores fragments in a {@link FragmentBuffer}.
+ */
 
+@Deprecated
 public class MaterialFragment extends TransparentFragment
 {
   private ObjectMaterialInfo material;
@@ -21,6 +21,7 @@ public class ObjectMaterialInfo
 {
   private MaterialMapping mapping;
   private Mat4 toLocal;
+  int index;
 
   public ObjectMaterialInfo(MaterialMapping mapping, Mat4 toLocal)
   {
@@ -0,0 +1,227 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raster;
+
+import java.util.*;
+
+/**
+ * An OcclusionBuffer is a hierarchical depth buffer, which is used to quickly decide whether something is
+ * completely hidden behind opaque fragments that have already been rendered.  It records the maximum
+ * opaque depth in every 8x8 block of pixels in a {@link FragmentBuffer}, and in every 64x64 tile.
+ * <p>
+ * The opaque depth of a pixel can only ever decrease, so a value that has not been updated yet is still
+ * a valid upper bound.  This means it does not matter if the maximum depths lag behind the fragment buffer,
+ * and no locking is needed.  Each thread uses its own {@link Updater} to record which blocks have changed,
+ * and periodically recalculates them.
+ */
+
+public class OcclusionBuffer
+{
+  private final FragmentBuffer fragments;
+  private final int width, height, blocksWide, blocksHigh, tilesWide, tilesHigh;
+  private final float blockDepth[], tileDepth[];
+  private final boolean dirty[];
+
+  private static final int BLOCK_BITS = 3;
+  private static final int BLOCK_SIZE = 1<<BLOCK_BITS;
+  private static final int TILE_BITS = 6;
+  private static final int TILE_SIZE = 1<<TILE_BITS;
+  private static final int MAX_DIRTY_BLOCKS = 256;
+
+  /**
+   * Create an OcclusionBuffer.
+   *
+   * @param fragments    the FragmentBuffer whose opaque depths should be tracked
+   */
+
+  public OcclusionBuffer(FragmentBuffer fragments)
+  {
+    this.fragments = fragments;
+    width = fragments.getWidth();
+    height = fragments.getHeight();
+    blocksWide = (width+BLOCK_SIZE-1)>>BLOCK_BITS;
+    blocksHigh = (height+BLOCK_SIZE-1)>>BLOCK_BITS;
+    tilesWide = (width+TILE_SIZE-1)>>TILE_BITS;
+    tilesHigh = (height+TILE_SIZE-1)>>TILE_BITS;
+    blockDepth = new float [blocksWide*blocksHigh];
+    tileDepth = new float [tilesWide*tilesHigh];
+    dirty = new boolean [blockDepth.length];
+    reset();
+  }
+
+  /** Get the FragmentBuffer whose opaque depths are being tracked. */
+
+  public FragmentBuffer getFragmentBuffer()
+  {
+    return fragments;
+  }
+
+  /**
+   * Reset the buffer after the FragmentBuffer has been reset.  Any Updaters created before this must not
+   * be used again.
+   */
+
+  public void reset()
+  {
+    Arrays.fill(blockDepth, Float.MAX_VALUE);
+    Arrays.fill(tileDepth, Float.MAX_VALUE);
+    Arrays.fill(dirty, false);
+  }
+
+  /** Create an Updater which a single thread can use to record changes to the opaque depths. */
+
+  public Updater createUpdater()
+  {
+    return new Updater();
+  }
+
+  /**
+   * Determine whether everything in a rectangle of pixels at or beyond a given depth is hidden behind
+   * opaque fragments.
+   *
+   * @param xmin     the minimum x coordinate of the rectangle
+   * @param ymin     the minimum y coordinate of the rectangle
+   * @param xmax     the maximum x coordinate of the rectangle (inclusive)
+   * @param ymax     the maximum y coordinate of the rectangle (inclusive)
+   * @param depth    the minimum depth of anything inside the rectangle
+   */
+
+  public boolean isHidden(int xmin, int ymin, int xmax, int ymax, float depth)
+  {
+    if (xmin < 0)
+      xmin = 0;
+    if (ymin < 0)
+      ymin = 0;
+    if (xmax >= width)
+      xmax = width-1;
+    if (ymax >= height)
+      ymax = height-1;
+    if (xmin > xmax || ymin > ymax)
+      return false;
+    int bxmin = xmin>>BLOCK_BITS, bxmax = xmax>>BLOCK_BITS, bymin = ymin>>BLOCK_BITS, bymax = ymax>>BLOCK_BITS;
+    for (int ty = ymin>>TILE_BITS; ty <= ymax>>TILE_BITS; ty++)
+      for (int tx = xmin>>TILE_BITS; tx <= xmax>>TILE_BITS; tx++)
+      {
+        if (tileDepth[ty*tilesWide+tx] < depth)
+          continue;
+
+        // Check the individual blocks of this tile which overlap the rectangle.
+
+        int perTile = TILE_BITS-BLOCK_BITS;
+        int by1 = Math.max(bymin, ty<<perTile), by2 = Math.min(bymax, ((ty+1)<<perTile)-1);
+        int bx1 = Math.max(bxmin, tx<<perTile), bx2 = Math.min(bxmax, ((tx+1)<<perTile)-1);
+        for (int by = by1; by <= by2; by++)
+          for (int bx = bx1; bx <= bx2; bx++)
+            if (blockDepth[by*blocksWide+bx] >= depth)
+              return false;
+      }
+    return true;
+  }
+
+  /** Recalculate the maximum opaque depth of a block. */
+
+  private void updateBlock(int block)
+  {
+    int bx = block%blocksWide, by = block/blocksWide;
+    int x1 = bx<<BLOCK_BITS, x2 = Math.min(x1+BLOCK_SIZE, width);
+    int y1 = by<<BLOCK_BITS, y2 = Math.min(y1+BLOCK_SIZE, height);
+    float max = 0.0f;
+    for (int y = y1; y < y2; y++)
+      for (int x = x1, index = y*width+x1; x < x2; x++, index++)
+      {
+        float depth = fragments.getOpaqueDepth(index);
+        if (depth > max)
+          max = depth;
+      }
+    blockDepth[block] = max;
+  }
+
+  /** Recalculate the maximum opaque depth of a tile from its blocks. */
+
+  private void updateTile(int tile)
+  {
+    int perTile = TILE_BITS-BLOCK_BITS;
+    int tx = tile%tilesWide, ty = tile/tilesWide;
+    int bx1 = tx<<perTile, bx2 = Math.min(bx1+(1<<perTile), blocksWide);
+    int by1 = ty<<perTile, by2 = Math.min(by1+(1<<perTile), blocksHigh);
+    float max = 0.0f;
+    for (int by = by1; by < by2; by++)
+      for (int bx = bx1; bx < bx2; bx++)
+      {
+        float depth = blockDepth[by*blocksWide+bx];
+        if (depth > max)
+          max = depth;
+      }
+    tileDepth[tile] = max;
+  }
+
+  /**
+   * An Updater records which blocks have had opaque fragments added to them, and recalculates them.
+   * Each one should only be used by a single thread.
+   */
+
+  public class Updater
+  {
+    private final int block[];
+    private int numBlocks;
+
+    private Updater()
+    {
+      block = new int [MAX_DIRTY_BLOCKS];
+    }
+
+    /**
+     * Record that opaque fragments have been added to part of a row.
+     *
+     * @param row      the index of the row
+     * @param xstart   the first pixel that was changed
+     * @param xend     the last pixel that was changed (inclusive)
+     */
+
+    public void rowChanged(int row, int xstart, int xend)
+    {
+      int base = (row>>BLOCK_BITS)*blocksWide;
+      for (int bx = xstart>>BLOCK_BITS; bx <= xend>>BLOCK_BITS; bx++)
+      {
+        int index = base+bx;
+        if (dirty[index])
+          continue;
+        dirty[index] = true;
+        if (numBlocks == block.length)
+          update();
+        block[numBlocks++] = index;
+      }
+    }
+
+    /** Recalculate the maximum depths for all blocks that have changed. */
+
+    public void update()
+    {
+      if (numBlocks == 0)
+        return;
+      int lastTile = -1;
+      for (int i = 0; i < numBlocks; i++)
+      {
+        dirty[block[i]] = false;
+        updateBlock(block[i]);
+      }
+      for (int i = 0; i < numBlocks; i++)
+      {
+        int bx = block[i]%blocksWide, by = block[i]/blocksWide;
+        int tile = (by>>(TILE_BITS-BLOCK_BITS))*tilesWide+(bx>>(TILE_BITS-BLOCK_BITS));
+        if (tile != lastTile)
+          updateTile(tile);
+        lastTile = tile;
+      }
+      numBlocks = 0;
+    }
+  }
+}
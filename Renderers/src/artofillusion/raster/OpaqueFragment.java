@@ -14,8 +14,11 @@ import artofillusion.math.*;
 
 /**
  * This class represents a fully opaque fragment.
+ *
+ * @deprecated Raster no longer creates fragment objects.  It stores fragments in a {@link FragmentBuffer}.
  */
 
+@Deprecated
 public class OpaqueFragment implements Fragment
 {
   private int additiveColor;
@@ -24,6 +24,7 @@ import buoy.widget.*;
 import java.awt.*;
 import java.awt.image.*;
 import java.util.*;
+import java.util.List;
 
 /** Raster is a Renderer which generates images with a scanline algorithm. */
 
@@ -31,12 +32,14 @@ public class Raster implements Renderer, Runnable
 {
   private ObjectInfo light[];
   private BTabbedPane configPanel;
-  private BCheckBox transparentBox, adaptiveBox, hideBackfaceBox, hdrBox;
+  private BCheckBox transparentBox, adaptiveBox, hideBackfaceBox, hdrBox, binBox, statisticsBox, deferredBox;
   private BComboBox shadeChoice, aliasChoice, sampleChoice;
   private ValueField errorField, smoothField;
   private int imagePixel[], width, height, envMode, imageWidth, imageHeight;
   private int shadingMode = PHONG, samplesPerPixel = 1, subsample = 1;
-  private Fragment fragment[];
+  private FragmentBuffer fragments;
+  private OcclusionBuffer occlusion;
+  private GBuffer gbuffer;
   private long updateTime;
   private MemoryImageSource imageSource;
   private Scene theScene;
@@ -51,6 +54,8 @@ public class Raster implements Renderer, Runnable
   private double envParamValue[];
   private double time, smoothing = 1.0, smoothScale, focalDist, surfaceError = 0.02, fogDist;
   private boolean fog, transparentBackground = false, adaptive = true, hideBackfaces = true, generateHDR = false, positionNeeded, depthNeeded, needCopyToUI = true;
+  private boolean binTriangles = false, collectStatistics = false, deferShading = false;
+  private long objectCount, culledObjectCount, triangleCount, culledTriangleCount;
   private boolean isPreview;
 
   public static final int GOURAUD = 0;
@@ -58,18 +63,31 @@ public class Raster implements Renderer, Runnable
   public static final int PHONG = 2;
 
   public static final double TOL = 1e-12;
-  public static final float INTENSITY_CUTOFF = 0.005f;
 
+  /** @deprecated Raster no longer uses fragment objects.  The background is stored in its {@link FragmentBuffer}. */
+  @Deprecated
   public static final Fragment BACKGROUND_FRAGMENT = new OpaqueFragment(0, Float.MAX_VALUE);
+
+  public static final float INTENSITY_CUTOFF = 0.005f;
+
   private static final int WHITE_ERGB = new RGBColor(1.0f, 1.0f, 1.0f).getERGB();
 
+  /** The number of rows in each band of the screen when binning triangles. */
+  private static final int BAND_HEIGHT = 16;
+
   public Raster()
   {
     threadRasterContext = new ThreadLocal() {
       @Override
       protected Object initialValue()
       {
-        return new RasterContext(theCamera, width);
+        RasterContext context = new RasterContext(theCamera, width);
+        context.setRowRange(0, height);
+        context.allocator = fragments.createAllocator();
+        context.occlusionUpdater = occlusion.createUpdater();
+        if (gbuffer != null)
+          context.enableDeferredShading();
+        return context;
       }
     };
     threadCompositingContext = new ThreadLocal() {
@@ -189,6 +207,7 @@ public class Raster implements Renderer, Runnable
           Translate.text("Edges"),
           Translate.text("Everything")
       }), 1, 2, rightLayout);
+      generalPanel.add(binBox = new BCheckBox(Translate.text("binTrianglesByTile"), binTriangles), 2, 1, rightLayout);
       generalPanel.add(sampleChoice = new BComboBox(new String[]{"2x2", "3x3"}), 2, 2, rightLayout);
       sampleChoice.setEnabled(false);
       generalPanel.add(transparentBox = new BCheckBox(Translate.text("transparentBackground"), transparentBackground), 0, 3, 3, 1);
@@ -201,12 +220,14 @@ public class Raster implements Renderer, Runnable
 
       // Advanced options panel.
 
-      FormContainer advancedPanel = new FormContainer(new double [] {0.0, 1.0}, new double [4]);
+      FormContainer advancedPanel = new FormContainer(new double [] {0.0, 1.0}, new double [6]);
       advancedPanel.add(Translate.label("texSmoothing"), 0, 0, leftLayout);
       advancedPanel.add(smoothField = new ValueField(smoothing, ValueField.NONNEGATIVE), 1, 0, rightLayout);
       advancedPanel.add(adaptiveBox = new BCheckBox(Translate.text("reduceAccuracyForDistant"), adaptive), 0, 1, 2, 1, rightLayout);
       advancedPanel.add(hideBackfaceBox = new BCheckBox(Translate.text("eliminateBackfaces"), hideBackfaces), 0, 2, 2, 1, rightLayout);
       advancedPanel.add(hdrBox = new BCheckBox(Translate.text("generateHDR"), generateHDR), 0, 3, 2, 1, rightLayout);
+      advancedPanel.add(statisticsBox = new BCheckBox(Translate.text("collectRenderStatistics"), collectStatistics), 0, 4, 2, 1, rightLayout);
+      advancedPanel.add(deferredBox = new BCheckBox(Translate.text("deferOpaqueShading"), deferShading), 0, 5, 2, 1, rightLayout);
 
       // Create the tabbed pane.
 
@@ -230,8 +251,11 @@ public class Raster implements Renderer, Runnable
     adaptiveBox.setState(adaptive);
     hideBackfaceBox.setState(hideBackfaces);
     hdrBox.setState(generateHDR);
+    statisticsBox.setState(collectStatistics);
+    deferredBox.setState(deferShading);
     errorField.setValue(surfaceError);
     shadeChoice.setSelectedIndex(shadingMode);
+    binBox.setState(binTriangles);
     transparentBox.setState(transparentBackground);
     if (samplesPerPixel == 1)
     {
@@ -257,8 +281,11 @@ public class Raster implements Renderer, Runnable
     adaptive = adaptiveBox.getState();
     hideBackfaces = hideBackfaceBox.getState();
     generateHDR = hdrBox.getState();
+    collectStatistics = statisticsBox.getState();
+    deferShading = deferredBox.getState();
     surfaceError = errorField.getValue();
     shadingMode = shadeChoice.getSelectedIndex();
+    binTriangles = binBox.getState();
     transparentBackground = transparentBox.getState();
     if (aliasChoice.getSelectedIndex() == 0)
       samplesPerPixel = subsample = 1;
@@ -284,6 +311,9 @@ public class Raster implements Renderer, Runnable
     map.put("highDynamicRange", generateHDR);
     map.put("maxSurfaceError", surfaceError);
     map.put("shadingMethod", shadingMode);
+    map.put("binTriangles", binTriangles);
+    map.put("collectStatistics", collectStatistics);
+    map.put("deferredShading", deferShading);
     map.put("transparentBackground", transparentBackground);
     int antialiasLevel = 0;
     if (samplesPerPixel == 2)
@@ -311,6 +341,12 @@ public class Raster implements Renderer, Runnable
       surfaceError = ((Number) value).doubleValue();
     else if ("shadingMethod".equals(property))
       shadingMode = (Integer) value;
+    else if ("binTriangles".equals(property))
+      binTriangles = (Boolean) value;
+    else if ("collectStatistics".equals(property))
+      collectStatistics = (Boolean) value;
+    else if ("deferredShading".equals(property))
+      deferShading = (Boolean) value;
     else if ("transparentBackground".equals(property))
       transparentBackground = (Boolean) value;
     else if ("antialiasing".equals(property))
@@ -386,8 +422,23 @@ public class Raster implements Renderer, Runnable
     final Thread thisThread = Thread.currentThread();
     if (renderThread != thisThread)
       return;
-    fragment = new Fragment [width*height];
-    Arrays.fill(fragment, BACKGROUND_FRAGMENT);
+    if (fragments != null && fragments.getWidth() == width && fragments.getHeight() == height)
+    {
+      fragments.reset();
+      occlusion.reset();
+    }
+    else
+    {
+      fragments = new FragmentBuffer(width, height);
+      occlusion = new OcclusionBuffer(fragments);
+    }
+    if (!deferShading || shadingMode == GOURAUD)
+      gbuffer = null;
+    else if (gbuffer != null && gbuffer.getWidth() == width && gbuffer.getHeight() == height && gbuffer.hasDiffuse() == (shadingMode == HYBRID))
+      gbuffer.reset();
+    else
+      gbuffer = new GBuffer(width, height, shadingMode == HYBRID);
+    objectCount = culledObjectCount = triangleCount = culledTriangleCount = 0;
     lock = new RowLock[height];
     for (int i = 0; i < lock.length; i++)
       lock[i] = new RowLock();
@@ -425,14 +476,27 @@ public class Raster implements Renderer, Runnable
     // Render the objects.
 
     final ObjectInfo sortedObjects[] = sortObjects();
+    final int numBands = (height+BAND_HEIGHT-1)/BAND_HEIGHT;
+    final List<List<BinnedTriangle>[]> threadBins = new ArrayList<List<BinnedTriangle>[]>();
     ThreadManager threads = new ThreadManager(sortedObjects.length, new ThreadManager.Task() {
           @Override
       public void execute(int index)
       {
         RasterContext context = (RasterContext) threadRasterContext.get();
+        if (binTriangles && context.bins == null)
+        {
+          @SuppressWarnings({"unchecked", "rawtypes"})
+          List<BinnedTriangle> bins[] = new List [numBands];
+          context.bins = bins;
+          synchronized (threadBins)
+          {
+            threadBins.add(context.bins);
+          }
+        }
         ObjectInfo obj = sortedObjects[index];
         context.camera.setObjectTransform(obj.getCoords().fromLocal());
         renderObject(obj, orig, viewdir, obj.getCoords().toLocal(), context, thisThread);
+        context.occlusionUpdater.update();
         if (thisThread != renderThread)
           return;
         if (System.currentTimeMillis()-updateTime > 5000)
@@ -441,14 +505,204 @@ public class Raster implements Renderer, Runnable
           @Override
       public void cleanup()
       {
-        ((RasterContext) threadRasterContext.get()).cleanup();
+        RasterContext context = (RasterContext) threadRasterContext.get();
+        addStatistics(context);
+        context.cleanup();
+        threadRasterContext.remove();
       }
     });
     threads.run();
     threads.finish();
+    if (binTriangles && thisThread == renderThread)
+      rasterizeBins(threadBins, numBands, thisThread);
+    if (gbuffer != null && thisThread == renderThread)
+      shadeDeferredSamples(thisThread);
     finish(createFinalImage(center, orig, hvec, vvec));
   }
 
+  /** Add the counts from a RasterContext to the totals for the render. */
+
+  private synchronized void addStatistics(RasterContext context)
+  {
+    objectCount += context.objects;
+    culledObjectCount += context.objectsCulled;
+    triangleCount += context.triangles;
+    culledTriangleCount += context.trianglesCulled;
+  }
+
+  /**
+   * Get statistics about the most recent render: how many objects and triangles were rendered, and how
+   * many of them were found to be hidden by occlusion culling.
+   */
+
+  public synchronized Map<String, Number> getStatistics()
+  {
+    Map<String, Number> values = new LinkedHashMap<String, Number>();
+    values.put("objects", objectCount);
+    values.put("objectsCulled", culledObjectCount);
+    values.put("triangles", triangleCount);
+    values.put("trianglesCulled", culledTriangleCount);
+    return values;
+  }
+
+  /**
+   * Rasterize the triangles which have been binned.  Each band of rows is processed by a single
+   * thread, so the fragments can be recorded without locking.
+   *
+   * @param threadBins   the bins that were filled by each thread
+   * @param numBands     the number of bands the image is divided into
+   * @param mainThread   the thread that is doing the rendering
+   */
+
+  private void rasterizeBins(final List<List<BinnedTriangle>[]> threadBins, final int numBands, final Thread mainThread)
+  {
+    ThreadManager threads = new ThreadManager(numBands, new ThreadManager.Task() {
+      @Override
+      public void execute(int band)
+      {
+        if (mainThread != renderThread)
+          return;
+        RasterContext context = (RasterContext) threadRasterContext.get();
+        context.setRowRange(band*BAND_HEIGHT, Math.min((band+1)*BAND_HEIGHT, height));
+        for (List<BinnedTriangle> bins[] : threadBins)
+        {
+          if (bins[band] == null)
+            continue;
+          for (BinnedTriangle triangle : bins[band])
+            triangle.render(context);
+          bins[band] = null;
+        }
+        if (System.currentTimeMillis()-updateTime > 5000)
+          updateImage();
+      }
+      @Override
+      public void cleanup()
+      {
+        ((RasterContext) threadRasterContext.get()).cleanup();
+        threadRasterContext.remove();
+      }
+    });
+    threads.run();
+    threads.finish();
+  }
+
+  /**
+   * Shade the samples in the GBuffer, and add the resulting opaque fragments to the buffer.  Each
+   * row is processed by a single thread, so the fragments can be recorded without locking.
+   *
+   * @param mainThread   the thread that is doing the rendering
+   */
+
+  private void shadeDeferredSamples(final Thread mainThread)
+  {
+    ThreadManager threads = new ThreadManager(height, new ThreadManager.Task() {
+      @Override
+      public void execute(int row)
+      {
+        if (mainThread != renderThread)
+          return;
+        RasterContext context = (RasterContext) threadRasterContext.get();
+        DeferredTriangle lastTriangle = null;
+        int lastColor = 0;
+        for (int x = 0, pixel = row*width; x < width; x++, pixel++)
+        {
+          DeferredTriangle tri = gbuffer.getTriangle(pixel);
+          float depth = gbuffer.getDepth(pixel);
+          if (tri == null || depth > fragments.getOpaqueDepth(pixel))
+          {
+            // Nothing is here, or it is hidden by an opaque fragment that was not deferred.
+
+            lastTriangle = null;
+            continue;
+          }
+
+          // When subsampling, neighboring samples of the same triangle share a color, just as
+          // they would if they had been shaded when the triangle was rasterized.
+
+          if (tri != lastTriangle || x%subsample == 0)
+            lastColor = shadeSample(tri, pixel, context);
+          lastTriangle = tri;
+          context.allocator.addFragment(pixel, lastColor, 0, depth, 0);
+        }
+        if (System.currentTimeMillis()-updateTime > 5000)
+          updateImage();
+      }
+      @Override
+      public void cleanup()
+      {
+        ((RasterContext) threadRasterContext.get()).cleanup();
+        threadRasterContext.remove();
+      }
+    });
+    threads.run();
+    threads.finish();
+    gbuffer.reset();
+  }
+
+  /**
+   * Calculate the color of a sample in the GBuffer.
+   *
+   * @param tri      the triangle which is visible at the sample
+   * @param pixel    the index of the sample
+   * @param context  the RasterContext to use for temporary storage
+   * @return the color of the sample in ERGB format
+   */
+
+  private int shadeSample(DeferredTriangle tri, int pixel, RasterContext context)
+  {
+    RGBColor diffuse = context.tempColor[1], specular = context.tempColor[2], highlight = context.tempColor[3];
+    Vec3 pos = context.tempVec[2], normal = context.tempVec[3];
+    TextureSpec surfSpec = context.surfSpec;
+    float norm[] = gbuffer.getNormals();
+    double ul = gbuffer.getU(pixel), vl = gbuffer.getV(pixel), wl = 1.0-ul-vl;
+    double tol = smoothScale/gbuffer.getDepth(pixel);
+
+    context.lightPosition = tri.lightPosition;
+    context.lightDirection = tri.lightDirection;
+    if (positionNeeded)
+      pos.set(ul*tri.vert1.x+vl*tri.vert2.x+wl*tri.vert3.x, ul*tri.vert1.y+vl*tri.vert2.y+wl*tri.vert3.y, ul*tri.vert1.z+vl*tri.vert2.z+wl*tri.vert3.z);
+    normal.set(norm[3*pixel], norm[3*pixel+1], norm[3*pixel+2]);
+    normal.normalize();
+    if (tri.hybrid)
+      {
+        // The diffuse lighting was interpolated from the vertices, so only the specular lighting
+        // needs to be calculated.
+
+        float dif[] = gbuffer.getDiffuse();
+        diffuse.setRGB(dif[3*pixel], dif[3*pixel+1], dif[3*pixel+2]);
+        tri.tri.getTextureSpec(surfSpec, tri.viewdot, ul, vl, wl, tol, time);
+        if (surfSpec.hilight.getRed() == 0.0f && surfSpec.hilight.getGreen() == 0.0f && surfSpec.hilight.getBlue() == 0.0f &&
+            surfSpec.specular.getRed() == 0.0f && surfSpec.specular.getGreen() == 0.0f && surfSpec.specular.getBlue() == 0.0f)
+          specular = highlight = null;
+        else
+          calcLight(pos, normal, tri.viewdir, tri.faceNorm, surfSpec.roughness, null, specular, highlight, context);
+      }
+    else
+      {
+        tri.tri.getTextureSpec(surfSpec, tri.viewdir.dot(normal), ul, vl, wl, tol, time);
+        if (tri.bumpMap)
+          {
+            normal.scale(surfSpec.bumpGrad.dot(normal)+1.0);
+            normal.subtract(surfSpec.bumpGrad);
+            normal.normalize();
+          }
+        if (surfSpec.hilight.getRed() == 0.0f && surfSpec.hilight.getGreen() == 0.0f && surfSpec.hilight.getBlue() == 0.0f &&
+            surfSpec.specular.getRed() == 0.0f && surfSpec.specular.getGreen() == 0.0f && surfSpec.specular.getBlue() == 0.0f)
+          specular = highlight = null;
+        calcLight(pos, normal, tri.viewdir, tri.faceNorm, surfSpec.roughness, diffuse, specular, highlight, context);
+      }
+    RGBColor color = context.tempColor[0];
+    if (specular == null)
+      color.setRGB(surfSpec.diffuse.getRed()*diffuse.getRed() + surfSpec.emissive.getRed(),
+        surfSpec.diffuse.getGreen()*diffuse.getGreen() + surfSpec.emissive.getGreen(),
+        surfSpec.diffuse.getBlue()*diffuse.getBlue() + surfSpec.emissive.getBlue());
+    else
+      color.setRGB(surfSpec.diffuse.getRed()*diffuse.getRed() + surfSpec.hilight.getRed()*highlight.getRed() + surfSpec.specular.getRed()*specular.getRed() + surfSpec.emissive.getRed(),
+        surfSpec.diffuse.getGreen()*diffuse.getGreen() + surfSpec.hilight.getGreen()*highlight.getGreen() + surfSpec.specular.getGreen()*specular.getGreen() + surfSpec.emissive.getGreen(),
+        surfSpec.diffuse.getBlue()*diffuse.getBlue() + surfSpec.hilight.getBlue()*highlight.getBlue() + surfSpec.specular.getBlue()*specular.getBlue() + surfSpec.emissive.getBlue());
+    return color.getERGB();
+  }
+
   /**
    * Sort the objects in the scene into the most efficient order for rendering.
    */
@@ -514,7 +768,7 @@ public class Raster implements Renderer, Runnable
       for (int i1 = 0, i2 = 0; i1 < imageHeight; i1++, i2 += samplesPerPixel)
         for (int j1 = 0, j2 = 0; j1 < imageWidth; j1++, j2 += samplesPerPixel)
         {
-          fragment[i2*width+j2].getAdditiveColor(frontColor);
+          frontColor.setERGB(fragments.getAdditiveColor(fragments.getFirstFragment(i2*width+j2)));
           imagePixel[i1*imageWidth+j1] = frontColor.getARGB();
         }
     imageSource.newPixels();
@@ -570,32 +824,33 @@ public class Raster implements Renderer, Runnable
 
               subpixelColor.setRGB(0.0f, 0.0f, 0.0f);
               subpixelMult.setRGB(1.0f, 1.0f, 1.0f);
-              Fragment f = fragment[base+m];
+              int f = fragments.getFirstFragment(base+m);
               float lastDepth = 0;
               while (true)
               {
                 // Factor in materials.
 
-                ObjectMaterialInfo fragmentMaterial = f.getMaterialMapping();
+                ObjectMaterialInfo fragmentMaterial = fragments.getMaterialMapping(f);
                 ObjectMaterialInfo currentMaterial = null;
+                float depth = fragments.getDepth(f);
                 if (materialStack.size() > 0)
                   currentMaterial = materialStack.get(materialStack.size()-1);
-                adjustColorsForMaterial(currentMaterial, j2+m, i2+k, lastDepth, f.getDepth(), addColor, context.multColor, context);
+                adjustColorsForMaterial(currentMaterial, j2+m, i2+k, lastDepth, depth, addColor, context.multColor, context);
                 addColor.multiply(subpixelMult);
                 subpixelColor.add(addColor);
                 subpixelMult.multiply(multColor);
                 if (fragmentMaterial != null)
                 {
-                  if (f.isEntering())
+                  if (fragments.isEntering(f))
                     materialStack.add(fragmentMaterial);
                   else
                     materialStack.remove(fragmentMaterial);
                 }
-                lastDepth = f.getDepth();
+                lastDepth = depth;
 
                 // If we've reached the end, factor in the background.
 
-                if (f == BACKGROUND_FRAGMENT)
+                if (f == FragmentBuffer.BACKGROUND)
                 {
                   if (transparentBackground)
                   {
@@ -623,21 +878,22 @@ public class Raster implements Renderer, Runnable
                   }
                 }
                 else
-                  f.getAdditiveColor(addColor);
+                  addColor.setERGB(fragments.getAdditiveColor(f));
 
                 // Factor in the fragment color.
 
                 addColor.multiply(subpixelMult);
                 subpixelColor.add(addColor);
-                if (f.isOpaque())
+                int fragmentMult = fragments.getMultiplicativeColor(f);
+                if (fragmentMult == 0)
                 {
-                  if (f != BACKGROUND_FRAGMENT || !transparentBackground)
+                  if (f != FragmentBuffer.BACKGROUND || !transparentBackground)
                     subpixelMult.setRGB(0.0f, 0.0f, 0.0f);
                   break;
                 }
-                f.getMultiplicativeColor(multColor);
+                multColor.setERGB(fragmentMult);
                 subpixelMult.multiply(multColor);
-                f = f.getNextFragment();
+                f = fragments.getNextFragment(f);
               }
               totalColor.add(subpixelColor);
               totalTransparency.add(subpixelMult);
@@ -663,6 +919,7 @@ public class Raster implements Renderer, Runnable
       public void cleanup()
       {
         ((CompositingContext) threadCompositingContext.get()).cleanup();
+        threadCompositingContext.remove();
       }
     });
     threads.run();
@@ -690,7 +947,7 @@ public class Raster implements Renderer, Runnable
             int base = width*(i2+k)+j2;
             for (int m = 0; m < samplesPerPixel; m++)
             {
-              float z = fragment[base+m].getDepth();
+              float z = fragments.getDepth(fragments.getFirstFragment(base+m));
               if (z < minDepth)
                 minDepth = z;
             }
@@ -798,10 +1055,15 @@ public class Raster implements Renderer, Runnable
     img = null;
     imageSource = null;
     imagePixel = null;
-    fragment = null;
+    if (fragments != null)
+      fragments.releaseMaterials();
+    if (gbuffer != null)
+      gbuffer.reset();
     RenderListener rl = listener;
     listener = null;
     renderThread = null;
+    if (rl != null && finalImage != null && collectStatistics)
+      rl.statisticsAvailable(getStatistics());
     if (rl != null && finalImage != null)
       rl.imageComplete(finalImage);
   }
@@ -863,6 +1125,14 @@ public class Raster implements Renderer, Runnable
           }
         return;
       }
+    if (theObject.getTexture() == null)
+      return; // Lights and other objects which are not rendered.
+    context.objects++;
+    if (!theObject.getTexture().hasComponent(Texture.DISPLACEMENT_COMPONENT) && isObjectHidden(obj.getBounds(), context))
+      {
+        context.objectsCulled++;
+        return;
+      }
     if (adaptive)
       {
         double dist = obj.getBounds().distanceToPoint(toLocal.times(orig));
@@ -879,8 +1149,9 @@ public class Raster implements Renderer, Runnable
       return;
     if (mainThread != renderThread)
       return;
+    context.triangles += mesh.triangle.length;
     viewdir = toLocal.timesDirection(viewdir);
-    if (context.lightPosition == null)
+    if (context.lightPosition == null || context.bins != null || gbuffer != null)
     {
       context.lightPosition = new Vec3 [light.length];
       context.lightDirection = new Vec3 [light.length];
@@ -895,15 +1166,64 @@ public class Raster implements Renderer, Runnable
     boolean cullBackfaces = (hideBackfaces && theObject.isClosed() && !theObject.getTexture().hasComponent(Texture.TRANSPARENT_COLOR_COMPONENT));
     ObjectMaterialInfo material = null;
     if (theObject.getMaterialMapping() != null)
+    {
       material = new ObjectMaterialInfo(theObject.getMaterialMapping(), toLocal);
+      fragments.addMaterial(material);
+    }
+    boolean deferred = (gbuffer != null && material == null && !theObject.getTexture().hasComponent(Texture.TRANSPARENT_COLOR_COMPONENT));
     if (theObject.getTexture().hasComponent(Texture.DISPLACEMENT_COMPONENT))
       renderMeshDisplaced(mesh, viewdir, tol, cullBackfaces, bumpMap, material, context);
     else if (shadingMode == GOURAUD)
       renderMeshGouraud(mesh, viewdir, cullBackfaces, material, context);
     else if (shadingMode == HYBRID && !bumpMap)
-      renderMeshHybrid(mesh, viewdir, cullBackfaces, material, context);
+      renderMeshHybrid(mesh, viewdir, cullBackfaces, deferred, material, context);
     else
-      renderMeshPhong(mesh, viewdir, cullBackfaces, bumpMap, material, context);
+      renderMeshPhong(mesh, viewdir, cullBackfaces, bumpMap, deferred, material, context);
+  }
+
+  /**
+   * Determine whether an object is completely hidden behind opaque fragments that have already been
+   * rendered.  This uses the object transform of the context's camera.
+   */
+
+  private boolean isObjectHidden(BoundingBox bounds, RasterContext context)
+  {
+    if (context.bins != null)
+      return false;
+    Mat4 toView = context.camera.getObjectToView(), toScreen = context.camera.getObjectToScreen();
+    double clip = context.camera.getClipDistance();
+    double xmin = Double.MAX_VALUE, ymin = Double.MAX_VALUE, zmin = Double.MAX_VALUE;
+    double xmax = -Double.MAX_VALUE, ymax = -Double.MAX_VALUE;
+    for (Vec3 corner : bounds.getCorners())
+      {
+        double z = toView.timesZ(corner);
+        if (z < clip)
+          return false;
+        Vec2 pos = toScreen.timesXY(corner);
+        xmin = Math.min(xmin, pos.x);
+        xmax = Math.max(xmax, pos.x);
+        ymin = Math.min(ymin, pos.y);
+        ymax = Math.max(ymax, pos.y);
+        zmin = Math.min(zmin, z);
+      }
+    return occlusion.isHidden((int) Math.floor(xmin)-1, (int) Math.floor(ymin)-1, (int) Math.ceil(xmax)+1, (int) Math.ceil(ymax)+1, (float) zmin);
+  }
+
+  /**
+   * Determine whether a triangle is completely hidden behind opaque fragments that have already been
+   * rendered.
+   */
+
+  private boolean isTriangleHidden(Vec2 pos1, Vec2 pos2, Vec2 pos3, float z1, float z2, float z3, RasterContext context)
+  {
+    if (context.bins != null)
+      return false;
+    double xmin = Math.min(pos1.x, Math.min(pos2.x, pos3.x)), xmax = Math.max(pos1.x, Math.max(pos2.x, pos3.x));
+    double ymin = Math.min(pos1.y, Math.min(pos2.y, pos3.y)), ymax = Math.max(pos1.y, Math.max(pos2.y, pos3.y));
+    if (!occlusion.isHidden((int) Math.floor(xmin)-1, (int) Math.floor(ymin)-1, (int) Math.ceil(xmax)+1, (int) Math.ceil(ymax)+1, Math.min(z1, Math.min(z2, z3))))
+      return false;
+    context.trianglesCulled++;
+    return true;
   }
 
   /** Calculate the lighting model at a point on a surface.  If diffuse, specular, or highlight
@@ -998,62 +1318,190 @@ public class Raster implements Renderer, Runnable
   }
 
   /**
-   * Create a Fragment object.
+   * Record a fragment into the current row of a RasterContext.
    *
+   * @param x          the position along the row
    * @param addColor   the additive color in ERGB format
    * @param multColor  the multiplicative color in ERGB format
    * @param depth      the depth of the fragment
    * @param material   a description of the material for the object being rendered
    * @param isBackface true if this triangle faces away from the camera
+   * @param context    the RasterContext in which to store it
    */
 
-  private Fragment createFragment(int addColor, int multColor, float depth, ObjectMaterialInfo material, boolean isBackface)
+  private void recordFragment(int x, int addColor, int multColor, float depth, ObjectMaterialInfo material, boolean isBackface, RasterContext context)
   {
-    if (multColor == 0)
+    if (addColor == 0 && multColor == WHITE_ERGB && material == null)
     {
-      // It is fully opaque.
+      // This is a fully transparent fragment, so we can just discard it.
 
-      return new OpaqueFragment(addColor, depth);
-    }
-    else if (addColor == 0 && multColor == WHITE_ERGB && material == null)
-      return null; // This is a fully transparent fragment, so we can just discard it.
-    else
-    {
-      if (material == null)
-        return new TransparentFragment(addColor, multColor, depth, BACKGROUND_FRAGMENT);
-      return new MaterialFragment(addColor, multColor, depth, BACKGROUND_FRAGMENT, material, !isBackface);
+      context.fragmentDepth[x] = Float.MAX_VALUE;
+      return;
     }
+    context.fragmentAddColor[x] = addColor;
+    context.fragmentMultColor[x] = multColor;
+    context.fragmentDepth[x] = depth;
+    context.fragmentMaterial[x] = FragmentBuffer.getMaterialCode(material, !isBackface);
   }
 
   /**
-   * Record a row of Fragment objects into the buffer.
+   * Record a row of fragments into the buffer.
    *
    * @param row      the index of the row
    * @param xstart   the starting position along the row
    * @param xend     the ending position along the row
-   * @param context  the RasterContext from which to copy the Fragments
+   * @param context  the RasterContext from which to copy the fragments
    */
 
   private void recordRow(int row, int xstart, int xend, RasterContext context)
   {
-    Fragment source[] = context.fragment;
-    int indexBase = row*width;
+    // When triangles are binned, each band of rows is only ever rendered by a single thread.
 
+    if (binTriangles)
+    {
+      mergeRow(row, xstart, xend, context);
+      return;
+    }
     synchronized (lock[row])
     {
-      for (int x = xstart; x < xend; x++)
+      mergeRow(row, xstart, xend, context);
+    }
+  }
+
+  /** Merge a row of fragments from a RasterContext into the buffer. */
+
+  private void mergeRow(int row, int xstart, int xend, RasterContext context)
+  {
+    FragmentBuffer.Allocator allocator = context.allocator;
+    float depth[] = context.fragmentDepth;
+    int multColor[] = context.fragmentMultColor;
+    int indexBase = row*width, opaqueStart = xend, opaqueEnd = -1;
+
+    for (int x = xstart; x < xend; x++)
+    {
+      if (depth[x] == Float.MAX_VALUE)
+        continue;
+      allocator.addFragment(indexBase+x, context.fragmentAddColor[x], multColor[x], depth[x], context.fragmentMaterial[x]);
+      if (multColor[x] == 0)
       {
-        Fragment f = source[x];
-        if (f == null)
-          continue;
-        int index = indexBase+x;
-        Fragment current = fragment[index];
-        if (f.getDepth() < current.getDepth())
-          fragment[index] = f.insertNextFragment(current);
-        else
-          fragment[index] = current.insertNextFragment(f);
+        if (x < opaqueStart)
+          opaqueStart = x;
+        opaqueEnd = x;
       }
     }
+    if (opaqueEnd >= opaqueStart)
+      context.occlusionUpdater.rowChanged(row, opaqueStart, opaqueEnd);
+  }
+
+  /**
+   * Record a sample whose shading is being deferred into the current row of a RasterContext.
+   *
+   * @param x          the position along the row
+   * @param pixel      the index of the pixel
+   * @param depth      the depth of the sample
+   * @param clip       the depth of the clipping plane
+   * @param u          the first barycentric coordinate within the triangle
+   * @param v          the second barycentric coordinate within the triangle
+   * @param normx      the x component of the interpolated normal
+   * @param normy      the y component of the interpolated normal
+   * @param normz      the z component of the interpolated normal
+   * @param difred     the red component of the interpolated diffuse lighting
+   * @param difgreen   the green component of the interpolated diffuse lighting
+   * @param difblue    the blue component of the interpolated diffuse lighting
+   * @param context    the RasterContext in which to store it
+   */
+
+  private void deferFragment(int x, int pixel, float depth, double clip, double u, double v, double normx, double normy, double normz,
+                             float difred, float difgreen, float difblue, RasterContext context)
+  {
+    if (depth >= fragments.getOpaqueDepth(pixel) || depth <= clip)
+    {
+      context.fragmentDepth[x] = Float.MAX_VALUE;
+      return;
+    }
+    context.fragmentDepth[x] = depth;
+    context.sampleU[x] = (float) u;
+    context.sampleV[x] = (float) v;
+    int j = 3*x;
+    context.sampleNormal[j] = (float) normx;
+    context.sampleNormal[j+1] = (float) normy;
+    context.sampleNormal[j+2] = (float) normz;
+    context.sampleDiffuse[j] = difred;
+    context.sampleDiffuse[j+1] = difgreen;
+    context.sampleDiffuse[j+2] = difblue;
+  }
+
+  /**
+   * Record a row of deferred samples into the GBuffer.
+   *
+   * @param row      the index of the row
+   * @param xstart   the starting position along the row
+   * @param xend     the ending position along the row
+   * @param tri      the triangle the samples belong to
+   * @param context  the RasterContext from which to copy the samples
+   */
+
+  private void recordDeferredRow(int row, int xstart, int xend, DeferredTriangle tri, RasterContext context)
+  {
+    if (binTriangles)
+    {
+      mergeDeferredRow(row, xstart, xend, tri, context);
+      return;
+    }
+    synchronized (lock[row])
+    {
+      mergeDeferredRow(row, xstart, xend, tri, context);
+    }
+  }
+
+  /**
+   * Merge a row of deferred samples from a RasterContext into the GBuffer.  Each one reserves its depth in
+   * the fragment buffer, so anything behind it will be skipped.
+   */
+
+  private void mergeDeferredRow(int row, int xstart, int xend, DeferredTriangle tri, RasterContext context)
+  {
+    float depth[] = context.fragmentDepth;
+    int indexBase = row*width, start = xend, end = -1;
+
+    for (int x = xstart; x < xend; x++)
+    {
+      int pixel = indexBase+x;
+      if (depth[x] >= fragments.getOpaqueDepth(pixel))
+        continue;
+      gbuffer.setSample(pixel, tri, depth[x], context.sampleU[x], context.sampleV[x], context.sampleNormal, context.sampleDiffuse, 3*x);
+      fragments.reserveOpaqueDepth(pixel, depth[x]);
+      if (x < start)
+        start = x;
+      end = x;
+    }
+    if (end >= start)
+      context.occlusionUpdater.rowChanged(row, start, end);
+  }
+
+  /**
+   * Add a triangle to every band of rows it overlaps, so it can be rasterized later.
+   *
+   * @param y1        the y coordinate of the first vertex on the screen
+   * @param y2        the y coordinate of the second vertex on the screen
+   * @param y3        the y coordinate of the third vertex on the screen
+   * @param triangle  renders the triangle
+   * @param context   the RasterContext in which to store it
+   */
+
+  private void binTriangle(double y1, double y2, double y3, BinnedTriangle triangle, RasterContext context)
+  {
+    int ymin = FastMath.round(Math.min(y1, Math.min(y2, y3)));
+    int ymax = FastMath.round(Math.max(y1, Math.max(y2, y3)));
+    if (ymax < 0 || ymin >= height)
+      return;
+    int lastBand = Math.min(ymax/BAND_HEIGHT, context.bins.length-1);
+    for (int band = Math.max(ymin, 0)/BAND_HEIGHT; band <= lastBand; band++)
+    {
+      if (context.bins[band] == null)
+        context.bins[band] = new ArrayList<BinnedTriangle>();
+      context.bins[band].add(triangle);
+    }
   }
 
   /** Clip a triangle to the region in front of the z clipping plane. */
@@ -1267,6 +1715,8 @@ public class Raster implements Renderer, Runnable
           {
             if (cullBackfaces && backface)
               continue;
+            if (isTriangleHidden(pos[v1], pos[v2], pos[v3], z[v1], z[v2], z[v3], context))
+              continue;
             if (z[v1] > distToScreen)
               tol = smoothScale*z[v1];
             tri.getTextureSpec(context.surfSpec, viewdot, 1.0, 0.0, 0.0, tol, time);
@@ -1297,6 +1747,16 @@ public class Raster implements Renderer, Runnable
                                      Vec2 pos3, float zf3, double uf3, double vf3, RGBColor diffuse3, RGBColor specular3,
                                      RenderingTriangle tri, double clip, double viewdot, boolean isBackface, ObjectMaterialInfo material, RasterContext context)
   {
+    if (context.bins != null)
+      {
+        // The colors are stored in temporary objects that get reused, so copy them.
+
+        RGBColor d1 = diffuse1.duplicate(), d2 = diffuse2.duplicate(), d3 = diffuse3.duplicate();
+        RGBColor s1 = specular1.duplicate(), s2 = specular2.duplicate(), s3 = specular3.duplicate();
+        binTriangle(pos1.y, pos2.y, pos3.y, c -> renderTriangleGouraud(pos1, zf1, uf1, vf1, d1, s1,
+            pos2, zf2, uf2, vf2, d2, s2, pos3, zf3, uf3, vf3, d3, s3, tri, clip, viewdot, isBackface, material, c), context);
+        return;
+      }
     double x1, x2, x3, y1, y2, y3;
     double dx1, dx2, dy1, dy2, mx1, mx2;
     double xstart, xend;
@@ -1580,8 +2040,8 @@ public class Raster implements Renderer, Runnable
             y = 0;
           }
         yend = FastMath.round(y2);
-        if (yend > height)
-          yend = height;
+        if (yend > context.endRow)
+          yend = context.endRow;
         index = y*width;
 
         // Rasterize the top half of the triangle,
@@ -1634,7 +2094,7 @@ public class Raster implements Renderer, Runnable
                 specblue = specblueend;
                 dspecblue = specbluestart-specblueend;
               }
-            if (left != right)
+            if (left != right && y >= context.firstRow)
               {
                 if (xend == xstart)
                   denom = 1.0f;
@@ -1670,7 +2130,7 @@ public class Raster implements Renderer, Runnable
                 for (i = left; i < right; i++)
                   {
                     zl = 1.0f/z;
-                    if (zl < fragment[index+i].getOpaqueDepth() && zl > clip)
+                    if (zl < fragments.getOpaqueDepth(index+i) && zl > clip)
                       {
                         if (!repeat || (i%subsample == 0))
                           {
@@ -1684,12 +2144,12 @@ public class Raster implements Renderer, Runnable
                             lastAddColor = context.tempColor[0].getERGB();
                             lastMultColor = surfSpec.transparent.getERGB();
                           }
-                        context.fragment[i] = createFragment(lastAddColor, lastMultColor, zl, material, isBackface);
+                        recordFragment(i, lastAddColor, lastMultColor, zl, material, isBackface, context);
                         repeat = doSubsample;
                       }
                     else
                     {
-                      context.fragment[i] = null;
+                      context.fragmentDepth[i] = Float.MAX_VALUE;
                       repeat = false;
                     }
                     z += dz;
@@ -1789,7 +2249,7 @@ public class Raster implements Renderer, Runnable
             specblueend -= mspecblue2*y;
             y = 0;
           }
-        yend = FastMath.round(y3 < height ? y3 : height);
+        yend = FastMath.round(y3 < context.endRow ? y3 : context.endRow);
         index = y*width;
 
         // Rasterize the bottom half of the triangle,
@@ -1842,7 +2302,7 @@ public class Raster implements Renderer, Runnable
                 specblue = specblueend;
                 dspecblue = specbluestart-specblueend;
               }
-            if (left != right)
+            if (left != right && y >= context.firstRow)
               {
                 if (xend == xstart)
                   denom = 1.0f;
@@ -1878,7 +2338,7 @@ public class Raster implements Renderer, Runnable
                 for (i = left; i < right; i++)
                   {
                     zl = 1.0f/z;
-                    if (zl < fragment[index+i].getOpaqueDepth() && zl > clip)
+                    if (zl < fragments.getOpaqueDepth(index+i) && zl > clip)
                       {
                         if (!repeat || (i%subsample == 0))
                           {
@@ -1892,12 +2352,12 @@ public class Raster implements Renderer, Runnable
                             lastAddColor = context.tempColor[0].getERGB();
                             lastMultColor = surfSpec.transparent.getERGB();
                           }
-                        context.fragment[i] = createFragment(lastAddColor, lastMultColor, zl, material, isBackface);
+                        recordFragment(i, lastAddColor, lastMultColor, zl, material, isBackface, context);
                         repeat = doSubsample;
                       }
                     else
                     {
-                      context.fragment[i] = null;
+                      context.fragmentDepth[i] = Float.MAX_VALUE;
                       repeat = false;
                     }
                     z += dz;
@@ -1940,7 +2400,7 @@ public class Raster implements Renderer, Runnable
 
   /** Render a triangle mesh with hybrid Gouraud/Phong shading. */
 
-  private void renderMeshHybrid(RenderingMesh mesh, Vec3 viewdir, boolean cullBackfaces, ObjectMaterialInfo material, RasterContext context)
+  private void renderMeshHybrid(RenderingMesh mesh, Vec3 viewdir, boolean cullBackfaces, boolean deferred, ObjectMaterialInfo material, RasterContext context)
   {
     Vec3 vert[] = mesh.vert, norm[] = mesh.norm, clipNorm[] = new Vec3 [4];
     Vec2 pos[] = new Vec2 [vert.length];
@@ -1992,17 +2452,19 @@ public class Raster implements Renderer, Runnable
             renderTriangleHybrid(clipPos2D[0], clipz[0], clipPos[0], clipNorm[0], clipu[0], clipv[0], diffuse[0],
                 clipPos2D[1], clipz[1], clipPos[1], clipNorm[1], clipu[1], clipv[1], diffuse[1],
                 clipPos2D[2], clipz[2], clipPos[2], clipNorm[2], clipu[2], clipv[2], diffuse[2],
-                tri, viewdir, mesh.faceNorm[i], clip, viewdot, backface, material, context);
+                tri, viewdir, mesh.faceNorm[i], clip, viewdot, backface, deferred, material, context);
             if (clipPos.length == 4)
               renderTriangleHybrid(clipPos2D[1], clipz[1], clipPos[1], clipNorm[1], clipu[1], clipv[1], diffuse[1],
                 clipPos2D[2], clipz[2], clipPos[2], clipNorm[2], clipu[2], clipv[2], diffuse[2],
                 clipPos2D[3], clipz[3], clipPos[3], clipNorm[3], clipu[3], clipv[3], diffuse[3],
-                tri, viewdir, mesh.faceNorm[i], clip, viewdot, backface, material, context);
+                tri, viewdir, mesh.faceNorm[i], clip, viewdot, backface, deferred, material, context);
           }
         else
           {
             if (cullBackfaces && backface)
               continue;
+            if (isTriangleHidden(pos[v1], pos[v2], pos[v3], z[v1], z[v2], z[v3], context))
+              continue;
             if (z[v1] > distToScreen)
               tol = smoothScale*z[v1];
             tri.getTextureSpec(context.surfSpec, viewdot, 1.0, 0.0, 0.0, tol, time);
@@ -2018,7 +2480,7 @@ public class Raster implements Renderer, Runnable
             renderTriangleHybrid(pos[v1], z[v1], vert[v1], norm[n1], 1.0, 0.0, diffuse[0],
                 pos[v2], z[v2], vert[v2], norm[n2], 0.0, 1.0, diffuse[1],
                 pos[v3], z[v3], vert[v3], norm[n3], 0.0, 0.0, diffuse[2],
-                tri, viewdir, mesh.faceNorm[i], clip, viewdot, backface, material, context);
+                tri, viewdir, mesh.faceNorm[i], clip, viewdot, backface, deferred, material, context);
           }
       }
   }
@@ -2028,8 +2490,23 @@ public class Raster implements Renderer, Runnable
   private void renderTriangleHybrid(Vec2 pos1, float zf1, Vec3 vert1, Vec3 normf1, double uf1, double vf1, RGBColor diffuse1,
                                     Vec2 pos2, float zf2, Vec3 vert2, Vec3 normf2, double uf2, double vf2, RGBColor diffuse2,
                                     Vec2 pos3, float zf3, Vec3 vert3, Vec3 normf3, double uf3, double vf3, RGBColor diffuse3,
-                                    RenderingTriangle tri, Vec3 viewdir, Vec3 faceNorm, double clip, double viewdot, boolean isBackface, ObjectMaterialInfo material, RasterContext context)
+                                    RenderingTriangle tri, Vec3 viewdir, Vec3 faceNorm, double clip, double viewdot, boolean isBackface, boolean deferred, ObjectMaterialInfo material, RasterContext context)
   {
+    if (context.bins != null)
+      {
+        // The colors and normals may be stored in temporary objects that get reused, so copy them.
+
+        RGBColor d1 = diffuse1.duplicate(), d2 = diffuse2.duplicate(), d3 = diffuse3.duplicate();
+        Vec3 n1 = new Vec3(normf1), n2 = new Vec3(normf2), n3 = new Vec3(normf3);
+        Vec3 lightPosition[] = context.lightPosition, lightDirection[] = context.lightDirection;
+        binTriangle(pos1.y, pos2.y, pos3.y, c -> {
+          c.lightPosition = lightPosition;
+          c.lightDirection = lightDirection;
+          renderTriangleHybrid(pos1, zf1, vert1, n1, uf1, vf1, d1, pos2, zf2, vert2, n2, uf2, vf2, d2,
+              pos3, zf3, vert3, n3, uf3, vf3, d3, tri, viewdir, faceNorm, clip, viewdot, isBackface, deferred, material, c);
+        }, context);
+        return;
+      }
     double x1, x2, x3, y1, y2, y3;
     double dx1, dx2, dy1, dy2, mx1, mx2;
     double xstart, xend;
@@ -2050,6 +2527,7 @@ public class Raster implements Renderer, Runnable
     int left, right, i, index, yend, y, lastAddColor = 0, lastMultColor = 0;
     boolean doSubsample = (subsample > 1), repeat;
     TextureSpec surfSpec = context.surfSpec;
+    DeferredTriangle deferredTriangle = (deferred ? new DeferredTriangle(tri, vert1, vert2, vert3, viewdir, faceNorm, viewdot, false, true, context) : null);
 
     // Order the three vertices by y coordinate.
 
@@ -2314,8 +2792,8 @@ public class Raster implements Renderer, Runnable
             y = 0;
           }
         yend = FastMath.round(y2);
-        if (yend > height)
-          yend = height;
+        if (yend > context.endRow)
+          yend = context.endRow;
         index = y*width;
 
         // Rasterize the top half of the triangle,
@@ -2368,7 +2846,7 @@ public class Raster implements Renderer, Runnable
                 normz = normzend;
                 dnormz = normzstart-normzend;
               }
-            if (left != right)
+            if (left != right && y >= context.firstRow)
               {
                 if (xend == xstart)
                   denom = 1.0f;
@@ -2404,7 +2882,9 @@ public class Raster implements Renderer, Runnable
                 for (i = left; i < right; i++)
                   {
                     zl = 1.0f/z;
-                    if (zl < fragment[index+i].getOpaqueDepth() && zl > clip)
+                    if (deferredTriangle != null)
+                      deferFragment(i, index+i, zl, clip, u*zl, v*zl, normx, normy, normz, difred, difgreen, difblue, context);
+                    else if (zl < fragments.getOpaqueDepth(index+i) && zl > clip)
                       {
                         if (!repeat || (i%subsample == 0))
                           {
@@ -2431,12 +2911,12 @@ public class Raster implements Renderer, Runnable
                             lastAddColor = context.tempColor[0].getERGB();
                             lastMultColor = surfSpec.transparent.getERGB();
                           }
-                        context.fragment[i] = createFragment(lastAddColor, lastMultColor, zl, material, isBackface);
+                        recordFragment(i, lastAddColor, lastMultColor, zl, material, isBackface, context);
                         repeat = doSubsample;
                       }
                     else
                     {
-                      context.fragment[i] = null;
+                      context.fragmentDepth[i] = Float.MAX_VALUE;
                       repeat = false;
                     }
                     z += dz;
@@ -2449,7 +2929,10 @@ public class Raster implements Renderer, Runnable
                     normy += dnormy;
                     normz += dnormz;
                   }
-                recordRow(y, left, right, context);
+                if (deferredTriangle != null)
+                  recordDeferredRow(y, left, right, deferredTriangle, context);
+                else
+                  recordRow(y, left, right, context);
               }
             xstart += mx1;
             zstart += mz1;
@@ -2536,7 +3019,7 @@ public class Raster implements Renderer, Runnable
             normzend -= mnormz2*y;
             y = 0;
           }
-        yend = FastMath.round(y3 < height ? y3 : height);
+        yend = FastMath.round(y3 < context.endRow ? y3 : context.endRow);
         index = y*width;
 
         // Rasterize the bottom half of the triangle,
@@ -2589,7 +3072,7 @@ public class Raster implements Renderer, Runnable
                 normz = normzend;
                 dnormz = normzstart-normzend;
               }
-            if (left != right)
+            if (left != right && y >= context.firstRow)
               {
                 if (xend == xstart)
                   denom = 1.0f;
@@ -2625,7 +3108,9 @@ public class Raster implements Renderer, Runnable
                 for (i = left; i < right; i++)
                   {
                     zl = 1.0f/z;
-                    if (zl < fragment[index+i].getOpaqueDepth() && zl > clip)
+                    if (deferredTriangle != null)
+                      deferFragment(i, index+i, zl, clip, u*zl, v*zl, normx, normy, normz, difred, difgreen, difblue, context);
+                    else if (zl < fragments.getOpaqueDepth(index+i) && zl > clip)
                       {
                         if (!repeat || (i%subsample == 0))
                           {
@@ -2652,12 +3137,12 @@ public class Raster implements Renderer, Runnable
                             lastAddColor = context.tempColor[0].getERGB();
                             lastMultColor = surfSpec.transparent.getERGB();
                           }
-                        context.fragment[i] = createFragment(lastAddColor, lastMultColor, zl, material, isBackface);
+                        recordFragment(i, lastAddColor, lastMultColor, zl, material, isBackface, context);
                         repeat = doSubsample;
                       }
                     else
                     {
-                      context.fragment[i] = null;
+                      context.fragmentDepth[i] = Float.MAX_VALUE;
                       repeat = false;
                     }
                     z += dz;
@@ -2670,7 +3155,10 @@ public class Raster implements Renderer, Runnable
                     normy += dnormy;
                     normz += dnormz;
                   }
-                recordRow(y, left, right, context);
+                if (deferredTriangle != null)
+                  recordDeferredRow(y, left, right, deferredTriangle, context);
+                else
+                  recordRow(y, left, right, context);
               }
             xstart += mx1;
             zstart += mz1;
@@ -2700,7 +3188,7 @@ public class Raster implements Renderer, Runnable
 
   /** Render a triangle mesh with Phong shading. */
 
-  private void renderMeshPhong(RenderingMesh mesh, Vec3 viewdir, boolean cullBackfaces, boolean bumpMap, ObjectMaterialInfo material, RasterContext context)
+  private void renderMeshPhong(RenderingMesh mesh, Vec3 viewdir, boolean cullBackfaces, boolean bumpMap, boolean deferred, ObjectMaterialInfo material, RasterContext context)
   {
     Vec3 vert[] = mesh.vert, norm[] = mesh.norm, clipNorm[] = new Vec3 [4];
     Vec2 pos[] = new Vec2 [vert.length];
@@ -2744,21 +3232,23 @@ public class Raster implements Renderer, Runnable
             renderTrianglePhong(clipPos2D[0], clipz[0], clipPos[0], clipNorm[0], clipu[0], clipv[0],
                 clipPos2D[1], clipz[1], clipPos[1], clipNorm[1], clipu[1], clipv[1],
                 clipPos2D[2], clipz[2], clipPos[2], clipNorm[2], clipu[2], clipv[2],
-                tri, viewdir, mesh.faceNorm[i], clip, bumpMap, backface, material, context);
+                tri, viewdir, mesh.faceNorm[i], clip, bumpMap, backface, deferred, material, context);
             if (clipPos.length == 4)
               renderTrianglePhong(clipPos2D[1], clipz[1], clipPos[1], clipNorm[1], clipu[1], clipv[1],
                 clipPos2D[2], clipz[2], clipPos[2], clipNorm[2], clipu[2], clipv[2],
                 clipPos2D[3], clipz[3], clipPos[3], clipNorm[3], clipu[3], clipv[3],
-                tri, viewdir, mesh.faceNorm[i], clip, bumpMap, backface, material, context);
+                tri, viewdir, mesh.faceNorm[i], clip, bumpMap, backface, deferred, material, context);
           }
         else
           {
             if (cullBackfaces && backface)
               continue;
+            if (isTriangleHidden(pos[v1], pos[v2], pos[v3], z[v1], z[v2], z[v3], context))
+              continue;
             renderTrianglePhong(pos[v1], z[v1], vert[v1], norm[n1], 1.0, 0.0,
                 pos[v2], z[v2], vert[v2], norm[n2], 0.0, 1.0,
                 pos[v3], z[v3], vert[v3], norm[n3], 0.0, 0.0,
-                tri, viewdir, mesh.faceNorm[i], clip, bumpMap, backface, material, context);
+                tri, viewdir, mesh.faceNorm[i], clip, bumpMap, backface, deferred, material, context);
           }
       }
   }
@@ -2768,8 +3258,22 @@ public class Raster implements Renderer, Runnable
   private void renderTrianglePhong(Vec2 pos1, float zf1, Vec3 vert1, Vec3 normf1, double uf1, double vf1,
                                    Vec2 pos2, float zf2, Vec3 vert2, Vec3 normf2, double uf2, double vf2,
                                    Vec2 pos3, float zf3, Vec3 vert3, Vec3 normf3, double uf3, double vf3,
-                                   RenderingTriangle tri, Vec3 viewdir, Vec3 faceNorm, double clip, boolean bumpMap, boolean isBackface, ObjectMaterialInfo material, RasterContext context)
+                                   RenderingTriangle tri, Vec3 viewdir, Vec3 faceNorm, double clip, boolean bumpMap, boolean isBackface, boolean deferred, ObjectMaterialInfo material, RasterContext context)
   {
+    if (context.bins != null)
+      {
+        // The normals may be stored in temporary objects that get reused, so copy them.
+
+        Vec3 n1 = new Vec3(normf1), n2 = new Vec3(normf2), n3 = new Vec3(normf3);
+        Vec3 lightPosition[] = context.lightPosition, lightDirection[] = context.lightDirection;
+        binTriangle(pos1.y, pos2.y, pos3.y, c -> {
+          c.lightPosition = lightPosition;
+          c.lightDirection = lightDirection;
+          renderTrianglePhong(pos1, zf1, vert1, n1, uf1, vf1, pos2, zf2, vert2, n2, uf2, vf2,
+              pos3, zf3, vert3, n3, uf3, vf3, tri, viewdir, faceNorm, clip, bumpMap, isBackface, deferred, material, c);
+        }, context);
+        return;
+      }
     double x1, x2, x3, y1, y2, y3;
     double dx1, dx2, dy1, dy2, mx1, mx2;
     double xstart, xend;
@@ -2786,6 +3290,7 @@ public class Raster implements Renderer, Runnable
     int left, right, i, index, yend, y, lastAddColor = 0, lastMultColor = 0;
     boolean doSubsample = (subsample > 1), repeat;
     TextureSpec surfSpec = context.surfSpec;
+    DeferredTriangle deferredTriangle = (deferred ? new DeferredTriangle(tri, vert1, vert2, vert3, viewdir, faceNorm, 0.0, bumpMap, false, context) : null);
 
     // Order the three vertices by y coordinate.
 
@@ -3008,8 +3513,8 @@ public class Raster implements Renderer, Runnable
             y = 0;
           }
         yend = FastMath.round(y2);
-        if (yend > height)
-          yend = height;
+        if (yend > context.endRow)
+          yend = context.endRow;
         index = y*width;
 
         // Rasterize the top half of the triangle,
@@ -3050,7 +3555,7 @@ public class Raster implements Renderer, Runnable
                 normz = normzend;
                 dnormz = normzstart-normzend;
               }
-            if (left != right)
+            if (left != right && y >= context.firstRow)
               {
                 if (xend == xstart)
                   denom = 1.0f;
@@ -3080,7 +3585,9 @@ public class Raster implements Renderer, Runnable
                 for (i = left; i < right; i++)
                   {
                     zl = 1.0f/z;
-                    if (zl < fragment[index+i].getOpaqueDepth() && zl > clip)
+                    if (deferredTriangle != null)
+                      deferFragment(i, index+i, zl, clip, u*zl, v*zl, normx, normy, normz, 0.0f, 0.0f, 0.0f, context);
+                    else if (zl < fragments.getOpaqueDepth(index+i) && zl > clip)
                       {
                         if (!repeat || (i%subsample == 0))
                           {
@@ -3116,12 +3623,12 @@ public class Raster implements Renderer, Runnable
                             lastAddColor = context.tempColor[0].getERGB();
                             lastMultColor = surfSpec.transparent.getERGB();
                           }
-                        context.fragment[i] = createFragment(lastAddColor, lastMultColor, zl, material, isBackface);
+                        recordFragment(i, lastAddColor, lastMultColor, zl, material, isBackface, context);
                         repeat = doSubsample;
                       }
                     else
                     {
-                      context.fragment[i] = null;
+                      context.fragmentDepth[i] = Float.MAX_VALUE;
                       repeat = false;
                     }
                     z += dz;
@@ -3131,7 +3638,10 @@ public class Raster implements Renderer, Runnable
                     normy += dnormy;
                     normz += dnormz;
                   }
-                recordRow(y, left, right, context);
+                if (deferredTriangle != null)
+                  recordDeferredRow(y, left, right, deferredTriangle, context);
+                else
+                  recordRow(y, left, right, context);
               }
             xstart += mx1;
             zstart += mz1;
@@ -3197,7 +3707,7 @@ public class Raster implements Renderer, Runnable
             normzend -= mnormz2*y;
             y = 0;
           }
-        yend = FastMath.round(y3 < height ? y3 : height);
+        yend = FastMath.round(y3 < context.endRow ? y3 : context.endRow);
         index = y*width;
 
         // Rasterize the bottom half of the triangle,
@@ -3238,7 +3748,7 @@ public class Raster implements Renderer, Runnable
                 normz = normzend;
                 dnormz = normzstart-normzend;
               }
-            if (left != right)
+            if (left != right && y >= context.firstRow)
               {
                 if (xend == xstart)
                   denom = 1.0f;
@@ -3268,7 +3778,9 @@ public class Raster implements Renderer, Runnable
                 for (i = left; i < right; i++)
                   {
                     zl = 1.0f/z;
-                    if (zl < fragment[index+i].getOpaqueDepth() && zl > clip)
+                    if (deferredTriangle != null)
+                      deferFragment(i, index+i, zl, clip, u*zl, v*zl, normx, normy, normz, 0.0f, 0.0f, 0.0f, context);
+                    else if (zl < fragments.getOpaqueDepth(index+i) && zl > clip)
                       {
                         if (!repeat || (i%subsample == 0))
                           {
@@ -3304,12 +3816,12 @@ public class Raster implements Renderer, Runnable
                             lastAddColor = context.tempColor[0].getERGB();
                             lastMultColor = surfSpec.transparent.getERGB();
                           }
-                        context.fragment[i] = createFragment(lastAddColor, lastMultColor, zl, material, isBackface);
+                        recordFragment(i, lastAddColor, lastMultColor, zl, material, isBackface, context);
                         repeat = doSubsample;
                       }
                     else
                     {
-                      context.fragment[i] = null;
+                      context.fragmentDepth[i] = Float.MAX_VALUE;
                       repeat = false;
                     }
                     z += dz;
@@ -3319,7 +3831,10 @@ public class Raster implements Renderer, Runnable
                     normy += dnormy;
                     normz += dnormz;
                   }
-                recordRow(y, left, right, context);
+                if (deferredTriangle != null)
+                  recordDeferredRow(y, left, right, deferredTriangle, context);
+                else
+                  recordRow(y, left, right, context);
               }
             xstart += mx1;
             zstart += mz1;
@@ -3534,12 +4049,12 @@ public class Raster implements Renderer, Runnable
       renderTriangleHybrid(dv1.pos, dv1.z, dv1.dispvert, dv1.dispnorm, dv1.u, dv1.v, dv1.diffuse,
         dv2.pos, dv2.z, dv2.dispvert, dv2.dispnorm, dv2.u, dv2.v, dv2.diffuse,
         dv3.pos, dv3.z, dv3.dispvert, dv3.dispnorm, dv3.u, dv3.v, dv3.diffuse,
-        tri, viewdir, closestNorm, clip, viewdir.dot(closestNorm), backface, material, context);
+        tri, viewdir, closestNorm, clip, viewdir.dot(closestNorm), backface, false, material, context);
     else
       renderTrianglePhong(dv1.pos, dv1.z, dv1.dispvert, dv1.dispnorm, dv1.u, dv1.v,
         dv2.pos, dv2.z, dv2.dispvert, dv2.dispnorm, dv2.u, dv2.v,
         dv3.pos, dv3.z, dv3.dispvert, dv3.dispnorm, dv3.u, dv3.v,
-        tri, viewdir, closestNorm, clip, bumpMap, backface, material, context);
+        tri, viewdir, closestNorm, clip, bumpMap, backface, false, material, context);
   }
 
   /** This is an inner class for keeping track of information about vertices when
@@ -3603,6 +4118,45 @@ public class Raster implements Renderer, Runnable
     }
   }
 
+  /**
+   * A triangle which has been added to one or more bins, and is waiting to be rasterized.
+   */
+
+  interface BinnedTriangle
+  {
+    /** Rasterize the triangle, recording fragments for the rows selected in the context. */
+
+    void render(RasterContext context);
+  }
+
+  /**
+   * A triangle whose shading has been deferred until visibility is resolved.  It records everything
+   * needed to shade a sample, since the RasterContext will have moved on to other objects by then.
+   */
+
+  static class DeferredTriangle
+  {
+    final RenderingTriangle tri;
+    final Vec3 vert1, vert2, vert3, viewdir, faceNorm, lightPosition[], lightDirection[];
+    final double viewdot;
+    final boolean bumpMap, hybrid;
+
+    DeferredTriangle(RenderingTriangle tri, Vec3 vert1, Vec3 vert2, Vec3 vert3, Vec3 viewdir, Vec3 faceNorm, double viewdot, boolean bumpMap, boolean hybrid, RasterContext context)
+    {
+      this.tri = tri;
+      this.vert1 = vert1;
+      this.vert2 = vert2;
+      this.vert3 = vert3;
+      this.viewdir = viewdir;
+      this.faceNorm = faceNorm;
+      this.viewdot = viewdot;
+      this.bumpMap = bumpMap;
+      this.hybrid = hybrid;
+      lightPosition = context.lightPosition;
+      lightDirection = context.lightDirection;
+    }
+  }
+
   /**
    * This class is used for the lock objects on individual rows.
    */
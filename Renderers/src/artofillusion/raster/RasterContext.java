@@ -13,6 +13,7 @@ package artofillusion.raster;
 import artofillusion.math.*;
 import artofillusion.texture.*;
 import artofillusion.*;
+import java.util.*;
 
 /**
  * This class holds temporary information used during raster rendering.  One instance of it is
@@ -25,7 +26,14 @@ public class RasterContext
   public RGBColor tempColor[];
   public TextureSpec surfSpec, surfSpec2;
   public Camera camera;
-  public Fragment fragment[];
+  public int fragmentAddColor[], fragmentMultColor[], fragmentMaterial[];
+  public float fragmentDepth[];
+  public float sampleU[], sampleV[], sampleNormal[], sampleDiffuse[];
+  public FragmentBuffer.Allocator allocator;
+  public OcclusionBuffer.Updater occlusionUpdater;
+  public long objects, objectsCulled, triangles, trianglesCulled;
+  public int firstRow, endRow;
+  List<Raster.BinnedTriangle> bins[];
 
   public RasterContext(Camera camera, int width)
   {
@@ -38,7 +46,34 @@ public class RasterContext
     tempVec = new Vec3 [4];
     for (int i = 0; i < tempVec.length; i++)
       tempVec[i] = new Vec3();
-    fragment = new Fragment[width];
+    fragmentAddColor = new int [width];
+    fragmentMultColor = new int [width];
+    fragmentMaterial = new int [width];
+    fragmentDepth = new float [width];
+  }
+
+  /**
+   * Allocate the arrays used to record a row of samples whose shading is being deferred.
+   */
+
+  public void enableDeferredShading()
+  {
+    int width = fragmentDepth.length;
+    sampleU = new float [width];
+    sampleV = new float [width];
+    sampleNormal = new float [3*width];
+    sampleDiffuse = new float [3*width];
+  }
+
+  /**
+   * Restrict rasterization to a range of rows.  Triangles will only write fragments for rows
+   * y with firstRow &lt;= y &lt; endRow.
+   */
+
+  public void setRowRange(int firstRow, int endRow)
+  {
+    this.firstRow = firstRow;
+    this.endRow = endRow;
   }
 
   /**
@@ -54,5 +89,8 @@ public class RasterContext
     surfSpec = null;
     surfSpec2 = null;
     camera = null;
+    bins = null;
+    allocator = null;
+    occlusionUpdater = null;
   }
 }
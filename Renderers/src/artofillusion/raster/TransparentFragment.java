@@ -12,6 +12,13 @@ package artofillusion.raster;
 
 import artofillusion.math.*;
 
+/**
+ * This class represents a fragment which is partly transparent.
+ *
+ * @deprecated Raster no longer creates fragment objects.  It stores fragments in a {@link FragmentBuffer}.
+ */
+
+@Deprecated
 public class TransparentFragment implements Fragment
 {
   private int additiveColor, multiplicativeColor;
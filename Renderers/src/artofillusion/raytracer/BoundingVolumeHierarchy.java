@@ -0,0 +1,905 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.math.*;
+import artofillusion.util.*;
+import java.util.concurrent.*;
+
+/** This class is a bounding volume hierarchy, which can be used by the Raytracer as an alternative
+    to an octree for sorting the objects by location in the scene.
+    <p>
+    The tree is built top down.  At each node, the objects are sorted into bins along each axis
+    based on the centers of their bounding boxes, and the node is split at the bin boundary which
+    minimizes the surface area heuristic.  Unlike an octree, every object is stored in exactly one
+    terminal node, so objects never need to be tested more than once for a ray.  Large subtrees are
+    built in parallel as fork/join tasks, using the threads shared by all ThreadManagers.  Each subtree depends only on the objects it contains, so
+    the result is the same no matter how many threads are used.
+    <p>
+    Once built, the tree is flattened into primitive arrays.  Each node occupies six consecutive
+    floats in the bounds array and two consecutive ints in the node array.  The first child of a
+    branch node always immediately follows it, so only the index of the second child is stored.
+    <p>
+    Triangles are also copied into a structure-of-arrays store, indexed the same way as the object
+    list, so the triangles in a terminal node occupy a contiguous block.  This allows a
+    {@link RayPacket} of coherent rays to be tested against each triangle with a single tight loop. */
+
+public class BoundingVolumeHierarchy
+{
+  private float bounds[];
+  private int node[];
+  private RTObject obj[];
+  private double triangleData[];
+  private byte triangleAxis[];
+  private int numNodes, maxDepth;
+
+  private static final int BINS = 16;
+  private static final int MAX_LEAF_SIZE = 8;
+  private static final int PARALLEL_THRESHOLD = 4096;
+  private static final double TRAVERSAL_COST = 1.0;
+  private static final double INTERSECTION_COST = 1.5;
+  private static final int MIN_SEGMENT_OBJECTS = 16;
+  private static final int TRIANGLE_DATA_SIZE = 11;
+  private static final byte NOT_TRIANGLE = -1;
+
+  /** Construct a bounding volume hierarchy.
+
+      @param objects    the objects to place in the tree
+      @param objBounds  the bounding box of each object
+  */
+
+  public BoundingVolumeHierarchy(RTObject objects[], BoundingBox objBounds[])
+  {
+    int count = objects.length;
+    double min[] = new double [3*count];
+    double max[] = new double [3*count];
+    double center[] = new double [3*count];
+    int index[] = new int [count];
+    for (int i = 0; i < count; i++)
+    {
+      BoundingBox bb = objBounds[i];
+      min[3*i] = bb.minx;
+      min[3*i+1] = bb.miny;
+      min[3*i+2] = bb.minz;
+      max[3*i] = bb.maxx;
+      max[3*i+1] = bb.maxy;
+      max[3*i+2] = bb.maxz;
+      for (int j = 3*i; j < 3*i+3; j++)
+        center[j] = 0.5*(min[j]+max[j]);
+      index[i] = i;
+    }
+    BuildNode root = ThreadManager.getPool().invoke(new BuildTask(new BuildData(min, max, center, index), 0, count));
+
+    // Flatten the tree into arrays.
+
+    measure(root, 0);
+    bounds = new float [6*numNodes];
+    node = new int [2*numNodes];
+    obj = new RTObject [count];
+    for (int i = 0; i < count; i++)
+      obj[i] = objects[index[i]];
+    int next = flatten(root, 0);
+    if (next != numNodes)
+      throw new IllegalStateException("Inconsistent node count in bounding volume hierarchy");
+
+    // Copy the triangles into the packet intersection store.
+
+    triangleData = new double [TRIANGLE_DATA_SIZE*count];
+    triangleAxis = new byte [count];
+    for (int i = 0; i < count; i++)
+    {
+      if (obj[i] instanceof RTTriangle)
+        storeTriangle(i, (RTTriangle) obj[i]);
+      else
+        triangleAxis[i] = NOT_TRIANGLE;
+    }
+  }
+
+  /** Record the precomputed data for a triangle.  This is exactly the data used by
+      RTTriangle.checkIntersection(), so the packet and single ray paths produce identical results. */
+
+  private void storeTriangle(int which, RTTriangle tri)
+  {
+    int base = TRIANGLE_DATA_SIZE*which;
+    Vec3 norm = tri.trueNorm, vert = tri.vert1;
+    triangleAxis[which] = (byte) tri.dropAxis;
+    triangleData[base] = norm.x;
+    triangleData[base+1] = norm.y;
+    triangleData[base+2] = norm.z;
+    triangleData[base+3] = tri.d;
+    switch (tri.dropAxis)
+    {
+      case 0:
+        triangleData[base+4] = vert.y;
+        triangleData[base+5] = vert.z;
+        break;
+      case 1:
+        triangleData[base+4] = vert.x;
+        triangleData[base+5] = vert.z;
+        break;
+      default:
+        triangleData[base+4] = vert.x;
+        triangleData[base+5] = vert.y;
+    }
+    triangleData[base+6] = tri.edge2d1x;
+    triangleData[base+7] = tri.edge2d1y;
+    triangleData[base+8] = tri.edge2d2x;
+    triangleData[base+9] = tri.edge2d2y;
+    triangleData[base+10] = tri.triangleTol;
+  }
+
+  /** Get the number of nodes in the tree. */
+
+  public int getNodeCount()
+  {
+    return numNodes;
+  }
+
+  /** Get the maximum depth of any node in the tree.  The root node has depth 0. */
+
+  public int getMaxDepth()
+  {
+    return maxDepth;
+  }
+
+  /** Get the list of objects in the tree.  They are ordered so that the objects in each terminal node
+      are stored consecutively. */
+
+  public RTObject[] getObjects()
+  {
+    return obj;
+  }
+
+  /** Get a BoundingBox for the whole tree. */
+
+  public BoundingBox getBounds()
+  {
+    if (numNodes == 0 || obj.length == 0)
+      return new BoundingBox(0, 0, 0, 0, 0, 0);
+    return new BoundingBox(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+  }
+
+  /** Find the first object hit by a ray (or the first two objects, if they are almost exactly the same
+      distance away).
+
+      @param r          the ray to trace
+      @param intersect  the details of what was hit are returned in this object
+      @return true if the ray hit anything, false otherwise
+  */
+
+  public boolean findFirstIntersection(Ray r, Raytracer.RayIntersection intersect)
+  {
+    RTObject first = null, second = null;
+    double firstDist = Double.MAX_VALUE, secondDist = Double.MAX_VALUE;
+    int stack[] = getStack(r.rt);
+    int stackSize = 0;
+    Vec3 orig = r.getOrigin(), dir = r.getDirection();
+    double ox = orig.x, oy = orig.y, oz = orig.z;
+    double invx = 1.0/dir.x, invy = 1.0/dir.y, invz = 1.0/dir.z;
+    int current = 0, visited = 0;
+
+    if (obj.length == 0 || findEntryDistance(0, ox, oy, oz, invx, invy, invz, Double.MAX_VALUE) == Double.POSITIVE_INFINITY)
+    {
+      intersect.set(SurfaceIntersection.NO_INTERSECTION, SurfaceIntersection.NO_INTERSECTION, 0.0);
+      return false;
+    }
+    while (true)
+    {
+      visited++;
+      int count = node[2*current+1];
+      if (count > 0)
+      {
+        // This is a terminal node, so check all of its objects.
+
+        int start = node[2*current];
+        for (int i = start; i < start+count; i++)
+        {
+          SurfaceIntersection intersection = r.findIntersection(obj[i]);
+          if (intersection == SurfaceIntersection.NO_INTERSECTION)
+            continue;
+          double dist = intersection.intersectionDist(0);
+          if (dist < firstDist)
+          {
+            secondDist = firstDist;
+            second = first;
+            firstDist = dist;
+            first = obj[i];
+          }
+          else if (dist < secondDist)
+          {
+            secondDist = dist;
+            second = obj[i];
+          }
+        }
+      }
+      else
+      {
+        // Visit whichever child the ray enters first, and save the other one for later.
+
+        double limit = (first == null ? Double.MAX_VALUE : firstDist+Raytracer.TOL);
+        int child1 = current+1, child2 = node[2*current];
+        double dist1 = findEntryDistance(child1, ox, oy, oz, invx, invy, invz, limit);
+        double dist2 = findEntryDistance(child2, ox, oy, oz, invx, invy, invz, limit);
+        if (dist2 < dist1)
+        {
+          int tempChild = child1;
+          child1 = child2;
+          child2 = tempChild;
+          double tempDist = dist1;
+          dist1 = dist2;
+          dist2 = tempDist;
+        }
+        if (dist1 != Double.POSITIVE_INFINITY)
+        {
+          if (dist2 != Double.POSITIVE_INFINITY)
+            stack[stackSize++] = child2;
+          current = child1;
+          continue;
+        }
+      }
+
+      // Move on to the next node that has not yet been visited.
+
+      current = -1;
+      while (stackSize > 0 && current == -1)
+      {
+        int candidate = stack[--stackSize];
+        if (first == null || findEntryDistance(candidate, ox, oy, oz, invx, invy, invz, firstDist+Raytracer.TOL) != Double.POSITIVE_INFINITY)
+          current = candidate;
+      }
+      if (current == -1)
+        break;
+    }
+    if (r.rt.stats != null)
+      r.rt.stats.nodesVisited += visited;
+    if (first == null)
+    {
+      intersect.set(SurfaceIntersection.NO_INTERSECTION, SurfaceIntersection.NO_INTERSECTION, 0.0);
+      return false;
+    }
+    RaytracerContext context = r.rt;
+    SurfaceIntersection secondIntersection = SurfaceIntersection.NO_INTERSECTION;
+    if (second != null && secondDist-firstDist < Raytracer.TOL)
+      secondIntersection = context.lastRayResult[second.index];
+    intersect.set(context.lastRayResult[first.index], secondIntersection, firstDist);
+    return true;
+  }
+
+  /** Find the first object hit by each ray in a packet.  The rays traverse the tree together: a node
+      is visited if any of them might hit something inside it.  The results are stored into the packet.
+      <p>
+      Objects other than triangles are tested with a Ray belonging to the packet, which resets the
+      intersection pools of its RaytracerContext.  Any SurfaceIntersection previously obtained on the
+      same thread should be considered invalid after this is called.
+
+      @param packet    the rays to trace
+  */
+
+  public void findFirstIntersections(RayPacket packet)
+  {
+    int size = packet.getSize();
+    double firstDist[] = packet.firstDist, secondDist[] = packet.secondDist;
+    RTObject first[] = packet.first;
+    for (int i = 0; i < size; i++)
+    {
+      firstDist[i] = secondDist[i] = Double.MAX_VALUE;
+      first[i] = null;
+      packet.invx[i] = 1.0/packet.dx[i];
+      packet.invy[i] = 1.0/packet.dy[i];
+      packet.invz[i] = 1.0/packet.dz[i];
+    }
+    if (packet.stack.length < maxDepth+1)
+      packet.stack = new int [maxDepth+1];
+    int stack[] = packet.stack;
+    int stackSize = 0;
+    int current = 0, visited = 0, triangleTests = 0;
+
+    if (size == 0 || obj.length == 0 || findEntryDistance(0, packet) == Double.POSITIVE_INFINITY)
+      return;
+    while (true)
+    {
+      visited++;
+      int count = node[2*current+1];
+      if (count > 0)
+      {
+        // This is a terminal node, so check all of its objects.
+
+        int start = node[2*current];
+        for (int i = start; i < start+count; i++)
+        {
+          if (triangleAxis[i] == NOT_TRIANGLE)
+            intersectObject(i, current, packet);
+          else
+          {
+            intersectTriangle(i, packet);
+            triangleTests += size;
+          }
+        }
+      }
+      else
+      {
+        // Visit whichever child the packet enters first, and save the other one for later.
+
+        int child1 = current+1, child2 = node[2*current];
+        double dist1 = findEntryDistance(child1, packet);
+        double dist2 = findEntryDistance(child2, packet);
+        if (dist2 < dist1)
+        {
+          int tempChild = child1;
+          child1 = child2;
+          child2 = tempChild;
+          double tempDist = dist1;
+          dist1 = dist2;
+          dist2 = tempDist;
+        }
+        if (dist1 != Double.POSITIVE_INFINITY)
+        {
+          if (dist2 != Double.POSITIVE_INFINITY)
+            stack[stackSize++] = child2;
+          current = child1;
+          continue;
+        }
+      }
+
+      // Move on to the next node that has not yet been visited.
+
+      current = -1;
+      while (stackSize > 0 && current == -1)
+      {
+        int candidate = stack[--stackSize];
+        if (findEntryDistance(candidate, packet) != Double.POSITIVE_INFINITY)
+          current = candidate;
+      }
+      if (current == -1)
+        break;
+    }
+    RenderStatistics stats = packet.ray.rt.stats;
+    if (stats != null)
+    {
+      stats.nodesVisited += visited;
+      stats.intersectionTests += triangleTests;
+    }
+  }
+
+  /** Test one triangle against every ray in a packet.  The triangle data is loaded once, and the loop
+      over rays only reads from and writes to primitive arrays. */
+
+  private void intersectTriangle(int which, RayPacket packet)
+  {
+    int base = TRIANGLE_DATA_SIZE*which;
+    double nx = triangleData[base], ny = triangleData[base+1], nz = triangleData[base+2], d = triangleData[base+3];
+    double vert1a = triangleData[base+4], vert1b = triangleData[base+5];
+    double edge2d1x = triangleData[base+6], edge2d1y = triangleData[base+7];
+    double edge2d2x = triangleData[base+8], edge2d2y = triangleData[base+9];
+    double tol = triangleData[base+10];
+    double ox[] = packet.ox, oy[] = packet.oy, oz[] = packet.oz;
+    double dx[] = packet.dx, dy[] = packet.dy, dz[] = packet.dz;
+    double firstDist[] = packet.firstDist, secondDist[] = packet.secondDist;
+
+    // Select the two components in which the triangle is projected.
+
+    double oa[], ob[], da[], db[];
+    switch (triangleAxis[which])
+    {
+      case 0:
+        oa = oy;
+        da = dy;
+        ob = oz;
+        db = dz;
+        break;
+      case 1:
+        oa = ox;
+        da = dx;
+        ob = oz;
+        db = dz;
+        break;
+      default:
+        oa = ox;
+        da = dx;
+        ob = oy;
+        db = dy;
+    }
+    int size = packet.getSize();
+    for (int i = 0; i < size; i++)
+    {
+      double vd = nx*dx[i] + ny*dy[i] + nz*dz[i];
+      double t = -(nx*ox[i] + ny*oy[i] + nz*oz[i] + d)/vd;
+      double vx = oa[i]+da[i]*t - vert1a;
+      double vy = ob[i]+db[i]*t - vert1b;
+      double v = edge2d2x*vy - edge2d2y*vx;
+      double w = vx*edge2d1y - vy*edge2d1x;
+      double u = 1.0-v-w;
+
+      // The comparisons are written so that NaNs count as misses.
+
+      boolean hit = (vd != 0.0 && t >= tol && v >= -RTTriangle.TOL && v <= 1.0+RTTriangle.TOL &&
+          w >= -RTTriangle.TOL && w <= 1.0+RTTriangle.TOL && u >= -RTTriangle.TOL && u <= 1.0+RTTriangle.TOL);
+      if (hit && t < secondDist[i])
+        recordHit(packet, i, obj[which], t);
+    }
+  }
+
+  /** Test an object which is not a triangle against the rays in a packet that enter the node containing it. */
+
+  private void intersectObject(int which, int containingNode, RayPacket packet)
+  {
+    Ray r = packet.ray;
+    RTObject object = obj[which];
+    int size = packet.getSize();
+    for (int i = 0; i < size; i++)
+    {
+      double limit = (packet.first[i] == null ? Double.MAX_VALUE : packet.firstDist[i]+Raytracer.TOL);
+      if (findEntryDistance(containingNode, packet.ox[i], packet.oy[i], packet.oz[i], packet.invx[i], packet.invy[i], packet.invz[i], limit) == Double.POSITIVE_INFINITY)
+        continue;
+      packet.getRay(i, r);
+      r.newID();
+      SurfaceIntersection intersection = object.checkIntersection(r);
+      if (intersection == SurfaceIntersection.NO_INTERSECTION)
+        continue;
+      double dist = intersection.intersectionDist(0);
+      if (dist < packet.secondDist[i])
+        recordHit(packet, i, object, dist);
+    }
+  }
+
+  /** Record that a ray in a packet hit an object, keeping track of the two closest hits. */
+
+  private static void recordHit(RayPacket packet, int ray, RTObject object, double dist)
+  {
+    if (dist < packet.firstDist[ray])
+    {
+      packet.secondDist[ray] = packet.firstDist[ray];
+      packet.firstDist[ray] = dist;
+      packet.first[ray] = object;
+    }
+    else
+      packet.secondDist[ray] = dist;
+  }
+
+  /** Find the smallest distance at which any ray in a packet enters a node, considering only the part
+      of each ray before its closest known hit.  If none of them enters it, this returns POSITIVE_INFINITY. */
+
+  private double findEntryDistance(int which, RayPacket packet)
+  {
+    double result = Double.POSITIVE_INFINITY;
+    int size = packet.getSize();
+    for (int i = 0; i < size; i++)
+    {
+      double limit = (packet.first[i] == null ? Double.MAX_VALUE : packet.firstDist[i]+Raytracer.TOL);
+      double dist = findEntryDistance(which, packet.ox[i], packet.oy[i], packet.oz[i], packet.invx[i], packet.invy[i], packet.invz[i], limit);
+      if (dist < result)
+        result = dist;
+    }
+    return result;
+  }
+
+  /** Begin finding the objects whose bounding boxes are intersected by a ray segment.  Terminal nodes
+      are visited roughly in order of distance along the ray, and this returns once it has found at least
+      a few objects.  Call {@link #findMoreObjectsAlongRay(Ray, double)} repeatedly to find the rest of
+      them, until it returns 0.  This allows the caller to stop early, for example once a shadow ray has
+      been completely blocked.  The objects are stored into the rayObjects array of the ray's
+      RaytracerContext, which is enlarged as necessary.
+
+      @param r        the ray to trace
+      @param maxDist  the length of the segment to consider
+      @return the number of objects that were found
+  */
+
+  public int findObjectsAlongRay(Ray r, double maxDist)
+  {
+    RaytracerContext context = r.rt;
+    if (context.bvhSegmentStack == null || context.bvhSegmentStack.length < maxDepth+1)
+      context.bvhSegmentStack = new int [maxDepth+1];
+    context.bvhSegmentStackSize = 0;
+    if (obj.length > 0)
+      context.bvhSegmentStack[context.bvhSegmentStackSize++] = 0;
+    return findMoreObjectsAlongRay(r, maxDist);
+  }
+
+  /** Continue finding objects along a ray segment, after a call to {@link #findObjectsAlongRay(Ray, double)}.
+      The ray and segment length must be the same ones that were passed to it.
+
+      @param r        the ray to trace
+      @param maxDist  the length of the segment to consider
+      @return the number of objects that were found, or 0 if there are no more of them
+  */
+
+  public int findMoreObjectsAlongRay(Ray r, double maxDist)
+  {
+    RaytracerContext context = r.rt;
+    RTObject found[] = context.rayObjects;
+    int numFound = 0;
+    int stack[] = context.bvhSegmentStack;
+    int stackSize = context.bvhSegmentStackSize;
+    Vec3 orig = r.getOrigin(), dir = r.getDirection();
+    double ox = orig.x, oy = orig.y, oz = orig.z;
+    double invx = 1.0/dir.x, invy = 1.0/dir.y, invz = 1.0/dir.z;
+    double limit = maxDist+Raytracer.TOL;
+    int visited = 0;
+
+    while (stackSize > 0 && numFound < MIN_SEGMENT_OBJECTS)
+    {
+      int current = stack[--stackSize];
+      if (findEntryDistance(current, ox, oy, oz, invx, invy, invz, limit) == Double.POSITIVE_INFINITY)
+        continue;
+      while (true)
+      {
+        visited++;
+        int count = node[2*current+1];
+        if (count > 0)
+        {
+          int start = node[2*current];
+          if (numFound+count > found.length)
+          {
+            RTObject newFound[] = new RTObject [Math.max(2*found.length, numFound+count)];
+            System.arraycopy(found, 0, newFound, 0, numFound);
+            found = context.rayObjects = newFound;
+          }
+          System.arraycopy(obj, start, found, numFound, count);
+          numFound += count;
+          break;
+        }
+
+        // Visit whichever child the ray enters first, and save the other one for later.
+
+        int child1 = current+1, child2 = node[2*current];
+        double dist1 = findEntryDistance(child1, ox, oy, oz, invx, invy, invz, limit);
+        double dist2 = findEntryDistance(child2, ox, oy, oz, invx, invy, invz, limit);
+        if (dist2 < dist1)
+        {
+          int tempChild = child1;
+          child1 = child2;
+          child2 = tempChild;
+          double tempDist = dist1;
+          dist1 = dist2;
+          dist2 = tempDist;
+        }
+        if (dist1 == Double.POSITIVE_INFINITY)
+          break;
+        if (dist2 != Double.POSITIVE_INFINITY)
+          stack[stackSize++] = child2;
+        current = child1;
+      }
+    }
+    context.bvhSegmentStackSize = stackSize;
+    if (context.stats != null)
+      context.stats.nodesVisited += visited;
+    return numFound;
+  }
+
+  /** Get the traversal stack for a thread, creating it if necessary. */
+
+  private int[] getStack(RaytracerContext context)
+  {
+    if (context.bvhStack == null || context.bvhStack.length < maxDepth+1)
+      context.bvhStack = new int [maxDepth+1];
+    return context.bvhStack;
+  }
+
+  /** Find the distance along a ray at which it enters a node.  If it does not enter the node
+      before maxDist, this returns POSITIVE_INFINITY.  If the ray origin is inside the node, it
+      returns 0. */
+
+  private double findEntryDistance(int which, double ox, double oy, double oz, double invx, double invy, double invz, double maxDist)
+  {
+    int base = 6*which;
+    double mint = 0.0, maxt = maxDist, t1, t2;
+
+    // Comparisons are written so that NaNs (from rays lying exactly in the plane of a face)
+    // leave the interval unchanged.
+
+    t1 = (bounds[base]-ox)*invx;
+    t2 = (bounds[base+1]-ox)*invx;
+    if (t1 > t2)
+    {
+      double temp = t1;
+      t1 = t2;
+      t2 = temp;
+    }
+    if (t1 > mint)
+      mint = t1;
+    if (t2 < maxt)
+      maxt = t2;
+    t1 = (bounds[base+2]-oy)*invy;
+    t2 = (bounds[base+3]-oy)*invy;
+    if (t1 > t2)
+    {
+      double temp = t1;
+      t1 = t2;
+      t2 = temp;
+    }
+    if (t1 > mint)
+      mint = t1;
+    if (t2 < maxt)
+      maxt = t2;
+    t1 = (bounds[base+4]-oz)*invz;
+    t2 = (bounds[base+5]-oz)*invz;
+    if (t1 > t2)
+    {
+      double temp = t1;
+      t1 = t2;
+      t2 = temp;
+    }
+    if (t1 > mint)
+      mint = t1;
+    if (t2 < maxt)
+      maxt = t2;
+    if (mint > maxt)
+      return Double.POSITIVE_INFINITY;
+    return mint;
+  }
+
+  /** Recursively build the subtree containing the objects index[start] through index[end-1]. */
+
+  private static BuildNode buildNode(BuildData data, BuildScratch scratch, int start, int end)
+  {
+    BuildNode result = new BuildNode();
+    double box[] = result.box;
+    double centerMin[] = new double [] {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+    double centerMax[] = new double [] {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+    for (int axis = 0; axis < 3; axis++)
+    {
+      box[2*axis] = Double.MAX_VALUE;
+      box[2*axis+1] = -Double.MAX_VALUE;
+    }
+    for (int i = start; i < end; i++)
+    {
+      int k = 3*data.index[i];
+      for (int axis = 0; axis < 3; axis++)
+      {
+        box[2*axis] = Math.min(box[2*axis], data.min[k+axis]);
+        box[2*axis+1] = Math.max(box[2*axis+1], data.max[k+axis]);
+        centerMin[axis] = Math.min(centerMin[axis], data.center[k+axis]);
+        centerMax[axis] = Math.max(centerMax[axis], data.center[k+axis]);
+      }
+    }
+    result.start = start;
+    result.count = end-start;
+    if (result.count <= 2)
+      return result;
+
+    // Evaluate the surface area heuristic at the boundaries between bins along each axis.
+
+    int bestAxis = -1, bestSplit = -1;
+    double bestCost = INTERSECTION_COST*result.count;
+    double invParentArea = 1.0/Math.max(surfaceArea(box), Double.MIN_NORMAL);
+    int binCount[] = scratch.binCount;
+    double binBox[] = scratch.binBox;
+    double leftArea[] = scratch.leftArea;
+    int leftCount[] = scratch.leftCount;
+    double sweepBox[] = scratch.sweepBox;
+    for (int axis = 0; axis < 3; axis++)
+    {
+      double width = centerMax[axis]-centerMin[axis];
+      if (width <= 0.0)
+        continue;
+      double binScale = BINS/width;
+      for (int i = 0; i < BINS; i++)
+      {
+        binCount[i] = 0;
+        initBox(binBox, 6*i);
+      }
+      for (int i = start; i < end; i++)
+      {
+        int k = 3*data.index[i];
+        int bin = findBin(data.center[k+axis], centerMin[axis], binScale);
+        binCount[bin]++;
+        extendBox(binBox, 6*bin, data.min, data.max, k);
+      }
+      initBox(sweepBox, 0);
+      int total = 0;
+      for (int i = 0; i < BINS-1; i++)
+      {
+        total += binCount[i];
+        mergeBox(sweepBox, binBox, 6*i);
+        leftCount[i] = total;
+        leftArea[i] = (total == 0 ? 0.0 : surfaceArea(sweepBox));
+      }
+      initBox(sweepBox, 0);
+      total = 0;
+      for (int i = BINS-1; i > 0; i--)
+      {
+        total += binCount[i];
+        mergeBox(sweepBox, binBox, 6*i);
+        if (total == 0 || leftCount[i-1] == 0)
+          continue;
+        double cost = TRAVERSAL_COST+INTERSECTION_COST*(leftArea[i-1]*leftCount[i-1]+surfaceArea(sweepBox)*total)*invParentArea;
+        if (cost < bestCost)
+        {
+          bestCost = cost;
+          bestAxis = axis;
+          bestSplit = i;
+        }
+      }
+    }
+    int mid;
+    if (bestAxis != -1)
+    {
+      // Partition the objects based on which side of the split they fall on.
+
+      double binScale = BINS/(centerMax[bestAxis]-centerMin[bestAxis]);
+      int i = start, j = end-1;
+      while (i <= j)
+      {
+        if (findBin(data.center[3*data.index[i]+bestAxis], centerMin[bestAxis], binScale) < bestSplit)
+          i++;
+        else
+        {
+          int temp = data.index[i];
+          data.index[i] = data.index[j];
+          data.index[j--] = temp;
+        }
+      }
+      mid = i;
+    }
+    else if (result.count > MAX_LEAF_SIZE)
+    {
+      // Splitting does not reduce the cost, but there are too many objects for a single node.
+      // Just divide them in half.
+
+      mid = (start+end)/2;
+    }
+    else
+      return result;
+    if (result.count < PARALLEL_THRESHOLD)
+    {
+      result.left = buildNode(data, scratch, start, mid);
+      result.right = buildNode(data, scratch, mid, end);
+    }
+    else
+    {
+      // The two halves cover disjoint ranges of the index array, so they can be built at the same time.
+
+      BuildTask leftTask = new BuildTask(data, start, mid);
+      leftTask.fork();
+      result.right = buildNode(data, scratch, mid, end);
+      result.left = leftTask.join();
+    }
+    result.count = 0;
+    return result;
+  }
+
+  /** Find the number of nodes and the depth of the tree. */
+
+  private void measure(BuildNode n, int depth)
+  {
+    numNodes++;
+    if (depth > maxDepth)
+      maxDepth = depth;
+    if (n.left != null)
+    {
+      measure(n.left, depth+1);
+      measure(n.right, depth+1);
+    }
+  }
+
+  /** Copy a subtree into the flattened arrays.  This returns the index of the next node to be filled in. */
+
+  private int flatten(BuildNode n, int which)
+  {
+    for (int i = 0; i < 6; i += 2)
+    {
+      bounds[6*which+i] = Math.nextAfter((float) n.box[i], Double.NEGATIVE_INFINITY);
+      bounds[6*which+i+1] = Math.nextAfter((float) n.box[i+1], Double.POSITIVE_INFINITY);
+    }
+    if (n.left == null)
+    {
+      node[2*which] = n.start;
+      node[2*which+1] = n.count;
+      return which+1;
+    }
+    int next = flatten(n.left, which+1);
+    node[2*which] = next;
+    node[2*which+1] = 0;
+    return flatten(n.right, next);
+  }
+
+  private static int findBin(double value, double min, double binScale)
+  {
+    int bin = (int) ((value-min)*binScale);
+    return (bin < BINS ? bin : BINS-1);
+  }
+
+  private static double surfaceArea(double box[])
+  {
+    double dx = box[1]-box[0], dy = box[3]-box[2], dz = box[5]-box[4];
+    if (dx < 0.0 || dy < 0.0 || dz < 0.0)
+      return 0.0;
+    return dx*dy+dy*dz+dz*dx;
+  }
+
+  private static void initBox(double box[], int offset)
+  {
+    for (int i = 0; i < 6; i += 2)
+    {
+      box[offset+i] = Double.MAX_VALUE;
+      box[offset+i+1] = -Double.MAX_VALUE;
+    }
+  }
+
+  private static void extendBox(double box[], int offset, double min[], double max[], int k)
+  {
+    for (int axis = 0; axis < 3; axis++)
+    {
+      if (min[k+axis] < box[offset+2*axis])
+        box[offset+2*axis] = min[k+axis];
+      if (max[k+axis] > box[offset+2*axis+1])
+        box[offset+2*axis+1] = max[k+axis];
+    }
+  }
+
+  private static void mergeBox(double box[], double other[], int offset)
+  {
+    for (int i = 0; i < 6; i += 2)
+    {
+      if (other[offset+i] < box[i])
+        box[i] = other[offset+i];
+      if (other[offset+i+1] > box[i+1])
+        box[i+1] = other[offset+i+1];
+    }
+  }
+
+  /** This holds the per-object data used while building the tree. */
+
+  private static class BuildData
+  {
+    final double min[], max[], center[];
+    final int index[];
+
+    BuildData(double min[], double max[], double center[], int index[])
+    {
+      this.min = min;
+      this.max = max;
+      this.center = center;
+      this.index = index;
+    }
+  }
+
+  /** This holds temporary arrays used while choosing where to split a node.  Each thread needs its own. */
+
+  private static class BuildScratch
+  {
+    final int binCount[] = new int [BINS], leftCount[] = new int [BINS];
+    final double binBox[] = new double [6*BINS], leftArea[] = new double [BINS], sweepBox[] = new double [6];
+  }
+
+  /** A fork/join task which builds one subtree. */
+
+  private static class BuildTask extends RecursiveTask<BuildNode>
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final BuildData data;
+    private final int start, end;
+
+    BuildTask(BuildData data, int start, int end)
+    {
+      this.data = data;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected BuildNode compute()
+    {
+      return buildNode(data, new BuildScratch(), start, end);
+    }
+  }
+
+  /** A node of the tree before it has been flattened. */
+
+  private static class BuildNode
+  {
+    final double box[] = new double [6];
+    BuildNode left, right;
+    int start, count;
+  }
+}
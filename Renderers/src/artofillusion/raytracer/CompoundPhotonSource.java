@@ -60,6 +60,7 @@ public class CompoundPhotonSource implements PhotonSource
       public void cleanup()
       {
         map.getWorkspace().cleanup();
+        map.threadFinished();
       }
     });
     threads.run();
@@ -101,6 +101,7 @@ public class DirectionalPhotonSource implements PhotonSource
           public void cleanup()
           {
             map.getWorkspace().cleanup();
+            map.threadFinished();
           }
         });
         threads.run();
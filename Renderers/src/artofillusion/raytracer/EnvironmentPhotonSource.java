@@ -170,6 +170,7 @@ public class EnvironmentPhotonSource implements PhotonSource
       public void cleanup()
       {
         map.getWorkspace().cleanup();
+        map.threadFinished();
       }
     });
     while (emittedIntensity[0] < intensity)
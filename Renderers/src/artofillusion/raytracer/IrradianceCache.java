@@ -0,0 +1,294 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.math.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * An IrradianceCache stores estimates of the indirect light arriving at points on diffuse surfaces, so
+ * they can be interpolated rather than recalculated for every nearby point.  It follows the method described in
+ * <p>
+ * Gregory J. Ward, Francis M. Rubinstein, and Robert D. Clear, "A Ray Tracing Solution for Diffuse
+ * Interreflection", Computer Graphics 22(4), 1988.
+ * <p>
+ * Each record stores the average incoming radiance over the hemisphere (weighted by the cosine of the
+ * angle to the normal), the harmonic mean distance to the surfaces that were hit, and the gradient of the
+ * irradiance with respect to rotation of the normal.  A record is considered valid at another point if
+ * the Ward error estimate is below the specified tolerance.
+ * <p>
+ * Records are stored in an octree.  Any number of threads may look up values while another thread is
+ * adding records, since nodes are never modified in place: new record arrays are published through
+ * volatile fields.
+ */
+
+public class IrradianceCache
+{
+  private final Node root;
+  private final double tolerance, invTolerance;
+  private final AtomicLong hits, misses;
+
+  /**
+   * Create a new IrradianceCache.
+   *
+   * @param bounds      a bounding box enclosing every point at which the irradiance will be evaluated
+   * @param tolerance   the maximum allowed error estimate for a record to be used.  Smaller values
+   *                    give more accurate results but require more records.
+   */
+
+  public IrradianceCache(BoundingBox bounds, double tolerance)
+  {
+    double size = Math.max(Math.max(bounds.maxx-bounds.minx, bounds.maxy-bounds.miny), bounds.maxz-bounds.minz);
+    size = Math.max(size, Raytracer.TOL)*1.01;
+    Vec3 center = bounds.getCenter();
+    root = new Node(center.x, center.y, center.z, 0.5*size);
+    this.tolerance = tolerance;
+    invTolerance = 1.0/tolerance;
+    hits = new AtomicLong();
+    misses = new AtomicLong();
+  }
+
+  /** Get the error tolerance for using records. */
+
+  public double getTolerance()
+  {
+    return tolerance;
+  }
+
+  /** Get the number of lookups which were answered from the cache. */
+
+  public long getHits()
+  {
+    return hits.get();
+  }
+
+  /** Get the number of lookups which did not find any valid records. */
+
+  public long getMisses()
+  {
+    return misses.get();
+  }
+
+  /**
+   * Estimate the irradiance at a point by interpolating the cached records.
+   *
+   * @param pos        the point at which to estimate the irradiance
+   * @param normal     the normal of the hemisphere over which light is arriving.  This must be normalized.
+   * @param result     on exit, this contains the interpolated value
+   * @return true if at least one valid record was found, false if a new record should be calculated.  If
+   *         this returns false, result is unchanged.
+   */
+
+  public boolean getIrradiance(Vec3 pos, Vec3 normal, RGBColor result)
+  {
+    Sum sum = new Sum();
+    root.lookup(pos, normal, sum);
+    if (sum.weight == 0.0)
+    {
+      misses.incrementAndGet();
+      return false;
+    }
+    hits.incrementAndGet();
+    double scale = 1.0/sum.weight;
+    result.setRGB(Math.max(0.0, sum.red*scale), Math.max(0.0, sum.green*scale), Math.max(0.0, sum.blue*scale));
+    return true;
+  }
+
+  /**
+   * Add a new record to the cache.
+   *
+   * @param pos         the point at which the irradiance was calculated
+   * @param normal      the normal of the hemisphere over which light was gathered.  This must be normalized.
+   * @param irradiance  the cosine weighted average of the incoming radiance
+   * @param gradient    the rotational gradients of the red, green, and blue components of irradiance.  This
+   *                    may be null.
+   * @param radius      the harmonic mean distance to the surfaces seen from pos
+   */
+
+  public void addRecord(Vec3 pos, Vec3 normal, RGBColor irradiance, Vec3 gradient[], double radius)
+  {
+    Record rec = new Record(pos, normal, irradiance, gradient, radius);
+    double validRadius = tolerance*radius;
+    synchronized (this)
+    {
+      Node node = root;
+      while (0.5*node.halfSize >= validRadius)
+        node = node.getChild(pos);
+      node.add(rec);
+    }
+  }
+
+  /**
+   * Calculate the weight of a record at a point, or 0 if it is not valid there.
+   */
+
+  private double getWeight(Record rec, Vec3 pos, Vec3 normal)
+  {
+    double dx = pos.x-rec.x, dy = pos.y-rec.y, dz = pos.z-rec.z;
+    double dist2 = dx*dx+dy*dy+dz*dz;
+    double maxDist = tolerance*rec.radius;
+    if (dist2 > maxDist*maxDist)
+      return 0.0;
+    double dot = normal.x*rec.nx+normal.y*rec.ny+normal.z*rec.nz;
+    if (dot <= 0.0)
+      return 0.0;
+
+    // Reject records that are in front of the point, since they may see light which is blocked here.
+
+    double front = 0.5*(dx*(normal.x+rec.nx)+dy*(normal.y+rec.ny)+dz*(normal.z+rec.nz));
+    if (front < -0.05*rec.radius*tolerance)
+      return 0.0;
+    double error = Math.sqrt(dist2)/rec.radius+Math.sqrt(Math.max(0.0, 1.0-dot));
+    if (error >= tolerance)
+      return 0.0;
+    return (error < 1e-10 ? 1e10 : 1.0/error)-invTolerance;
+  }
+
+  /** A single cached value. */
+
+  private static class Record
+  {
+    final double x, y, z, nx, ny, nz, radius;
+    final float red, green, blue;
+    final float gradient[];
+
+    Record(Vec3 pos, Vec3 normal, RGBColor irradiance, Vec3 grad[], double radius)
+    {
+      x = pos.x;
+      y = pos.y;
+      z = pos.z;
+      nx = normal.x;
+      ny = normal.y;
+      nz = normal.z;
+      red = irradiance.getRed();
+      green = irradiance.getGreen();
+      blue = irradiance.getBlue();
+      this.radius = radius;
+      if (grad == null)
+        gradient = null;
+      else
+      {
+        gradient = new float [9];
+        for (int i = 0; i < 3; i++)
+        {
+          gradient[3*i] = (float) grad[i].x;
+          gradient[3*i+1] = (float) grad[i].y;
+          gradient[3*i+2] = (float) grad[i].z;
+        }
+      }
+    }
+  }
+
+  /** This accumulates the weighted sum of records during a lookup. */
+
+  private static class Sum
+  {
+    double red, green, blue, weight;
+  }
+
+  /** A node of the octree. */
+
+  private class Node
+  {
+    final double cx, cy, cz, halfSize;
+    volatile Record records[];
+    volatile Node child[];
+
+    Node(double cx, double cy, double cz, double halfSize)
+    {
+      this.cx = cx;
+      this.cy = cy;
+      this.cz = cz;
+      this.halfSize = halfSize;
+    }
+
+    /** Add a record to this node.  This must only be called while holding the lock on the cache. */
+
+    void add(Record rec)
+    {
+      Record current[] = records;
+      Record newRecords[];
+      if (current == null)
+        newRecords = new Record [] {rec};
+      else
+      {
+        newRecords = Arrays.copyOf(current, current.length+1);
+        newRecords[current.length] = rec;
+      }
+      records = newRecords;
+    }
+
+    /** Get the child containing a point, creating it if necessary.  This must only be called while
+        holding the lock on the cache. */
+
+    Node getChild(Vec3 pos)
+    {
+      int index = (pos.x > cx ? 1 : 0) + (pos.y > cy ? 2 : 0) + (pos.z > cz ? 4 : 0);
+      Node children[] = child;
+      if (children == null)
+        children = new Node [8];
+      else if (children[index] != null)
+        return children[index];
+      else
+        children = children.clone();
+      double h = 0.5*halfSize;
+      Node n = new Node(cx+((index&1) == 0 ? -h : h), cy+((index&2) == 0 ? -h : h), cz+((index&4) == 0 ? -h : h), h);
+      children[index] = n;
+      child = children;
+      return n;
+    }
+
+    /** Add the contributions of all valid records in this node and its descendants to a sum.  Each record
+        is stored in the smallest node whose half size is at least its valid radius, so only nodes whose bounds
+        expanded by their half size contain the point need to be searched. */
+
+    void lookup(Vec3 pos, Vec3 normal, Sum sum)
+    {
+      Record recs[] = records;
+      if (recs != null)
+        for (Record rec : recs)
+        {
+          double weight = getWeight(rec, pos, normal);
+          if (weight <= 0.0)
+            continue;
+          float red = rec.red, green = rec.green, blue = rec.blue;
+          if (rec.gradient != null)
+          {
+            // Correct for the change in normal using the rotational gradient.
+
+            double rx = rec.ny*normal.z-rec.nz*normal.y;
+            double ry = rec.nz*normal.x-rec.nx*normal.z;
+            double rz = rec.nx*normal.y-rec.ny*normal.x;
+            float g[] = rec.gradient;
+            red += rx*g[0]+ry*g[1]+rz*g[2];
+            green += rx*g[3]+ry*g[4]+rz*g[5];
+            blue += rx*g[6]+ry*g[7]+rz*g[8];
+          }
+          sum.red += weight*red;
+          sum.green += weight*green;
+          sum.blue += weight*blue;
+          sum.weight += weight;
+        }
+      Node children[] = child;
+      if (children == null)
+        return;
+      for (Node n : children)
+      {
+        if (n == null)
+          continue;
+        double reach = 2.0*n.halfSize;
+        if (Math.abs(pos.x-n.cx) <= reach && Math.abs(pos.y-n.cy) <= reach && Math.abs(pos.z-n.cz) <= reach)
+          n.lookup(pos, normal, sum);
+      }
+    }
+  }
+}
@@ -13,6 +13,7 @@ package artofillusion.raytracer;
 import artofillusion.math.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /** This class represents a node in an octree, used for sorting the objects by location in
     the scene.  OctreeNodes can be terminal nodes, in which case they contain a list of 
@@ -20,7 +21,11 @@ import java.util.*;
     <p>
     This class is more sophisticated than most octrees.  When it subdivides a node, it does
     not simply cut it in half along each axis.  Instead, it tries to determine the optimal place
-    to subdivide along each axis, based on the bounding boxes of the objects within the node. */
+    to subdivide along each axis, based on the bounding boxes of the objects within the node.
+    <p>
+    Nodes containing many objects build their children in parallel as fork/join tasks.  Each
+    child depends only on its own bounds and on the objects of its parent, so the resulting tree
+    is the same no matter how many threads are used. */
    
 public class OctreeNode
 {
@@ -30,9 +35,8 @@ public class OctreeNode
   public float midx, midy, midz;
   
   private static final int CELLS = 64;
+  private static final int PARALLEL_THRESHOLD = 2000;
   private static final RTObject EMPTY_OBJECT_LIST[] = new RTObject [0];
-  private static int leftCount[] = new int [CELLS+2];
-  private static int rightCount[] = new int [CELLS+2];
 
   /** The constructor takes a bounding box, an array of objects, an array of bounding boxes
       of the objects, and a reference to its parent node.  treeDepth is the depth of this node 
@@ -80,10 +84,24 @@ public class OctreeNode
     subdivide(objBounds);
   }
 
+  /** Create a terminal node containing the specified objects, without attempting to subdivide it.
+      This is used when a different data structure is responsible for sorting the objects. */
+
+  public OctreeNode(float minx, float maxx, float miny, float maxy, float minz, float maxz, RTObject tri[])
+  {
+    this.minx = minx;
+    this.maxx = maxx;
+    this.miny = miny;
+    this.maxy = maxy;
+    this.minz = minz;
+    this.maxz = maxz;
+    obj = tri;
+  }
+
   /** Determine whether this node should be subdivided.  If so, create the child nodes.  Otherwise, mark it
       as a terminal node. */
 
-  private void subdivide(BoundingBox objBounds[])
+  private void subdivide(final BoundingBox objBounds[])
   {
     boolean splitx, splity, splitz;
 
@@ -95,32 +113,63 @@ public class OctreeNode
         splitz = (midz != maxz);
         if (!(splitx || splity || splitz))
           return;
-        child = new OctreeNode[8];
-        child[0] = new OctreeNode(minx, midx, miny, midy, minz, midz, obj, objBounds, this);
+        final float childBounds[][] = new float [8][];
+        childBounds[0] = new float [] {minx, midx, miny, midy, minz, midz};
         if (splitz)
-          child[1] = new OctreeNode(minx, midx, miny, midy, midz, maxz, obj, objBounds, this);
+          childBounds[1] = new float [] {minx, midx, miny, midy, midz, maxz};
         if (splity)
           {
-            child[2] = new OctreeNode(minx, midx, midy, maxy, minz, midz, obj, objBounds, this);
+            childBounds[2] = new float [] {minx, midx, midy, maxy, minz, midz};
             if (splitz)
-              child[3] = new OctreeNode(minx, midx, midy, maxy, midz, maxz, obj, objBounds, this);
+              childBounds[3] = new float [] {minx, midx, midy, maxy, midz, maxz};
           }
         if (splitx)
           {
-            child[4] = new OctreeNode(midx, maxx, miny, midy, minz, midz, obj, objBounds, this);
+            childBounds[4] = new float [] {midx, maxx, miny, midy, minz, midz};
             if (splitz)
-              child[5] = new OctreeNode(midx, maxx, miny, midy, midz, maxz, obj, objBounds, this);
+              childBounds[5] = new float [] {midx, maxx, miny, midy, midz, maxz};
             if (splity)
               {
-                child[6] = new OctreeNode(midx, maxx, midy, maxy, minz, midz, obj, objBounds, this);
+                childBounds[6] = new float [] {midx, maxx, midy, maxy, minz, midz};
                 if (splitz)
-                  child[7] = new OctreeNode(midx, maxx, midy, maxy, midz, maxz, obj, objBounds, this);
+                  childBounds[7] = new float [] {midx, maxx, midy, maxy, midz, maxz};
               }
           }
+        child = new OctreeNode[8];
+        if (obj.length < PARALLEL_THRESHOLD)
+          {
+            for (int i = 0; i < 8; i++)
+              if (childBounds[i] != null)
+                child[i] = createChild(childBounds[i], objBounds);
+          }
+        else
+          {
+            ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+            for (int i = 0; i < 8; i++)
+              if (childBounds[i] != null)
+                {
+                  final int which = i;
+                  tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute()
+                    {
+                      child[which] = createChild(childBounds[which], objBounds);
+                    }
+                  });
+                }
+            ForkJoinTask.invokeAll(tasks);
+          }
         obj = null;
       }
   }
 
+  /** Create a child node with the specified bounds. */
+
+  private OctreeNode createChild(float bounds[], BoundingBox objBounds[])
+  {
+    return new OctreeNode(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5], obj, objBounds, this);
+  }
+
   /** Build a list of all child nodes. */
 
   public OctreeNode[] findChildNodes()
@@ -438,8 +487,8 @@ public class OctreeNode
   
   private float findAxisMidpoint(BoundingBox objBounds[], int axis)
   {
-    for (int i = 0; i < CELLS+2; i++)
-      leftCount[i] = rightCount[i] = 0;
+    int leftCount[] = new int [CELLS+2];
+    int rightCount[] = new int [CELLS+2];
     float min = findMinimum(this, axis);
     float max = findMaximum(this, axis);
     float invwidth = CELLS/(max-min);
@@ -17,8 +17,13 @@ import artofillusion.math.*;
     
     This is a slightly improved version of the photon data structure described in:
     
-    Henrick Wann Jensen, "Realistic Image Synthesis Using Photon Mapping", A K Peters, Natick, MA, 2001. */
+    Henrick Wann Jensen, "Realistic Image Synthesis Using Photon Mapping", A K Peters, Natick, MA, 2001.
 
+    @deprecated PhotonMap no longer stores photons as objects.  They are kept in packed arrays and identified
+    by index, as in {@link PhotonList#index}.  Use {@link PhotonMap#getPhoton(int)} to get a copy of one
+    as a Photon. */
+
+@Deprecated
 public class Photon
 {
   public float x, y, z;
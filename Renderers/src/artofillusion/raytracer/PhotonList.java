@@ -11,7 +11,9 @@
 package artofillusion.raytracer;
 
 /** This class stores a list of photons which are close to a point in space, and calculates the incident
-    light intensity from them.
+    light intensity from them.  Photons are identified by their index in the {@link PhotonMap}.  Lists filled
+    by a PhotonMap only set {@link #index}.  The deprecated {@link #photon} array is only used by
+    {@link #addPhoton(Photon, float)}.
     
     Parts of this class are based on the descriptions and sample code in
     
@@ -19,6 +21,10 @@ package artofillusion.raytracer;
 
 public class PhotonList
 {
+  public int index[];
+  /** @deprecated Photons are now identified by their {@link #index}.  This is only filled in by
+      {@link #addPhoton(Photon, float)}, and is null until that is first called. */
+  @Deprecated
   public Photon photon[];
   public float dist2[], cutoff2;
   public int numFound;
@@ -29,7 +35,7 @@ public class PhotonList
   
   public PhotonList(int size)
   {
-    photon = new Photon [size];
+    index = new int [size];
     dist2 = new float [size];
   }
   
@@ -43,17 +49,40 @@ public class PhotonList
     numFound = 0;
   }
   
-  /** Add a photon to the list. */
+  /** Add a photon to the list.
+      @param p         the index of the photon in the PhotonMap
+      @param sqDist    the squared distance from the photon to the point of interest
+  */
+  
+  public final void addPhoton(int p, float sqDist)
+  {
+    add(p, null, sqDist);
+  }
+  
+  /** Add a Photon object to the list.  Its index is recorded as -1.
+      @deprecated PhotonMap no longer stores Photon objects.  Use {@link #addPhoton(int, float)} instead. */
   
+  @Deprecated
   public final void addPhoton(Photon p, float sqDist)
   {
-    if (numFound < photon.length)
+    if (photon == null)
+      photon = new Photon [index.length];
+    add(-1, p, sqDist);
+  }
+  
+  /** Add a photon to the list.  The Photon object is only stored if the deprecated photon array exists. */
+  
+  private void add(int p, Photon obj, float sqDist)
+  {
+    if (numFound < index.length)
       {
         // Add the photon to the list.
         
-        photon[numFound] = p;
+        index[numFound] = p;
+        if (photon != null)
+          photon[numFound] = obj;
         dist2[numFound++] = sqDist;
-        if (numFound == photon.length)
+        if (numFound == index.length)
           buildHeap();
         return;
       }
@@ -71,11 +100,15 @@ public class PhotonList
           child = child2;
         if (dist2[child] <= sqDist)
           break;
-        photon[pos] = photon[child];
+        index[pos] = index[child];
+        if (photon != null)
+          photon[pos] = photon[child];
         dist2[pos] = dist2[child];
         pos = child;
       }
-    photon[pos] = p;
+    index[pos] = p;
+    if (photon != null)
+      photon[pos] = obj;
     dist2[pos] = sqDist;
     cutoff2 = dist2[0];
   }
@@ -89,7 +122,8 @@ public class PhotonList
     for (int i = half; i >= 0; i--)
       {
         int parent = i;
-        Photon p = photon[i];
+        int p = index[i];
+        Photon obj = (photon == null ? null : photon[i]);
         float d = dist2[i];
         while (parent <= half)
           {
@@ -99,11 +133,15 @@ public class PhotonList
             if (d >= dist2[j])
               break;
             dist2[parent] = dist2[j];
-            photon[parent] = photon[j];
+            index[parent] = index[j];
+            if (photon != null)
+              photon[parent] = photon[j];
             parent = j;
           }
         dist2[parent] = d;
-        photon[parent] = p;
+        index[parent] = p;
+        if (photon != null)
+          photon[parent] = obj;
       }
   }
 }
\ No newline at end of file
@@ -15,7 +15,9 @@ import artofillusion.material.*;
 import artofillusion.texture.*;
 import artofillusion.util.*;
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /** This class is a three dimensional data structure containing the photons in a scene.  The map can
     be searched very efficiently for locating the photons near a particular point and evaluating the
@@ -29,8 +31,15 @@ public class PhotonMap
 {
   private Raytracer rt;
   private RaytracerRenderer renderer;
-  private ArrayList<Photon> photonList;
-  private Photon photon[], workspace[];
+  private ArrayList<PhotonBuffer> threadPhotons;
+  private ThreadLocal<PhotonBuffer> localPhotons;
+  private float photonPos[];
+  private int photonColor[];
+  private short photonDirection[];
+  private byte photonAxis[];
+  private int numPhotons, workspace[], sourceColor[];
+  private float sourcePos[];
+  private short sourceDirection[];
   private int numWanted, filter, numEstimate;
   private BoundingBox bounds;
   private Vec3 direction[];
@@ -39,6 +48,8 @@ public class PhotonMap
   private float cutoffDist2;
   public Random random;
 
+  private static final int PARALLEL_THRESHOLD = 10000;
+
   /** Create a new PhotonMap
    * @param totalPhotons        the number of photons which should be stored in this map
    * @param numEstimate         the number of photons to use when estimating the illumination from this map
@@ -107,6 +118,17 @@ public class PhotonMap
     return numEstimate;
   }
 
+  /** This must be called from the cleanup() method of every ThreadManager task which spawns photons into this
+      map, so that the thread which is cleaning up releases the buffer it was storing photons in.  The photons
+      already in the buffer are kept. */
+
+  public void threadFinished()
+  {
+    ThreadLocal<PhotonBuffer> local = localPhotons;
+    if (local != null)
+      local.remove();
+  }
+
   /** Generate photons from all sources until the desired number has been collected. */
 
   public void generatePhotons(PhotonSource source[])
@@ -126,12 +148,28 @@ public class PhotonMap
 
     // Generate photons.
 
-    photonList = new ArrayList<Photon>((int) (1.1*numWanted));
+    // Each thread stores the photons it generates in its own buffer, so they do not need to
+    // synchronize with each other.  The buffers are merged once all photons have been generated.
+
+    threadPhotons = new ArrayList<PhotonBuffer>();
+    localPhotons = new ThreadLocal<PhotonBuffer>() {
+      @Override
+      protected PhotonBuffer initialValue()
+      {
+        PhotonBuffer buffer = new PhotonBuffer();
+        synchronized (threadPhotons)
+        {
+          threadPhotons.add(buffer);
+        }
+        return buffer;
+      }
+    };
     int iteration = 0;
+    numPhotons = 0;
     ThreadManager threads = new ThreadManager();
     try
     {
-      while (photonList.size() < numWanted)
+      while (numPhotons < numWanted)
       {
         for (int i = 0; i < source.length; i++)
           {
@@ -140,15 +178,16 @@ public class PhotonMap
             source[i].generatePhotons(this, currentIntensity*sourceIntensity[i]/totalSourceIntensity, threads);
             totalRequested += currentIntensity*sourceIntensity[i]/totalSourceIntensity;
           }
-        if (photonList.size() >= numWanted*0.9)
+        numPhotons = countPhotons();
+        if (numPhotons >= numWanted*0.9)
           break;
-        if (photonList.isEmpty() && currentIntensity > 5.0 && iteration > 2)
+        if (numPhotons == 0 && currentIntensity > 5.0 && iteration > 2)
           break; // Insignificant numbers of photons will be stored no matter how many we send out.
         totalIntensity += currentIntensity;
-        if (photonList.size() < 10)
+        if (numPhotons < 10)
           currentIntensity *= 10.0;
         else
-          currentIntensity = (numWanted-photonList.size())*totalIntensity/photonList.size();
+          currentIntensity = (numWanted-numPhotons)*totalIntensity/numPhotons;
         iteration++;
       }
     }
@@ -164,12 +203,22 @@ public class PhotonMap
 
     // Create the balanced kd-tree.
 
-    int numPhotons = photonList.size();
-    workspace = photonList.toArray(new Photon [numPhotons]);
-    photonList = null;
-    photon = new Photon [numPhotons];
-    buildTree(0, numPhotons-1, 0);
-    workspace = null;
+    int total = countPhotons();
+    float pos[] = new float [3*total];
+    int color[] = new int [total];
+    short dir[] = new short [total];
+    int next = 0;
+    for (PhotonBuffer buffer : threadPhotons)
+      {
+        System.arraycopy(buffer.pos, 0, pos, 3*next, 3*buffer.size);
+        System.arraycopy(buffer.color, 0, color, next, buffer.size);
+        System.arraycopy(buffer.direction, 0, dir, next, buffer.size);
+        next += buffer.size;
+        buffer.clear();
+      }
+    threadPhotons = null;
+    localPhotons = null;
+    buildTree(pos, color, dir);
 
     // Select a maximum search radius.  We use two different methods to select cutoffs, one based on photon
     // intensity and one based on density, then keep whichever cutoff is smaller.  First, find the N brightest
@@ -178,17 +227,17 @@ public class PhotonMap
     PhotonList nearbyPhotons = new PhotonList(numEstimate);
     RGBColor tempColor = new RGBColor();
     nearbyPhotons.init(0.0f);
-    for (int i = 0; i < photon.length; i++)
+    for (int i = 0; i < numPhotons; i++)
       {
-        tempColor.setERGB(photon[i].ergb);
+        tempColor.setERGB(photonColor[i]);
         float intensity = -(tempColor.getRed()+tempColor.getGreen()+tempColor.getBlue());
         if (intensity <= nearbyPhotons.cutoff2)
-          nearbyPhotons.addPhoton(photon[i], intensity);
+          nearbyPhotons.addPhoton(i, intensity);
       }
     float red = 0.0f, green = 0.0f, blue = 0.0f;
     for (int i = 0; i < nearbyPhotons.numFound; i++)
       {
-        tempColor.setERGB(nearbyPhotons.photon[i].ergb);
+        tempColor.setERGB(photonColor[nearbyPhotons.index[i]]);
         red += tempColor.getRed();
         green += tempColor.getGreen();
         blue += tempColor.getBlue();
@@ -200,10 +249,23 @@ public class PhotonMap
     else
       cutoff1 = Math.sqrt(max*lightScale/(Math.PI*0.1));
     double volume = (bounds.maxx-bounds.minx)*(bounds.maxy-bounds.miny)*(bounds.maxz-bounds.minz);
-    double cutoff2 = Math.pow(0.5*volume*nearbyPhotons.photon.length/photon.length, 1.0/3.0);
+    double cutoff2 = Math.pow(0.5*volume*nearbyPhotons.index.length/numPhotons, 1.0/3.0);
     cutoffDist2 = (float) (cutoff1 < cutoff2 ? cutoff1*cutoff1 : cutoff2*cutoff2);
   }
 
+  /** Get the total number of photons which have been stored by all threads. */
+
+  private int countPhotons()
+  {
+    int count = 0;
+    synchronized (threadPhotons)
+    {
+      for (PhotonBuffer buffer : threadPhotons)
+        count += buffer.size;
+    }
+    return count;
+  }
+
   /** Spawn a Photon, and see whether it hits anything in the scene.  If so, add it to the map.
       @param r         the ray along which to spawn the photon
       @param color     the photon color
@@ -253,6 +315,9 @@ public class PhotonMap
     Mat4 nextMatTrans, oldMatTrans = null;
     OctreeNode nextNode;
 
+    if (workspace.stats != null)
+      workspace.stats.photonRays++;
+
     // Find whether it hits anything.
 
     SurfaceIntersection intersect = SurfaceIntersection.NO_INTERSECTION;
@@ -281,6 +346,8 @@ public class PhotonMap
     intersect.trueNormal(trueNorm);
     truedot = trueNorm.dot(r.getDirection());
     double texSmoothing = (diffuse ? renderer.smoothScale*renderer.extraGISmoothing : renderer.smoothScale);
+    if (workspace.stats != null)
+      workspace.stats.textureEvaluations++;
     if (truedot > 0.0)
       intersect.intersectionProperties(spec, norm, r.getDirection(), totalDist*texSmoothing*3.0/(2.0+truedot), rt.getTime());
     else
@@ -650,26 +717,42 @@ public class PhotonMap
     } while (x < dist);
   }
 
-  /** Add a Photon to the map. */
+  /** Add a photon to the map. */
 
   private void addPhoton(Vec3 pos, Vec3 dir, RGBColor color)
   {
-    Photon p = new Photon(pos, dir, color);
-    synchronized (this)
-    {
-      photonList.add(p);
-    }
-    if (direction[p.direction&0xFFFF] == null)
+    short packedDir = packDirection(dir);
+    localPhotons.get().add(pos, color.getERGB(), packedDir);
+    unpackDirection(packedDir);
+  }
+
+  /** Make sure the table of directions contains the unit vector for a packed direction. */
+
+  private void unpackDirection(short packedDir)
+  {
+    if (direction[packedDir&0xFFFF] == null)
     {
-      int i = (p.direction>>8) & 0xFF;
-      int j = p.direction & 0xFF;
+      int i = (packedDir>>8) & 0xFF;
+      int j = packedDir & 0xFF;
       double phi = i*Math.PI/128, theta = j*Math.PI/256;
       double sphi = Math.sin(phi), cphi = Math.cos(phi);
       double stheta = Math.sin(theta), ctheta = Math.cos(theta);
-      direction[p.direction&0xFFFF] = new Vec3(cphi*stheta, ctheta, sphi*stheta);
+      direction[packedDir&0xFFFF] = new Vec3(cphi*stheta, ctheta, sphi*stheta);
     }
   }
 
+  /** Encode a unit vector as a pair of 8 bit angles.  The high byte holds the azimuthal angle,
+      and the low byte holds the angle from the y axis. */
+
+  static short packDirection(Vec3 dir)
+  {
+    int phi = (int) (Math.atan2(dir.z, dir.x)*128/Math.PI);
+    if (phi < 0)
+      phi += 256;
+    int theta = (int) (Math.acos(dir.y)*256/Math.PI);
+    return (short) ((phi<<8)+theta);
+  }
+
   /** Add a random displacement to a vector.  The displacements are uniformly distributed
      over the volume of a sphere whose radius is given by size. */
 
@@ -735,6 +818,143 @@ public class PhotonMap
     dir.normalize();
   }
 
+  /** Build the balanced kd-tree from a list of photons.  Photon i has its position in elements 3*i
+      through 3*i+2 of pos, its ERGB color in color[i], and its packed direction in dir[i]. */
+
+  void buildTree(float pos[], int color[], short dir[])
+  {
+    numPhotons = color.length;
+    sourcePos = pos;
+    sourceColor = color;
+    sourceDirection = dir;
+    workspace = new int [numPhotons];
+    for (int i = 0; i < numPhotons; i++)
+      workspace[i] = i;
+    photonPos = new float [3*numPhotons];
+    photonColor = new int [numPhotons];
+    photonDirection = new short [numPhotons];
+    photonAxis = new byte [numPhotons];
+    ThreadManager.getPool().invoke(new BuildTreeTask(0, numPhotons-1, 0));
+    workspace = null;
+    sourcePos = null;
+    sourceColor = null;
+    sourceDirection = null;
+  }
+
+  /** Get the number of photons in the map. */
+
+  int getNumPhotons()
+  {
+    return numPhotons;
+  }
+
+  /** Get the position of a photon along an axis. */
+
+  float getPhotonPosition(int index, int axis)
+  {
+    return photonPos[3*index+axis];
+  }
+
+  /** Get the ERGB color of a photon. */
+
+  int getPhotonColor(int index)
+  {
+    return photonColor[index];
+  }
+
+  /** Get the axis along which a photon splits the kd-tree. */
+
+  int getPhotonAxis(int index)
+  {
+    return photonAxis[index];
+  }
+
+  /** Get a copy of a photon as a Photon object.
+      @param index    the index of the photon, as stored in a {@link PhotonList}
+      @deprecated Photons are no longer stored as objects.  This creates a new Photon on every call. */
+
+  @Deprecated
+  public Photon getPhoton(int index)
+  {
+    Photon p = new Photon(new Vec3(), new Vec3(0.0, 1.0, 0.0), new RGBColor());
+    p.x = photonPos[3*index];
+    p.y = photonPos[3*index+1];
+    p.z = photonPos[3*index+2];
+    p.ergb = photonColor[index];
+    p.direction = photonDirection[index];
+    p.axis = photonAxis[index];
+    return p;
+  }
+
+  /** Write the settings which determine the contents of this map to a stream, including the renderer settings
+      that affect how photons are traced.  Two maps built for the same scene with identical settings are
+      interchangeable. */
+
+  void writeSettings(DataOutputStream out) throws IOException
+  {
+    out.writeInt(numWanted);
+    out.writeInt(numEstimate);
+    out.writeInt(filter);
+    out.writeBoolean(includeCaustics);
+    out.writeBoolean(includeDirect);
+    out.writeBoolean(includeIndirect);
+    out.writeBoolean(includeVolume);
+    out.writeDouble(bounds.minx);
+    out.writeDouble(bounds.maxx);
+    out.writeDouble(bounds.miny);
+    out.writeDouble(bounds.maxy);
+    out.writeDouble(bounds.minz);
+    out.writeDouble(bounds.maxz);
+    renderer.writePhotonSettings(out);
+  }
+
+  /** Write the photons in this map to a stream, so they can later be restored with readPhotons(). */
+
+  void writePhotons(DataOutputStream out) throws IOException
+  {
+    out.writeInt(numPhotons);
+    out.writeDouble(lightScale);
+    out.writeFloat(cutoffDist2);
+    for (int i = 0; i < 3*numPhotons; i++)
+      out.writeFloat(photonPos[i]);
+    for (int i = 0; i < numPhotons; i++)
+      out.writeInt(photonColor[i]);
+    for (int i = 0; i < numPhotons; i++)
+      out.writeShort(photonDirection[i]);
+    out.write(photonAxis, 0, numPhotons);
+  }
+
+  /** Replace the photons in this map with ones that were saved by writePhotons(). */
+
+  void readPhotons(DataInputStream in) throws IOException
+  {
+    int count = in.readInt();
+    if (count < 0)
+      throw new InvalidObjectException("Illegal number of photons: "+count);
+    double scale = in.readDouble();
+    float cutoff = in.readFloat();
+    float pos[] = new float [3*count];
+    int color[] = new int [count];
+    short dir[] = new short [count];
+    byte axis[] = new byte [count];
+    for (int i = 0; i < pos.length; i++)
+      pos[i] = in.readFloat();
+    for (int i = 0; i < count; i++)
+      color[i] = in.readInt();
+    for (int i = 0; i < count; i++)
+      dir[i] = in.readShort();
+    in.readFully(axis);
+    for (short d : dir)
+      unpackDirection(d);
+    numPhotons = count;
+    lightScale = scale;
+    cutoffDist2 = cutoff;
+    photonPos = pos;
+    photonColor = color;
+    photonDirection = dir;
+    photonAxis = axis;
+  }
+
   /** This method is called recursively to build the packed kd-tree of photons from the workspace array.
       @param start      the start of the segment from which to build the tree
       @param end        the end of the segment from which to build the tree
@@ -744,7 +964,7 @@ public class PhotonMap
   private void buildTree(int start, int end, int root)
   {
     if (start == end)
-      photon[root] = workspace[start];
+      setTreePhoton(root, workspace[start], 0);
     if (start >= end)
       return;
 
@@ -754,13 +974,14 @@ public class PhotonMap
     float maxx = -Float.MAX_VALUE, maxy = -Float.MAX_VALUE, maxz = -Float.MAX_VALUE;
     for (int i = start; i <= end; i++)
       {
-        Photon p = workspace[i];
-        if (p.x < minx) minx = p.x;
-        if (p.y < miny) miny = p.y;
-        if (p.z < minz) minz = p.z;
-        if (p.x > maxx) maxx = p.x;
-        if (p.y > maxy) maxy = p.y;
-        if (p.z > maxz) maxz = p.z;
+        int base = 3*workspace[i];
+        float x = sourcePos[base], y = sourcePos[base+1], z = sourcePos[base+2];
+        if (x < minx) minx = x;
+        if (y < miny) miny = y;
+        if (z < minz) minz = z;
+        if (x > maxx) maxx = x;
+        if (y > maxy) maxy = y;
+        if (z > maxz) maxz = z;
       }
     float xsize = maxx-minx, ysize = maxy-miny, zsize = maxz-minz;
     int axis;
@@ -785,10 +1006,96 @@ public class PhotonMap
 
     // Store the median photon, and build the subtrees.
 
-    photon[root] = workspace[medianPos];
-    photon[root].axis = (short) axis;
-    buildTree(start, medianPos-1, 2*root+1);
-    buildTree(medianPos+1, end, 2*root+2);
+    setTreePhoton(root, workspace[medianPos], axis);
+    if (size < PARALLEL_THRESHOLD)
+      {
+        buildTree(start, medianPos-1, 2*root+1);
+        buildTree(medianPos+1, end, 2*root+2);
+      }
+    else
+      {
+        // The two subtrees are built from disjoint ranges of the workspace array, and stored in disjoint
+        // positions of the packed arrays, so they can be built at the same time.
+
+        ForkJoinTask.invokeAll(new BuildTreeTask(start, medianPos-1, 2*root+1), new BuildTreeTask(medianPos+1, end, 2*root+2));
+      }
+  }
+
+  /** Copy a photon from the source arrays into a position in the packed tree. */
+
+  private void setTreePhoton(int root, int index, int axis)
+  {
+    int src = 3*index, dst = 3*root;
+    photonPos[dst] = sourcePos[src];
+    photonPos[dst+1] = sourcePos[src+1];
+    photonPos[dst+2] = sourcePos[src+2];
+    photonColor[root] = sourceColor[index];
+    photonDirection[root] = sourceDirection[index];
+    photonAxis[root] = (byte) axis;
+  }
+
+  /** This is a task for building one subtree of the kd-tree. */
+
+  private class BuildTreeTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final int start, end, root;
+
+    BuildTreeTask(int start, int end, int root)
+    {
+      this.start = start;
+      this.end = end;
+      this.root = root;
+    }
+
+    @Override
+    protected void compute()
+    {
+      buildTree(start, end, root);
+    }
+  }
+
+  /** This holds the photons generated by one thread, before they are merged into the map. */
+
+  private static class PhotonBuffer
+  {
+    float pos[];
+    int color[];
+    short direction[];
+    int size;
+
+    PhotonBuffer()
+    {
+      pos = new float [3*1024];
+      color = new int [1024];
+      direction = new short [1024];
+    }
+
+    void add(Vec3 p, int ergb, short dir)
+    {
+      if (size == color.length)
+        {
+          int newSize = 2*size;
+          pos = Arrays.copyOf(pos, 3*newSize);
+          color = Arrays.copyOf(color, newSize);
+          direction = Arrays.copyOf(direction, newSize);
+        }
+      int base = 3*size;
+      pos[base] = (float) p.x;
+      pos[base+1] = (float) p.y;
+      pos[base+2] = (float) p.z;
+      color[size] = ergb;
+      direction[size++] = dir;
+    }
+
+    void clear()
+    {
+      pos = null;
+      color = null;
+      direction = null;
+      size = 0;
+    }
   }
 
   /** This method splits the photons about their median along a particular axis.  When this returns,
@@ -850,26 +1157,18 @@ public class PhotonMap
       }
   }
 
-  /** Get the position of a photon along an axis. */
+  /** Get the position along an axis of a photon in the workspace array. */
 
   private float axisPosition(int index, int axis)
   {
-    switch (axis)
-      {
-        case 0:
-          return workspace[index].x;
-        case 1:
-          return workspace[index].y;
-        default:
-          return workspace[index].z;
-      }
+    return sourcePos[3*workspace[index]+axis];
   }
 
   /** Swap two photons in the workspace array. */
 
   private void swap(int first, int second)
   {
-    Photon temp = workspace[first];
+    int temp = workspace[first];
     workspace[first] = workspace[second];
     workspace[second] = temp;
   }
@@ -887,7 +1186,7 @@ public class PhotonMap
   public void getLight(Vec3 pos, TextureSpec spec, Vec3 normal, Vec3 viewDir, boolean front, RGBColor light, PhotonMapContext pmc)
   {
     light.setRGB(0.0f, 0.0f, 0.0f);
-    if (photon.length == 0)
+    if (numPhotons == 0)
       return;
     PhotonList nearbyPhotons = pmc.nearbyPhotons;
     RGBColor tempColor = pmc.tempColor;
@@ -912,12 +1211,12 @@ public class PhotonMap
     }
     for (int i = 0; i < nearbyPhotons.numFound; i++)
     {
-      Photon p = nearbyPhotons.photon[i];
-      Vec3 dir = direction[p.direction&0xFFFF];
+      int p = nearbyPhotons.index[i];
+      Vec3 dir = direction[photonDirection[p]&0xFFFF];
       double dot = normal.dot(dir);
       if ((front && dot < -1.0e-10) || (!front && dot > 1.0e-10))
       {
-        tempColor.setERGB(p.ergb);
+        tempColor.setERGB(photonColor[p]);
         float x = nearbyPhotons.dist2[i]*r2inv;
         if (filter == 2)
           tempColor.scale(x*(x-2.0f)+1.0f);
@@ -958,7 +1257,7 @@ public class PhotonMap
   public void getVolumeLight(Vec3 pos, MaterialSpec spec, Vec3 viewDir, RGBColor light, PhotonMapContext pmc)
   {
     light.setRGB(0.0f, 0.0f, 0.0f);
-    if (photon.length == 0)
+    if (numPhotons == 0)
       return;
     PhotonList nearbyPhotons = pmc.nearbyPhotons;
     RGBColor tempColor = pmc.tempColor;
@@ -975,11 +1274,11 @@ public class PhotonMap
     double ec2 = eccentricity*eccentricity;
     for (int i = 0; i < nearbyPhotons.numFound; i++)
     {
-      Photon p = nearbyPhotons.photon[i];
-      tempColor.setERGB(p.ergb);
+      int p = nearbyPhotons.index[i];
+      tempColor.setERGB(photonColor[p]);
       if (eccentricity != 0.0)
       {
-        Vec3 dir = direction[p.direction&0xFFFF];
+        Vec3 dir = direction[photonDirection[p]&0xFFFF];
         double dot = dir.dot(viewDir);
         double fatt = (1.0-ec2)/Math.pow(1.0+ec2+2.0*eccentricity*dot, 1.5);
         tempColor.scale(fatt);
@@ -997,11 +1296,11 @@ public class PhotonMap
 
   private void findPhotons(Vec3 pos, int index, PhotonMapContext pmc)
   {
-    Photon p = photon[index];
-    float dx = p.x-(float) pos.x, dy = p.y-(float) pos.y, dz = p.z-(float) pos.z;
+    int base = 3*index;
+    float dx = photonPos[base]-(float) pos.x, dy = photonPos[base+1]-(float) pos.y, dz = photonPos[base+2]-(float) pos.z;
     float dist2 = dx*dx + dy*dy + dz*dz;
     float delta;
-    switch (p.axis)
+    switch (photonAxis[index])
       {
         case 0:
           delta = dx;
@@ -1015,78 +1314,65 @@ public class PhotonMap
     if (delta > 0.0f)
       {
         int child = (index<<1)+1;
-        if (child < photon.length)
+        if (child < numPhotons)
           {
             findPhotons(pos, child, pmc);
             delta *= delta;
             child++;
-            if (child < photon.length && delta < pmc.nearbyPhotons.cutoff2)
+            if (child < numPhotons && delta < pmc.nearbyPhotons.cutoff2)
               findPhotons(pos, child, pmc);
           }
       }
     else
       {
         int child = (index<<1)+2;
-        if (child < photon.length)
+        if (child < numPhotons)
           findPhotons(pos, child, pmc);
         delta *= delta;
         child--;
-        if (child < photon.length && delta < pmc.nearbyPhotons.cutoff2)
+        if (child < numPhotons && delta < pmc.nearbyPhotons.cutoff2)
           findPhotons(pos, child, pmc);
       }
     if (dist2 < pmc.nearbyPhotons.cutoff2)
-      pmc.nearbyPhotons.addPhoton(p, dist2);
+      pmc.nearbyPhotons.addPhoton(index, dist2);
   }
 
   private void validateTree(int pos)
   {
     int child1 = 2*pos+1, child2 = 2*pos+2;
-    if (child1 < photon.length)
+    if (child1 < numPhotons)
       {
-        validateLowerBranch(child1, photon[pos].axis, median(pos, photon[pos].axis));
+        validateLowerBranch(child1, photonAxis[pos], getPhotonPosition(pos, photonAxis[pos]));
         validateTree(child1);
       }
-    if (child2 < photon.length)
+    if (child2 < numPhotons)
       {
-        validateUpperBranch(child2, photon[pos].axis, median(pos, photon[pos].axis));
+        validateUpperBranch(child2, photonAxis[pos], getPhotonPosition(pos, photonAxis[pos]));
         validateTree(child2);
       }
   }
 
   private void validateLowerBranch(int pos, int axis, float median)
   {
-    float value = median(pos, axis);
+    float value = getPhotonPosition(pos, axis);
     if (value > median)
       System.out.println("error!");
     int child1 = 2*pos+1, child2 = 2*pos+2;
-    if (child1 < photon.length)
+    if (child1 < numPhotons)
       validateLowerBranch(child1, axis, median);
-    if (child2 < photon.length)
+    if (child2 < numPhotons)
       validateLowerBranch(child2, axis, median);
   }
 
   private void validateUpperBranch(int pos, int axis, float median)
   {
-    float value = median(pos, axis);
+    float value = getPhotonPosition(pos, axis);
     if (value < median)
       System.out.println("error!");
     int child1 = 2*pos+1, child2 = 2*pos+2;
-    if (child1 < photon.length)
+    if (child1 < numPhotons)
       validateUpperBranch(child1, axis, median);
-    if (child2 < photon.length)
+    if (child2 < numPhotons)
       validateUpperBranch(child2, axis, median);
   }
-
-  private float median(int index, int axis)
-  {
-    switch (axis)
-      {
-        case 0:
-          return photon[index].x;
-        case 1:
-          return photon[index].y;
-        default:
-          return photon[index].z;
-      }
-  }
 }
\ No newline at end of file
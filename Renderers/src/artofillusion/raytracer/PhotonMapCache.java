@@ -0,0 +1,298 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.*;
+import artofillusion.material.*;
+import artofillusion.object.*;
+import artofillusion.texture.*;
+import java.io.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * A PhotonMapCache saves photon maps to disk, so they can be reused the next time the same scene is rendered
+ * with the same settings.  This is mainly useful for animations in which only the camera moves, since the
+ * photon maps are then identical for every frame.
+ * <p>
+ * Each map is identified by a hash of everything in the scene that can affect the photons (the geometry,
+ * lights, textures, materials, images, and environment), together with the settings of the map itself and
+ * the renderer settings that affect how photons are traced.
+ * Cameras are ignored, since photons do not depend on the point of view.  The time is only included if
+ * a texture or material depends on it, since the geometry is already hashed as it is at the current time.
+ * Only the most recently used files are kept, so the cache does not grow without limit when the scene
+ * is changing.
+ */
+
+public class PhotonMapCache
+{
+  private final File directory;
+  private final int maxFiles;
+  private final byte sceneHash[];
+
+  private static final int FILE_MAGIC = 0x504d4150;
+  private static final short FILE_VERSION = 1;
+  private static final String FILE_SUFFIX = ".pmap";
+
+  /** The default maximum number of files to keep in the cache directory. */
+  public static final int DEFAULT_MAX_FILES = 20;
+
+  /**
+   * Create a PhotonMapCache for rendering a scene.
+   *
+   * @param scene          the scene being rendered
+   * @param surfaceError   the surface accuracy which is used for rendering
+   * @param directory      the directory in which to store cache files
+   * @param maxFiles       the maximum number of files to keep in the directory
+   */
+
+  public PhotonMapCache(Scene scene, double surfaceError, File directory, int maxFiles)
+  {
+    this.directory = directory;
+    this.maxFiles = maxFiles;
+    sceneHash = hashScene(scene, surfaceError);
+  }
+
+  /** Get the default directory in which cache files are stored. */
+
+  public static File getDefaultDirectory()
+  {
+    return new File(ApplicationPreferences.getPreferencesDirectory(), "photonmaps");
+  }
+
+  /**
+   * Try to load the photons for a map from the cache.
+   *
+   * @return true if the photons were loaded, false if they must be generated
+   */
+
+  public boolean loadMap(PhotonMap map)
+  {
+    File file = getFile(map);
+    if (file == null || !file.isFile())
+      return false;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+    {
+      if (in.readInt() != FILE_MAGIC || in.readShort() != FILE_VERSION)
+        return false;
+      map.readPhotons(in);
+    }
+    catch (IOException ex)
+    {
+      ex.printStackTrace();
+      return false;
+    }
+    file.setLastModified(System.currentTimeMillis());
+    return true;
+  }
+
+  /**
+   * Save the photons in a map to the cache.  If anything goes wrong, the map is simply not cached.
+   */
+
+  public void saveMap(PhotonMap map)
+  {
+    File file = getFile(map);
+    if (file == null)
+      return;
+    File temp = null;
+    try
+    {
+      directory.mkdirs();
+      temp = File.createTempFile("photons", ".tmp", directory);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+      {
+        out.writeInt(FILE_MAGIC);
+        out.writeShort(FILE_VERSION);
+        map.writePhotons(out);
+      }
+      file.delete();
+      if (!temp.renameTo(file))
+        throw new IOException("Could not rename "+temp+" to "+file);
+      temp = null;
+    }
+    catch (IOException ex)
+    {
+      ex.printStackTrace();
+    }
+    finally
+    {
+      if (temp != null)
+        temp.delete();
+    }
+    removeOldFiles();
+  }
+
+  /** Get the file in which a map is stored, or null if the scene could not be hashed. */
+
+  File getFile(PhotonMap map)
+  {
+    if (sceneHash == null)
+      return null;
+    try
+    {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest));
+      out.write(sceneHash);
+      map.writeSettings(out);
+      out.close();
+      StringBuilder name = new StringBuilder();
+      for (byte b : digest.digest())
+        name.append(String.format("%02x", b));
+      name.append(FILE_SUFFIX);
+      return new File(directory, name.toString());
+    }
+    catch (IOException | NoSuchAlgorithmException ex)
+    {
+      ex.printStackTrace();
+      return null;
+    }
+  }
+
+  /** Delete the least recently used files if there are more than the maximum number. */
+
+  private void removeOldFiles()
+  {
+    File files[] = directory.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+    if (files == null || files.length <= maxFiles)
+      return;
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+    for (int i = maxFiles; i < files.length; i++)
+      files[i].delete();
+  }
+
+  /**
+   * Compute a hash of everything in the scene that can affect the photon maps.  This returns null if
+   * the scene could not be hashed, in which case nothing is cached.
+   */
+
+  private static byte[] hashScene(Scene scene, double surfaceError)
+  {
+    try
+    {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest));
+      out.writeShort(FILE_VERSION);
+      out.writeDouble(surfaceError);
+      scene.getAmbientColor().writeToFile(out);
+      scene.getFogColor().writeToFile(out);
+      out.writeBoolean(scene.getFogState());
+      out.writeDouble(scene.getFogDistance());
+      boolean timeDependent = dependsOnTime(scene);
+      out.writeBoolean(timeDependent);
+      if (timeDependent)
+        out.writeDouble(scene.getTime());
+      for (int i = 0; i < scene.getNumImages(); i++)
+      {
+        out.write(scene.getImage(i).getContentHash());
+      }
+      for (int i = 0; i < scene.getNumMaterials(); i++)
+      {
+        Material mat = scene.getMaterial(i);
+        out.writeUTF(mat.getClass().getName());
+        mat.writeToFile(out, scene);
+      }
+      for (int i = 0; i < scene.getNumTextures(); i++)
+      {
+        Texture tex = scene.getTexture(i);
+        out.writeUTF(tex.getClass().getName());
+        tex.writeToFile(out, scene);
+      }
+      for (ObjectInfo info : scene.getObjects())
+      {
+        if (!info.isVisible() || info.getObject() instanceof SceneCamera)
+          continue;
+        info.getCoords().writeToFile(out);
+        Object3D obj = info.getDistortedObject(surfaceError);
+        out.writeUTF(obj.getClass().getName());
+        obj.writeToFile(out, scene);
+      }
+      out.writeInt(scene.getEnvironmentMode());
+      scene.getEnvironmentColor().writeToFile(out);
+      if (scene.getEnvironmentMode() != Scene.ENVIRON_SOLID)
+      {
+        TextureMapping envMapping = scene.getEnvironmentMapping();
+        out.writeInt(scene.indexOf(envMapping.getTexture()));
+        out.writeUTF(envMapping.getClass().getName());
+        if (envMapping instanceof LayeredMapping)
+          ((LayeredMapping) envMapping).writeToFile(out, scene);
+        else
+          envMapping.writeToFile(out);
+        for (ParameterValue value : scene.getEnvironmentParameterValues())
+        {
+          out.writeUTF(value.getClass().getName());
+          value.writeToStream(out);
+        }
+      }
+      out.close();
+      return digest.digest();
+    }
+    catch (Exception ex)
+    {
+      // Some objects may not be able to write themselves out.  Just don't use the cache.
+
+      ex.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Determine whether any texture or material in a scene may change with time.  Textures and materials
+   * of unknown types are assumed to depend on it.
+   */
+
+  private static boolean dependsOnTime(Scene scene)
+  {
+    for (int i = 0; i < scene.getNumTextures(); i++)
+    {
+      Texture tex = scene.getTexture(i);
+      if (tex instanceof ProceduralTexture2D)
+      {
+        if (((ProceduralTexture2D) tex).getProcedure().dependsOnTime())
+          return true;
+      }
+      else if (tex instanceof ProceduralTexture3D)
+      {
+        if (((ProceduralTexture3D) tex).getProcedure().dependsOnTime())
+          return true;
+      }
+      else if (!(tex instanceof UniformTexture || tex instanceof ImageMapTexture || tex instanceof LayeredTexture))
+        return true;
+    }
+    for (int i = 0; i < scene.getNumMaterials(); i++)
+    {
+      Material mat = scene.getMaterial(i);
+      if (mat instanceof ProceduralMaterial3D)
+      {
+        if (((ProceduralMaterial3D) mat).getProcedure().dependsOnTime())
+          return true;
+      }
+      else if (!(mat instanceof UniformMaterial))
+        return true;
+    }
+    return false;
+  }
+
+  /** An OutputStream that discards everything written to it. */
+
+  private static class NullOutputStream extends OutputStream
+  {
+    @Override
+    public void write(int b)
+    {
+    }
+
+    @Override
+    public void write(byte b[], int off, int len)
+    {
+    }
+  }
+}
@@ -111,6 +111,7 @@ public class PointPhotonSource implements PhotonSource
           public void cleanup()
           {
             map.getWorkspace().cleanup();
+            map.threadFinished();
           }
         });
         threads.run();
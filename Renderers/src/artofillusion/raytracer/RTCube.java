@@ -448,6 +448,19 @@ public class RTCube extends RTObject
       }
     }
 
+    @Override
+    public boolean shadingNormal(TextureSpec spec, Vec3 n)
+    {
+      n.set(normx, normy, normz);
+      if (cube.bumpMapped)
+      {
+        n.scale(spec.bumpGrad.dot(n)+1.0);
+        n.subtract(spec.bumpGrad);
+        n.normalize();
+      }
+      return true;
+    }
+
     @Override
     public void intersectionTransparency(int n, RGBColor trans, double angle, double size, double time)
     {
@@ -472,6 +472,20 @@ public class RTCylinder extends RTObject
       }
     }
 
+    @Override
+    public boolean shadingNormal(TextureSpec spec, Vec3 n)
+    {
+      calcTrueNorm();
+      n.set(trueNorm);
+      if (cylinder.bumpMapped)
+      {
+        n.scale(spec.bumpGrad.dot(n)+1.0);
+        n.subtract(spec.bumpGrad);
+        n.normalize();
+      }
+      return true;
+    }
+
     @Override
     public void intersectionTransparency(int n, RGBColor trans, double angle, double size, double time)
     {
@@ -780,6 +780,19 @@ public class RTDisplacedTriangle extends RTObject
       }
     }
 
+    @Override
+    public boolean shadingNormal(TextureSpec spec, Vec3 n)
+    {
+      n.set(interp);
+      if (rtTri.bumpMapped)
+      {
+        n.scale(spec.bumpGrad.dot(n)+1.0);
+        n.subtract(spec.bumpGrad);
+        n.normalize();
+      }
+      return true;
+    }
+
     @Override
     public void intersectionTransparency(int n, RGBColor trans, double angle, double size, double time)
     {
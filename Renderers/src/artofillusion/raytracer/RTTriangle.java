@@ -34,7 +34,7 @@ public class RTTriangle extends RTObject
   private static final short BUMP_MAPPED = 1;
   private static final short INTERP_NORMALS = 2;
 
-  private double triangleTol;
+  double triangleTol;
 
   public RTTriangle(RenderingMesh mesh, int which, Mat4 fromLocal, Mat4 toLocal)
   {
@@ -451,6 +451,32 @@ public class RTTriangle extends RTObject
       }
     }
 
+    @Override
+    public boolean shadingNormal(TextureSpec spec, Vec3 n)
+    {
+      if ((rtTri.flags&INTERP_NORMALS) == 0)
+        n.set(rtTri.trueNorm);
+      else
+      {
+        double w = 1.0-u-v;
+        Vec3 normals[] = rtTri.tri.theMesh.norm;
+        Vec3 norm1 = normals[rtTri.tri.n1];
+        Vec3 norm2 = normals[rtTri.tri.n2];
+        Vec3 norm3 = normals[rtTri.tri.n3];
+        n.x = u*norm1.x + v*norm2.x + w*norm3.x;
+        n.y = u*norm1.y + v*norm2.y + w*norm3.y;
+        n.z = u*norm1.z + v*norm2.z + w*norm3.z;
+        n.normalize();
+      }
+      if ((rtTri.flags&BUMP_MAPPED) != 0)
+      {
+        n.scale(spec.bumpGrad.dot(n)+1.0);
+        n.subtract(spec.bumpGrad);
+        n.normalize();
+      }
+      return true;
+    }
+
     @Override
     public void intersectionTransparency(int n, RGBColor trans, double angle, double size, double time)
     {
@@ -96,6 +96,8 @@ public class Ray
     {
       rt.lastRayID[index] = id;
       rt.lastRayResult[index] = object.checkIntersection(this);
+      if (rt.stats != null)
+        rt.stats.intersectionTests++;
     }
     return rt.lastRayResult[index];
   }
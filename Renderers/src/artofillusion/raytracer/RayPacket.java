@@ -0,0 +1,125 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.math.*;
+
+/**
+ * A RayPacket holds a group of rays which are traced together by
+ * {@link BoundingVolumeHierarchy#findFirstIntersections(RayPacket)}.  This is most efficient when the rays
+ * are coherent, such as several eye rays passing through the same pixel, since they then tend to visit
+ * the same nodes of the tree.
+ * <p>
+ * The origins and directions are stored as separate arrays for each component, so that one triangle can
+ * be tested against every ray in the packet with a simple loop.
+ * <p>
+ * Like a {@link Ray}, each RayPacket is bound to a particular {@link RaytracerContext} and should only ever
+ * be used on that context's thread.
+ */
+
+public class RayPacket
+{
+  public static final int MAX_SIZE = 16;
+
+  final double ox[], oy[], oz[], dx[], dy[], dz[], invx[], invy[], invz[];
+  final double firstDist[], secondDist[];
+  final RTObject first[];
+  final Ray ray;
+  int stack[];
+  private int size;
+
+  public RayPacket(RaytracerContext context)
+  {
+    ox = new double [MAX_SIZE];
+    oy = new double [MAX_SIZE];
+    oz = new double [MAX_SIZE];
+    dx = new double [MAX_SIZE];
+    dy = new double [MAX_SIZE];
+    dz = new double [MAX_SIZE];
+    invx = new double [MAX_SIZE];
+    invy = new double [MAX_SIZE];
+    invz = new double [MAX_SIZE];
+    firstDist = new double [MAX_SIZE];
+    secondDist = new double [MAX_SIZE];
+    first = new RTObject [MAX_SIZE];
+    ray = new Ray(context);
+    stack = new int [0];
+  }
+
+  /** Remove all rays from the packet. */
+
+  public void clear()
+  {
+    size = 0;
+  }
+
+  /** Get the number of rays in the packet. */
+
+  public int getSize()
+  {
+    return size;
+  }
+
+  /**
+   * Add a ray to the packet.
+   *
+   * @param origin     the ray origin
+   * @param direction  the ray direction.  This must be normalized.
+   * @return the index of the ray within the packet
+   */
+
+  public int addRay(Vec3 origin, Vec3 direction)
+  {
+    if (size == MAX_SIZE)
+      throw new IllegalStateException("The packet is full");
+    ox[size] = origin.x;
+    oy[size] = origin.y;
+    oz[size] = origin.z;
+    dx[size] = direction.x;
+    dy[size] = direction.y;
+    dz[size] = direction.z;
+    first[size] = null;
+    return size++;
+  }
+
+  /** Copy the origin and direction of one ray in the packet into a Ray object. */
+
+  public void getRay(int which, Ray r)
+  {
+    r.origin.set(ox[which], oy[which], oz[which]);
+    r.direction.set(dx[which], dy[which], dz[which]);
+  }
+
+  /** Get the first object hit by a ray, or null if it did not hit anything. */
+
+  public RTObject getFirstObject(int which)
+  {
+    return first[which];
+  }
+
+  /** Get the distance to the first intersection along a ray. */
+
+  public double getFirstDistance(int which)
+  {
+    return firstDist[which];
+  }
+
+  /**
+   * Determine whether a ray unambiguously hit a single object first.  This returns false if it did not hit
+   * anything, or if a second object was hit at almost exactly the same distance.  In the latter case, the
+   * ray should be traced individually so both intersections will be reported.
+   */
+
+  public boolean hasUniqueFirstObject(int which)
+  {
+    return (first[which] != null && !(secondDist[which]-firstDist[which] < Raytracer.TOL));
+  }
+}
@@ -15,8 +15,10 @@ import artofillusion.*;
 import artofillusion.math.*;
 import artofillusion.object.*;
 import artofillusion.texture.*;
+import artofillusion.util.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * <p>
@@ -49,9 +51,11 @@ public class Raytracer
   private RTObject sceneObject[];
   private RTLight light[];
   private OctreeNode rootNode, cameraNode, lightNode[];
+  private BoundingVolumeHierarchy bvh;
   private Scene scene;
   private Camera camera;
   private double time, surfaceError = 0.02;
+  private int accelerationStructure = ACCELERATION_OCTREE;
   private boolean preview, softShadows, adaptive = true, reducedMemory;
   private ThreadLocal<RaytracerContext> threadContext;
   private List<RTObjectFactory> factories;
@@ -60,6 +64,9 @@ public class Raytracer
 
   public static final double TOL = 1e-12;
 
+  public static final int ACCELERATION_OCTREE = 0;
+  public static final int ACCELERATION_BVH = 1;
+
   /**
    * When a ray is traced to determine what objects it intersects, a RayIntersection object
    * is used for returning the results.  Typically it reports only the first object that was
@@ -99,6 +106,16 @@ public class Raytracer
     {
       return distance;
     }
+
+    /**
+     * Set the details of the intersection.
+     */
+    void set(SurfaceIntersection first, SurfaceIntersection second, double distance)
+    {
+      this.first = first;
+      this.second = second;
+      this.distance = distance;
+    }
   }
 
   /**
@@ -233,6 +250,27 @@ public class Raytracer
     this.softShadows = softShadows;
   }
 
+  /**
+   * Get which data structure is used to sort objects by location for raytracing.  This is either
+   * {@link #ACCELERATION_OCTREE} or {@link #ACCELERATION_BVH}.  The default value is ACCELERATION_OCTREE.
+   */
+  public int getAccelerationStructure()
+  {
+    return accelerationStructure;
+  }
+
+  /**
+   * Set which data structure is used to sort objects by location for raytracing.  This is either
+   * {@link #ACCELERATION_OCTREE} or {@link #ACCELERATION_BVH}.  This must be called before
+   * {@link #finishConstruction()}.
+   */
+  public void setAccelerationStructure(int accelerationStructure)
+  {
+    if (sceneObject != null)
+      throw new IllegalStateException("finishConstruction() has already been called");
+    this.accelerationStructure = accelerationStructure;
+  }
+
   /**
    * Get a list of all objects in the scene, as represented by RTObject objects.
    */
@@ -256,6 +294,17 @@ public class Raytracer
     return threadContext.get();
   }
 
+  /**
+   * Discard the RaytracerContext for the current thread.  A new one will be created if
+   * {@link #getContext()} is called again.  Worker threads are shared and outlive the Raytracer,
+   * so each one should call this when it is done with it.
+   */
+
+  public void releaseContext()
+  {
+    threadContext.remove();
+  }
+
   /**
    * Get the root node of the octree.
    */
@@ -264,6 +313,15 @@ public class Raytracer
     return rootNode;
   }
 
+  /**
+   * Get the bounding volume hierarchy containing the objects, or null if the octree is being used
+   * instead.  When this is not null, the octree consists of a single terminal node.
+   */
+  public BoundingVolumeHierarchy getBoundingVolumeHierarchy()
+  {
+    return bvh;
+  }
+
   /**
    * Get the octree node containing the camera.
    */
@@ -497,13 +555,16 @@ public class Raytracer
     double minx, maxx, miny, maxy, minz, maxz;
     int i;
 
-    // Find the bounding boxes for each object, and for the entire scene.
+    // Find the bounding boxes for each object (in parallel, since transforming them can be slow for
+    // large scenes), and for the entire scene.  Work done in parallel here uses the threads shared by
+    // all ThreadManagers, so it respects the number of threads the user has chosen.
 
+    ForkJoinPool pool = ThreadManager.getPool();
+    pool.invoke(ForkJoinTask.adapt(() -> Arrays.parallelSetAll(objBounds, index -> sceneObject[index].getBounds())));
     minx = miny = minz = Double.MAX_VALUE;
     maxx = maxy = maxz = -Double.MAX_VALUE;
     for (i = 0; i < sceneObject.length; i++)
       {
-        objBounds[i] = sceneObject[i].getBounds();
         if (objBounds[i].minx < minx)
           minx = objBounds[i].minx;
         if (objBounds[i].maxx > maxx)
@@ -524,11 +585,19 @@ public class Raytracer
     maxy += TOL;
     maxz += TOL;
 
-    // Create the octree.
+    // Create the octree.  If a bounding volume hierarchy is being used instead, the octree is reduced
+    // to a single node so that code which walks from node to node still works.
 
-    rootNode = new OctreeNode(Math.nextAfter((float) minx, Double.NEGATIVE_INFINITY), Math.nextAfter((float) maxx, Double.POSITIVE_INFINITY),
-        Math.nextAfter((float) miny, Double.NEGATIVE_INFINITY), Math.nextAfter((float) maxy, Double.POSITIVE_INFINITY),
-        Math.nextAfter((float) minz, Double.NEGATIVE_INFINITY), Math.nextAfter((float) maxz, Double.POSITIVE_INFINITY), sceneObject, objBounds, null);
+    float nodeMinx = Math.nextAfter((float) minx, Double.NEGATIVE_INFINITY), nodeMaxx = Math.nextAfter((float) maxx, Double.POSITIVE_INFINITY);
+    float nodeMiny = Math.nextAfter((float) miny, Double.NEGATIVE_INFINITY), nodeMaxy = Math.nextAfter((float) maxy, Double.POSITIVE_INFINITY);
+    float nodeMinz = Math.nextAfter((float) minz, Double.NEGATIVE_INFINITY), nodeMaxz = Math.nextAfter((float) maxz, Double.POSITIVE_INFINITY);
+    if (accelerationStructure == ACCELERATION_BVH)
+    {
+      bvh = new BoundingVolumeHierarchy(sceneObject, objBounds);
+      rootNode = new OctreeNode(nodeMinx, nodeMaxx, nodeMiny, nodeMaxy, nodeMinz, nodeMaxz, sceneObject);
+    }
+    else
+      rootNode = pool.invoke(ForkJoinTask.adapt(() -> new OctreeNode(nodeMinx, nodeMaxx, nodeMiny, nodeMaxy, nodeMinz, nodeMaxz, sceneObject, objBounds, null)));
 
     // Find the nodes which contain the camera and the lights.
 
@@ -555,6 +624,7 @@ public class Raytracer
     sceneObject = null;
     light = null;
     rootNode = null;
+    bvh = null;
     cameraNode = null;
     lightNode = null;
     scene = null;
@@ -602,13 +672,16 @@ public class Raytracer
    */
   public OctreeNode traceRay(Ray r, OctreeNode node, RayIntersection intersect)
   {
+    if (bvh != null)
+      return (bvh.findFirstIntersection(r, intersect) ? rootNode : null);
     RTObject first = null, second = null, obj[];
     double dist, firstDist = Double.MAX_VALUE, secondDist = Double.MAX_VALUE;
     Vec3 intersectionPoint = r.rt.tempVec;
-    int i;
+    int i, visited = 0;
 
     while (first == null)
     {
+      visited++;
       obj = node.getObjects();
       for (i = obj.length-1; i >= 0; i--)
       {
@@ -639,11 +712,15 @@ public class Raytracer
         node = node.findNextNode(r);
         if (node == null)
         {
+          if (r.rt.stats != null)
+            r.rt.stats.nodesVisited += visited;
           intersect.first = SurfaceIntersection.NO_INTERSECTION;
           return null;
         }
       }
     }
+    if (r.rt.stats != null)
+      r.rt.stats.nodesVisited += visited;
     intersect.first = r.rt.lastRayResult[first.index];
     intersect.distance = firstDist;
     if (secondDist-firstDist < TOL)
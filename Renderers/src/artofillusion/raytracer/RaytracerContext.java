@@ -25,10 +25,12 @@ public class RaytracerContext
   public Raytracer rt;
   public Vec3 tempVec;
   public RayIntersection intersect;
-  public int lastRayID[];
+  public int lastRayID[], bvhStack[], bvhSegmentStack[], bvhSegmentStackSize;
   public SurfaceIntersection lastRayResult[];
+  public RTObject rayObjects[];
   public ResourcePool rtTriPool, rtDispTriPool, rtImplicitPool;
   public Random random;
+  public RenderStatistics stats;
 
   public RaytracerContext(Raytracer rt)
   {
@@ -44,6 +46,7 @@ public class RaytracerContext
     rtImplicitPool = new ResourcePool(RTImplicitObject.ImplicitIntersection.class);
     lastRayID = new int [rt.getObjects().length];
     lastRayResult = new SurfaceIntersection [rt.getObjects().length];
+    rayObjects = new RTObject [16];
   }
 
   /**
@@ -55,6 +58,9 @@ public class RaytracerContext
     intersect = null;
     lastRayID = null;
     lastRayResult = null;
+    bvhStack = null;
+    bvhSegmentStack = null;
+    rayObjects = null;
     rtTriPool = null;
     rtDispTriPool = null;
     rtImplicitPool = null;
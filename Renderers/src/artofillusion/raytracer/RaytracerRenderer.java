@@ -23,6 +23,7 @@ import buoy.event.*;
 import buoy.widget.*;
 import java.awt.*;
 import java.awt.image.*;
+import java.io.*;
 import java.util.*;
 import java.util.List;
 
@@ -32,8 +33,8 @@ public class RaytracerRenderer implements Renderer, Runnable
 {
   protected Raytracer raytracer;
   protected BTabbedPane configPanel;
-  protected BCheckBox depthBox, glossBox, shadowBox, causticsBox, transparentBox, adaptiveBox, rouletteBox, reducedMemoryBox;
-  protected BComboBox aliasChoice, maxRaysChoice, minRaysChoice, giModeChoice, scatterModeChoice, diffuseRaysChoice, glossRaysChoice, shadowRaysChoice;
+  protected BCheckBox depthBox, glossBox, shadowBox, causticsBox, transparentBox, adaptiveBox, rouletteBox, reducedMemoryBox, irradianceCacheBox, photonCacheBox, statisticsBox, textureCacheBox;
+  protected BComboBox aliasChoice, maxRaysChoice, minRaysChoice, giModeChoice, scatterModeChoice, diffuseRaysChoice, glossRaysChoice, shadowRaysChoice, accelerationChoice;
   protected ValueField errorField, rayDepthField, rayCutoffField, smoothField, stepSizeField;
   protected ValueField extraGIField, extraGIEnvField;
   protected ValueField globalPhotonsField, globalNeighborPhotonsField, causticsPhotonsField, causticsNeighborPhotonsField, volumePhotonsField, volumeNeighborPhotonsField;
@@ -50,13 +51,17 @@ public class RaytracerRenderer implements Renderer, Runnable
   protected TextureMapping envMapping;
   protected int envMode;
   protected double time, fogDist, surfaceError = 0.02, stepSize = 1.0;
-  protected double smoothing = 1.0, smoothScale, extraGISmoothing = 10.0, extraGIEnvSmoothing = 100.0;
+  protected double smoothing = 1.0, smoothScale, pixelScale, extraGISmoothing = 10.0, extraGIEnvSmoothing = 100.0;
+  protected int accelerationStructure = Raytracer.ACCELERATION_OCTREE;
   protected int giMode = GI_NONE, scatterMode = SCATTER_SINGLE, globalPhotons = 10000, globalNeighborPhotons = 200, causticsPhotons = 10000, causticsNeighborPhotons = 100, volumePhotons = 10000, volumeNeighborPhotons = 100;
   protected float minRayIntensity = 0.01f, floatImage[][], depthImage[], errorImage[], objectImage[];
-  protected boolean fog, depth = false, gloss = false, softShadows = false, caustics = false, transparentBackground = false, adaptive = true, roulette = false, reducedMemory = false;
+  protected boolean fog, depth = false, gloss = false, softShadows = false, caustics = false, transparentBackground = false, adaptive = true, roulette = false, reducedMemory = false, useIrradianceCache = false, cachePhotonMaps = false, collectStatistics = false, cacheTextures = false;
   protected boolean useGloss, useSoftShadows;
   protected boolean needCopyToUI = true, isPreview;
   protected PhotonMap globalMap, causticsMap, volumeMap;
+  protected IrradianceCache irradianceCache;
+  protected long irradianceCacheHits, irradianceCacheMisses;
+  protected RenderStatistics statistics;
   protected BoundingBox materialBounds;
   protected ThreadLocal<RenderWorkspace> threadWorkspace;
   
@@ -70,9 +75,26 @@ public class RaytracerRenderer implements Renderer, Runnable
   public static final int SCATTER_PHOTONS = 1;
   public static final int SCATTER_BOTH = 2;
 
+  /** The maximum error estimate for which irradiance cache records may be used. */
+  public static final double IRRADIANCE_CACHE_TOLERANCE = 0.15;
+
+  /** The minimum and maximum radius over which an irradiance cache record may be used, in pixels. */
+  public static final double MIN_IRRADIANCE_SPACING = 1.5, MAX_IRRADIANCE_SPACING = 40.0;
+
+  /** The minimum number of rays to use for calculating an irradiance cache record. */
+  public static final int MIN_IRRADIANCE_RAYS = 16;
+
   public static final float COLOR_THRESH_ABS = 1.0f/128.0f;
   public static final float COLOR_THRESH_REL = 1.0f/32.0f;
 
+  /** The width and height (in pixels) of the tiles into which the image is divided for rendering. */
+
+  public static final int TILE_SIZE = 32;
+
+  /** The minimum time (in milliseconds) between updates of the image while it is being rendered. */
+
+  public static final int UPDATE_INTERVAL = 250;
+
   public static final int distrib1[] = {0, 3, 1, 2, 1, 2, 0, 3, 2, 0, 3, 1, 3, 1, 2, 0};
   public static final int distrib2[] = {0, 1, 2, 3, 3, 0, 1, 2, 1, 2, 3, 0, 0, 1, 2, 3};
 
@@ -103,6 +125,28 @@ public class RaytracerRenderer implements Renderer, Runnable
     };
   }
 
+  /** Get the number of times the irradiance cache was able to supply a value during the most recent render. */
+
+  public long getIrradianceCacheHits()
+  {
+    return (irradianceCache == null ? irradianceCacheHits : irradianceCache.getHits());
+  }
+
+  /** Get the number of times a new irradiance cache record needed to be calculated during the most recent render. */
+
+  public long getIrradianceCacheMisses()
+  {
+    return (irradianceCache == null ? irradianceCacheMisses : irradianceCache.getMisses());
+  }
+
+  /** Get the statistics collected during the most recent render, or null if collecting statistics was
+      not enabled. */
+
+  public RenderStatistics getStatistics()
+  {
+    return statistics;
+  }
+
   /** Get the Workspace for the current thread. */
 
   public RenderWorkspace getWorkspace()
@@ -143,6 +187,7 @@ public class RaytracerRenderer implements Renderer, Runnable
     raytracer.setUsePreviewMeshes(isPreview);
     raytracer.setUseReducedMemory(reducedMemory);
     raytracer.setUseSoftShadows(softShadows);
+    raytracer.setAccelerationStructure(accelerationStructure);
     Dimension dim = theCamera.getSize();
 
     listener = rl;
@@ -293,6 +338,7 @@ public class RaytracerRenderer implements Renderer, Runnable
       illuminationPanel.add(row = new RowContainer(), indent1);
       row.add(Translate.label("raysToSampleEnvironment"));
       row.add(diffuseRaysChoice);
+      illuminationPanel.add(irradianceCacheBox = new BCheckBox(Translate.text("useIrradianceCache"), useIrradianceCache), indent1);
       illuminationPanel.add(row = new RowContainer(), indent1);
       row.add(Translate.label("totalPhotons"));
       row.add(globalPhotonsField);
@@ -312,6 +358,7 @@ public class RaytracerRenderer implements Renderer, Runnable
       row.add(volumePhotonsField);
       row.add(Translate.label("numToEstimateLight"));
       row.add(volumeNeighborPhotonsField);
+      illuminationPanel.add(photonCacheBox = new BCheckBox(Translate.text("cachePhotonMaps"), cachePhotonMaps), indent0);
       causticsBox.dispatchEvent(new ValueChangedEvent(causticsBox));
 
       // Advanced options panel.
@@ -325,13 +372,21 @@ public class RaytracerRenderer implements Renderer, Runnable
       adaptiveBox = new BCheckBox(Translate.text("reduceAccuracyForDistant"), adaptive);
       rouletteBox = new BCheckBox(Translate.text("russianRoulette"), roulette);
       reducedMemoryBox = new BCheckBox(Translate.text("useLessMemory"), reducedMemory);
+      statisticsBox = new BCheckBox(Translate.text("collectRenderStatistics"), collectStatistics);
+      textureCacheBox = new BCheckBox(Translate.text("cacheTextureEvaluations"), cacheTextures);
+      accelerationChoice = new BComboBox(new String [] {
+          Translate.text("octree"),
+          Translate.text("boundingVolumeHierarchy")
+      });
       FormContainer advancedPanel = new FormContainer(2, 8);
       advancedPanel.add(Translate.label("maxRayTreeDepth"), 0, 0, leftLayout);
       advancedPanel.add(Translate.label("minRayIntensity"), 0, 1, leftLayout);
+      advancedPanel.add(Translate.label("accelerationStructure"), 0, 2, leftLayout);
       advancedPanel.add(Translate.label("matStepSize"), 0, 3, leftLayout);
       advancedPanel.add(Translate.label("texSmoothing"), 0, 4, leftLayout);
       advancedPanel.add(rayDepthField, 1, 0, rightLayout);
       advancedPanel.add(rayCutoffField, 1, 1, rightLayout);
+      advancedPanel.add(accelerationChoice, 1, 2, rightLayout);
       advancedPanel.add(stepSizeField, 1, 3, rightLayout);
       advancedPanel.add(smoothField, 1, 4, rightLayout);
       advancedPanel.add(Translate.label("extraGISmoothing"), 0, 5, 2, 1);
@@ -346,6 +401,8 @@ public class RaytracerRenderer implements Renderer, Runnable
       boxes.add(adaptiveBox);
       boxes.add(reducedMemoryBox);
       boxes.add(rouletteBox);
+      boxes.add(textureCacheBox);
+      boxes.add(statisticsBox);
 
       // Create the tabbed pane.
 
@@ -386,9 +443,11 @@ public class RaytracerRenderer implements Renderer, Runnable
         {
           int mode = giModeChoice.getSelectedIndex();
           UIUtilities.setEnabled(diffuseRaysChoice.getParent(), mode == GI_MONTE_CARLO || mode == GI_HYBRID || mode == GI_AMBIENT_OCCLUSION);
+          irradianceCacheBox.setEnabled(mode == GI_MONTE_CARLO || mode == GI_HYBRID);
           UIUtilities.setEnabled(globalPhotonsField.getParent(), mode == GI_PHOTON || mode == GI_HYBRID);
           UIUtilities.setEnabled(causticsPhotonsField.getParent(), causticsBox.getState());
           UIUtilities.setEnabled(volumePhotonsField.getParent(), scatterModeChoice.getSelectedIndex() > 0);
+          photonCacheBox.setEnabled(mode == GI_PHOTON || mode == GI_HYBRID || causticsBox.getState() || scatterModeChoice.getSelectedIndex() > 0);
         }
       };
       giModeChoice.addEventLink(ValueChangedEvent.class, illumListener);
@@ -426,8 +485,13 @@ public class RaytracerRenderer implements Renderer, Runnable
     minRaysChoice.setSelectedValue(Integer.toString(minRays));
     maxRaysChoice.setSelectedValue(Integer.toString(maxRays));
     reducedMemoryBox.setState(reducedMemory);
+    statisticsBox.setState(collectStatistics);
+    textureCacheBox.setState(cacheTextures);
+    accelerationChoice.setSelectedIndex(accelerationStructure);
     giModeChoice.setSelectedIndex(giMode);
     diffuseRaysChoice.setSelectedValue(Integer.toString(diffuseRays));
+    irradianceCacheBox.setState(useIrradianceCache);
+    photonCacheBox.setState(cachePhotonMaps);
     globalPhotonsField.setValue(globalPhotons);
     globalNeighborPhotonsField.setValue(globalNeighborPhotons);
     causticsBox.setState(caustics);
@@ -467,6 +531,8 @@ public class RaytracerRenderer implements Renderer, Runnable
     transparentBackground = transparentBox.getState();
     giMode = giModeChoice.getSelectedIndex();
     diffuseRays = Integer.parseInt((String) diffuseRaysChoice.getSelectedValue());
+    useIrradianceCache = irradianceCacheBox.getState();
+    cachePhotonMaps = photonCacheBox.getState();
     globalPhotons = (int) globalPhotonsField.getValue();
     globalNeighborPhotons = (int) globalNeighborPhotonsField.getValue();
     caustics = causticsBox.getState();
@@ -476,6 +542,9 @@ public class RaytracerRenderer implements Renderer, Runnable
     volumePhotons = (int) volumePhotonsField.getValue();
     volumeNeighborPhotons = (int) volumeNeighborPhotonsField.getValue();
     reducedMemory = reducedMemoryBox.getState();
+    collectStatistics = statisticsBox.getState();
+    cacheTextures = textureCacheBox.getState();
+    accelerationStructure = accelerationChoice.getSelectedIndex();
     isPreview = false;
     return true;
   }
@@ -493,6 +562,7 @@ public class RaytracerRenderer implements Renderer, Runnable
     map.put("reduceAccuracyForDistant", adaptive);
     map.put("russianRouletteSampling", roulette);
     map.put("useLessMemory", reducedMemory);
+    map.put("accelerationStructure", accelerationStructure);
     map.put("maxSurfaceError", surfaceError);
     map.put("antialiasing", antialiasLevel);
     map.put("depthOfField", depth);
@@ -505,6 +575,7 @@ public class RaytracerRenderer implements Renderer, Runnable
     map.put("transparentBackground", transparentBackground);
     map.put("globalIlluminationMode", giMode);
     map.put("raysToSampleEnvironment", diffuseRays);
+    map.put("irradianceCache", useIrradianceCache);
     map.put("globalIlluminationPhotons", globalPhotons);
     map.put("globalIlluminationPhotonsInEstimate", globalNeighborPhotons);
     map.put("caustics", caustics);
@@ -513,6 +584,9 @@ public class RaytracerRenderer implements Renderer, Runnable
     map.put("scatteringMode", scatterMode);
     map.put("scatteringPhotons", volumePhotons);
     map.put("scatteringPhotonsInEstimate", volumeNeighborPhotons);
+    map.put("cachePhotonMaps", cachePhotonMaps);
+    map.put("collectStatistics", collectStatistics);
+    map.put("cacheTextureEvaluations", cacheTextures);
     return map;
   }
 
@@ -539,6 +613,8 @@ public class RaytracerRenderer implements Renderer, Runnable
       roulette = (Boolean) value;
     else if ("useLessMemory".equals(property))
       reducedMemory = (Boolean) value;
+    else if ("accelerationStructure".equals(property))
+      accelerationStructure = (Integer) value;
     else if ("maxSurfaceError".equals(property))
       surfaceError = ((Number) value).doubleValue();
     else if ("antialiasing".equals(property))
@@ -563,6 +639,8 @@ public class RaytracerRenderer implements Renderer, Runnable
       giMode = (Integer) value;
     else if ("raysToSampleEnvironment".equals(property))
       diffuseRays = (Integer) value;
+    else if ("irradianceCache".equals(property))
+      useIrradianceCache = (Boolean) value;
     else if ("globalIlluminationPhotons".equals(property))
       globalPhotons = (Integer) value;
     else if ("globalIlluminationPhotonsInEstimate".equals(property))
@@ -579,6 +657,12 @@ public class RaytracerRenderer implements Renderer, Runnable
       volumePhotons = (Integer) value;
     else if ("scatteringPhotonsInEstimate".equals(property))
       volumeNeighborPhotons = (Integer) value;
+    else if ("cachePhotonMaps".equals(property))
+      cachePhotonMaps = (Boolean) value;
+    else if ("collectStatistics".equals(property))
+      collectStatistics = (Boolean) value;
+    else if ("cacheTextureEvaluations".equals(property))
+      cacheTextures = (Boolean) value;
   }
 
   @Override
@@ -655,24 +739,49 @@ public class RaytracerRenderer implements Renderer, Runnable
       envParamValue[i] = envParam[i].getAverageValue();
   }
 
+  /** Write every setting which affects how photons are traced to a stream.  This is used for identifying photon
+      maps which have been saved by a PhotonMapCache, so the values must be the ones in effect while the photons
+      are traced. */
+
+  protected void writePhotonSettings(DataOutputStream out) throws IOException
+  {
+    out.writeInt(maxRayDepth);
+    out.writeFloat(minRayIntensity);
+    out.writeDouble(stepSize);
+    out.writeDouble(smoothing);
+    out.writeDouble(smoothScale);
+    out.writeDouble(extraGISmoothing);
+    out.writeDouble(extraGIEnvSmoothing);
+    out.writeBoolean(gloss);
+    out.writeBoolean(roulette);
+    out.writeBoolean(fog);
+    out.writeDouble(fogDist);
+    out.writeDouble(surfaceError);
+    out.writeBoolean(adaptive);
+    out.writeBoolean(softShadows);
+  }
+
   /** Build the photon maps. */
 
   protected void buildPhotonMap()
   {
     if (giMode != GI_PHOTON && giMode != GI_HYBRID && !caustics && scatterMode != SCATTER_PHOTONS && scatterMode != SCATTER_BOTH)
       return;
+    PhotonMapCache cache = null;
+    if (cachePhotonMaps)
+      cache = new PhotonMapCache(theScene, surfaceError, PhotonMapCache.getDefaultDirectory(), PhotonMapCache.DEFAULT_MAX_FILES);
     PhotonMap shared = null;
     if (giMode == GI_PHOTON)
     {
       listener.statusChanged("Building Global Photon Map");
       globalMap = shared = new PhotonMap(globalPhotons, globalNeighborPhotons, false, false, true, false, raytracer, this, raytracer.getRootNode().getBounds(), 1, null);
-      generatePhotons(globalMap);
+      generatePhotons(globalMap, cache);
     }
     else if (giMode == GI_HYBRID)
     {
       listener.statusChanged("Building Global Photon Map");
       globalMap = shared = new PhotonMap(globalPhotons, globalNeighborPhotons, true, true, true, false, raytracer, this, raytracer.getRootNode().getBounds(), 0, null);
-      generatePhotons(globalMap);
+      generatePhotons(globalMap, cache);
     }
     if (caustics)
     {
@@ -695,7 +804,7 @@ public class RaytracerRenderer implements Renderer, Runnable
         bounds = new BoundingBox(0, 0, 0, 0, 0, 0);
       listener.statusChanged("Building Caustics Photon Map");
       causticsMap = shared = new PhotonMap(causticsPhotons, causticsNeighborPhotons, true, false, false, false, raytracer, this, bounds, 2, shared);
-      generatePhotons(causticsMap);
+      generatePhotons(causticsMap, cache);
     }
     if (scatterMode == SCATTER_PHOTONS || scatterMode == SCATTER_BOTH)
     {
@@ -718,10 +827,22 @@ public class RaytracerRenderer implements Renderer, Runnable
         bounds = new BoundingBox(0, 0, 0, 0, 0, 0);
       listener.statusChanged("Building Volume Photon Map");
       volumeMap = new PhotonMap(volumePhotons, volumeNeighborPhotons, false, scatterMode == SCATTER_PHOTONS, true, true, raytracer, this, bounds, 0, shared);
-      generatePhotons(volumeMap);
+      generatePhotons(volumeMap, cache);
     }
   }
 
+  /** Fill in a PhotonMap.  If a cache is specified, the photons are loaded from it when possible.  Otherwise
+      they are generated, and then saved to the cache. */
+
+  protected void generatePhotons(PhotonMap map, PhotonMapCache cache)
+  {
+    if (cache != null && cache.loadMap(map))
+      return;
+    generatePhotons(map);
+    if (cache != null && renderThread == Thread.currentThread())
+      cache.saveMap(map);
+  }
+
   /** Find all the photon sources in the scene, and generate the photons in a PhotonMap. */
 
   protected void generatePhotons(PhotonMap map)
@@ -802,7 +923,6 @@ public class RaytracerRenderer implements Renderer, Runnable
   @Override
   public void run()
   {
-    long updateTime = System.currentTimeMillis();
     final Thread thisThread = Thread.currentThread();
     if (renderThread != thisThread)
       return;
@@ -824,24 +944,39 @@ public class RaytracerRenderer implements Renderer, Runnable
       errorImage = new float [width*height];
     if ((requiredComponents&ComplexImage.OBJECT) != 0)
       objectImage = new float [width*height];
+    statistics = (collectStatistics ? new RenderStatistics() : null);
+    if (statistics != null)
+      statistics.textureCacheEnabled = cacheTextures;
     listener.statusChanged(Translate.text("Processing Scene"));
     buildScene();
     if (renderThread != thisThread)
       return;
-    buildPhotonMap();
-    listener.statusChanged(Translate.text("Rendering"));
-    for (int i = 0; i < pixel.length; i++)
-      pixel[i] = 0;
     int maxRaysInUse = maxRays;
     int minRaysInUse = minRays;
     if (antialiasLevel == 0)
       minRaysInUse = maxRaysInUse = 1;
-    smoothScale = smoothing*2.0*Math.tan(sceneCamera.getFieldOfView()*Math.PI/360.0)/height;
+
+    // The texture smoothing is needed for tracing photons, so it must be set before building the photon maps.
+
+    pixelScale = 2.0*Math.tan(sceneCamera.getFieldOfView()*Math.PI/360.0)/height;
+    smoothScale = smoothing*pixelScale;
+    if (maxRaysInUse > 1)
+      smoothScale *= 0.5;
+    buildPhotonMap();
+    listener.statusChanged(Translate.text("Rendering"));
+    for (int i = 0; i < pixel.length; i++)
+      pixel[i] = 0;
     useGloss = gloss && antialiasLevel > 0;
     useSoftShadows = softShadows && antialiasLevel > 0;
+    irradianceCacheHits = irradianceCacheMisses = 0;
+    if (useIrradianceCache && (giMode == GI_MONTE_CARLO || giMode == GI_HYBRID))
+      irradianceCache = new IrradianceCache(raytracer.getRootNode().getBounds(), IRRADIANCE_CACHE_TOLERANCE);
+    else
+      irradianceCache = null;
 
-    // Rendering is done in two phases.  In the first phase, we send one ray per pixel, ordered so that a
-    // rough image appears quickly then progressively becomes more detailed.
+    // The image is divided into tiles, which are rendered independently of each other by the worker
+    // threads.  They are processed in order of distance from the center of the image, so the most
+    // important part of the image appears first.
 
     if (maxRaysInUse == 1)
     {
@@ -852,31 +987,25 @@ public class RaytracerRenderer implements Renderer, Runnable
     {
       rtWidth = 2*width+2;
       rtHeight = 2*height+2;
-      smoothScale *= 0.5;
     }
 
-    final int finalMinRays = minRaysInUse;
-    final int currentScale[] = new int [1];
-    final int currentWidth[] = new int [1];
-    final boolean isFirstPass[] = new boolean[] {true};
-    ThreadManager threads = new ThreadManager(width, new ThreadManager.Task() {
+    final int finalMinRays = minRaysInUse, finalMaxRays = maxRaysInUse;
+    final int tileCols = (width+TILE_SIZE-1)/TILE_SIZE;
+    final int tileOrder[] = findTileOrder(tileCols, (height+TILE_SIZE-1)/TILE_SIZE);
+    final ImageUpdater updater = new ImageUpdater(thisThread);
+    ThreadManager threads = new ThreadManager(tileOrder.length, new ThreadManager.Task() {
           @Override
       public void execute(int index)
       {
         if (renderThread != thisThread)
           return;
-        int row = index/currentWidth[0];
-        int col = index-row*currentWidth[0];
-        if (!isFirstPass[0] && row%2 == 0 && col%2 == 0)
+        int tile = tileOrder[index];
+        int x0 = (tile%tileCols)*TILE_SIZE, y0 = (tile/tileCols)*TILE_SIZE;
+        int x1 = Math.min(x0+TILE_SIZE, width), y1 = Math.min(y0+TILE_SIZE, height);
+        if (!renderTile(getWorkspace(), x0, y0, x1, y1, finalMinRays, finalMaxRays, thisThread))
           return;
-        int subsample = (finalMinRays > 1 ? 2 : 1);
-        RenderWorkspace workspace = getWorkspace();
-        PixelInfo pixel = workspace.tempPixel;
-        pixel.clear();
-        pixel.depth = (float) spawnEyeRay(workspace, col*subsample*currentScale[0], row*subsample*currentScale[0], 4, finalMinRays);
-        pixel.object = (workspace.firstObjectHit == null ? 0.0f : Float.intBitsToFloat(workspace.firstObjectHit.getObject().hashCode()));
-        pixel.add(workspace.color[0], (float) workspace.transparency[0]);
-        recordPixel(col*currentScale[0], row*currentScale[0], currentScale[0], pixel);
+
+        updater.regionFinished(x0, y0, x1, y1);
       }
           @Override
       public void cleanup()
@@ -884,251 +1013,304 @@ public class RaytracerRenderer implements Renderer, Runnable
         getWorkspace().cleanup();
       }
     });
-    for (currentScale[0] = 1<<(int)(Math.log(width/32)/Math.log(2.0)); currentScale[0] >= 1; currentScale[0] /= 2)
-    {
-      currentWidth[0] = (int) Math.ceil((double) width/currentScale[0]);
-      int currentHeight = (int) Math.ceil((double) height/currentScale[0]);
-      threads.setNumIndices(currentWidth[0]*currentHeight);
-      threads.run();
-      isFirstPass[0] = false;
-      if (renderThread != thisThread)
-      {
-        threads.finish();
-        return;
-      }
-      long currentTime = System.currentTimeMillis();
-      if (currentTime-updateTime > 250 || currentScale[0] == 1 && currentTime-updateTime > 150)
-      {
-        imageSource.newPixels();
-        listener.imageUpdated(img);
-        updateTime = System.currentTimeMillis();
-      }
-    }
+    threads.run();
     threads.finish();
+    if (renderThread != thisThread)
+      return;
 
-    // At this point, we have sent one ray/pixel.  If that's all they requested, we can just
-    // return now.  Otherwise, go on to phase 2 where we send out more rays to improve the
-    // image quality.
+    // All done.  Send the final image.
 
-    if (maxRaysInUse == 1)
+    imageSource.newPixels();
+    finish();
+  }
+
+  /** This collects the regions of the image which have been finished by the worker threads, and sends them to
+      the listener at most once every UPDATE_INTERVAL milliseconds.  Only one thread sends an update at a time,
+      and the others keep rendering rather than waiting for it. */
+
+  private class ImageUpdater
+  {
+    private final Thread thisThread;
+    private int minx, miny, maxx, maxy;
+    private boolean dirty, updating;
+    private long updateTime;
+
+    ImageUpdater(Thread thisThread)
     {
-      imageSource.newPixels();
-      finish();
-      return;
+      this.thisThread = thisThread;
+      updateTime = System.currentTimeMillis();
     }
 
-    // We need to adaptively decide how many rays to use for each pixel.  To save memory,
-    // we only deal with six rows at a time.  Begin by sending minRays for each pixel.  If
-    // the results are not sufficiently converged for a given pixel, double the number of
-    // rays for that pixel, and every adjacent pixel.  Repeat until everything converges,
-    // or we reach maxRays.
-
-    PixelInfo tempPixel = new PixelInfo();
-    RGBColor tempColor = new RGBColor();
-    final PixelInfo pix[][] = new PixelInfo [6][rtWidth];
-    for (int i = 0; i < pix.length; i++)
-      for (int j = 0; j < pix[i].length; j++)
-        pix[i][j] = new PixelInfo();
-    loadRow(pix[0], 0, tempColor);
-    loadRow(pix[2], 1, tempColor);
-    loadRow(pix[4], 2, tempColor);
-    int minPerSubpixel = minRaysInUse/4, maxPerSubpixel = maxRaysInUse/4;
-    final int currentRow[] = new int [1];
-    final int currentCount[] = new int [1];
-    threads = new ThreadManager(rtWidth, new ThreadManager.Task() {
-          @Override
-      public void execute(int index)
+    /** Record that a region of the image has been finished, and update the image if enough time has passed
+        since the last update. */
+
+    void regionFinished(int x0, int y0, int x1, int y1)
+    {
+      int x, y, w, h;
+      synchronized (this)
       {
-        RenderWorkspace workspace = getWorkspace();
-        PixelInfo tempPixel = workspace.tempPixel;
-        for (int m = 0; m < 6; m++)
+        if (dirty)
         {
-          PixelInfo thisPixel = pix[m][index];
-          thisPixel.converged = true;
-          if (thisPixel.needsMore)
-          {
-            tempPixel.clear();
-            int baseNum = (m&1)*8+(index&1)*4;
-            int numNeeded = currentCount[0]-thisPixel.raysSent;
-            for (int k = thisPixel.raysSent; k < currentCount[0]; k++)
-            {
-              float dist = (float) spawnEyeRay(workspace, index, 2*currentRow[0]+m, baseNum+k, numNeeded);
-              if (k < currentCount[0]/2)
-              {
-                thisPixel.add(workspace.color[0], (float) workspace.transparency[0]);
-                if (dist < thisPixel.depth)
-                {
-                  thisPixel.depth = dist;
-                  thisPixel.object = (workspace.firstObjectHit == null ? 0.0f : Float.intBitsToFloat(workspace.firstObjectHit.getObject().hashCode()));
-                }
-              }
-              else
-              {
-                tempPixel.add(workspace.color[0], (float) workspace.transparency[0]);
-                if (dist < tempPixel.depth)
-                {
-                  tempPixel.depth = dist;
-                  tempPixel.object = (workspace.firstObjectHit == null ? 0.0f : Float.intBitsToFloat(workspace.firstObjectHit.getObject().hashCode()));
-                }
-              }
-            }
-            if (currentCount[0] > 1)
-              thisPixel.converged = thisPixel.matches(tempPixel, COLOR_THRESH_ABS, COLOR_THRESH_REL);
-            thisPixel.add(tempPixel);
-          }
+          minx = Math.min(minx, x0);
+          miny = Math.min(miny, y0);
+          maxx = Math.max(maxx, x1);
+          maxy = Math.max(maxy, y1);
         }
+        else
+        {
+          minx = x0;
+          miny = y0;
+          maxx = x1;
+          maxy = y1;
+          dirty = true;
+        }
+        if (updating || System.currentTimeMillis()-updateTime < UPDATE_INTERVAL || renderThread != thisThread)
+          return;
+        updating = true;
+        dirty = false;
+        x = minx;
+        y = miny;
+        w = maxx-minx;
+        h = maxy-miny;
       }
-          @Override
-      public void cleanup()
+      try
       {
-        getWorkspace().cleanup();
+        imageSource.newPixels(x, y, w, h);
+        listener.regionUpdated(img, x, y, w, h);
       }
-    });
-
-    for (currentRow[0] = 0; currentRow[0] < height-1; currentRow[0]++)
-    {
-      // Keep refining the pixels in the current set of six rows until they converge, or
-      // we reach maxRays.
-
-      boolean done = false;
-      for (currentCount[0] = minPerSubpixel; currentCount[0] <= maxPerSubpixel && !done; currentCount[0] *= 2)
+      finally
       {
-        // Send out more rays through any pixels which are marked as needing it.
-
-        threads.run();
-        if (renderThread != thisThread)
+        synchronized (this)
         {
-          threads.finish();
-          return;
+          updating = false;
+          updateTime = System.currentTimeMillis();
         }
+      }
+    }
+  }
 
-        // If we have only sent out one ray per subpixel, we cannot yet judge the convergence of
-        // each one.  Instead, compare each pixel to its neighbors and use that to decide where
-        // we need more.
+  /** Find the order in which to render the tiles.  They are sorted by the distance of their centers from the
+      center of the image, so rendering spirals outward from the middle. */
 
-        if (currentCount[0] == 1)
-          for (int m = 0; m < 5; m++)
-            for (int j = 0; j < rtWidth-1; j++)
-            {
-              if (!pix[m][j].matches(pix[m+1][j], COLOR_THRESH_ABS, COLOR_THRESH_REL))
-                pix[m][j].converged = pix[m+1][j].converged = false;
-              if (!pix[m][j].matches(pix[m][j+1], COLOR_THRESH_ABS, COLOR_THRESH_REL))
-                pix[m][j].converged = pix[m][j+1].converged = false;
-            }
+  protected int[] findTileOrder(int tileCols, int tileRows)
+  {
+    Integer order[] = new Integer [tileCols*tileRows];
+    final double dist[] = new double [order.length];
+    for (int i = 0; i < order.length; i++)
+    {
+      double dx = ((i%tileCols)+0.5)*TILE_SIZE-0.5*width;
+      double dy = ((i/tileCols)+0.5)*TILE_SIZE-0.5*height;
+      dist[i] = dx*dx+dy*dy;
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(dist[a], dist[b]));
+    int result[] = new int [order.length];
+    for (int i = 0; i < order.length; i++)
+      result[i] = order[i];
+    return result;
+  }
 
-        // If a pixel has not yet converged, mark that pixel and all of its neighbors
-        // to get more rays.
+  /** Render one tile of the image, made up of pixels x0 through x1-1 in rows y0 through y1-1.
 
-        for (int m = 0; m < 6; m++)
-          for (int j = 0; j < rtWidth; j++)
-            pix[m][j].needsMore = false;
-        done = true;
-        for (int m = 0; m < 6; m++)
-          for (int j = 0; j < rtWidth; j++)
-            if (!pix[m][j].converged)
-            {
-              done = false;
-              pix[m][j].needsMore = true;
-              if (m > 0)
-                pix[m-1][j].needsMore = true;
-              if (m < 5)
-                pix[m+1][j].needsMore = true;
-              if (j > 0)
-                pix[m][j-1].needsMore = true;
-              if (j < rtWidth-1)
-                pix[m][j+1].needsMore = true;
-            }
+   @param workspace     contains information for the thread currently being executed
+   @param minRays       the minimum number of rays to send through each pixel
+   @param maxRays       the maximum number of rays to send through each pixel
+   @param mainThread    the thread on which the render was started.  If renderThread changes to something
+                        else, the render has been canceled.
+   @return true if the tile was completed, false if the render was canceled
+   */
+
+  protected boolean renderTile(RenderWorkspace workspace, int x0, int y0, int x1, int y1, int minRays, int maxRays, Thread mainThread)
+  {
+    // In the first phase, we send one ray per pixel.  When antialiasing, this also includes the row and
+    // column just past the tile, since pixels along the edge are compared to them.
+
+    PixelInfo first[][] = workspace.tilePixels;
+    boolean antialias = (maxRays > 1);
+    int firstX1 = (antialias ? Math.min(x1+1, width) : x1);
+    int firstY1 = (antialias ? Math.min(y1+1, height) : y1);
+    int subsample = (minRays > 1 ? 2 : 1);
+    for (int y = y0; y < firstY1; y++)
+    {
+      if (renderThread != mainThread)
+        return false;
+      for (int x = x0; x < firstX1; x++)
+      {
+        PixelInfo pixel = first[y-y0][x-x0];
+        pixel.clear();
+        pixel.depth = (float) spawnEyeRay(workspace, x*subsample, y*subsample, 4, minRays);
+        pixel.object = (workspace.firstObjectHit == null ? 0.0f : Float.intBitsToFloat(workspace.firstObjectHit.getObject().hashCode()));
+        pixel.add(workspace.color[0], (float) workspace.transparency[0]);
+        if (!antialias)
+          recordPixel(x, y, 1, pixel);
       }
+    }
 
-      // Copy the colors into the image, and update the image if enough time has elapsed.
+    // If one ray/pixel is all they requested, we are done.  Otherwise, go on to phase 2 where we send
+    // out more rays to improve the image quality.
+    //
+    // Each pixel is divided into four subpixels: pixel (x, y) of the image is made up of subpixels 2x+1 and
+    // 2x+2 in rows 2y+1 and 2y+2.  The tile also includes one row and column of subpixels on each side,
+    // which are used for filtering and for deciding which pixels have converged.  We adaptively decide
+    // how many rays to use for each subpixel.  Begin by sending minRays for each pixel.  If the results
+    // are not sufficiently converged for a given subpixel, double the number of rays for that subpixel,
+    // and every adjacent one.  Repeat until everything converges, or we reach maxRays.
+
+    if (!antialias)
+      return true;
+    int rows = 2*(y1-y0)+2, cols = 2*(x1-x0)+2;
+    PixelInfo pix[][] = workspace.tileSubpixels;
+    for (int m = 0; m < rows; m++)
+      for (int j = 0; j < cols; j++)
+        pix[m][j].clear();
+    for (int y = y0; y < firstY1; y++)
+      for (int x = x0; x < firstX1; x++)
+        pix[2*(y-y0)][2*(x-x0)+1].add(first[y-y0][x-x0]);
+    int minPerSubpixel = minRays/4, maxPerSubpixel = maxRays/4;
+    boolean done = false;
+    for (int count = minPerSubpixel; count <= maxPerSubpixel && !done; count *= 2)
+    {
+      // Send out more rays through any subpixels which are marked as needing it.
 
-      recordRow(pix, tempPixel, currentRow[0]);
-      if (System.currentTimeMillis()-updateTime > 5000)
+      for (int m = 0; m < rows; m++)
       {
-        imageSource.newPixels();
-        listener.imageUpdated(img);
-        updateTime = System.currentTimeMillis();
+        if (renderThread != mainThread)
+          return false;
+        for (int j = 0; j < cols; j++)
+          sampleSubpixel(workspace, pix[m][j], 2*x0+j, 2*y0+m, count);
       }
 
-      // Rotate the temporary pixel buffer by two rows.
+      // If we have only sent out one ray per subpixel, we cannot yet judge the convergence of
+      // each one.  Instead, compare each subpixel to its neighbors and use that to decide where
+      // we need more.
 
-      PixelInfo temp1[] = pix[0], temp2[] = pix[1];
-      for (int j = 0; j < 4; j++)
-        pix[j] = pix[j+2];
-      pix[4] = temp1;
-      pix[5] = temp2;
-      for (int j = 0; j < rtWidth; j++)
-        pix[5][j].clear();
-      loadRow(pix[4], currentRow[0]+2, tempColor);
-    }
+      if (count == 1)
+        for (int m = 0; m < rows-1; m++)
+          for (int j = 0; j < cols-1; j++)
+          {
+            if (!pix[m][j].matches(pix[m+1][j], COLOR_THRESH_ABS, COLOR_THRESH_REL))
+              pix[m][j].converged = pix[m+1][j].converged = false;
+            if (!pix[m][j].matches(pix[m][j+1], COLOR_THRESH_ABS, COLOR_THRESH_REL))
+              pix[m][j].converged = pix[m][j+1].converged = false;
+          }
 
-    // Copy the final row of pixels into the image.
+      // If a subpixel has not yet converged, mark it and all of its neighbors to get more rays.
 
-    recordRow(pix, tempPixel, height-1);
+      for (int m = 0; m < rows; m++)
+        for (int j = 0; j < cols; j++)
+          pix[m][j].needsMore = false;
+      done = true;
+      for (int m = 0; m < rows; m++)
+        for (int j = 0; j < cols; j++)
+          if (!pix[m][j].converged)
+          {
+            done = false;
+            pix[m][j].needsMore = true;
+            if (m > 0)
+              pix[m-1][j].needsMore = true;
+            if (m < rows-1)
+              pix[m+1][j].needsMore = true;
+            if (j > 0)
+              pix[m][j-1].needsMore = true;
+            if (j < cols-1)
+              pix[m][j+1].needsMore = true;
+          }
+    }
 
-    // All done.  Send the final image.
+    // Copy the colors into the image.
 
-    imageSource.newPixels();
-    threads.finish();
-    finish();
+    for (int y = y0; y < y1; y++)
+      recordRow(pix, 2*(y-y0), workspace.tempPixel, y, x0, x1);
+    return true;
   }
 
-  /** Load a row of pixels from the image. */
+  /** Send more rays through a subpixel if it is marked as needing them, so that the total number of rays
+      sent through it equals count.  Also decide whether it has converged. */
 
-  protected void loadRow(PixelInfo pix[], int y, RGBColor temp)
+  private void sampleSubpixel(RenderWorkspace workspace, PixelInfo thisPixel, int i, int j, int count)
   {
-    for (PixelInfo p : pix)
-      p.clear();
-    if (y >= height)
+    thisPixel.converged = true;
+    if (!thisPixel.needsMore)
       return;
-    for (int i = 0; i < width; i++)
+    PixelInfo tempPixel = workspace.tempPixel;
+    tempPixel.clear();
+    int baseNum = (j&1)*8+(i&1)*4;
+    int numNeeded = count-thisPixel.raysSent;
+    for (int k = thisPixel.raysSent; k < count; k++)
     {
-      int x = i*2+1;
-      int index = i+y*width;
-      temp.setRGB(floatImage[0][index], floatImage[1][index], floatImage[2][index]);
-      pix[x].add(temp, 1.0f-floatImage[3][index]);
-      if (depthImage != null)
-        pix[x].depth = depthImage[index];
-      if (objectImage != null)
-        pix[x].object = objectImage[index];
+      float dist;
+      if (workspace.packet == null)
+        dist = (float) spawnEyeRay(workspace, i, j, baseNum+k, numNeeded);
+      else
+      {
+        // The rays for a subpixel are very coherent, so find their first intersections as a packet.
+
+        int which = (k-thisPixel.raysSent)%RayPacket.MAX_SIZE;
+        if (which == 0)
+          prepareEyeRays(workspace, i, j, baseNum+k, Math.min(RayPacket.MAX_SIZE, count-k), numNeeded);
+        dist = (float) spawnEyeRay(workspace, which, baseNum+k);
+      }
+      if (k < count/2)
+      {
+        thisPixel.add(workspace.color[0], (float) workspace.transparency[0]);
+        if (dist < thisPixel.depth)
+        {
+          thisPixel.depth = dist;
+          thisPixel.object = (workspace.firstObjectHit == null ? 0.0f : Float.intBitsToFloat(workspace.firstObjectHit.getObject().hashCode()));
+        }
+      }
+      else
+      {
+        tempPixel.add(workspace.color[0], (float) workspace.transparency[0]);
+        if (dist < tempPixel.depth)
+        {
+          tempPixel.depth = dist;
+          tempPixel.object = (workspace.firstObjectHit == null ? 0.0f : Float.intBitsToFloat(workspace.firstObjectHit.getObject().hashCode()));
+        }
+      }
     }
+    if (count > 1)
+      thisPixel.converged = thisPixel.matches(tempPixel, COLOR_THRESH_ABS, COLOR_THRESH_REL);
+    thisPixel.add(tempPixel);
   }
 
-  /** Record a row of pixels into the image. */
+  /** Record part of a row of pixels into the image.  Rows firstRow+1 and firstRow+2 of pix contain the subpixels
+      for the row, and the subpixels for pixel x0 are in columns 1 and 2. */
 
-  protected void recordRow(PixelInfo pix[][], PixelInfo tempPixel, int row)
+  protected void recordRow(PixelInfo pix[][], int firstRow, PixelInfo tempPixel, int row, int x0, int x1)
   {
-    for (int i = 0; i < width; i++)
+    PixelInfo pix0[] = pix[firstRow], pix1[] = pix[firstRow+1], pix2[] = pix[firstRow+2], pix3[] = pix[firstRow+3];
+    for (int i = x0; i < x1; i++)
     {
-      int x = i*2+1;
-      tempPixel.copy(pix[1][x]);
-      tempPixel.add(pix[1][x+1]);
-      tempPixel.add(pix[2][x]);
-      tempPixel.add(pix[2][x+1]);
+      int x = (i-x0)*2+1;
+      tempPixel.copy(pix1[x]);
+      tempPixel.add(pix1[x+1]);
+      tempPixel.add(pix2[x]);
+      tempPixel.add(pix2[x+1]);
       if (antialiasLevel == 2)
       {
         tempPixel.add(tempPixel);
-        tempPixel.add(pix[0][x]);
-        tempPixel.add(pix[0][x+1]);
-        tempPixel.add(pix[3][x]);
-        tempPixel.add(pix[3][x+1]);
-        tempPixel.add(pix[1][x-1]);
-        tempPixel.add(pix[2][x-1]);
-        tempPixel.add(pix[1][x+2]);
-        tempPixel.add(pix[2][x+2]);
+        tempPixel.add(pix0[x]);
+        tempPixel.add(pix0[x+1]);
+        tempPixel.add(pix3[x]);
+        tempPixel.add(pix3[x+1]);
+        tempPixel.add(pix1[x-1]);
+        tempPixel.add(pix2[x-1]);
+        tempPixel.add(pix1[x+2]);
+        tempPixel.add(pix2[x+2]);
       }
       recordPixel(i, row, 1, tempPixel);
       if (errorImage != null)
       {
         // If we only have one ray/subpixel, we need to estimate standard deviation from the differences between subpixels.
 
-        if (pix[1][x].raysSent+pix[1][x+1].raysSent+pix[2][x].raysSent+pix[2][x+1].raysSent == 4)
+        if (pix1[x].raysSent+pix1[x+1].raysSent+pix2[x].raysSent+pix2[x+1].raysSent == 4)
         {
           float ninvTotal = 1.0f/tempPixel.raysSent;
-          PixelInfo p1 = pix[1][x];
-          PixelInfo p2 = pix[1][x+1];
-          PixelInfo p3 = pix[2][x];
-          PixelInfo p4 = pix[2][x+1];
+          PixelInfo p1 = pix1[x];
+          PixelInfo p2 = pix1[x+1];
+          PixelInfo p3 = pix2[x];
+          PixelInfo p4 = pix2[x+1];
           float ninv1 = 1.0f/p1.raysSent;
           float ninv2 = 1.0f/p2.raysSent;
           float ninv3 = 1.0f/p3.raysSent;
@@ -1190,7 +1372,15 @@ public class RaytracerRenderer implements Renderer, Runnable
     globalMap = null;
     causticsMap = null;
     volumeMap = null;
+    if (irradianceCache != null)
+    {
+      irradianceCacheHits = irradianceCache.getHits();
+      irradianceCacheMisses = irradianceCache.getMisses();
+      irradianceCache = null;
+    }
     RenderListener rl = listener;
+    if (rl != null && statistics != null)
+      rl.statisticsAvailable(statistics.getValues());
     ComplexImage im =  null;
     Image image = img;
     if (image != null)
@@ -1232,8 +1422,47 @@ public class RaytracerRenderer implements Renderer, Runnable
 
   protected double spawnEyeRay(RenderWorkspace workspace, int i, int j, int number, int outOf)
   {
+    Ray ray = workspace.ray[0];
+    createEyeRay(workspace, i, j, number, outOf, ray.getOrigin(), ray.getDirection());
+    return traceEyeRay(workspace, number, null);
+  }
+
+  /** This routine creates a group of eye rays passing through pixel (i, j), and finds the first object
+   hit by each one.  The rays are stored in the workspace's RayPacket.  Call
+   {@link #spawnEyeRay(RenderWorkspace, int, int)} to finish tracing each of them.  This should only be
+   called when a bounding volume hierarchy is being used. */
+
+  protected void prepareEyeRays(RenderWorkspace workspace, int i, int j, int number, int count, int outOf)
+  {
+    RayPacket packet = workspace.packet;
     Ray ray = workspace.ray[0];
     Vec3 orig = ray.getOrigin(), dir = ray.getDirection();
+    packet.clear();
+    for (int k = 0; k < count; k++)
+    {
+      createEyeRay(workspace, i, j, number+k, outOf, orig, dir);
+      packet.addRay(orig, dir);
+    }
+    raytracer.getBoundingVolumeHierarchy().findFirstIntersections(packet);
+  }
+
+  /** This routine finishes tracing one of the eye rays created by
+   {@link #prepareEyeRays(RenderWorkspace, int, int, int, int, int)}.  Which is the index of the ray
+   within the packet, and number is the same value that was used to create it.  The light color is
+   returned in color[0], and the transparency in transparency[0]. */
+
+  protected double spawnEyeRay(RenderWorkspace workspace, int which, int number)
+  {
+    RayPacket packet = workspace.packet;
+    Ray ray = workspace.ray[0];
+    packet.getRay(which, ray);
+    return traceEyeRay(workspace, number, packet.hasUniqueFirstObject(which) ? packet.getFirstObject(which) : null);
+  }
+
+  /** Create an eye ray passing through pixel (i, j), and store it into orig and dir. */
+
+  private void createEyeRay(RenderWorkspace workspace, int i, int j, int number, int outOf, Vec3 orig, Vec3 dir)
+  {
     double h = i-rtWidth*0.5+0.5, v = j-rtHeight*0.5+0.5;
     Random random = workspace.context.random;
 
@@ -1256,9 +1485,20 @@ public class RaytracerRenderer implements Renderer, Runnable
     sceneCamera.getRayFromCamera(h/rtHeight, v/rtHeight, dof1, dof2, orig, dir);
     theCamera.getCameraCoordinates().fromLocal().transform(orig);
     theCamera.getCameraCoordinates().fromLocal().transformDirection(dir);
+  }
+
+  /** Trace the eye ray stored in workspace.ray[0].  If the first object it hits is already known, it
+   should be passed in firstObject.  Otherwise, firstObject should be null. */
+
+  private double traceEyeRay(RenderWorkspace workspace, int number, RTObject firstObject)
+  {
+    Ray ray = workspace.ray[0];
+    Vec3 orig = ray.getOrigin(), dir = ray.getDirection();
     ray.newID();
     workspace.rayIntensity[0].setRGB(1.0f, 1.0f, 1.0f);
     workspace.firstObjectHit = null;
+    if (workspace.stats != null)
+      workspace.stats.eyeRays++;
     double distScale = dir.dot(theCamera.getCameraCoordinates().getZDirection());
     OctreeNode node = raytracer.getCameraNode();
     if (node == null)
@@ -1290,9 +1530,14 @@ public class RaytracerRenderer implements Renderer, Runnable
       workspace.materialAtCamera = getMaterialAtPoint(workspace, orig, node);
       workspace.materialAtCameraIsFixed = !depth;
     }
+
+    // Find the intersection with the known object only now, since getMaterialAtPoint() may have recycled
+    // intersection objects.
+
+    SurfaceIntersection first = (firstObject == null ? SurfaceIntersection.NO_INTERSECTION : ray.findIntersection(firstObject));
     if (workspace.materialAtCamera == null)
-      return distScale*spawnRay(workspace, 0, node, SurfaceIntersection.NO_INTERSECTION, null, null, null, null, number, 0.0, true, false);
-    return distScale*spawnRay(workspace, 0, node, SurfaceIntersection.NO_INTERSECTION, workspace.materialAtCamera.getMaterialMapping(), null, workspace.materialAtCamera.toLocal(), null, number, 0.0, true, false);
+      return distScale*spawnRay(workspace, 0, node, first, null, null, null, null, number, 0.0, true, false);
+    return distScale*spawnRay(workspace, 0, node, first, workspace.materialAtCamera.getMaterialMapping(), null, workspace.materialAtCamera.toLocal(), null, number, 0.0, true, false);
   }
 
   /** Determine what material is present at a particular point in the scene.
@@ -1476,10 +1721,25 @@ public class RaytracerRenderer implements Renderer, Runnable
     intersection.trueNormal(trueNorm);
     truedot = trueNorm.dot(r.getDirection());
     double texSmoothing = (diffuse ? smoothScale*extraGISmoothing : smoothScale);
-    if (truedot > 0.0)
-      intersection.intersectionProperties(spec, norm, r.getDirection(), totalDist*texSmoothing*3.0/(2.0+truedot), time);
+    double texSize = totalDist*texSmoothing*3.0/(truedot > 0.0 ? 2.0+truedot : 2.0-truedot);
+    TextureSpecCache textureCache = workspace.textureCache;
+    if (textureCache != null && textureCache.find(hitObject, intersectionPoint, texSize, time, truedot, spec) && intersection.shadingNormal(spec, norm))
+    {
+      if (workspace.stats != null)
+        workspace.stats.textureCacheHits++;
+    }
     else
-      intersection.intersectionProperties(spec, norm, r.getDirection(), totalDist*texSmoothing*3.0/(2.0-truedot), time);
+    {
+      if (workspace.stats != null)
+      {
+        workspace.stats.textureEvaluations++;
+        if (textureCache != null)
+          workspace.stats.textureCacheMisses++;
+      }
+      intersection.intersectionProperties(spec, norm, r.getDirection(), texSize, time);
+      if (textureCache != null)
+        textureCache.add(spec);
+    }
 
     // Get the direct lighting contribution, and adjust the ray intensity based on the
     // material it is passing through.
@@ -1655,6 +1915,8 @@ public class RaytracerRenderer implements Renderer, Runnable
         int numRays = (useGloss && spec.cloudiness != 0.0 ? glossRays : 1);
         if (transmitted && transparentBackground)
           workspace.transparency[treeDepth] = 0.0;
+        if (workspace.stats != null)
+          workspace.stats.transmittedRays += numRays;
         for (int i = 0; i < numRays; i++)
         {
           workspace.ray[treeDepth+1].getDirection().set(temp);
@@ -1695,6 +1957,8 @@ public class RaytracerRenderer implements Renderer, Runnable
       workspace.ray[treeDepth+1].getOrigin().set(intersectionPoint);
       workspace.ray[treeDepth+1].newID();
       int numRays = (useGloss && spec.roughness != 0.0 ? glossRays : 1);
+      if (workspace.stats != null)
+        workspace.stats.reflectedRays += numRays;
       for (int i = 0; i < numRays; i++)
       {
         workspace.ray[treeDepth+1].getDirection().set(temp);
@@ -1707,38 +1971,151 @@ public class RaytracerRenderer implements Renderer, Runnable
     }
     if (spawnDiffuse)
     {
-      // Spawn a diffusely reflected ray.
-
-      int numRays = (diffuse ? 1 : diffuseRays);
       col.copy(spec.diffuse);
       col.multiply(rayIntensity);
       col.scale(diffuseScale);
-      temp = workspace.ray[treeDepth+1].getDirection();
-      for (int i = 0; i < numRays; i++)
+      if (irradianceCache != null && !diffuse)
       {
-        do
-        {
-          temp.set(0.0, 0.0, 0.0);
-          randomizePoint(temp, random, 1.0, rayNumber+treeDepth+1+i);
-          temp.normalize();
-          d = temp.dot(norm) * (dot > 0.0 ? 1.0 : -1.0);
-        } while (random.nextDouble() > (d < 0.0 ? -d : d));
-        if (temp.dot(trueNorm) * (truedot > 0.0 ? 1.0 : -1.0) > 0.0)
+        // Interpolate the diffusely reflected light from the irradiance cache.
+
+        float red = col.getRed(), green = col.getGreen(), blue = col.getBlue();
+        RGBColor irradiance = getCachedIrradiance(workspace, treeDepth, nextNode, dot, truedot, currentMaterial, prevMaterial, currentMatTrans, prevMatTrans, rayNumber, totalDist);
+        color.add(irradiance.getRed()*red, irradiance.getGreen()*green, irradiance.getBlue()*blue);
+      }
+      else
+      {
+        // Spawn a diffusely reflected ray.
+
+        int numRays = (diffuse ? 1 : diffuseRays);
+        if (workspace.stats != null)
+          workspace.stats.diffuseRays += numRays;
+        temp = workspace.ray[treeDepth+1].getDirection();
+        for (int i = 0; i < numRays; i++)
         {
-          // Make sure it comes out the correct side.
+          do
+          {
+            temp.set(0.0, 0.0, 0.0);
+            randomizePoint(temp, random, 1.0, rayNumber+treeDepth+1+i);
+            temp.normalize();
+            d = temp.dot(norm) * (dot > 0.0 ? 1.0 : -1.0);
+          } while (random.nextDouble() > (d < 0.0 ? -d : d));
+          if (temp.dot(trueNorm) * (truedot > 0.0 ? 1.0 : -1.0) > 0.0)
+          {
+            // Make sure it comes out the correct side.
 
-          temp.scale(-1.0);
+            temp.scale(-1.0);
+          }
+          workspace.ray[treeDepth+1].getOrigin().set(intersectionPoint);
+          workspace.ray[treeDepth+1].newID();
+          spawnRay(workspace, treeDepth+1, nextNode, SurfaceIntersection.NO_INTERSECTION, currentMaterial, prevMaterial, currentMatTrans, prevMatTrans, rayNumber, totalDist, false, true);
+          workspace.color[treeDepth+1].scale(1.0f/numRays);
+          color.add(workspace.color[treeDepth+1]);
         }
-        workspace.ray[treeDepth+1].getOrigin().set(intersectionPoint);
-        workspace.ray[treeDepth+1].newID();
-        spawnRay(workspace, treeDepth+1, nextNode, SurfaceIntersection.NO_INTERSECTION, currentMaterial, prevMaterial, currentMatTrans, prevMatTrans, rayNumber, totalDist, false, true);
-        workspace.color[treeDepth+1].scale(1.0f/numRays);
-        color.add(workspace.color[treeDepth+1]);
       }
     }
     return dist;
   }
 
+  /** Find the light diffusely reflected from a surface using the irradiance cache.  If there are no cached
+      records close enough to the point, a new one is calculated by sending out rays over the hemisphere, and
+      is added to the cache.  The surface position and normals should be in pos[treeDepth], normal[treeDepth],
+      and trueNormal[treeDepth].
+
+      @param workspace          contains information for the thread currently being executed
+      @param treeDepth          the current ray tree depth
+      @param node               the octree node containing the point
+      @param dot                the dot product of the surface normal with the incoming ray direction
+      @param truedot            the dot product of the true surface normal with the incoming ray direction
+      @param currentMaterial    the MaterialMapping at the point (may be null)
+      @param prevMaterial       the MaterialMapping the ray was passing through before entering currentMaterial
+      @param currentMatTrans    the transform to local coordinates for the current material
+      @param prevMatTrans       the transform to local coordinates for the previous material
+      @param rayNumber          the number of the ray within the pixel (for distribution ray tracing)
+      @param totalDist          the distance traveled from the viewpoint
+      @return the average incoming light, weighted by the cosine of the angle to the normal.  This is one
+              of the workspace's temporary objects, so it must be used before this method is called again.
+   */
+
+  protected RGBColor getCachedIrradiance(RenderWorkspace workspace, int treeDepth, OctreeNode node, double dot, double truedot, MaterialMapping currentMaterial, MaterialMapping prevMaterial, Mat4 currentMatTrans, Mat4 prevMatTrans, int rayNumber, double totalDist)
+  {
+    Vec3 pos = workspace.pos[treeDepth], norm = workspace.normal[treeDepth], trueNorm = workspace.trueNormal[treeDepth];
+    RGBColor irradiance = workspace.irradiance;
+    Vec3 hemisphere = workspace.irradianceNormal;
+    hemisphere.set(norm);
+    if (dot > 0.0)
+      hemisphere.scale(-1.0);
+    if (irradianceCache.getIrradiance(pos, hemisphere, irradiance))
+      return irradiance;
+
+    // Calculate a new record.
+
+    Random random = workspace.context.random;
+    Ray r = workspace.ray[treeDepth+1];
+    Vec3 dir = r.getDirection();
+    Vec3 gradient[] = workspace.irradianceGradient;
+    for (Vec3 g : gradient)
+      g.set(0.0, 0.0, 0.0);
+    int numRays = Math.max(4*diffuseRays, MIN_IRRADIANCE_RAYS);
+    if (workspace.stats != null)
+      workspace.stats.diffuseRays += numRays;
+    double red = 0.0, green = 0.0, blue = 0.0, invDist = 0.0;
+    for (int i = 0; i < numRays; i++)
+    {
+      double d;
+      do
+      {
+        dir.set(0.0, 0.0, 0.0);
+        randomizePoint(dir, random, 1.0, rayNumber+treeDepth+1+i);
+        dir.normalize();
+        d = dir.dot(norm) * (dot > 0.0 ? 1.0 : -1.0);
+      } while (random.nextDouble() > (d < 0.0 ? -d : d));
+      if (dir.dot(trueNorm) * (truedot > 0.0 ? 1.0 : -1.0) > 0.0)
+      {
+        // Make sure it comes out the correct side.
+
+        dir.scale(-1.0);
+      }
+
+      // The gradient with respect to rotation is the integral of L*(n x w) over the hemisphere.  Since the
+      // directions are distributed by cos(theta), each sample must be divided by it.
+
+      double cos = Math.max(dir.dot(hemisphere), 0.1);
+      double cx = (hemisphere.y*dir.z-hemisphere.z*dir.y)/cos;
+      double cy = (hemisphere.z*dir.x-hemisphere.x*dir.z)/cos;
+      double cz = (hemisphere.x*dir.y-hemisphere.y*dir.x)/cos;
+      r.getOrigin().set(pos);
+      r.newID();
+      workspace.rayIntensity[treeDepth+1].setRGB(1.0f, 1.0f, 1.0f);
+      double dist = spawnRay(workspace, treeDepth+1, node, SurfaceIntersection.NO_INTERSECTION, currentMaterial, prevMaterial, currentMatTrans, prevMatTrans, rayNumber, totalDist, false, true);
+      RGBColor c = workspace.color[treeDepth+1];
+      red += c.getRed();
+      green += c.getGreen();
+      blue += c.getBlue();
+      gradient[0].x += cx*c.getRed();
+      gradient[0].y += cy*c.getRed();
+      gradient[0].z += cz*c.getRed();
+      gradient[1].x += cx*c.getGreen();
+      gradient[1].y += cy*c.getGreen();
+      gradient[1].z += cz*c.getGreen();
+      gradient[2].x += cx*c.getBlue();
+      gradient[2].y += cy*c.getBlue();
+      gradient[2].z += cz*c.getBlue();
+      invDist += 1.0/dist;
+    }
+    irradiance.setRGB(red/numRays, green/numRays, blue/numRays);
+    for (Vec3 g : gradient)
+      g.scale(1.0/numRays);
+
+    // The record is valid over a distance proportional to the harmonic mean distance to other surfaces,
+    // but limit it to a reasonable range of sizes on screen.
+
+    double radius = (invDist > 0.0 ? numRays/invDist : Double.MAX_VALUE);
+    double pixelSize = totalDist*pixelScale/IRRADIANCE_CACHE_TOLERANCE;
+    radius = Math.max(MIN_IRRADIANCE_SPACING*pixelSize, Math.min(MAX_IRRADIANCE_SPACING*pixelSize, radius));
+    irradianceCache.addRecord(pos, hemisphere, irradiance, gradient, radius);
+    return irradiance;
+  }
+
   /** Find the direct lighting contribution to the surface color.  The surface properties for the given point
    should be in surfSpec[treeDepth], and the resulting color is returned in color[treeDepth].
 
@@ -1784,17 +2161,23 @@ public class RaytracerRenderer implements Renderer, Runnable
 
     if (giMode == GI_HYBRID && diffuse)
     {
+      if (workspace.stats != null)
+        workspace.stats.photonLookups++;
       workspace.globalMap.getLight(pos, spec, normal, viewDir, front, lightColor);
       finalColor.add(lightColor);
       return;
     }
     if (giMode == GI_PHOTON)
     {
+      if (workspace.stats != null)
+        workspace.stats.photonLookups++;
       workspace.globalMap.getLight(pos, spec, normal, viewDir, front, lightColor);
       finalColor.add(lightColor);
     }
     if (caustics)
     {
+      if (workspace.stats != null)
+        workspace.stats.photonLookups++;
       workspace.causticsMap.getLight(pos, spec, normal, viewDir, front, lightColor);
       finalColor.add(lightColor);
     }
@@ -1880,47 +2263,67 @@ public class RaytracerRenderer implements Renderer, Runnable
     MaterialIntersection matChange[] = workspace.matChange;
     int i, j, matCount = 0;
 
+    if (workspace.stats != null)
+      workspace.stats.shadowRays++;
     do
     {
       RTObject obj[] = node.getObjects();
-      for (i = obj.length-1; i >= 0; i--)
+      int numObjects = obj.length;
+      BoundingVolumeHierarchy bvh = raytracer.getBoundingVolumeHierarchy();
+      if (bvh != null)
       {
-        SurfaceIntersection intersection = r.findIntersection(obj[i]);
-        if (intersection != SurfaceIntersection.NO_INTERSECTION)
-          for (j = 0; ; j++)
-          {
-            intersection.intersectionPoint(j, intersectionPoint);
-            if (node.contains(intersectionPoint))
+        numObjects = bvh.findObjectsAlongRay(r, distToLight);
+        obj = workspace.context.rayObjects;
+      }
+      else if (workspace.stats != null)
+        workspace.stats.nodesVisited++;
+      while (true)
+      {
+        for (i = numObjects-1; i >= 0; i--)
+        {
+          SurfaceIntersection intersection = r.findIntersection(obj[i]);
+          if (intersection != SurfaceIntersection.NO_INTERSECTION)
+            for (j = 0; ; j++)
             {
-              double dist = intersection.intersectionDist(j);
-              if (dist < distToLight)
+              intersection.intersectionPoint(j, intersectionPoint);
+              if (node.contains(intersectionPoint))
               {
-                intersection.trueNormal(trueNorm);
-                double angle = -trueNorm.dot(r.getDirection());
-                intersection.intersectionTransparency(j, transColor, angle, (totalDist+dist)*smoothScale, time);
-                lightColor.multiply(transColor);
-                if (lightColor.getRed() < minRayIntensity && lightColor.getGreen() < minRayIntensity && lightColor.getBlue() < minRayIntensity)
-                  return false;
-                MaterialMapping mat = obj[i].getMaterialMapping();
-                if (mat != null && mat.castsShadows())
+                double dist = intersection.intersectionDist(j);
+                if (dist < distToLight)
                 {
-                  if (matCount == matChange.length)
+                  intersection.trueNormal(trueNorm);
+                  double angle = -trueNorm.dot(r.getDirection());
+                  intersection.intersectionTransparency(j, transColor, angle, (totalDist+dist)*smoothScale, time);
+                  lightColor.multiply(transColor);
+                  if (lightColor.getRed() < minRayIntensity && lightColor.getGreen() < minRayIntensity && lightColor.getBlue() < minRayIntensity)
+                    return false;
+                  MaterialMapping mat = obj[i].getMaterialMapping();
+                  if (mat != null && mat.castsShadows())
                   {
-                    workspace.increaseMaterialChangeLength();
-                    matChange = workspace.matChange;
+                    if (matCount == matChange.length)
+                    {
+                      workspace.increaseMaterialChangeLength();
+                      matChange = workspace.matChange;
+                    }
+                    matChange[matCount].mat = mat;
+                    matChange[matCount].toLocal = obj[i].toLocal();
+                    matChange[matCount].dist = dist;
+                    matChange[matCount].node = node;
+                    matChange[matCount].entered = (angle > 0.0)^(j%2==1);
+                    matCount++;
                   }
-                  matChange[matCount].mat = mat;
-                  matChange[matCount].toLocal = obj[i].toLocal();
-                  matChange[matCount].dist = dist;
-                  matChange[matCount].node = node;
-                  matChange[matCount].entered = (angle > 0.0)^(j%2==1);
-                  matCount++;
                 }
               }
+              if (j >= intersection.numIntersections()-1)
+                break;
             }
-            if (j >= intersection.numIntersections()-1)
-              break;
-          }
+        }
+
+        // The BVH returns objects a few at a time, so the ray can stop as soon as it is blocked.
+
+        if (bvh == null || (numObjects = bvh.findMoreObjectsAlongRay(r, distToLight)) == 0)
+          break;
+        obj = workspace.context.rayObjects;
       }
       if (node == endNode)
         break;
@@ -2123,6 +2526,8 @@ public class RaytracerRenderer implements Renderer, Runnable
             }
             if (workspace.volumeMap != null)
             {
+              if (workspace.stats != null)
+                workspace.stats.photonLookups++;
               RGBColor color = workspace.color[treeDepth+1];
               workspace.volumeMap.getVolumeLight(v, matSpec, r.getDirection(), color);
               color.multiply(rayIntensity);
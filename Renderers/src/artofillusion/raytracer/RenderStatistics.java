@@ -0,0 +1,122 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import java.util.*;
+
+/**
+ * RenderStatistics counts the work done while rendering an image: how many rays of each type were traced,
+ * how many acceleration structure nodes and objects were tested against them, and so on.
+ * <p>
+ * Each worker thread has its own instance in its {@link RenderWorkspace}, so the counters can be incremented
+ * without any synchronization.  When a thread is done with its workspace, the counts are added to a single
+ * instance for the whole render.  Collecting statistics is optional, and when it is disabled the workspace
+ * and {@link RaytracerContext} have no RenderStatistics at all.
+ */
+
+public class RenderStatistics
+{
+  /** The number of rays traced from the camera. */
+  public long eyeRays;
+  /** The number of specularly reflected rays. */
+  public long reflectedRays;
+  /** The number of rays transmitted through transparent surfaces. */
+  public long transmittedRays;
+  /** The number of diffusely reflected rays, used for global illumination. */
+  public long diffuseRays;
+  /** The number of rays traced toward lights to check for shadows. */
+  public long shadowRays;
+  /** The number of ray segments traced while generating photon maps. */
+  public long photonRays;
+  /** The number of octree or bounding volume hierarchy nodes visited by rays. */
+  public long nodesVisited;
+  /** The number of ray-object intersection tests. */
+  public long intersectionTests;
+  /** The number of times a photon map was used to estimate the light at a point. */
+  public long photonLookups;
+  /** The number of times the texture was evaluated at a surface point. */
+  public long textureEvaluations;
+  /** The number of times the texture at a surface point was found in the texture cache. */
+  public long textureCacheHits;
+  /** The number of times the texture cache was checked, but did not contain the surface point. */
+  public long textureCacheMisses;
+  /** Whether the texture cache was enabled.  If not, the texture cache counts are not reported by {@link #getValues()}. */
+  public boolean textureCacheEnabled;
+
+  /**
+   * Add the counts from another RenderStatistics to this one.  This may be invoked by several
+   * threads at once.
+   */
+
+  public synchronized void add(RenderStatistics stats)
+  {
+    eyeRays += stats.eyeRays;
+    reflectedRays += stats.reflectedRays;
+    transmittedRays += stats.transmittedRays;
+    diffuseRays += stats.diffuseRays;
+    shadowRays += stats.shadowRays;
+    photonRays += stats.photonRays;
+    nodesVisited += stats.nodesVisited;
+    intersectionTests += stats.intersectionTests;
+    photonLookups += stats.photonLookups;
+    textureEvaluations += stats.textureEvaluations;
+    textureCacheHits += stats.textureCacheHits;
+    textureCacheMisses += stats.textureCacheMisses;
+  }
+
+  /** Get the total number of rays of all types which were traced. */
+
+  public synchronized long getTotalRays()
+  {
+    return eyeRays+reflectedRays+transmittedRays+diffuseRays+shadowRays+photonRays;
+  }
+
+  /**
+   * Get all of the counts as a map, suitable for passing to
+   * {@link artofillusion.RenderListener#statisticsAvailable(Map)}.  The keys are in a fixed order.
+   */
+
+  public synchronized Map<String, Number> getValues()
+  {
+    Map<String, Number> values = new LinkedHashMap<String, Number>();
+    values.put("eyeRays", eyeRays);
+    values.put("reflectedRays", reflectedRays);
+    values.put("transmittedRays", transmittedRays);
+    values.put("diffuseRays", diffuseRays);
+    values.put("shadowRays", shadowRays);
+    values.put("photonRays", photonRays);
+    values.put("nodesVisited", nodesVisited);
+    values.put("intersectionTests", intersectionTests);
+    values.put("intersectionTestsPerRay", (double) intersectionTests/Math.max(1L, getTotalRays()));
+    values.put("photonLookups", photonLookups);
+    values.put("textureEvaluations", textureEvaluations);
+    if (textureCacheEnabled)
+    {
+      values.put("textureCacheHits", textureCacheHits);
+      values.put("textureCacheMisses", textureCacheMisses);
+      values.put("textureCacheHitRate", (double) textureCacheHits/Math.max(1L, textureCacheHits+textureCacheMisses));
+    }
+    return values;
+  }
+
+  @Override
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, Number> entry : getValues().entrySet())
+    {
+      if (sb.length() > 0)
+        sb.append(", ");
+      sb.append(entry.getKey()).append('=').append(entry.getValue());
+    }
+    return sb.toString();
+  }
+}
@@ -34,8 +34,16 @@ public class RenderWorkspace
   public MaterialIntersection matChange[];
   public TextureSpec surfSpec[];
   public MaterialSpec matSpec;
-  public PixelInfo tempPixel;
+  public PixelInfo tempPixel, tilePixels[][], tileSubpixels[][];
+  public RayPacket packet;
+  public RGBColor irradiance;
+  public Vec3 irradianceNormal, irradianceGradient[];
   public PhotonMapContext globalMap, causticsMap, volumeMap;
+  public RenderStatistics stats;
+  public TextureSpecCache textureCache;
+
+  /** The number of surface points whose properties are cached, if texture caching is enabled. */
+  private static final int TEXTURE_CACHE_SIZE = 16;
 
   public RenderWorkspace(RaytracerRenderer rt, RaytracerContext context)
   {
@@ -67,12 +75,35 @@ public class RenderWorkspace
     for (int i = 0; i < matChange.length; i++)
       matChange[i] = new MaterialIntersection();
     tempPixel = new PixelInfo();
+    irradiance = new RGBColor();
+    irradianceNormal = new Vec3();
+    irradianceGradient = new Vec3[] {new Vec3(), new Vec3(), new Vec3()};
+    tilePixels = new PixelInfo [RaytracerRenderer.TILE_SIZE+1][RaytracerRenderer.TILE_SIZE+1];
+    for (int i = 0; i < tilePixels.length; i++)
+      for (int j = 0; j < tilePixels[i].length; j++)
+        tilePixels[i][j] = new PixelInfo();
+    if (rt.antialiasLevel > 0)
+    {
+      tileSubpixels = new PixelInfo [2*RaytracerRenderer.TILE_SIZE+2][2*RaytracerRenderer.TILE_SIZE+2];
+      for (int i = 0; i < tileSubpixels.length; i++)
+        for (int j = 0; j < tileSubpixels[i].length; j++)
+          tileSubpixels[i][j] = new PixelInfo();
+    }
+    if (context.rt.getBoundingVolumeHierarchy() != null)
+      packet = new RayPacket(context);
     if (rt.globalMap != null)
       globalMap = new PhotonMapContext(rt.globalMap);
     if (rt.causticsMap != null)
       causticsMap = new PhotonMapContext(rt.causticsMap);
     if (rt.volumeMap != null)
       volumeMap = new PhotonMapContext(rt.volumeMap);
+    if (rt.cacheTextures)
+      textureCache = new TextureSpecCache(TEXTURE_CACHE_SIZE);
+    if (rt.statistics != null)
+    {
+      stats = new RenderStatistics();
+      context.stats = stats;
+    }
   }
 
   /**
@@ -98,15 +129,33 @@ public class RenderWorkspace
   }
 
   /**
-   * This is called when rendering is finished.  It nulls out fields to help garbage collection.
+   * This is called when rendering is finished.  It nulls out fields to help garbage collection, and
+   * releases this thread's workspace and RaytracerContext so the next call to
+   * {@link RaytracerRenderer#getWorkspace()} will create new ones.  It must be called from the
+   * thread this workspace belongs to.  If statistics are being collected, this thread's counts are
+   * added to the totals for the render.
    */
 
   public void cleanup()
   {
+    RenderStatistics total = rt.statistics;
+    if (stats != null && total != null)
+      total.add(stats);
+    stats = null;
+    context.stats = null;
+    rt.threadWorkspace.remove();
+    context.rt.releaseContext();
     matChange = null;
     tempPixel = null;
+    tilePixels = null;
+    tileSubpixels = null;
+    packet = null;
+    irradiance = null;
+    irradianceNormal = null;
+    irradianceGradient = null;
     globalMap = null;
     causticsMap = null;
     volumeMap = null;
+    textureCache = null;
   }
 }
@@ -125,6 +125,7 @@ public class SpotlightPhotonSource implements PhotonSource
           public void cleanup()
           {
             map.getWorkspace().cleanup();
+            map.threadFinished();
           }
         });
         threads.run();
@@ -97,4 +97,18 @@ public interface SurfaceIntersection
       at the nth point of intersection. */
 
   public void trueNormal(Vec3 n);
+
+  /** Get the shading normal at the point of intersection, using surface properties that were computed by
+      intersectionProperties() at a nearby point on the same object.  This allows those properties to be
+      reused, while the normal still varies smoothly across the surface and the bump map is applied at
+      this point.  The default implementation does not support this, and returns false.
+      @param spec        surface properties previously returned by intersectionProperties() for this object
+      @param n           the (possibly bump mapped) surface normal will be stored in this
+      @return true if the normal was computed, false if intersectionProperties() must be called instead
+  */
+
+  public default boolean shadingNormal(TextureSpec spec, Vec3 n)
+  {
+    return false;
+  }
 }
@@ -0,0 +1,189 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.math.*;
+import artofillusion.texture.*;
+
+/**
+ * A TextureSpecCache remembers the surface properties at the most recently shaded points, so
+ * they can be reused when nearly the same point is shaded again.  This happens frequently when
+ * several rays are traced per pixel, or when gloss, soft shadows, or global illumination cause
+ * many rays to be spawned from almost the same place.
+ * <p>
+ * Points are matched approximately.  The position is rounded to a grid whose spacing is
+ * between one half and one times the texture smoothing size, and the size itself is
+ * rounded to a power of two.  Within that tolerance any variation in the texture is already
+ * being blurred out, so reusing the properties has little visible effect.  Points must be on
+ * the same object, at the same time, and be viewed from nearly the same angle to match.
+ * <p>
+ * Only the texture properties are cached, not the shading normal.  The caller should compute the normal
+ * at each point with {@link SurfaceIntersection#shadingNormal SurfaceIntersection.shadingNormal()},
+ * which applies the cached bump gradient to it.  Otherwise shading on curved surfaces would be
+ * quantized to the grid.
+ * <p>
+ * The cache holds a small, fixed number of entries, and when it is full the least recently
+ * used one is replaced.  It is not thread safe.  Each {@link RenderWorkspace} has its own.
+ */
+
+public class TextureSpecCache
+{
+  private final Entry entry[];
+  private final Entry pending;
+  private long useCount;
+
+  /** The number of ranges into which the cosine of the viewing angle is divided. */
+  private static final int VIEW_BUCKETS = 16;
+
+  /**
+   * Create a TextureSpecCache.
+   *
+   * @param capacity    the maximum number of entries to store
+   */
+
+  public TextureSpecCache(int capacity)
+  {
+    entry = new Entry [capacity];
+    for (int i = 0; i < capacity; i++)
+      entry[i] = new Entry();
+    pending = new Entry();
+  }
+
+  /** Get the maximum number of entries the cache can hold. */
+
+  public int getCapacity()
+  {
+    return entry.length;
+  }
+
+  /**
+   * Look up the surface properties at a point.  If a matching entry is found, its properties
+   * are copied into spec, and this returns true.  Otherwise it returns false, and the caller
+   * should evaluate the properties and then pass them to {@link #add(TextureSpec) add()}.
+   *
+   * @param obj       the object which was hit
+   * @param pos       the point on the surface
+   * @param size      the texture smoothing size at the point
+   * @param time      the current time
+   * @param viewDot   the dot product of the (unit) view direction and the surface's true normal
+   * @param spec      on exit, the cached surface properties if a match was found
+   */
+
+  public boolean find(RTObject obj, Vec3 pos, double size, double time, double viewDot, TextureSpec spec)
+  {
+    Entry key = pending;
+    key.obj = null;
+    if (!(size > 0.0) || Double.isInfinite(size))
+      return false;
+    int exponent = Math.getExponent(size);
+    double scale = Math.scalb(1.0, -exponent);
+    key.x = (long) Math.floor(pos.x*scale);
+    key.y = (long) Math.floor(pos.y*scale);
+    key.z = (long) Math.floor(pos.z*scale);
+    key.exponent = exponent;
+    key.view = (int) Math.floor((viewDot+1.0)*(0.5*VIEW_BUCKETS));
+    key.time = time;
+    key.obj = obj;
+    key.hash = key.computeHash();
+    for (Entry e : entry)
+      if (e.matches(key))
+      {
+        e.lastUsed = ++useCount;
+        copy(e.spec, spec);
+        return true;
+      }
+    return false;
+  }
+
+  /**
+   * Add the surface properties for the point passed to the most recent call to
+   * {@link #find find()}.  If that call found a match, or could not construct a key for the
+   * point, this does nothing.
+   *
+   * @param spec      the surface properties
+   */
+
+  public void add(TextureSpec spec)
+  {
+    if (pending.obj == null)
+      return;
+    Entry oldest = entry[0];
+    for (Entry e : entry)
+    {
+      if (e.matches(pending))
+        return;
+      if (e.lastUsed < oldest.lastUsed)
+        oldest = e;
+    }
+    oldest.obj = pending.obj;
+    oldest.x = pending.x;
+    oldest.y = pending.y;
+    oldest.z = pending.z;
+    oldest.exponent = pending.exponent;
+    oldest.view = pending.view;
+    oldest.time = pending.time;
+    oldest.hash = pending.hash;
+    oldest.lastUsed = ++useCount;
+    copy(spec, oldest.spec);
+    pending.obj = null;
+  }
+
+  /** Remove all entries from the cache. */
+
+  public void clear()
+  {
+    for (Entry e : entry)
+    {
+      e.obj = null;
+      e.lastUsed = 0;
+    }
+    pending.obj = null;
+    useCount = 0;
+  }
+
+  /** Copy one TextureSpec into another. */
+
+  private static void copy(TextureSpec from, TextureSpec to)
+  {
+    to.diffuse.copy(from.diffuse);
+    to.specular.copy(from.specular);
+    to.transparent.copy(from.transparent);
+    to.emissive.copy(from.emissive);
+    to.hilight.copy(from.hilight);
+    to.roughness = from.roughness;
+    to.cloudiness = from.cloudiness;
+    to.bumpGrad.set(from.bumpGrad);
+  }
+
+  /** An entry in the cache.  An entry whose object is null is empty. */
+
+  private static class Entry
+  {
+    RTObject obj;
+    long x, y, z, lastUsed;
+    int exponent, view, hash;
+    double time;
+    final TextureSpec spec = new TextureSpec();
+
+    int computeHash()
+    {
+      long h = x*0x9E3779B97F4A7C15L + y*0xC2B2AE3D27D4EB4FL + z*0x165667B19E3779F9L;
+      h += exponent*31 + view;
+      return (int) (h^(h>>>32))^System.identityHashCode(obj);
+    }
+
+    boolean matches(Entry key)
+    {
+      return obj == key.obj && hash == key.hash && x == key.x && y == key.y && z == key.z &&
+          exponent == key.exponent && view == key.view && time == key.time;
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion;
+
+import artofillusion.animation.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+import artofillusion.texture.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+public class SceneLoadTest
+{
+  @Test
+  public void testReadMeshes() throws Exception
+  {
+    // Build a scene with many meshes, some of which share an object, and make sure they are all read back
+    // correctly even though they are built on worker threads.
+
+    Scene scene = new Scene();
+    Texture tex = scene.getDefaultTexture();
+    TriangleMesh shared = new Cube(1.0, 2.0, 3.0).convertToTriangleMesh(0.1);
+    shared.setTexture(tex, tex.getDefaultMapping(shared));
+    ObjectInfo parent = new ObjectInfo(new Sphere(1.0, 1.0, 1.0), new CoordinateSystem(), "Parent");
+    parent.getObject().setTexture(tex, tex.getDefaultMapping(parent.getObject()));
+    scene.addObject(parent, null);
+    for (int i = 0; i < 20; i++)
+    {
+      Object3D obj;
+      if (i%4 == 0)
+        obj = shared;
+      else
+      {
+        obj = new Cube(1.0+i, 1.0, 1.0).convertToTriangleMesh(0.1);
+        obj.setTexture(tex, tex.getDefaultMapping(obj));
+      }
+      ObjectInfo info = new ObjectInfo(obj, new CoordinateSystem(new Vec3(i, 0.0, 0.0), Vec3.vz(), Vec3.vy()), "Mesh "+i);
+      info.addTrack(new PositionTrack(info), 0);
+      info.addTrack(new TextureTrack(info), 1);
+      scene.addObject(info, null);
+      if (i%2 == 1)
+        parent.addChild(info, parent.getChildren().length);
+    }
+    File file = writeScene(scene);
+    try
+    {
+      final List<String> names = new ArrayList<>();
+      final List<Double> progress = new ArrayList<>();
+      Scene copy = new Scene(file, true, new SceneLoadListener() {
+        @Override
+        public void progressChanged(double fraction)
+        {
+          progress.add(fraction);
+        }
+
+        @Override
+        public void hierarchyLoaded(List<ObjectInfo> objects)
+        {
+          for (ObjectInfo info : objects)
+            names.add(info.getName());
+        }
+      });
+      assertTrue(copy.getErrors().isEmpty());
+      assertEquals(scene.getNumObjects(), copy.getNumObjects());
+      assertEquals(scene.getNumObjects(), names.size());
+      assertFalse(progress.isEmpty());
+      assertEquals(1.0, progress.get(progress.size()-1), 0.0);
+      for (int i = 0; i < scene.getNumObjects(); i++)
+      {
+        ObjectInfo original = scene.getObject(i), info = copy.getObject(i);
+        assertEquals(original.getName(), names.get(i));
+        assertEquals(original.getName(), info.getName());
+        assertEquals(original.getObject().getClass(), info.getObject().getClass());
+        assertEquals(original.getChildren().length, info.getChildren().length);
+        assertEquals(original.getTracks().length, info.getTracks().length);
+        assertEquals(original.getCoords().getOrigin().x, info.getCoords().getOrigin().x, 0.0);
+        if (original.getObject() instanceof TriangleMesh)
+        {
+          TriangleMesh mesh1 = (TriangleMesh) original.getObject(), mesh2 = (TriangleMesh) info.getObject();
+          assertEquals(mesh1.getVertices().length, mesh2.getVertices().length);
+          assertEquals(mesh1.getFaces().length, mesh2.getFaces().length);
+          assertSame(copy.getDefaultTexture(), mesh2.getTexture());
+        }
+      }
+
+      // Objects which were shared should still be shared.
+
+      assertSame(copy.getObject(1).getObject(), copy.getObject(5).getObject());
+      assertNotSame(copy.getObject(1).getObject(), copy.getObject(2).getObject());
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  private static File writeScene(Scene scene) throws IOException
+  {
+    File file = File.createTempFile("scene", ".aoi");
+    try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(file))))
+    {
+      scene.writeToStream(out);
+    }
+    return file;
+  }
+}
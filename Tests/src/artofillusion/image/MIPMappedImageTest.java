@@ -0,0 +1,159 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.image;
+
+import artofillusion.math.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+
+public class MIPMappedImageTest
+{
+  @Test
+  public void testReadInBackground() throws Exception
+  {
+    // Write several images to a stream, then read them back and check that they are identical.
+
+    Random random = new Random(0);
+    MIPMappedImage original[] = new MIPMappedImage [8];
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    for (int i = 0; i < original.length; i++)
+    {
+      BufferedImage im = new BufferedImage(64+i, 48, BufferedImage.TYPE_INT_RGB);
+      for (int x = 0; x < im.getWidth(); x++)
+        for (int y = 0; y < im.getHeight(); y++)
+          im.setRGB(x, y, random.nextInt());
+      original[i] = new MIPMappedImage(im);
+      original[i].writeToStream(out, null);
+    }
+    out.close();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    MIPMappedImage copy[] = new MIPMappedImage [original.length];
+    for (int i = 0; i < copy.length; i++)
+      copy[i] = new MIPMappedImage(in);
+    assertEquals(-1, in.read());
+    RGBColor color1 = new RGBColor(), color2 = new RGBColor();
+    for (int i = copy.length-1; i >= 0; i--)
+    {
+      assertEquals(original[i].getName(), copy[i].getName());
+      assertEquals(original[i].getWidth(), copy[i].getWidth());
+      assertTrue(copy[i].isLoaded());
+      assertEquals(original[i].getHeight(), copy[i].getHeight());
+      assertEquals(original[i].getComponentCount(), copy[i].getComponentCount());
+      for (int j = 0; j < 100; j++)
+      {
+        double x = random.nextDouble(), y = random.nextDouble(), size = 0.1*random.nextDouble();
+        original[i].getColor(color1, false, false, x, y, size, size);
+        copy[i].getColor(color2, false, false, x, y, size, size);
+        assertEquals(color1, color2);
+        assertEquals(original[i].getComponent(1, true, true, x, y, size, size), copy[i].getComponent(1, true, true, x, y, size, size), 0.0f);
+      }
+    }
+  }
+
+  @Test
+  public void testGetPixelRow()
+  {
+    // Reading the image data directly should give the same result as getRGB().
+
+    Random random = new Random(0);
+    int types[] = new int [] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_565_RGB};
+    for (int type : types)
+    {
+      BufferedImage im = new BufferedImage(37, 23, type);
+      for (int x = 0; x < im.getWidth(); x++)
+        for (int y = 0; y < im.getHeight(); y++)
+          im.setRGB(x, y, random.nextInt());
+      for (BufferedImage image : new BufferedImage [] {im, im.getSubimage(5, 3, 20, 10)})
+      {
+        int w = image.getWidth(), expected[] = new int [w], actual[] = new int [w];
+        for (int y = 0; y < image.getHeight(); y++)
+        {
+          image.getRGB(0, y, w, 1, expected, 0, w);
+          MIPMappedImage.getPixelRow(image, y, actual);
+          assertArrayEquals(expected, actual);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testIsLoaded() throws Exception
+  {
+    // Once the background decode finishes, isLoaded() should report it without anything else touching the image.
+
+    BufferedImage im = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    new MIPMappedImage(im).writeToStream(out, null);
+    out.close();
+    MIPMappedImage copy = new MIPMappedImage(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    long end = System.currentTimeMillis()+10000;
+    while (!copy.isLoaded() && System.currentTimeMillis() < end)
+      Thread.sleep(10);
+    assertTrue(copy.isLoaded());
+  }
+
+  @Test
+  public void testContentHash() throws Exception
+  {
+    // Identical images should have the same hash, which should survive being saved and loaded.
+
+    Random random = new Random(1);
+    BufferedImage im = new BufferedImage(32, 20, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < im.getWidth(); x++)
+      for (int y = 0; y < im.getHeight(); y++)
+        im.setRGB(x, y, random.nextInt());
+    MIPMappedImage image1 = new MIPMappedImage(im);
+    MIPMappedImage image2 = new MIPMappedImage(im);
+    assertArrayEquals(image1.getContentHash(), image2.getContentHash());
+    im.setRGB(3, 4, im.getRGB(3, 4)^0xFF);
+    MIPMappedImage image3 = new MIPMappedImage(im);
+    assertFalse(Arrays.equals(image1.getContentHash(), image3.getContentHash()));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    image1.writeToStream(out, null);
+    out.close();
+    MIPMappedImage copy = new MIPMappedImage(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertArrayEquals(image1.getContentHash(), copy.getContentHash());
+  }
+
+  @Test
+  public void testCorruptData() throws Exception
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeShort(1);
+    out.writeInt(4);
+    out.write(new byte [] {1, 2, 3, 4});
+    out.close();
+    PrintStream err = System.err;
+    System.setErr(new PrintStream(new ByteArrayOutputStream()));
+    try
+    {
+      MIPMappedImage image = new MIPMappedImage(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+      assertEquals(1, image.getWidth());
+      assertEquals(1, image.getHeight());
+      RGBColor color = new RGBColor(1.0f, 1.0f, 1.0f);
+      image.getColor(color, false, false, 0.5, 0.5, 0.1, 0.1);
+      assertEquals(new RGBColor(), color);
+      assertEquals(0.0f, image.getAverageComponent(0), 0.0f);
+    }
+    finally
+    {
+      System.setErr(err);
+    }
+  }
+}
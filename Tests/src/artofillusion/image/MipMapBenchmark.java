@@ -0,0 +1,107 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.image;
+
+import java.awt.*;
+import java.awt.image.*;
+
+/**
+ * This compares the time to build the mipmaps for large images, using MIPMappedImage and the
+ * original method based on Image.getScaledInstance() and PixelGrabber, which is reproduced here.
+ * The images have the type ImageIO creates when it reads a JPEG or an RGB PNG file.
+ * It is not run as part of the tests; run its main() method directly, with enough heap for an
+ * 8192x8192 image (-Xmx2g).  Each size is run several times, so the JIT compiler has warmed up by
+ * the time the later results are printed.
+ */
+
+public class MipMapBenchmark
+{
+  private static final int SIZES[] = new int [] {4096, 8192};
+  private static final int REPEATS = 3;
+
+  public static void main(String args[]) throws Exception
+  {
+    for (int size : SIZES)
+    {
+      BufferedImage im = createImage(size);
+      for (int pass = 0; pass < REPEATS; pass++)
+      {
+        long start = System.nanoTime();
+        buildWithAWT(im);
+        long middle = System.nanoTime();
+        new MIPMappedImage(im);
+        long end = System.nanoTime();
+        System.out.println(size+"x"+size+" pass "+(pass+1)+": getScaledInstance "+(middle-start)/1000000+
+            " ms, MipMapFilter "+(end-middle)/1000000+" ms");
+      }
+    }
+  }
+
+  private static BufferedImage createImage(int size)
+  {
+    BufferedImage im = new BufferedImage(size, size, BufferedImage.TYPE_3BYTE_BGR);
+    int row[] = new int [size];
+    for (int y = 0; y < size; y++)
+    {
+      for (int x = 0; x < size; x++)
+        row[x] = ((x*y)&0xFF)+(((x+y)&0xFF)<<8)+(((x^y)&0xFF)<<16);
+      im.setRGB(0, y, size, 1, row, 0, size);
+    }
+    return im;
+  }
+
+  /** Build the mipmaps the way MIPMappedImage originally did. */
+
+  private static byte[][][] buildWithAWT(Image im) throws InterruptedException
+  {
+    int w = im.getWidth(null), h = im.getHeight(null), w1, h1, num;
+    for (w1 = 2; w1 < w; w1 *= 2);
+    for (h1 = 2; h1 < h; h1 *= 2);
+    w1 /= 2;
+    h1 /= 2;
+    if (w1/(float) w > 0.75)
+      w1 /= 2;
+    if (h1/(float) h > 0.75)
+      h1 /= 2;
+    for (num = 0; (1<<num) < w1 && (1<<num) < h1; num++);
+    num += 2;
+    byte maps[][][] = new byte [num][][];
+    maps[0] = grabComponents(im);
+    maps[1] = grabComponents(im.getScaledInstance(w1, h1, Image.SCALE_DEFAULT));
+    for (int i = 2; i < num; i++)
+    {
+      w1 /= 2;
+      h1 /= 2;
+      maps[i] = new byte [3][w1*h1];
+      for (int j = 0; j < 3; j++)
+        for (int k = 0; k < w1; k++)
+          for (int m = 0; m < h1; m++)
+            maps[i][j][k+w1*m] = (byte) ((((int) maps[i-1][j][2*k+4*w1*m]&0xFF) + ((int) maps[i-1][j][2*k+1+4*w1*m]&0xFF) +
+                ((int) maps[i-1][j][2*k+2*w1*(2*m+1)]&0xFF) + ((int) maps[i-1][j][2*k+1+2*w1*(2*m+1)]&0xFF)) >> 2);
+    }
+    return maps;
+  }
+
+  private static byte[][] grabComponents(Image im) throws InterruptedException
+  {
+    PixelGrabber pg = new PixelGrabber(im, 0, 0, -1, -1, true);
+    pg.grabPixels();
+    int data[] = (int []) pg.getPixels();
+    byte map[][] = new byte [3][data.length];
+    for (int i = 0; i < data.length; i++)
+    {
+      map[0][i] = (byte) ((data[i]>>16) & 0xFF);
+      map[1][i] = (byte) ((data[i]>>8) & 0xFF);
+      map[2][i] = (byte) (data[i] & 0xFF);
+    }
+    return map;
+  }
+}
@@ -0,0 +1,200 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.image;
+
+import artofillusion.math.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class MipMapCacheTest
+{
+  private File dir;
+  private long maxSize;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    dir = Files.createTempDirectory("mipmaps").toFile();
+    MipMapCache.setDirectory(dir);
+    maxSize = MipMapCache.getMaximumSize();
+  }
+
+  @After
+  public void tearDown()
+  {
+    MipMapCache.setDirectory(null);
+    MipMapCache.setMaximumSize(maxSize);
+    for (File f : dir.listFiles())
+      f.delete();
+    dir.delete();
+  }
+
+  @Test
+  public void testMIPMappedImage() throws Exception
+  {
+    MIPMappedImage original = new MIPMappedImage(createImage(400, 200));
+    byte data[] = write(original);
+
+    // The first time it is read, the mipmaps should be added to the cache.
+
+    MIPMappedImage copy1 = new MIPMappedImage(new DataInputStream(new ByteArrayInputStream(data)));
+    assertEquals(400, copy1.getWidth());
+    File files[] = dir.listFiles();
+    assertEquals(1, files.length);
+
+    // The second time, they should be read from it.
+
+    MIPMappedImage copy2 = new MIPMappedImage(new DataInputStream(new ByteArrayInputStream(data)));
+    assertEquals(400, copy2.getWidth());
+    assertEquals(200, copy2.getHeight());
+    assertEquals(original.getComponentCount(), copy2.getComponentCount());
+    assertImagesEqual(original, copy2);
+
+    // To be certain the cache is really being used, change it and read the image again.
+
+    clearPixels(files[0]);
+    MIPMappedImage copy3 = new MIPMappedImage(new DataInputStream(new ByteArrayInputStream(data)));
+    RGBColor color = new RGBColor();
+    copy3.getColor(color, false, false, 0.5, 0.5, 0.0, 0.0);
+    assertEquals(new RGBColor(), color);
+  }
+
+  @Test
+  public void testHDRImage() throws Exception
+  {
+    Random random = new Random(0);
+    int w = 260, h = 280;
+    byte r[] = new byte [w*h], g[] = new byte [w*h], b[] = new byte [w*h], e[] = new byte [w*h];
+    random.nextBytes(r);
+    random.nextBytes(g);
+    random.nextBytes(b);
+    for (int i = 0; i < e.length; i++)
+      e[i] = (byte) (120+random.nextInt(16));
+    HDRImage original = new HDRImage(r, g, b, e, w, h);
+    byte data[] = write(original);
+    HDRImage copy1 = new HDRImage(new DataInputStream(new ByteArrayInputStream(data)));
+    assertEquals(1, dir.listFiles().length);
+    HDRImage copy2 = new HDRImage(new DataInputStream(new ByteArrayInputStream(data)));
+    assertEquals(w, copy2.getWidth());
+    assertEquals(h, copy2.getHeight());
+    assertImagesEqual(original, copy1);
+    assertImagesEqual(original, copy2);
+    for (int i = 0; i < 3; i++)
+      assertEquals(original.getAverageComponent(i), copy2.getAverageComponent(i), 0.0f);
+  }
+
+  @Test
+  public void testSmallImage() throws Exception
+  {
+    byte data[] = write(new MIPMappedImage(createImage(64, 48)));
+    new MIPMappedImage(new DataInputStream(new ByteArrayInputStream(data))).getWidth();
+    assertEquals(0, dir.listFiles().length);
+  }
+
+  @Test
+  public void testDamagedFile() throws Exception
+  {
+    MIPMappedImage original = new MIPMappedImage(createImage(256, 256));
+    byte data[] = write(original);
+    new MIPMappedImage(new DataInputStream(new ByteArrayInputStream(data))).getWidth();
+    File file = dir.listFiles()[0];
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+    {
+      raf.setLength(raf.length()-1);
+    }
+
+    // The damaged file should be ignored and replaced.
+
+    MIPMappedImage copy = new MIPMappedImage(new DataInputStream(new ByteArrayInputStream(data)));
+    assertImagesEqual(original, copy);
+    assertTrue(file.length() > 256*256*3);
+    assertNotNull(MipMapCache.load(file.getName().substring(0, file.getName().length()-4)));
+  }
+
+  @Test
+  public void testPrune() throws Exception
+  {
+    int size = 256*256;
+    MipMapCache.setMaximumSize(5*size);
+    for (int i = 0; i < 10; i++)
+    {
+      String key = MipMapCache.getKey("test", new byte [] {(byte) i});
+      MipMapCache.store(key, new MipMapCache.Pyramid(1, new int [] {256}, new int [] {256}, new byte [][][] {{new byte [size]}}));
+      assertNotNull(MipMapCache.load(key));
+      new File(dir, key+".mip").setLastModified(1000000L*i);
+    }
+    long total = 0;
+    for (File f : dir.listFiles())
+      total += f.length();
+    assertTrue(total <= 5*size);
+    assertNotNull(MipMapCache.load(MipMapCache.getKey("test", new byte [] {9})));
+    assertNull(MipMapCache.load(MipMapCache.getKey("test", new byte [] {0})));
+  }
+
+  @Test
+  public void testDisabled() throws Exception
+  {
+    MipMapCache.setDirectory(null);
+    byte data[] = write(new MIPMappedImage(createImage(256, 256)));
+    new MIPMappedImage(new DataInputStream(new ByteArrayInputStream(data))).getWidth();
+    assertEquals(0, dir.listFiles().length);
+  }
+
+  private static BufferedImage createImage(int w, int h)
+  {
+    Random random = new Random(w*h);
+    BufferedImage im = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < w; x++)
+      for (int y = 0; y < h; y++)
+        im.setRGB(x, y, random.nextInt());
+    return im;
+  }
+
+  private static byte[] write(ImageMap image) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    image.writeToStream(out, null);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  /** Overwrite all the pixels in a cache file with zeros. */
+
+  private static void clearPixels(File file) throws IOException
+  {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+    {
+      raf.seek(12);
+      int levels = raf.readInt();
+      long start = 16+8L*levels;
+      raf.seek(start);
+      raf.write(new byte [(int) (raf.length()-start)]);
+    }
+  }
+
+  private static void assertImagesEqual(ImageMap expected, ImageMap actual)
+  {
+    Random random = new Random(1);
+    RGBColor color1 = new RGBColor(), color2 = new RGBColor();
+    for (int i = 0; i < 200; i++)
+    {
+      double x = random.nextDouble(), y = random.nextDouble(), size = 0.1*random.nextDouble();
+      expected.getColor(color1, false, false, x, y, size, size);
+      actual.getColor(color2, false, false, x, y, size, size);
+      assertEquals(color1, color2);
+    }
+  }
+}
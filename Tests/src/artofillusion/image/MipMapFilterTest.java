@@ -0,0 +1,64 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.image;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.*;
+
+public class MipMapFilterTest
+{
+  @Test
+  public void testWeights()
+  {
+    // Reducing 3 pixels to 2, each destination pixel covers one and a half source pixels.
+
+    MipMapFilter filter = new MipMapFilter(3, 2);
+    assertArrayEquals(new int [] {0, 1}, filter.start);
+    assertArrayEquals(new float [] {2.0f/3.0f, 1.0f/3.0f}, filter.weight[0], 1e-6f);
+    assertArrayEquals(new float [] {1.0f/3.0f, 2.0f/3.0f}, filter.weight[1], 1e-6f);
+
+    // The weights for every destination pixel should add up to 1.
+
+    filter = new MipMapFilter(1000, 256);
+    for (float w[] : filter.weight)
+    {
+      float sum = 0.0f;
+      for (float f : w)
+        sum += f;
+      assertEquals(1.0f, sum, 1e-5f);
+    }
+  }
+
+  @Test
+  public void testReduce()
+  {
+    // Halving the size should average 2x2 blocks.
+
+    byte src[][] = new byte [][] {{0, 10, 20, 30, 40, 50, 60, 70, 80, 90, 100, 110, 120, (byte) 130, (byte) 140, (byte) 150}};
+    byte dst[][] = MipMapFilter.reduce(src, 4, 4, 2, 2);
+    assertArrayEquals(new byte [] {25, 45, 105, 125}, dst[0]);
+
+    // A constant image should stay constant.
+
+    int w = 300, h = 170;
+    src = new byte [3][w*h];
+    for (int i = 0; i < 3; i++)
+      Arrays.fill(src[i], (byte) (100+50*i));
+    dst = MipMapFilter.reduce(src, w, h, 128, 64);
+    for (int i = 0; i < 3; i++)
+    {
+      assertEquals(128*64, dst[i].length);
+      for (byte b : dst[i])
+        assertEquals(100+50*i, b&0xFF);
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.image;
+
+import artofillusion.math.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import javax.imageio.*;
+
+public class TiledImageTest
+{
+  @Test
+  public void testMatchesMIPMappedImage() throws Exception
+  {
+    // A TiledImage should give the same results as a MIPMappedImage built from the same image.
+
+    BufferedImage im = createImage(150, 100, BufferedImage.TYPE_INT_RGB);
+    TiledImage tiled = new TiledImage(im);
+    MIPMappedImage mipmapped = new MIPMappedImage(im);
+    assertEquals(150, tiled.getWidth());
+    assertEquals(100, tiled.getHeight());
+    assertEquals(3, tiled.getComponentCount());
+    assertEquals(mipmapped.getAspectRatio(), tiled.getAspectRatio(), 0.0f);
+    Random random = new Random(1);
+    RGBColor color1 = new RGBColor(), color2 = new RGBColor();
+    Vec2 grad1 = new Vec2(), grad2 = new Vec2();
+    for (int i = 0; i < 1000; i++)
+    {
+      double x = random.nextDouble(), y = random.nextDouble();
+      double size = (i < 500 ? 0.0 : 0.2*random.nextDouble());
+      boolean wrap = random.nextBoolean();
+      mipmapped.getColor(color1, wrap, wrap, x, y, size, size);
+      tiled.getColor(color2, wrap, wrap, x, y, size, size);
+      assertEquals(color1.getRed(), color2.getRed(), 1e-5);
+      assertEquals(color1.getGreen(), color2.getGreen(), 1e-5);
+      assertEquals(color1.getBlue(), color2.getBlue(), 1e-5);
+      assertEquals(mipmapped.getComponent(1, wrap, wrap, x, y, size, size), tiled.getComponent(1, wrap, wrap, x, y, size, size), 1e-5);
+      mipmapped.getGradient(grad1, 2, wrap, wrap, x, y, size, size);
+      tiled.getGradient(grad2, 2, wrap, wrap, x, y, size, size);
+      assertEquals(grad1.x, grad2.x, 1e-3);
+      assertEquals(grad1.y, grad2.y, 1e-3);
+    }
+    for (int i = 0; i < 3; i++)
+      assertEquals(mipmapped.getAverageComponent(i), tiled.getAverageComponent(i), 0.0f);
+  }
+
+  @Test
+  public void testComponents() throws Exception
+  {
+    BufferedImage argb = createImage(70, 65, BufferedImage.TYPE_INT_ARGB);
+    TiledImage tiled = new TiledImage(argb);
+    assertEquals(4, tiled.getComponentCount());
+    assertEquals(ImageMap.IMAGE_TYPE_RGBA, tiled.getType());
+    assertEquals(1.0f-(argb.getRGB(69, 0)>>>24)/255.0f, tiled.getComponent(3, false, false, 69.0/70.0, 1.0, 0.0, 0.0), 1e-4);
+    assertImageEquals(argb, tiled.getImage());
+    BufferedImage gray = new BufferedImage(40, 30, BufferedImage.TYPE_BYTE_GRAY);
+    gray.setRGB(5, 5, 0xFF808080);
+    tiled = new TiledImage(gray);
+    assertEquals(1, tiled.getComponentCount());
+    assertEquals(ImageMap.IMAGE_TYPE_GRAY, tiled.getType());
+    assertNotNull(tiled.getPreview());
+  }
+
+  @Test
+  public void testWriteToStream() throws Exception
+  {
+    BufferedImage im = createImage(200, 90, BufferedImage.TYPE_INT_RGB);
+    TiledImage original = new TiledImage(im);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    original.writeToStream(out, null);
+    out.close();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    TiledImage copy = new TiledImage(in);
+    assertEquals(-1, in.read());
+    assertEquals(200, copy.getWidth());
+    assertEquals(90, copy.getHeight());
+    assertImageEquals(im, copy.getImage());
+  }
+
+  @Test
+  public void testMIPMappedImageFormat() throws Exception
+  {
+    // A TiledImage is saved in the MIPMappedImage format, so it can be read as one.
+
+    BufferedImage im = createImage(120, 80, BufferedImage.TYPE_INT_RGB);
+    TiledImage original = new TiledImage(im);
+    assertEquals(MIPMappedImage.class.getName(), original.getSerializedClassName());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    original.writeToStream(out, null);
+    out.close();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    MIPMappedImage copy = new MIPMappedImage(in);
+    assertEquals(-1, in.read());
+    assertImageEquals(im, copy.getImage());
+
+    // Small images are read back as MIPMappedImages.
+
+    in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    ImageMap image = MIPMappedImage.readImage(in);
+    assertEquals(-1, in.read());
+    assertTrue(image instanceof MIPMappedImage);
+  }
+
+  @Test
+  public void testReadLargeImage() throws Exception
+  {
+    // A large image stored in the MIPMappedImage format should be read back as a TiledImage.
+
+    BufferedImage im = new BufferedImage(4096, 4096, BufferedImage.TYPE_BYTE_GRAY);
+    im.setRGB(100, 200, 0xFFFFFFFF);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    new TiledImage(im).writeToStream(out, null);
+    out.close();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    ImageMap image = MIPMappedImage.readImage(in);
+    assertEquals(-1, in.read());
+    assertTrue(image instanceof TiledImage);
+    assertEquals(4096, image.getWidth());
+    assertEquals(4096, image.getHeight());
+    assertEquals(1, image.getComponentCount());
+  }
+
+  @Test
+  public void testIsLargeImage() throws Exception
+  {
+    File file = File.createTempFile("tiled", ".png");
+    try
+    {
+      ImageIO.write(createImage(64, 64, BufferedImage.TYPE_INT_RGB), "png", file);
+      assertFalse(TiledImage.isLargeImage(file));
+      assertTrue(ImageMap.loadImage(file) instanceof MIPMappedImage);
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  private static BufferedImage createImage(int w, int h, int type)
+  {
+    Random random = new Random(w*h);
+    BufferedImage im = new BufferedImage(w, h, type);
+    for (int x = 0; x < w; x++)
+      for (int y = 0; y < h; y++)
+        im.setRGB(x, y, random.nextInt());
+    return im;
+  }
+
+  private static void assertImageEquals(BufferedImage expected, BufferedImage actual)
+  {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int x = 0; x < expected.getWidth(); x++)
+      for (int y = 0; y < expected.getHeight(); y++)
+        assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+  }
+}
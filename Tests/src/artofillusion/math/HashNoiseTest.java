@@ -0,0 +1,153 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.math;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.*;
+
+public class HashNoiseTest
+{
+  private final Random random = new Random(0);
+
+  @Test
+  public void testRange()
+  {
+    HashNoise noise = new HashNoise(1);
+    double min = 0.0, max = 0.0;
+    for (int i = 0; i < 10000; i++)
+    {
+      double val = noise.value(rand(), rand(), rand());
+      assertTrue(val >= -1.0 && val <= 1.0);
+      min = Math.min(min, val);
+      max = Math.max(max, val);
+    }
+    assertTrue(min < -0.5 && max > 0.5);
+
+    // The function is zero at every lattice point.
+
+    assertEquals(0.0, noise.value(3.0, -7.0, 12.0), 0.0);
+  }
+
+  @Test
+  public void testWorstCase()
+  {
+    // The value at a point is a weighted sum over the corners of its cell of each corner's gradient dotted
+    // with the offset from that corner.  It is largest when every gradient points away from the point,
+    // giving the sum of the L1 distances to the corners.  Check that this bound never exceeds 1 anywhere
+    // in the cell, and that it reaches 1 at the centre.
+
+    final int STEPS = 40;
+    double max = 0.0;
+    for (int i = 0; i <= STEPS; i++)
+      for (int j = 0; j <= STEPS; j++)
+        for (int k = 0; k <= STEPS; k++)
+        {
+          double x = i/(double) STEPS, y = j/(double) STEPS, z = k/(double) STEPS;
+          double bound = worstCase(x, y, z);
+          assertTrue(bound <= 1.0+1e-12);
+          max = Math.max(max, bound);
+        }
+    assertEquals(1.0, worstCase(0.5, 0.5, 0.5), 1e-12);
+    assertEquals(1.0, max, 1e-12);
+
+    // The value at the centre of any cell must also be within the bound.
+
+    HashNoise noise = new HashNoise(7);
+    for (int i = 0; i < 10000; i++)
+    {
+      double val = noise.value(Math.floor(rand())+0.5, Math.floor(rand())+0.5, Math.floor(rand())+0.5);
+      assertTrue(val >= -1.0 && val <= 1.0);
+    }
+  }
+
+  @Test
+  public void testSeed()
+  {
+    HashNoise noise1 = new HashNoise(1), noise2 = new HashNoise(1), noise3 = new HashNoise(2);
+    int different = 0;
+    for (int i = 0; i < 100; i++)
+    {
+      double x = rand(), y = rand(), z = rand();
+      assertEquals(noise1.value(x, y, z), noise2.value(x, y, z), 0.0);
+      if (noise1.value(x, y, z) != noise3.value(x, y, z))
+        different++;
+    }
+    assertTrue(different > 90);
+  }
+
+  @Test
+  public void testGradient()
+  {
+    // Unlike simplex noise, the function is smooth across cell boundaries, so the finite difference
+    // estimate should always be close.
+
+    final double DELTA = 1e-6;
+    HashNoise noise = new HashNoise(5);
+    Vec3 grad = new Vec3();
+    for (int i = 0; i < 10000; i++)
+    {
+      double x = rand(), y = rand(), z = rand();
+      double value = noise.gradient(grad, x, y, z);
+      double center = noise.value(x, y, z);
+      assertEquals(center, value, 1e-12);
+      assertEquals((noise.value(x+DELTA, y, z)-noise.value(x-DELTA, y, z))/(2*DELTA), grad.x, 1e-4);
+      assertEquals((noise.value(x, y+DELTA, z)-noise.value(x, y-DELTA, z))/(2*DELTA), grad.y, 1e-4);
+      assertEquals((noise.value(x, y, z+DELTA)-noise.value(x, y, z-DELTA))/(2*DELTA), grad.z, 1e-4);
+    }
+  }
+
+  @Test
+  public void testBatch()
+  {
+    HashNoise noise = new HashNoise(3);
+    int count = 100;
+    double x[] = new double [count], y[] = new double [count], z[] = new double [count], result[] = new double [count];
+    for (int i = 0; i < count; i++)
+    {
+      x[i] = rand();
+      y[i] = rand();
+      z[i] = rand();
+    }
+    noise.values(x, y, z, result, count);
+    for (int i = 0; i < count; i++)
+      assertEquals(noise.value(x[i], y[i], z[i]), result[i], 0.0);
+    noise.fractalValues(x, y, z, result, count, 5, 0.5);
+    for (int i = 0; i < count; i++)
+    {
+      assertEquals(noise.fractal(x[i], y[i], z[i], 5, 0.5), result[i], 0.0);
+      double expected = 0.0;
+      for (int j = 0; j < 5; j++)
+        expected += Math.pow(0.5, j)*noise.value(x[i]*(1<<j), y[i]*(1<<j), z[i]*(1<<j));
+      assertEquals(expected, result[i], 1e-12);
+    }
+  }
+
+  /** Get the largest possible magnitude of the noise function at a point within a cell. */
+
+  private static double worstCase(double x, double y, double z)
+  {
+    double sum = 0.0;
+    for (int corner = 0; corner < 8; corner++)
+    {
+      int cx = corner&1, cy = (corner>>1)&1, cz = (corner>>2)&1;
+      double u = HashNoise.fade(x), v = HashNoise.fade(y), w = HashNoise.fade(z);
+      double weight = (cx == 0 ? 1.0-u : u)*(cy == 0 ? 1.0-v : v)*(cz == 0 ? 1.0-w : w);
+      sum += weight*(Math.abs(x-cx)+Math.abs(y-cy)+Math.abs(z-cz));
+    }
+    return HashNoise.GRADIENT_SCALE*sum;
+  }
+
+  private double rand()
+  {
+    return 1000.0*random.nextDouble()-500.0;
+  }
+}
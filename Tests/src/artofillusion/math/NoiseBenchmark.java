@@ -0,0 +1,121 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.math;
+
+import java.util.*;
+
+/**
+ * This compares the speed of the noise functions.  It is not run as part of the tests; run its
+ * main() method directly.  Each benchmark is run several times, so the JIT compiler has warmed
+ * up by the time the later results are printed.
+ */
+
+public class NoiseBenchmark
+{
+  private static final int POINTS = 4096;
+  private static final int REPEATS = 200;
+
+  public static void main(String args[])
+  {
+    Random random = new Random(0);
+    final double x[] = new double [POINTS], y[] = new double [POINTS], z[] = new double [POINTS];
+    final double result[] = new double [POINTS];
+    for (int i = 0; i < POINTS; i++)
+    {
+      x[i] = 100.0*random.nextDouble();
+      y[i] = 100.0*random.nextDouble();
+      z[i] = 100.0*random.nextDouble();
+    }
+    final HashNoise hash = new HashNoise(0);
+    final Vec3 grad = new Vec3();
+    for (int pass = 0; pass < 5; pass++)
+    {
+      System.out.println("Pass "+(pass+1));
+      run("PerlinNoise value", () -> {
+        double sum = 0.0;
+        for (int i = 0; i < POINTS; i++)
+          sum += PerlinNoise.value(x[i], y[i], z[i]);
+        return sum;
+      });
+      run("SimplexNoise value", () -> {
+        double sum = 0.0;
+        for (int i = 0; i < POINTS; i++)
+          sum += SimplexNoise.noise(x[i], y[i], z[i]);
+        return sum;
+      });
+      run("HashNoise value", () -> {
+        double sum = 0.0;
+        for (int i = 0; i < POINTS; i++)
+          sum += hash.value(x[i], y[i], z[i]);
+        return sum;
+      });
+      run("HashNoise batch value", () -> {
+        hash.values(x, y, z, result, POINTS);
+        return result[0];
+      });
+      run("PerlinNoise gradient", () -> {
+        double sum = 0.0;
+        for (int i = 0; i < POINTS; i++)
+        {
+          PerlinNoise.calcGradient(grad, x[i], y[i], z[i]);
+          sum += grad.x;
+        }
+        return sum;
+      });
+      run("SimplexNoise gradient", () -> {
+        double sum = 0.0;
+        for (int i = 0; i < POINTS; i++)
+        {
+          SimplexNoise.noiseGradient(grad, x[i], y[i], z[i]);
+          sum += grad.x;
+        }
+        return sum;
+      });
+      run("HashNoise gradient", () -> {
+        double sum = 0.0;
+        for (int i = 0; i < POINTS; i++)
+        {
+          hash.gradient(grad, x[i], y[i], z[i]);
+          sum += grad.x;
+        }
+        return sum;
+      });
+      run("SimplexNoise 4 octaves", () -> {
+        double sum = 0.0;
+        for (int i = 0; i < POINTS; i++)
+          for (int j = 0, scale = 1; j < 4; j++, scale *= 2)
+            sum += SimplexNoise.noise(x[i]*scale, y[i]*scale, z[i]*scale)/scale;
+        return sum;
+      });
+      run("HashNoise 4 octaves", () -> {
+        hash.fractalValues(x, y, z, result, POINTS, 4, 0.5);
+        return result[0];
+      });
+    }
+  }
+
+  /** Time a benchmark, and print the average time per point. */
+
+  private static void run(String name, Benchmark benchmark)
+  {
+    double check = 0.0;
+    long start = System.nanoTime();
+    for (int i = 0; i < REPEATS; i++)
+      check += benchmark.run();
+    long time = System.nanoTime()-start;
+    System.out.printf("  %-24s %8.2f ns/point  (%g)%n", name, time/(double) (REPEATS*POINTS), check);
+  }
+
+  private interface Benchmark
+  {
+    double run();
+  }
+}
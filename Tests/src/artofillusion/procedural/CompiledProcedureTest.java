@@ -0,0 +1,128 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.procedural;
+
+import artofillusion.math.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.awt.*;
+import java.util.*;
+
+public class CompiledProcedureTest
+{
+  @Test
+  public void testMatchesProcedure()
+  {
+    Procedure proc = new Procedure(new OutputModule [] {
+      new OutputModule("Color", "white", 0.0, new RGBColor(1.0f, 1.0f, 1.0f), IOPort.COLOR),
+      new OutputModule("Value", "0", 0.0, null, IOPort.NUMBER),
+      new OutputModule("Bump", "0", 0.0, null, IOPort.NUMBER),
+      new OutputModule("Unused", "0.5", 0.5, null, IOPort.NUMBER)
+    });
+    OutputModule output[] = proc.getOutputModules();
+    Module x = add(proc, new CoordinateModule(new Point(), CoordinateModule.X));
+    Module y = add(proc, new CoordinateModule(new Point(), CoordinateModule.Y));
+    Module z = add(proc, new CoordinateModule(new Point(), CoordinateModule.Z));
+    Module noise = add(proc, new NoiseModule(new Point()));
+    Module sum = add(proc, new SumModule(new Point()));
+    Module product = add(proc, new ProductModule(new Point()));
+    Module ratio = add(proc, new RatioModule(new Point()));
+    ScaleShiftModule scaleShift = (ScaleShiftModule) add(proc, new ScaleShiftModule(new Point()));
+    Module abs = add(proc, new AbsModule(new Point()));
+    Module min = add(proc, new MinModule(new Point()));
+    Module sine = add(proc, new SineModule(new Point()));
+    Module rgb = add(proc, new RGBModule(new Point()));
+    Module colorScale = add(proc, new ColorScaleModule(new Point()));
+    Module colorSum = add(proc, new ColorSumModule(new Point()));
+    Module color = add(proc, new ColorModule(new Point(), new RGBColor(0.1f, 0.2f, 0.3f)));
+    scaleShift.setScale(2.0);
+    scaleShift.setShift(0.5);
+    link(proc, x, sum, 0);
+    link(proc, noise, sum, 1);
+    link(proc, sum, product, 0);
+    link(proc, y, product, 1);
+    link(proc, product, ratio, 0);
+    link(proc, z, ratio, 1);
+    link(proc, ratio, scaleShift, 0);
+    link(proc, scaleShift, abs, 0);
+    link(proc, abs, min, 0);
+    link(proc, x, min, 1);
+    link(proc, min, sine, 0);
+    link(proc, x, rgb, 0);
+    link(proc, noise, rgb, 1);
+    link(proc, sine, rgb, 2);
+    link(proc, rgb, colorScale, 0);
+    link(proc, y, colorScale, 1);
+    link(proc, colorScale, colorSum, 0);
+    link(proc, color, colorSum, 1);
+    link(proc, colorSum, output[0], 0);
+    link(proc, sine, output[1], 0);
+    link(proc, min, output[2], 0);
+    int V = CompiledProcedure.VALUE;
+    CompiledProcedure compiled = proc.compile(new int [] {1, 2, 0, 3}, new int [] {V, V|CompiledProcedure.GRADIENT, CompiledProcedure.COLOR, V});
+    assertEquals(2, compiled.getFallbackModuleCount());
+
+    // Evaluate it at random points, and compare the results to evaluating the Procedure directly.
+
+    Random random = new Random(0);
+    PointInfo info = new PointInfo();
+    Vec3 expectedGrad = new Vec3(), actualGrad = new Vec3();
+    RGBColor expectedColor = new RGBColor(), actualColor = new RGBColor();
+    for (int i = 0; i < 200; i++)
+    {
+      info.x = 4.0*random.nextDouble()-2.0;
+      info.y = 4.0*random.nextDouble()-2.0;
+      info.z = (i%10 == 0 ? 0.0 : 4.0*random.nextDouble()-2.0);
+      info.xsize = info.ysize = info.zsize = 0.01*random.nextDouble();
+      proc.initForPoint(info);
+      double expectedValue = proc.getOutputValue(1);
+      double expectedBump = proc.getOutputValue(2);
+      proc.getOutputGradient(2, expectedGrad);
+      proc.getOutputColor(0, expectedColor);
+      compiled.initForPoint(info);
+      assertEquals(expectedValue, compiled.getOutputValue(1), 0.0);
+      assertEquals(expectedBump, compiled.getOutputValue(2), 0.0);
+      compiled.getOutputGradient(2, actualGrad);
+      assertEquals(expectedGrad.x, actualGrad.x, 0.0);
+      assertEquals(expectedGrad.y, actualGrad.y, 0.0);
+      assertEquals(expectedGrad.z, actualGrad.z, 0.0);
+      compiled.getOutputColor(0, actualColor);
+      assertEquals(expectedColor.getRed(), actualColor.getRed(), 0.0f);
+      assertEquals(expectedColor.getGreen(), actualColor.getGreen(), 0.0f);
+      assertEquals(expectedColor.getBlue(), actualColor.getBlue(), 0.0f);
+      assertEquals(0.5, compiled.getOutputValue(3), 0.0);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOutputNotCompiled()
+  {
+    Procedure proc = new Procedure(new OutputModule [] {
+      new OutputModule("Value 1", "0", 0.0, null, IOPort.NUMBER),
+      new OutputModule("Value 2", "0", 0.0, null, IOPort.NUMBER)
+    });
+    CompiledProcedure compiled = proc.compile(new int [] {0}, new int [] {CompiledProcedure.VALUE});
+    compiled.initForPoint(new PointInfo());
+    assertEquals(0.0, compiled.getOutputValue(0), 0.0);
+    compiled.getOutputValue(1);
+  }
+
+  private Module add(Procedure proc, Module module)
+  {
+    proc.addModule(module);
+    return module;
+  }
+
+  private void link(Procedure proc, Module from, Module to, int toPort)
+  {
+    proc.addLink(new Link(from.getOutputPorts()[0], to.getInputPorts()[toPort]));
+  }
+}
@@ -0,0 +1,112 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.procedural;
+
+import artofillusion.math.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.awt.*;
+import java.util.*;
+
+public class PointBatchTest
+{
+  @Test
+  public void testBatchMatchesSinglePoints()
+  {
+    Procedure proc = new Procedure(new OutputModule [] {
+      new OutputModule("Noise", "0", 0.0, null, IOPort.NUMBER),
+      new OutputModule("Turbulence", "0", 0.0, null, IOPort.NUMBER),
+      new OutputModule("Marble", "0", 0.0, null, IOPort.NUMBER),
+      new OutputModule("Wood", "0", 0.0, null, IOPort.NUMBER),
+      new OutputModule("Shifted", "0", 0.0, null, IOPort.NUMBER),
+      new OutputModule("Color", "white", 0.0, new RGBColor(1.0f, 1.0f, 1.0f), IOPort.COLOR),
+      new OutputModule("Default", "0.25", 0.25, null, IOPort.NUMBER)
+    });
+    OutputModule output[] = proc.getOutputModules();
+    Module noise = add(proc, new NoiseModule(new Point()));
+    Module turbulence = add(proc, new TurbulenceModule(new Point()));
+    Module marble = add(proc, new MarbleModule(new Point()));
+    Module wood = add(proc, new WoodModule(new Point()));
+    Module shiftedNoise = add(proc, new NoiseModule(new Point()));
+    Module sum = add(proc, new SumModule(new Point()));
+    Module x = add(proc, new CoordinateModule(new Point(), CoordinateModule.X));
+    Module rgb = add(proc, new RGBModule(new Point()));
+    link(proc, noise, turbulence, 3);
+    link(proc, x, sum, 0);
+    link(proc, noise, sum, 1);
+    link(proc, sum, shiftedNoise, 0);
+    link(proc, turbulence, rgb, 0);
+    link(proc, marble, rgb, 1);
+    link(proc, noise, output[0], 0);
+    link(proc, turbulence, output[1], 0);
+    link(proc, marble, output[2], 0);
+    link(proc, wood, output[3], 0);
+    link(proc, shiftedNoise, output[4], 0);
+    link(proc, rgb, output[5], 0);
+
+    // Fill a batch with random points, and leave one element unused.
+
+    Random random = new Random(2);
+    PointBatch batch = new PointBatch(50);
+    batch.setSize(49);
+    for (int i = 0; i < batch.getSize(); i++)
+    {
+      batch.x[i] = 10.0*random.nextDouble()-5.0;
+      batch.y[i] = 10.0*random.nextDouble()-5.0;
+      batch.z[i] = 10.0*random.nextDouble()-5.0;
+      batch.xsize[i] = batch.ysize[i] = batch.zsize[i] = 0.1*random.nextDouble();
+    }
+    double values[] = new double [50];
+    RGBColor colors[] = new RGBColor [50];
+    for (int i = 0; i < colors.length; i++)
+      colors[i] = new RGBColor();
+    PointInfo info = new PointInfo();
+    RGBColor expected = new RGBColor();
+    for (int j = 0; j < output.length; j++)
+    {
+      values[49] = -1.0;
+      if (j == 5)
+        proc.getOutputColors(j, batch, colors);
+      else
+        proc.getOutputValues(j, batch, values);
+      assertEquals(-1.0, values[49], 0.0);
+      for (int i = 0; i < batch.getSize(); i++)
+      {
+        batch.getPoint(i, info);
+        proc.initForPoint(info);
+        if (j == 5)
+        {
+          proc.getOutputColor(j, expected);
+          assertEquals(expected, colors[i]);
+        }
+        else
+          assertEquals(proc.getOutputValue(j), values[i], 0.0);
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSize()
+  {
+    new PointBatch(10).setSize(11);
+  }
+
+  private Module add(Procedure proc, Module module)
+  {
+    proc.addModule(module);
+    return module;
+  }
+
+  private void link(Procedure proc, Module from, Module to, int toPort)
+  {
+    proc.addLink(new Link(from.getOutputPorts()[0], to.getInputPorts()[toPort]));
+  }
+}
@@ -0,0 +1,115 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.procedural;
+
+import artofillusion.math.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.awt.*;
+import java.util.*;
+
+public class ProcedureOptimizerTest
+{
+  @Test
+  public void testOptimize()
+  {
+    Procedure proc = createProcedure();
+    OutputModule output[] = proc.getOutputModules();
+
+    // Two constants combined with a sum, then scaled by a noise value.
+
+    Module number1 = add(proc, new NumberModule(new Point(), 0.25));
+    Module number2 = add(proc, new NumberModule(new Point(), 0.5));
+    Module sum = add(proc, new SumModule(new Point()));
+    Module noise1 = add(proc, new NoiseModule(new Point()));
+    Module noise2 = add(proc, new NoiseModule(new Point()));
+    Module product = add(proc, new ProductModule(new Point()));
+    link(proc, number1, sum, 0);
+    link(proc, number2, sum, 1);
+    link(proc, sum, product, 0);
+    link(proc, noise1, product, 1);
+    link(proc, product, output[0], 0);
+
+    // A second, identical noise module, and a module that nothing uses.
+
+    Module x = add(proc, new CoordinateModule(new Point(), CoordinateModule.X));
+    Module difference = add(proc, new DifferenceModule(new Point()));
+    link(proc, noise2, difference, 0);
+    link(proc, x, difference, 1);
+    link(proc, difference, output[1], 0);
+    add(proc, new SineModule(new Point()));
+
+    // A color computed from constants.
+
+    Module color = add(proc, new ColorModule(new Point(), new RGBColor(0.5f, 0.25f, 1.0f)));
+    Module colorScale = add(proc, new ColorScaleModule(new Point()));
+    link(proc, color, colorScale, 0);
+    link(proc, number2, colorScale, 1);
+    link(proc, colorScale, output[2], 0);
+
+    Procedure optimized = createProcedure();
+    optimized.copy(proc);
+    optimized.optimize();
+    assertEquals(6, optimized.getModules().length);
+    assertFalse(optimized.checkFeedback());
+    int noiseCount = 0;
+    for (Module module : optimized.getModules())
+      if (module instanceof NoiseModule)
+        noiseCount++;
+    assertEquals(1, noiseCount);
+    assertTrue(optimized.getOutputModules()[2].linkFrom[0] instanceof ColorModule);
+
+    // It should calculate exactly the same values.
+
+    Random random = new Random(1);
+    PointInfo info = new PointInfo();
+    Vec3 grad1 = new Vec3(), grad2 = new Vec3();
+    RGBColor color1 = new RGBColor(), color2 = new RGBColor();
+    for (int i = 0; i < 100; i++)
+    {
+      info.x = 10.0*random.nextDouble();
+      info.y = 10.0*random.nextDouble();
+      info.z = 10.0*random.nextDouble();
+      proc.initForPoint(info);
+      optimized.initForPoint(info);
+      for (int j = 0; j < 2; j++)
+      {
+        assertEquals(proc.getOutputValue(j), optimized.getOutputValue(j), 0.0);
+        proc.getOutputGradient(j, grad1);
+        optimized.getOutputGradient(j, grad2);
+        assertEquals(grad1, grad2);
+      }
+      proc.getOutputColor(2, color1);
+      optimized.getOutputColor(2, color2);
+      assertEquals(color1, color2);
+    }
+  }
+
+  private Procedure createProcedure()
+  {
+    return new Procedure(new OutputModule [] {
+      new OutputModule("Value 1", "0", 0.0, null, IOPort.NUMBER),
+      new OutputModule("Value 2", "0", 0.0, null, IOPort.NUMBER),
+      new OutputModule("Color", "white", 0.0, new RGBColor(1.0f, 1.0f, 1.0f), IOPort.COLOR)
+    });
+  }
+
+  private Module add(Procedure proc, Module module)
+  {
+    proc.addModule(module);
+    return module;
+  }
+
+  private void link(Procedure proc, Module from, Module to, int toPort)
+  {
+    proc.addLink(new Link(from.getOutputPorts()[0], to.getInputPorts()[toPort]));
+  }
+}
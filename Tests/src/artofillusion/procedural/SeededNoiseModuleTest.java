@@ -0,0 +1,92 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+
+package artofillusion.procedural;
+
+import artofillusion.math.*;
+import java.awt.*;
+import java.io.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SeededNoiseModuleTest
+{
+  @Test
+  public void testSeed()
+  {
+    SeededNoiseModule a = new SeededNoiseModule(new Point()), b = new SeededNoiseModule(new Point());
+    NoiseModule plain = new NoiseModule(new Point());
+    b.setSeed(5);
+    boolean differentSeed = false, differentNoise = false;
+    for (int i = 0; i < 20; i++)
+    {
+      PointInfo p = createPoint(0.37*i, 0.21*i, -0.13*i);
+      double va = evaluate(a, p), vb = evaluate(b, p);
+      assertTrue(va >= 0.0 && va <= 1.0);
+      assertEquals(0.5+0.25*new HashNoise(0).value(p.x+123.456, p.y+123.456, p.z+123.456)*a.getAmplitude(), evaluateOctaves(a, p, 1), 1e-12);
+      differentSeed |= (Math.abs(va-vb) > 1e-3);
+      differentNoise |= (Math.abs(va-evaluate(plain, p)) > 1e-3);
+    }
+    assertTrue(differentSeed);
+    assertTrue(differentNoise);
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException
+  {
+    for (ProceduralModule module : new ProceduralModule [] {new SeededNoiseModule(new Point()), new SeededTurbulenceModule(new Point())})
+    {
+      if (module instanceof SeededNoiseModule)
+      {
+        ((SeededNoiseModule) module).setSeed(-17);
+        ((SeededNoiseModule) module).setOctaves(3);
+      }
+      else
+      {
+        ((SeededTurbulenceModule) module).setSeed(-17);
+        ((SeededTurbulenceModule) module).setOctaves(3);
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      module.writeToStream(new DataOutputStream(bytes), null);
+      Module copy = module.duplicate();
+      copy.readFromStream(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), null);
+      PointInfo p = createPoint(1.3, 2.7, -0.4);
+      assertEquals(evaluate(module, p), evaluate(copy, p), 0.0);
+      assertEquals(evaluate(module, p), evaluate(module.duplicate(), p), 0.0);
+      assertSame(module.getClass(), module.duplicate().getClass());
+    }
+  }
+
+  private PointInfo createPoint(double x, double y, double z)
+  {
+    PointInfo p = new PointInfo();
+    p.x = x;
+    p.y = y;
+    p.z = z;
+    p.xsize = p.ysize = p.zsize = 1e-4;
+    return p;
+  }
+
+  private double evaluate(Module module, PointInfo p)
+  {
+    module.init(p);
+    return module.getAverageValue(0, 0.0);
+  }
+
+  private double evaluateOctaves(NoiseModule module, PointInfo p, int octaves)
+  {
+    int old = module.getOctaves();
+    module.setOctaves(octaves);
+    double value = evaluate(module, p);
+    module.setOctaves(old);
+    return value;
+  }
+}
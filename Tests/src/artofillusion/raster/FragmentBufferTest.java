@@ -0,0 +1,111 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raster;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FragmentBufferTest
+{
+  @Test
+  public void testSorting()
+  {
+    FragmentBuffer buffer = new FragmentBuffer(2, 2);
+    FragmentBuffer.Allocator allocator = buffer.createAllocator();
+    assertEquals(FragmentBuffer.BACKGROUND, buffer.getFirstFragment(3));
+    allocator.addFragment(3, 1, 10, 5.0f, 0);
+    allocator.addFragment(3, 2, 20, 2.0f, 0);
+    allocator.addFragment(3, 3, 30, 8.0f, 0);
+    allocator.addFragment(3, 4, 40, 5.0f, 0);
+
+    // They should be sorted by depth, with later fragments behind earlier ones at the same depth.
+
+    int expected[] = new int [] {2, 1, 4, 3};
+    int f = buffer.getFirstFragment(3);
+    for (int color : expected)
+    {
+      assertEquals(color, buffer.getAdditiveColor(f));
+      assertEquals(10*color, buffer.getMultiplicativeColor(f));
+      assertFalse(buffer.isOpaque(f));
+      f = buffer.getNextFragment(f);
+    }
+    assertEquals(FragmentBuffer.BACKGROUND, f);
+    assertEquals(Float.MAX_VALUE, buffer.getOpaqueDepth(3), 0.0f);
+    assertEquals(FragmentBuffer.BACKGROUND, buffer.getFirstFragment(0));
+  }
+
+  @Test
+  public void testOpaque()
+  {
+    FragmentBuffer buffer = new FragmentBuffer(1, 1);
+    FragmentBuffer.Allocator allocator = buffer.createAllocator();
+    allocator.addFragment(0, 1, 10, 2.0f, 0);
+    allocator.addFragment(0, 2, 20, 6.0f, 0);
+    allocator.addFragment(0, 3, 0, 4.0f, 0);
+
+    // The opaque fragment should hide everything behind it.
+
+    assertEquals(4.0f, buffer.getOpaqueDepth(0), 0.0f);
+    allocator.addFragment(0, 4, 40, 5.0f, 0);
+    int f = buffer.getFirstFragment(0);
+    assertEquals(1, buffer.getAdditiveColor(f));
+    f = buffer.getNextFragment(f);
+    assertEquals(3, buffer.getAdditiveColor(f));
+    assertTrue(buffer.isOpaque(f));
+    assertEquals(FragmentBuffer.BACKGROUND, buffer.getNextFragment(f));
+
+    // After resetting, the pixel should be empty.
+
+    buffer.reset();
+    assertEquals(FragmentBuffer.BACKGROUND, buffer.getFirstFragment(0));
+    assertEquals(Float.MAX_VALUE, buffer.getOpaqueDepth(0), 0.0f);
+  }
+
+  @Test
+  public void testReserveOpaqueDepth()
+  {
+    FragmentBuffer buffer = new FragmentBuffer(1, 1);
+    FragmentBuffer.Allocator allocator = buffer.createAllocator();
+    allocator.addFragment(0, 1, 10, 2.0f, 0);
+    allocator.addFragment(0, 2, 20, 6.0f, 0);
+    buffer.reserveOpaqueDepth(0, 4.0f);
+    buffer.reserveOpaqueDepth(0, 5.0f);
+    assertEquals(4.0f, buffer.getOpaqueDepth(0), 0.0f);
+
+    // Adding the opaque fragment later should remove the one behind it.
+
+    allocator.addFragment(0, 3, 0, 4.0f, 0);
+    int f = buffer.getNextFragment(buffer.getFirstFragment(0));
+    assertEquals(3, buffer.getAdditiveColor(f));
+    assertEquals(FragmentBuffer.BACKGROUND, buffer.getNextFragment(f));
+  }
+
+  @Test
+  public void testMaterials()
+  {
+    FragmentBuffer buffer = new FragmentBuffer(1, 1);
+    FragmentBuffer.Allocator allocator = buffer.createAllocator();
+    ObjectMaterialInfo material = new ObjectMaterialInfo(null, null);
+    buffer.addMaterial(material);
+
+    // Where an object is exited and entered at the same depth, it should be entered first.
+
+    allocator.addFragment(0, 1, 10, 3.0f, FragmentBuffer.getMaterialCode(material, false));
+    allocator.addFragment(0, 2, 20, 3.0f, FragmentBuffer.getMaterialCode(material, true));
+    int f = buffer.getFirstFragment(0);
+    assertSame(material, buffer.getMaterialMapping(f));
+    assertTrue(buffer.isEntering(f));
+    f = buffer.getNextFragment(f);
+    assertSame(material, buffer.getMaterialMapping(f));
+    assertFalse(buffer.isEntering(f));
+    assertNull(buffer.getMaterialMapping(FragmentBuffer.BACKGROUND));
+  }
+}
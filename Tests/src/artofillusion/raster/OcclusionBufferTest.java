@@ -0,0 +1,49 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raster;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OcclusionBufferTest
+{
+  @Test
+  public void testHidden()
+  {
+    FragmentBuffer buffer = new FragmentBuffer(100, 80);
+    OcclusionBuffer occlusion = new OcclusionBuffer(buffer);
+    FragmentBuffer.Allocator allocator = buffer.createAllocator();
+    OcclusionBuffer.Updater updater = occlusion.createUpdater();
+    assertFalse(occlusion.isHidden(0, 0, 10, 10, 1.0f));
+
+    // Cover the left half of the image with opaque fragments.
+
+    for (int y = 0; y < 80; y++)
+    {
+      for (int x = 0; x < 50; x++)
+        allocator.addFragment(y*100+x, 1, 0, 5.0f, 0);
+      updater.rowChanged(y, 0, 49);
+    }
+    updater.update();
+    assertTrue(occlusion.isHidden(0, 0, 47, 79, 6.0f));
+    assertTrue(occlusion.isHidden(-10, -10, 20, 20, 6.0f));
+    assertFalse(occlusion.isHidden(0, 0, 47, 79, 4.0f));
+    assertFalse(occlusion.isHidden(40, 10, 60, 20, 6.0f));
+    assertFalse(occlusion.isHidden(70, 10, 90, 20, 6.0f));
+    assertFalse(occlusion.isHidden(200, 10, 300, 20, 6.0f));
+
+    // After resetting, nothing should be hidden.
+
+    buffer.reset();
+    occlusion.reset();
+    assertFalse(occlusion.isHidden(0, 0, 47, 79, 6.0f));
+  }
+}
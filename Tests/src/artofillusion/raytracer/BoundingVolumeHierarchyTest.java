@@ -0,0 +1,209 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+import artofillusion.texture.*;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+
+public class BoundingVolumeHierarchyTest
+{
+  private static Raytracer octreeRaytracer, bvhRaytracer;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception
+  {
+    // Create the same scene twice, once using an octree and once using a BVH.
+
+    Scene scene = new Scene();
+    Camera camera = new Camera();
+    camera.setCameraCoordinates(new CoordinateSystem(new Vec3(0.0, 0.0, 30.0), new Vec3(0.0, 0.0, -1.0), Vec3.vy()));
+    octreeRaytracer = new Raytracer(scene, camera);
+    bvhRaytracer = new Raytracer(scene, camera);
+    octreeRaytracer.setAdaptive(false);
+    bvhRaytracer.setAdaptive(false);
+    bvhRaytracer.setAccelerationStructure(Raytracer.ACCELERATION_BVH);
+    Texture tex = new UniformTexture();
+    Random random = new Random(0);
+    for (int i = 0; i < 500; i++)
+    {
+      // Use uneven density: most spheres are packed into one corner of the scene.
+
+      double scale = (i%5 == 0 ? 10.0 : 2.0);
+      Vec3 pos = new Vec3(random.nextDouble()*scale, random.nextDouble()*scale, random.nextDouble()*scale);
+      double radius = 0.05+0.2*random.nextDouble();
+      Sphere sphere = new Sphere(radius, radius, radius);
+      sphere.setTexture(tex, tex.getDefaultMapping(sphere));
+      ObjectInfo info = new ObjectInfo(sphere, new CoordinateSystem(pos, Vec3.vz(), Vec3.vy()), "Sphere "+i);
+      octreeRaytracer.addObject(info);
+      bvhRaytracer.addObject(info);
+    }
+    octreeRaytracer.finishConstruction();
+    bvhRaytracer.finishConstruction();
+  }
+
+  /**
+   * Make sure every object appears in the tree exactly once.
+   */
+  @Test
+  public void testObjects()
+  {
+    BoundingVolumeHierarchy bvh = bvhRaytracer.getBoundingVolumeHierarchy();
+    assertNotNull(bvh);
+    assertNull(octreeRaytracer.getBoundingVolumeHierarchy());
+    RTObject obj[] = bvh.getObjects();
+    assertEquals(bvhRaytracer.getObjects().length, obj.length);
+    assertEquals(obj.length, new HashSet<RTObject>(Arrays.asList(obj)).size());
+  }
+
+  /**
+   * Trace rays through both structures, and make sure they hit the same objects.
+   */
+  @Test
+  public void testTraceRay()
+  {
+    Random random = new Random(1);
+    for (int i = 0; i < 1000; i++)
+    {
+      Vec3 origin = new Vec3(random.nextDouble()-0.5, random.nextDouble()-0.5, random.nextDouble()-0.5);
+      origin.normalize();
+      origin.scale(20.0);
+      Vec3 target = new Vec3(random.nextDouble()*4.0, random.nextDouble()*4.0, random.nextDouble()*4.0);
+      Vec3 direction = target.minus(origin);
+      direction.normalize();
+      Raytracer.RayIntersection expected = octreeRaytracer.traceRay(origin, direction);
+      Raytracer.RayIntersection actual = bvhRaytracer.traceRay(origin, direction);
+      if (expected.getFirst() == SurfaceIntersection.NO_INTERSECTION)
+      {
+        assertSame(SurfaceIntersection.NO_INTERSECTION, actual.getFirst());
+        continue;
+      }
+      assertNotSame(SurfaceIntersection.NO_INTERSECTION, actual.getFirst());
+      assertEquals(expected.getDistance(), actual.getDistance(), 1e-10);
+      assertEquals(expected.getFirst().getObject().getIndex(), actual.getFirst().getObject().getIndex());
+    }
+  }
+
+  /**
+   * Make sure findObjectsAlongRay() finds every object whose bounding box the ray passes through.
+   */
+  @Test
+  public void testFindObjectsAlongRay()
+  {
+    BoundingVolumeHierarchy bvh = bvhRaytracer.getBoundingVolumeHierarchy();
+    Ray r = new Ray(bvhRaytracer.getContext());
+    Random random = new Random(2);
+    for (int i = 0; i < 1000; i++)
+    {
+      r.getOrigin().set(random.nextDouble()*10.0, random.nextDouble()*10.0, random.nextDouble()*10.0);
+      r.getDirection().set(random.nextDouble()-0.5, random.nextDouble()-0.5, random.nextDouble()-0.5);
+      r.getDirection().normalize();
+      Set<RTObject> found = new HashSet<RTObject>();
+      for (int count = bvh.findObjectsAlongRay(r, Double.MAX_VALUE); count > 0; count = bvh.findMoreObjectsAlongRay(r, Double.MAX_VALUE))
+        found.addAll(Arrays.asList(r.rt.rayObjects).subList(0, count));
+      for (RTObject obj : bvhRaytracer.getObjects())
+        if (r.intersects(obj.getBounds()))
+          assertTrue(found.contains(obj));
+    }
+  }
+
+  /**
+   * Large trees are built in parallel.  Make sure the result does not depend on how the work
+   * was scheduled.
+   */
+  @Test
+  public void testParallelBuildIsDeterministic()
+  {
+    RTObject sceneObj[] = bvhRaytracer.getObjects();
+    RTObject obj[] = new RTObject [20000];
+    BoundingBox bounds[] = new BoundingBox [obj.length];
+    Random random = new Random(3);
+    for (int i = 0; i < obj.length; i++)
+    {
+      obj[i] = sceneObj[i%sceneObj.length];
+      double x = random.nextDouble()*100.0, y = random.nextDouble()*100.0, z = random.nextDouble()*100.0;
+      bounds[i] = new BoundingBox(x, x+random.nextDouble(), y, y+random.nextDouble(), z, z+random.nextDouble());
+    }
+    BoundingVolumeHierarchy first = new BoundingVolumeHierarchy(obj, bounds);
+    for (int i = 0; i < 5; i++)
+    {
+      BoundingVolumeHierarchy next = new BoundingVolumeHierarchy(obj, bounds);
+      assertEquals(first.getNodeCount(), next.getNodeCount());
+      assertEquals(first.getMaxDepth(), next.getMaxDepth());
+      assertArrayEquals(first.getObjects(), next.getObjects());
+    }
+  }
+
+  /**
+   * Trace packets of coherent rays through a scene made of triangles and spheres, and make sure
+   * they find the same objects as tracing the rays one at a time.
+   */
+  @Test
+  public void testFindFirstIntersections()
+  {
+    Scene scene = new Scene();
+    Camera camera = new Camera();
+    camera.setCameraCoordinates(new CoordinateSystem(new Vec3(0.0, 0.0, 30.0), new Vec3(0.0, 0.0, -1.0), Vec3.vy()));
+    Raytracer raytracer = new Raytracer(scene, camera);
+    raytracer.setAdaptive(false);
+    raytracer.setAccelerationStructure(Raytracer.ACCELERATION_BVH);
+    Texture tex = new UniformTexture();
+    Random random = new Random(4);
+    for (int i = 0; i < 60; i++)
+    {
+      double radius = 0.2+0.5*random.nextDouble();
+      Object3D obj = new Sphere(radius, radius, radius);
+      if (i%2 == 0)
+        obj = obj.convertToTriangleMesh(0.05);
+      obj.setTexture(tex, tex.getDefaultMapping(obj));
+      Vec3 pos = new Vec3(random.nextDouble()*8.0-4.0, random.nextDouble()*8.0-4.0, random.nextDouble()*8.0-4.0);
+      raytracer.addObject(new ObjectInfo(obj, new CoordinateSystem(pos, Vec3.vz(), Vec3.vy()), "Object "+i));
+    }
+    raytracer.finishConstruction();
+    BoundingVolumeHierarchy bvh = raytracer.getBoundingVolumeHierarchy();
+    RayPacket packet = new RayPacket(raytracer.getContext());
+    Vec3 origin = new Vec3(), direction = new Vec3();
+    int numHit = 0;
+    for (int i = 0; i < 200; i++)
+    {
+      packet.clear();
+      double x = random.nextDouble()*8.0-4.0, y = random.nextDouble()*8.0-4.0;
+      origin.set(0.0, 0.0, 30.0);
+      for (int j = 0; j < RayPacket.MAX_SIZE; j++)
+      {
+        direction.set(x+0.1*random.nextDouble(), y+0.1*random.nextDouble(), -30.0);
+        direction.normalize();
+        packet.addRay(origin, direction);
+      }
+      bvh.findFirstIntersections(packet);
+      Ray r = new Ray(raytracer.getContext());
+      for (int j = 0; j < packet.getSize(); j++)
+      {
+        packet.getRay(j, r);
+        Raytracer.RayIntersection expected = raytracer.traceRay(r.getOrigin(), r.getDirection());
+        if (expected.getFirst() == SurfaceIntersection.NO_INTERSECTION)
+        {
+          assertNull(packet.getFirstObject(j));
+          continue;
+        }
+        assertEquals(expected.getFirst().getObject().getIndex(), packet.getFirstObject(j).getIndex());
+        assertEquals(expected.getDistance(), packet.getFirstDistance(j), 0.0);
+        numHit++;
+      }
+    }
+    assertTrue(numHit > 0);
+  }
+}
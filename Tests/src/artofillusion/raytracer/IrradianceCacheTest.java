@@ -0,0 +1,68 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.math.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IrradianceCacheTest
+{
+  @Test
+  public void testLookup()
+  {
+    IrradianceCache cache = new IrradianceCache(new BoundingBox(-10.0, 10.0, -10.0, 10.0, -10.0, 10.0), 0.2);
+    Vec3 up = new Vec3(0.0, 1.0, 0.0);
+    RGBColor result = new RGBColor();
+    assertFalse(cache.getIrradiance(new Vec3(), up, result));
+    cache.addRecord(new Vec3(), up, new RGBColor(0.5f, 0.25f, 1.0f), null, 1.0);
+
+    // Points close to the record should find it.
+
+    assertTrue(cache.getIrradiance(new Vec3(0.05, 0.0, 0.0), up, result));
+    assertEquals(0.5f, result.getRed(), 1e-6f);
+    assertEquals(0.25f, result.getGreen(), 1e-6f);
+    assertEquals(1.0f, result.getBlue(), 1e-6f);
+
+    // Points that are too far away, or facing a different direction, should not.
+
+    assertFalse(cache.getIrradiance(new Vec3(0.5, 0.0, 0.0), up, result));
+    assertFalse(cache.getIrradiance(new Vec3(0.05, 0.0, 0.0), new Vec3(1.0, 0.0, 0.0), result));
+    assertFalse(cache.getIrradiance(new Vec3(0.05, 0.0, 0.0), new Vec3(0.0, -1.0, 0.0), result));
+    assertEquals(1, cache.getHits());
+    assertEquals(4, cache.getMisses());
+  }
+
+  @Test
+  public void testInterpolation()
+  {
+    // Add many small records, so they are stored deep in the tree, and make sure a point between two of
+    // them gets a value between theirs.
+
+    IrradianceCache cache = new IrradianceCache(new BoundingBox(-10.0, 10.0, -10.0, 10.0, -10.0, 10.0), 0.2);
+    Vec3 up = new Vec3(0.0, 1.0, 0.0);
+    for (int i = -50; i <= 50; i++)
+      cache.addRecord(new Vec3(i*0.1, 0.0, 0.0), up, new RGBColor(i+50, 0.0f, 0.0f), null, 0.5);
+    RGBColor result = new RGBColor();
+    assertTrue(cache.getIrradiance(new Vec3(0.25, 0.0, 0.0), up, result));
+    assertEquals(52.5f, result.getRed(), 1e-4f);
+
+    // The rotational gradient should be used to correct for a change in the normal.
+
+    cache = new IrradianceCache(new BoundingBox(-10.0, 10.0, -10.0, 10.0, -10.0, 10.0), 0.5);
+    Vec3 gradient[] = new Vec3[] {new Vec3(0.0, 0.0, 1.0), new Vec3(), new Vec3()};
+    cache.addRecord(new Vec3(), up, new RGBColor(1.0f, 0.0f, 0.0f), gradient, 1.0);
+    Vec3 tilted = new Vec3(-0.1, 1.0, 0.0);
+    tilted.normalize();
+    assertTrue(cache.getIrradiance(new Vec3(), tilted, result));
+    assertEquals(1.0+up.cross(tilted).z, result.getRed(), 1e-6);
+  }
+}
@@ -0,0 +1,82 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+import artofillusion.procedural.*;
+import artofillusion.texture.*;
+import java.awt.*;
+import java.io.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PhotonMapCacheTest
+{
+  @Test
+  public void testCameraAndTimeIgnored()
+  {
+    Scene scene = createScene();
+    ObjectInfo camera = new ObjectInfo(new SceneCamera(), new CoordinateSystem(new Vec3(0.0, 0.0, 10.0), new Vec3(0.0, 0.0, -1.0), Vec3.vy()), "Camera");
+    scene.addObject(camera, null);
+    RaytracerRenderer renderer = new RaytracerRenderer();
+    File key = getKey(scene, renderer);
+    assertNotNull(key);
+
+    // Moving the camera or changing the time should not affect the key.
+
+    camera.getCoords().setOrigin(new Vec3(5.0, 2.0, 3.0));
+    assertEquals(key, getKey(scene, renderer));
+    scene.setTime(1.5);
+    assertEquals(key, getKey(scene, renderer));
+
+    // Changing a setting used for tracing photons should.
+
+    renderer.smoothScale = 0.01;
+    assertNotEquals(key, getKey(scene, renderer));
+  }
+
+  @Test
+  public void testTimeDependentTexture()
+  {
+    Scene scene = createScene();
+    ProceduralTexture2D tex = new ProceduralTexture2D();
+    tex.setName("Animated");
+    Procedure proc = tex.getProcedure();
+    CoordinateModule time = new CoordinateModule(new Point(), CoordinateModule.T);
+    proc.addModule(time);
+    proc.addLink(new Link(time.getOutputPorts()[0], proc.getOutputModules()[7].getInputPorts()[0]));
+    scene.addTexture(tex);
+    RaytracerRenderer renderer = new RaytracerRenderer();
+    File key = getKey(scene, renderer);
+    assertNotNull(key);
+    scene.setTime(1.5);
+    assertNotEquals(key, getKey(scene, renderer));
+  }
+
+  private Scene createScene()
+  {
+    Scene scene = new Scene();
+    ObjectInfo sphere = new ObjectInfo(new Sphere(1.0, 1.0, 1.0), new CoordinateSystem(), "Sphere");
+    sphere.setTexture(scene.getDefaultTexture(), scene.getDefaultTexture().getDefaultMapping(sphere.getObject()));
+    scene.addObject(sphere, null);
+    scene.addObject(new PointLight(new RGBColor(1.0f, 1.0f, 1.0f), 1.0f, 0.1), new CoordinateSystem(new Vec3(0.0, 5.0, 0.0), Vec3.vz(), Vec3.vy()), "Light", null);
+    return scene;
+  }
+
+  private File getKey(Scene scene, RaytracerRenderer renderer)
+  {
+    PhotonMapCache cache = new PhotonMapCache(scene, 0.02, new File("photonmaps"), PhotonMapCache.DEFAULT_MAX_FILES);
+    PhotonMap map = new PhotonMap(1000, 50, false, true, true, false, null, renderer, new BoundingBox(-1.0, 1.0, -1.0, 1.0, -1.0, 1.0), 1, null);
+    return cache.getFile(map);
+  }
+}
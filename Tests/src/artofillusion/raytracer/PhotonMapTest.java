@@ -0,0 +1,157 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.math.*;
+import java.io.*;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PhotonMapTest
+{
+  @Test
+  public void testBuildTree()
+  {
+    // Use enough photons that the upper levels of the tree are built in parallel.  Each photon is
+    // given a unique color so it can be identified.
+
+    Random random = new Random(0);
+    int count = 100000;
+    float pos[] = new float [3*count];
+    int color[] = new int [count];
+    short dir[] = new short [count];
+    for (int i = 0; i < count; i++)
+    {
+      pos[3*i] = (float) (random.nextDouble()*10.0);
+      pos[3*i+1] = (float) (random.nextDouble()*2.0);
+      pos[3*i+2] = (float) random.nextDouble();
+      color[i] = i;
+      dir[i] = PhotonMap.packDirection(new Vec3(0.0, 1.0, 0.0));
+    }
+    float originalPos[] = pos.clone();
+    PhotonMap map = new PhotonMap(count, 50, false, true, true, false, null, null, null, 0, null);
+    map.buildTree(pos, color, dir);
+
+    // Every photon should appear exactly once, with its original position.
+
+    assertEquals(count, map.getNumPhotons());
+    boolean found[] = new boolean [count];
+    for (int i = 0; i < count; i++)
+    {
+      int id = map.getPhotonColor(i);
+      assertFalse(found[id]);
+      found[id] = true;
+      for (int axis = 0; axis < 3; axis++)
+        assertEquals(originalPos[3*id+axis], map.getPhotonPosition(i, axis), 0.0f);
+    }
+
+    // Every node should split its subtree along its axis.
+
+    for (int i = 0; i < count; i++)
+    {
+      int axis = map.getPhotonAxis(i);
+      float split = map.getPhotonPosition(i, axis);
+      checkSubtree(map, 2*i+1, axis, split, true);
+      checkSubtree(map, 2*i+2, axis, split, false);
+    }
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException
+  {
+    Random random = new Random(0);
+    int count = 1000;
+    float pos[] = new float [3*count];
+    int color[] = new int [count];
+    short dir[] = new short [count];
+    for (int i = 0; i < count; i++)
+    {
+      for (int j = 0; j < 3; j++)
+        pos[3*i+j] = random.nextFloat();
+      color[i] = random.nextInt();
+      dir[i] = (short) random.nextInt();
+    }
+    PhotonMap map = new PhotonMap(count, 50, false, true, true, false, null, null, null, 0, null);
+    map.buildTree(pos, color, dir);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    map.writePhotons(new DataOutputStream(bytes));
+    PhotonMap copy = new PhotonMap(count, 50, false, true, true, false, null, null, null, 0, null);
+    copy.readPhotons(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(count, copy.getNumPhotons());
+    for (int i = 0; i < count; i++)
+    {
+      assertEquals(map.getPhotonColor(i), copy.getPhotonColor(i));
+      assertEquals(map.getPhotonAxis(i), copy.getPhotonAxis(i));
+      for (int axis = 0; axis < 3; axis++)
+        assertEquals(map.getPhotonPosition(i, axis), copy.getPhotonPosition(i, axis), 0.0f);
+    }
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testDeprecatedPhotonApi()
+  {
+    // A PhotonList filled with Photon objects should keep the nearest ones, paired with their distances.
+    // As in PhotonMap, photons are only added if they are closer than the farthest one in a full list.
+
+    PhotonList list = new PhotonList(5);
+    list.init(Float.MAX_VALUE);
+    Photon photons[] = new Photon [20];
+    for (int i = 0; i < photons.length; i++)
+    {
+      photons[i] = new Photon(new Vec3(i, 0.0, 0.0), new Vec3(0.0, 1.0, 0.0), new RGBColor());
+      float d = (float) ((i*7)%20);
+      if (list.numFound < 5 || d < list.dist2[0])
+        list.addPhoton(photons[i], d);
+    }
+    assertEquals(5, list.numFound);
+    for (int i = 0; i < 5; i++)
+    {
+      assertTrue(list.dist2[i] < 5.0f);
+      assertEquals(-1, list.index[i]);
+      assertEquals((list.photon[i].x*7)%20, list.dist2[i], 0.0f);
+    }
+
+    // getPhoton() should copy the packed data.
+
+    float pos[] = new float [] {1.0f, 2.0f, 3.0f};
+    short dir = PhotonMap.packDirection(new Vec3(1.0, 0.0, 0.0));
+    PhotonMap map = new PhotonMap(1, 1, false, true, true, false, null, null, null, 0, null);
+    map.buildTree(pos, new int [] {12345}, new short [] {dir});
+    Photon p = map.getPhoton(0);
+    assertEquals(1.0f, p.x, 0.0f);
+    assertEquals(2.0f, p.y, 0.0f);
+    assertEquals(3.0f, p.z, 0.0f);
+    assertEquals(12345, p.ergb);
+    assertEquals(dir, p.direction);
+  }
+
+  private void checkSubtree(PhotonMap map, int root, int axis, float split, boolean below)
+  {
+    // Walk the subtree iteratively, since it may be very deep for the upper levels.
+
+    int level = root, count = 1;
+    while (level < map.getNumPhotons())
+    {
+      for (int i = level; i < level+count && i < map.getNumPhotons(); i++)
+      {
+        float pos = map.getPhotonPosition(i, axis);
+        if (below)
+          assertTrue(pos <= split);
+        else
+          assertTrue(pos >= split);
+      }
+      level = 2*level+1;
+      count *= 2;
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RenderStatisticsTest
+{
+  @Test
+  public void testAdd()
+  {
+    RenderStatistics total = new RenderStatistics();
+    for (int i = 1; i <= 3; i++)
+    {
+      RenderStatistics stats = new RenderStatistics();
+      stats.eyeRays = i;
+      stats.shadowRays = 2*i;
+      stats.intersectionTests = 9*i;
+      total.add(stats);
+    }
+    assertEquals(6, total.eyeRays);
+    assertEquals(12, total.shadowRays);
+    assertEquals(18, total.getTotalRays());
+    Map<String, Number> values = total.getValues();
+    assertEquals(6L, values.get("eyeRays"));
+    assertEquals(54L, values.get("intersectionTests"));
+    assertEquals(3.0, values.get("intersectionTestsPerRay").doubleValue(), 0.0);
+    assertEquals("eyeRays", values.keySet().iterator().next());
+  }
+
+  @Test
+  public void testTextureCacheValues()
+  {
+    RenderStatistics stats = new RenderStatistics();
+    stats.textureCacheHits = 3;
+    stats.textureCacheMisses = 1;
+    assertFalse(stats.getValues().containsKey("textureCacheHits"));
+    stats.textureCacheEnabled = true;
+    Map<String, Number> values = stats.getValues();
+    assertEquals(3L, values.get("textureCacheHits"));
+    assertEquals(1L, values.get("textureCacheMisses"));
+    assertEquals(0.75, values.get("textureCacheHitRate").doubleValue(), 0.0);
+
+    // Every value should have a label.
+
+    ResourceBundle labels = ResourceBundle.getBundle("artofillusion", Locale.US);
+    for (String key : values.keySet())
+      assertTrue(key, labels.containsKey("renderStatistic."+key));
+  }
+}
@@ -0,0 +1,113 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.object.*;
+import artofillusion.math.*;
+import artofillusion.texture.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TextureSpecCacheTest
+{
+  @Test
+  public void testFind()
+  {
+    TextureSpecCache cache = new TextureSpecCache(4);
+    RTObject obj1 = createSphere(), obj2 = createSphere();
+    TextureSpec spec = new TextureSpec(), found = new TextureSpec();
+    spec.diffuse.setRGB(0.5f, 0.25f, 1.0f);
+    spec.roughness = 0.3;
+    spec.bumpGrad.set(0.1, 0.2, 0.3);
+    Vec3 pos = new Vec3(1.01, 2.01, 3.01);
+    assertFalse(cache.find(obj1, pos, 0.1, 0.0, -0.4, found));
+    cache.add(spec);
+
+    // A nearby point should match, and get a copy of the properties.
+
+    assertTrue(cache.find(obj1, new Vec3(1.012, 2.011, 3.013), 0.11, 0.0, -0.42, found));
+    assertEquals(spec.diffuse, found.diffuse);
+    assertEquals(0.3, found.roughness, 0.0);
+    assertEquals(spec.bumpGrad, found.bumpGrad);
+    assertNotSame(spec.diffuse, found.diffuse);
+
+    // Points which differ in object, position, size, time, or view direction should not.
+
+    assertFalse(cache.find(obj2, pos, 0.1, 0.0, -0.4, found));
+    assertFalse(cache.find(obj1, new Vec3(1.1, 2.01, 3.01), 0.1, 0.0, -0.4, found));
+    assertFalse(cache.find(obj1, pos, 0.3, 0.0, -0.4, found));
+    assertFalse(cache.find(obj1, pos, 0.1, 1.0, -0.4, found));
+    assertFalse(cache.find(obj1, pos, 0.1, 0.0, 0.5, found));
+
+    // A size of zero disables caching.
+
+    assertFalse(cache.find(obj1, pos, 0.0, 0.0, -0.4, found));
+    cache.add(spec);
+    assertFalse(cache.find(obj1, pos, 0.0, 0.0, -0.4, found));
+  }
+
+  @Test
+  public void testLeastRecentlyUsed()
+  {
+    TextureSpecCache cache = new TextureSpecCache(3);
+    RTObject obj = createSphere();
+    TextureSpec spec = new TextureSpec();
+    for (int i = 0; i < 3; i++)
+    {
+      assertFalse(cache.find(obj, new Vec3(i, 0.0, 0.0), 0.1, 0.0, -1.0, spec));
+      cache.add(spec);
+    }
+
+    // Use point 0 so that point 1 is the least recently used, then add a fourth point.
+
+    assertTrue(cache.find(obj, new Vec3(0.0, 0.0, 0.0), 0.1, 0.0, -1.0, spec));
+    assertFalse(cache.find(obj, new Vec3(3.0, 0.0, 0.0), 0.1, 0.0, -1.0, spec));
+    cache.add(spec);
+    assertTrue(cache.find(obj, new Vec3(0.0, 0.0, 0.0), 0.1, 0.0, -1.0, spec));
+    assertFalse(cache.find(obj, new Vec3(1.0, 0.0, 0.0), 0.1, 0.0, -1.0, spec));
+    assertTrue(cache.find(obj, new Vec3(2.0, 0.0, 0.0), 0.1, 0.0, -1.0, spec));
+    assertTrue(cache.find(obj, new Vec3(3.0, 0.0, 0.0), 0.1, 0.0, -1.0, spec));
+    cache.clear();
+    assertFalse(cache.find(obj, new Vec3(3.0, 0.0, 0.0), 0.1, 0.0, -1.0, spec));
+  }
+
+  @Test
+  public void testShadingNormal()
+  {
+    // Properties found at one point can be reused at a nearby one, but the normal should still be
+    // the one at the second point.
+
+    RTObject sphere = createSphere();
+    TextureSpec spec = new TextureSpec(), other = new TextureSpec();
+    Vec3 normal1 = new Vec3(), normal2 = new Vec3(), shading = new Vec3();
+    Ray r = new Ray(null);
+    r.getOrigin().set(0.1, 0.0, -5.0);
+    r.getDirection().set(0.0, 0.0, 1.0);
+    SurfaceIntersection hit1 = sphere.checkIntersection(r);
+    hit1.intersectionProperties(spec, normal1, r.getDirection(), 0.01, 0.0);
+    r.getOrigin().set(0.12, 0.0, -5.0);
+    SurfaceIntersection hit2 = sphere.checkIntersection(r);
+    hit2.intersectionProperties(other, normal2, r.getDirection(), 0.01, 0.0);
+    assertTrue(hit2.shadingNormal(spec, shading));
+    assertEquals(normal2.x, shading.x, 1e-12);
+    assertEquals(normal2.y, shading.y, 1e-12);
+    assertEquals(normal2.z, shading.z, 1e-12);
+    assertTrue(normal1.distance(shading) > 1e-3);
+  }
+
+  private static RTObject createSphere()
+  {
+    Sphere sphere = new Sphere(0.5, 0.5, 0.5);
+    Texture tex = new UniformTexture();
+    sphere.setTexture(tex, tex.getDefaultMapping(sphere));
+    return new RTSphere(sphere, Mat4.identity(), Mat4.identity(), new double[0]);
+  }
+}
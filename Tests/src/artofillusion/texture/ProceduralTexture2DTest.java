@@ -0,0 +1,211 @@
+/* Copyright (C) 2026 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.texture;
+
+import artofillusion.*;
+import artofillusion.image.*;
+import artofillusion.math.*;
+import artofillusion.procedural.*;
+import artofillusion.procedural.Module;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+
+public class ProceduralTexture2DTest
+{
+  @Test
+  public void testBake() throws Exception
+  {
+    // The diffuse color is (x, y, 0), the emissive color is (x+y, x+y, x+y), the roughness is x,
+    // and the bump height is x+y.
+
+    ProceduralTexture2D tex = new ProceduralTexture2D();
+    Procedure proc = tex.getProcedure();
+    OutputModule output[] = proc.getOutputModules();
+    Module x = add(proc, new CoordinateModule(new Point(), CoordinateModule.X));
+    Module y = add(proc, new CoordinateModule(new Point(), CoordinateModule.Y));
+    Module sum = add(proc, new SumModule(new Point()));
+    Module diffuse = add(proc, new RGBModule(new Point()));
+    Module emissive = add(proc, new RGBModule(new Point()));
+    link(proc, x, sum, 0);
+    link(proc, y, sum, 1);
+    link(proc, x, diffuse, 0);
+    link(proc, y, diffuse, 1);
+    for (int i = 0; i < 3; i++)
+      link(proc, sum, emissive, i);
+    link(proc, diffuse, output[0], 0);
+    link(proc, emissive, output[3], 0);
+    link(proc, x, output[7], 0);
+    link(proc, sum, output[9], 0);
+    assertTrue(tex.canBake());
+    assertNull(tex.getBakedTexture());
+
+    // Evaluate it at random points, then bake it and compare.
+
+    Random random = new Random(0);
+    int count = 100, size = 32;
+    double u[] = new double [count], v[] = new double [count];
+    TextureSpec expected[] = new TextureSpec [count];
+    for (int i = 0; i < count; i++)
+    {
+      u[i] = random.nextDouble()*(size-1)/size;
+      v[i] = 1.0/size+random.nextDouble()*(size-1)/size;
+      expected[i] = new TextureSpec();
+      tex.getTextureSpec(expected[i], u[i], v[i], 0.0, 0.0, 1.0, 0.0, null);
+    }
+    ImageMapTexture baked = tex.bake(0.0, 1.0, 0.0, 1.0, size, size);
+    assertSame(baked, tex.getBakedTexture());
+    assertTrue(baked.diffuseColor.getImage() instanceof MIPMappedImage);
+    assertTrue(baked.emissiveColor.getImage() instanceof HDRImage);
+    assertNull(baked.specularColor.getImage());
+    assertNull(baked.transparency.getImage());
+    assertNotNull(baked.roughness.getImage());
+    assertNotNull(baked.bump.getImage());
+    TextureSpec spec = new TextureSpec();
+    for (int i = 0; i < count; i++)
+    {
+      tex.getTextureSpec(spec, u[i], v[i], 0.0, 0.0, 1.0, 0.0, null);
+      assertEquals(expected[i].diffuse.getRed(), spec.diffuse.getRed(), 0.01);
+      assertEquals(expected[i].diffuse.getGreen(), spec.diffuse.getGreen(), 0.01);
+      assertEquals(expected[i].diffuse.getBlue(), spec.diffuse.getBlue(), 0.01);
+      assertEquals(expected[i].emissive.getRed(), spec.emissive.getRed(), 0.02);
+      assertEquals(expected[i].emissive.getBlue(), spec.emissive.getBlue(), 0.02);
+      assertEquals(expected[i].specular, spec.specular);
+      assertEquals(expected[i].roughness, spec.roughness, 0.01);
+      assertEquals(expected[i].bumpGrad.x, spec.bumpGrad.x, 0.3*expected[i].bumpGrad.x);
+      assertEquals(expected[i].bumpGrad.y, spec.bumpGrad.y, 0.3*expected[i].bumpGrad.y);
+    }
+
+    // Points outside the baked region should still use the procedure.
+
+    tex.getTextureSpec(spec, 2.5, 0.5, 0.0, 0.0, 1.0, 0.0, null);
+    assertEquals(2.5, spec.diffuse.getRed(), 1e-6);
+    tex.clearBake();
+    assertNull(tex.getBakedTexture());
+  }
+
+  @Test
+  public void testBakeOnUse() throws Exception
+  {
+    ProceduralTexture2D tex = new ProceduralTexture2D();
+    Procedure proc = tex.getProcedure();
+    Module x = add(proc, new CoordinateModule(new Point(), CoordinateModule.X));
+    link(proc, x, proc.getOutputModules()[7], 0);
+    tex.setBakeSettings(true, 0.0, 2.0, 0.0, 1.0, 16, 8);
+    assertNull(tex.getBakedTexture());
+    TextureSpec spec = new TextureSpec();
+    tex.getTextureSpec(spec, 0.5, 0.5, 0.0, 0.0, 1.0, 0.0, null);
+    ImageMapTexture baked = tex.getBakedTexture();
+    assertNotNull(baked);
+    assertEquals(16, baked.roughness.getImage().getWidth());
+    assertEquals(8, baked.roughness.getImage().getHeight());
+    assertEquals(0.5, spec.roughness, 0.05);
+
+    // Changing the settings should discard the images, and they should be baked again when it is next used.
+
+    tex.setBakeSettings(true, 0.0, 2.0, 0.0, 1.0, 16, 8);
+    assertNull(tex.getBakedTexture());
+    tex.getTextureSpec(spec, 0.5, 0.5, 0.0, 0.0, 1.0, 0.0, null);
+    assertNotNull(tex.getBakedTexture());
+    assertNotSame(baked, tex.getBakedTexture());
+
+    // A texture that cannot be baked should just use the procedure.
+
+    add(proc, new CoordinateModule(new Point(), CoordinateModule.T));
+    tex.setBakeSettings(true, 0.0, 2.0, 0.0, 1.0, 16, 8);
+    tex.getTextureSpec(spec, 0.5, 0.5, 0.0, 0.0, 1.0, 0.0, null);
+    assertNull(tex.getBakedTexture());
+  }
+
+  @Test
+  public void testWriteBakeSettings() throws Exception
+  {
+    Scene scene = new Scene();
+    ProceduralTexture2D tex = new ProceduralTexture2D();
+    tex.setName("Baked");
+    assertEquals(1, write(tex, scene).readShort());
+    tex.setBakeSettings(true, -1.0, 3.0, 0.5, 2.0, 256, 128);
+    ProceduralTexture2D tex2 = new ProceduralTexture2D(write(tex, scene), scene);
+    assertTrue(tex2.isBakeEnabled());
+    assertEquals(256, tex2.getBakeWidth());
+    assertEquals(128, tex2.getBakeHeight());
+    assertArrayEquals(new double [] {-1.0, 3.0, 0.5, 2.0}, tex2.getBakeRegion(), 0.0);
+    tex.setBakeSettings(false, -1.0, 3.0, 0.5, 2.0, 256, 128);
+    tex2 = new ProceduralTexture2D(write(tex, scene), scene);
+    assertFalse(tex2.isBakeEnabled());
+    assertEquals(1024, tex2.getBakeWidth());
+  }
+
+  private DataInputStream write(ProceduralTexture2D tex, Scene scene) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    tex.writeToFile(new DataOutputStream(bytes), scene);
+    return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+  }
+
+  @Test
+  public void testCanBake()
+  {
+    ProceduralTexture2D tex = new ProceduralTexture2D();
+    assertTrue(tex.canBake());
+    Procedure proc = tex.getProcedure();
+    Module time = add(proc, new CoordinateModule(new Point(), CoordinateModule.T));
+    assertFalse(tex.canBake());
+    proc.deleteModule(proc.getModuleIndex(time));
+    assertTrue(tex.canBake());
+    add(proc, new ViewAngleModule(new Point()));
+    assertFalse(tex.canBake());
+  }
+
+  @Test
+  public void testCanBakeExpression()
+  {
+    // An expression module creates its own time module when its expression uses t.
+
+    ProceduralTexture2D tex = new ProceduralTexture2D();
+    Procedure proc = tex.getProcedure();
+    ExprModule expr = new ExprModule(new Point());
+    expr.setExpr("x*y");
+    link(proc, add(proc, expr), proc.getOutputModules()[7], 0);
+    assertTrue(tex.canBake());
+    assertFalse(proc.dependsOnTime());
+    expr.setExpr("sin(x+t)");
+    assertFalse(tex.canBake());
+    assertTrue(proc.dependsOnTime());
+
+    // Automatic baking should then be skipped.
+
+    tex.setBakeSettings(true, 0.0, 1.0, 0.0, 1.0, 8, 8);
+    tex.getTextureSpec(new TextureSpec(), 0.5, 0.5, 0.0, 0.0, 1.0, 0.0, null);
+    assertNull(tex.getBakedTexture());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testBakeTimeDependent() throws Exception
+  {
+    ProceduralTexture2D tex = new ProceduralTexture2D();
+    add(tex.getProcedure(), new CoordinateModule(new Point(), CoordinateModule.T));
+    tex.bake(0.0, 1.0, 0.0, 1.0, 8, 8);
+  }
+
+  private Module add(Procedure proc, Module module)
+  {
+    proc.addModule(module);
+    return module;
+  }
+
+  private void link(Procedure proc, Module from, Module to, int toPort)
+  {
+    proc.addLink(new Link(from.getOutputPorts()[0], to.getInputPorts()[toPort]));
+  }
+}
@@ -15,6 +15,8 @@ import static org.junit.Assert.*;
 import org.junit.Test;
 
 
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
 
 
@@ -87,4 +89,197 @@ public class TestThreadManager
       assertTrue(errorCount.get() < Runtime.getRuntime().availableProcessors());
     }
   }
+
+  @Test
+  public void testException()
+  {
+    final AtomicInteger executed = new AtomicInteger();
+    ThreadManager tm = new ThreadManager(1000, new ThreadManager.Task()
+    {
+      @Override
+      public void execute(int index)
+      {
+        executed.incrementAndGet();
+        if (index == 10)
+          throw new IllegalStateException("index "+index);
+      }
+      @Override
+      public void cleanup()
+      {
+      }
+    });
+    try
+    {
+      tm.run();
+      fail("The exception was not propagated");
+    }
+    catch (IllegalStateException ex)
+    {
+      assertEquals("index 10", ex.getMessage());
+    }
+    assertTrue(executed.get() < 1000);
+
+    // The ThreadManager should still be usable afterward.
+
+    executed.set(0);
+    tm.setNumIndices(5);
+    tm.setTask(new ThreadManager.Task()
+    {
+      @Override
+      public void execute(int index)
+      {
+        executed.incrementAndGet();
+      }
+      @Override
+      public void cleanup()
+      {
+      }
+    });
+    tm.run();
+    assertEquals(5, executed.get());
+    tm.finish();
+  }
+
+  @Test
+  public void testCleanup()
+  {
+    final ThreadLocal<AtomicInteger> count = ThreadLocal.withInitial(AtomicInteger::new);
+    final AtomicInteger executed = new AtomicInteger(), cleanedUp = new AtomicInteger();
+    ThreadManager tm = new ThreadManager(1000, new ThreadManager.Task()
+    {
+      @Override
+      public void execute(int index)
+      {
+        count.get().incrementAndGet();
+      }
+      @Override
+      public void cleanup()
+      {
+        executed.addAndGet(count.get().get());
+        cleanedUp.incrementAndGet();
+        count.remove();
+      }
+    });
+    for (int repeat = 0; repeat < 10; repeat++)
+    {
+      executed.set(0);
+      cleanedUp.set(0);
+      tm.run();
+      assertEquals(1000, executed.get());
+      assertTrue(cleanedUp.get() >= 1);
+      assertTrue(cleanedUp.get() <= ThreadManager.getParallelism());
+    }
+    tm.finish();
+  }
+
+  @Test
+  public void testNestedRun()
+  {
+    // A run started from inside a task should be executed on the thread that started it, so the
+    // outer task is never executed again on a thread which is still in the middle of executing it.
+
+    final ThreadLocal<Boolean> busy = ThreadLocal.withInitial(() -> false);
+    final AtomicBoolean reentered = new AtomicBoolean(), otherThread = new AtomicBoolean();
+    final AtomicInteger executed = new AtomicInteger();
+    ThreadManager outer = new ThreadManager(8, new ThreadManager.Task()
+    {
+      @Override
+      public void execute(int index)
+      {
+        if (busy.get())
+          reentered.set(true);
+        busy.set(true);
+        final Thread outerThread = Thread.currentThread();
+        ThreadManager inner = new ThreadManager(20, new ThreadManager.Task()
+        {
+          @Override
+          public void execute(int index)
+          {
+            if (Thread.currentThread() != outerThread)
+              otherThread.set(true);
+            executed.incrementAndGet();
+            try
+            {
+              Thread.sleep(1);
+            }
+            catch (InterruptedException ex)
+            {
+            }
+          }
+          @Override
+          public void cleanup()
+          {
+          }
+        });
+        inner.run();
+        inner.finish();
+        busy.set(false);
+      }
+      @Override
+      public void cleanup()
+      {
+        if (busy.get())
+          reentered.set(true);
+        busy.remove();
+      }
+    });
+    ThreadManager.setParallelism(4);
+    try
+    {
+      outer.run();
+    }
+    finally
+    {
+      ThreadManager.setParallelism(0);
+    }
+    outer.finish();
+    assertFalse(reentered.get());
+    assertFalse(otherThread.get());
+    assertEquals(160, executed.get());
+  }
+
+  @Test
+  public void testRunFromOtherPool() throws Exception
+  {
+    // A thread belonging to a different ForkJoinPool is not a nested run, so the task should
+    // still be spread over the shared pool's worker threads.
+
+    final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    final ThreadManager manager = new ThreadManager(40, new ThreadManager.Task()
+    {
+      @Override
+      public void execute(int index)
+      {
+        threads.add(Thread.currentThread());
+        try
+        {
+          Thread.sleep(5);
+        }
+        catch (InterruptedException ex)
+        {
+        }
+      }
+      @Override
+      public void cleanup()
+      {
+      }
+    });
+    ForkJoinPool other = new ForkJoinPool(1);
+    ThreadManager.setParallelism(4);
+    try
+    {
+      Thread caller = other.submit(() -> {
+        manager.run();
+        return Thread.currentThread();
+      }).get();
+      assertFalse(threads.contains(caller));
+      assertTrue(threads.size() > 1);
+    }
+    finally
+    {
+      ThreadManager.setParallelism(0);
+      other.shutdown();
+    }
+    manager.finish();
+  }
 }